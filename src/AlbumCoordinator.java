@@ -0,0 +1,399 @@
+import java.io.*;
+import java.net.*;
+import java.util.Vector;
+import titech.file.ThumbPack;
+
+/**
+ *  Builds an album with several worker processes.
+ *  The file list is split in contiguous shards, one per worker. Every worker
+ *  is a separate JVM (see AlbumWorker) that connects back through a socket and
+ *  asks for images one by one. When a worker runs out of its own shard, it
+ *  steals images from the tail of the biggest remaining shard, so slow workers
+ *  don't delay the whole build.
+ *
+ *  Protocol (one line per message):
+ *  <pre>
+ *  coordinator -> worker:  OPTIONS resize width height ccorrect thumbs
+ *                          TASK index path
+ *                          QUIT
+ *  worker -> coordinator:  DONE index
+ *                          FAIL index message       (in one line)
+ *  </pre>
+ *  Workers only touch the image files, so when the build finishes the
+ *  coordinator writes the HTML with AlbumFormat.save as usual. A new version
+ *  of an image replaces it at once, when it is complete, so an image is
+ *  never half written. The images whose worker died or hung are redone at
+ *  the end only if the worker didn't replace them already: color correction
+ *  done twice would show.
+ *  Workers can also be started by hand in other machines sharing the same
+ *  filesystem: "java AlbumWorker host port".
+ *
+ * @author     Owner
+ * @created    2008/02/12
+ */
+public class AlbumCoordinator {
+
+	/** Seconds to wait for the workers to connect */
+	public static final int CONNECT_TIMEOUT=60;
+	/** Seconds to wait for a worker to process an image */
+	public static final int TASK_TIMEOUT=600;
+	/** Seconds to wait for a worker to exit after QUIT */
+	public static final int EXIT_TIMEOUT=30;
+
+	File[] names;
+	int nworkers;
+	boolean resize, ccorrect, thumbs;
+	int width, height;
+	/** Address where the workers connect to */
+	String host = "127.0.0.1";
+	/** If false, don't launch the worker processes but wait for them */
+	boolean spawn = true;
+
+	/** Shard i is names[lo[i]..hi[i]-1]. */
+	int[] lo, hi;
+	/** 0 pending, 1 done, -1 failed, 2 sent to a worker */
+	int[] status;
+	/** The modification time and length of the images sent, then */
+	String[] sent;
+	Vector errors = new Vector();
+
+	/**
+	 * Constructor for the AlbumCoordinator object
+	 *
+	 * @param  names     The images of the album.
+	 * @param  nworkers  Number of worker processes.
+	 */
+	public AlbumCoordinator(File[] names, int nworkers) {
+		this.names = names;
+		this.nworkers = Math.max(1, Math.min(nworkers, names.length));
+	}
+
+	/** Resize and overwrite the images, as AlbumFormat.resizeImages */
+	public void setResize(boolean resize, int x, int y) {
+		this.resize = resize;
+		width = x;
+		height = y;
+	}
+
+	/** Color correct and overwrite the images, as AlbumFormat.correctColor */
+	public void setColorCorrect(boolean ccorrect) {
+		this.ccorrect = ccorrect;
+	}
+
+	/** Generate the thumbnails, as AlbumFormat.generateThumbs */
+	public void setThumbs(boolean thumbs) {
+		this.thumbs = thumbs;
+	}
+
+	/**
+	 * Sets the address the workers connect to. Use it with spawn=false
+	 * to start the workers in other nodes.
+	 */
+	public void setHost(String host, boolean spawn) {
+		this.host = host;
+		this.spawn = spawn;
+	}
+
+	/**
+	 * Processes all the images with the worker processes. Images whose
+	 * worker died are processed again in this JVM at the end, if it didn't
+	 * replace them yet, and it can't do it any more.
+	 *
+	 * @exception  IOException  Description of the Exception
+	 */
+	public void process() throws IOException {
+		if (names.length == 0) return;
+		if (thumbs) AlbumFormat.thumbsDir(names[0]);
+		closePack();
+
+		status = new int[names.length];
+		sent = new String[names.length];
+		lo = new int[nworkers];
+		hi = new int[nworkers];
+		for (int i = 0; i < nworkers; i++) {
+			lo[i] = (int)((long)names.length * i / nworkers);
+			hi[i] = (int)((long)names.length * (i + 1) / nworkers);
+		}
+
+		ServerSocket server = new ServerSocket(0, nworkers, InetAddress.getByName(host));
+		server.setSoTimeout(CONNECT_TIMEOUT * 1000);
+		int port = server.getLocalPort();
+		Process[] procs = new Process[nworkers];
+		Thread[] handlers = new Thread[nworkers];
+		long t = System.currentTimeMillis();
+		try {
+			if (spawn) {
+				for (int i = 0; i < nworkers; i++) {
+					procs[i] = launch(port);
+				}
+			} else {
+				System.out.println("Waiting for " + nworkers + " workers on " + host + ":" + port);
+			}
+			for (int i = 0; i < nworkers; i++) {
+				Socket s;
+				try {
+					s = server.accept();
+				} catch (SocketTimeoutException e) {
+					System.err.println("AlbumCoordinator: only " + i + " workers connected");
+					break;
+				}
+				handlers[i] = new Handler(i, s);
+				handlers[i].start();
+			}
+			for (int i = 0; i < nworkers; i++) {
+				if (handlers[i] != null) {
+					try {
+						handlers[i].join();
+					} catch (InterruptedException e) {
+					}
+				}
+			}
+		} finally {
+			server.close();
+			for (int i = 0; i < nworkers; i++) {
+				if (procs[i] != null) {
+					try {
+						if (!procs[i].waitFor(EXIT_TIMEOUT, java.util.concurrent.TimeUnit.SECONDS)) {
+							System.err.println("AlbumCoordinator: worker " + i + " didn't exit, killed");
+							procs[i].destroyForcibly();
+						}
+					} catch (InterruptedException e) {
+						procs[i].destroyForcibly();
+					}
+				}
+			}
+		}
+
+		// whatever is left (dead or missing workers) is done here;
+		// images that failed in a worker are only reported
+		try {
+			for (int i = 0; i < names.length; i++) {
+				if (status[i] == 0) {
+					process(names[i], resize, width, height, ccorrect, thumbs);
+					status[i] = 1;
+				} else if (status[i] == 2) {
+					redo(i);
+				}
+			}
+		} finally {
+			closePack();
+		}
+		System.out.println("Processed " + names.length + " images with " + nworkers
+				 + " workers in " + (System.currentTimeMillis() - t) / 1000.0 + " secs.");
+		for (int i = 0; i < errors.size(); i++) {
+			System.err.println(errors.get(i));
+		}
+	}
+
+	/**
+	 * An image whose worker died or hung while processing it. If the worker
+	 * replaced it, only its thumbnail is done again. Otherwise it is done
+	 * again if the worker can't replace it any more: it was a process of
+	 * ours, killed by now. A worker of another node may still be running,
+	 * so then the image is only reported, unless the job is just the
+	 * thumbnail, which can be done twice.
+	 */
+	void redo(int i) throws IOException {
+		if (!resize && !ccorrect) {
+			process(names[i], false, width, height, false, thumbs);
+		} else if (!stamp(names[i]).equals(sent[i])) {
+			process(names[i], false, width, height, false, thumbs);
+		} else if (spawn) {
+			process(names[i], resize, width, height, ccorrect, thumbs);
+		} else {
+			done(i, -1, "its worker stopped answering and may still change it, not redone");
+			return;
+		}
+		status[i] = 1;
+	}
+
+	/** What tells that a file was replaced */
+	static String stamp(File f) {
+		return f.lastModified() + " " + f.length();
+	}
+
+	/**
+	 * The per image job, the same for the workers and the coordinator.
+	 * The image is replaced once, after all its changes.
+	 */
+	static void process(File name, boolean resize, int x, int y,
+			boolean ccorrect, boolean thumbs) throws IOException {
+		if (resize || ccorrect) {
+			File result = AlbumFormat.tempFile(name);
+			File resized = (resize && ccorrect) ? AlbumFormat.tempFile(name) : result;
+			try {
+				File from = name;
+				if (resize) {
+					AlbumFormat.resizeImage(from, resized, x, y);
+					from = resized;
+				}
+				if (ccorrect) AlbumFormat.correctColor(from, result);
+				AlbumFormat.replace(result, name);
+			} finally {
+				result.delete();
+				resized.delete();
+			}
+			System.out.println("... " + name.getAbsolutePath() + " saved.");
+		}
+		if (thumbs) {
+			// the pack only knows the images as they were before this run
+			ThumbPack pack = (resize || ccorrect) ? null : pack(name.getAbsoluteFile().getParentFile());
+			int k = (pack == null) ? -1 : pack.indexOf(name);
+			if (k >= 0) {
+				pack.unpack(k, new File(AlbumFormat.thumbsDir(name), name.getName()));
+			} else {
+				AlbumFormat.generateThumb(name);
+			}
+		}
+	}
+
+	/** The thumbnail pack of the build, and its directory */
+	static File packDir;
+	static ThumbPack pack;
+
+	/**
+	 * The thumbnail pack of a directory, opened once per build. A worker
+	 * does a single build; the coordinator closes it at the end of each.
+	 * The pack lists the dates of the images once, and a later build may
+	 * find them changed, or a new pack.
+	 */
+	static synchronized ThumbPack pack(File dir) {
+		if (!dir.equals(packDir)) {
+			packDir = dir;
+			pack = ThumbPack.open(dir);
+		}
+		return pack;
+	}
+
+	/** Forgets the pack, the next build opens it again */
+	static synchronized void closePack() {
+		packDir = null;
+		pack = null;
+	}
+
+	/**
+	 * Starts a worker JVM with the same classpath as this one.
+	 */
+	Process launch(int port) throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		// the cores are shared among the workers
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / nworkers);
+		String[] cmd = new String[]{java,
+				"-Dtitech.jai.threads=" + threads,
+				"-cp", System.getProperty("java.class.path"),
+				"AlbumWorker", host, "" + port};
+		Process p = Runtime.getRuntime().exec(cmd);
+		drain(p.getInputStream(), System.out);
+		drain(p.getErrorStream(), System.err);
+		return p;
+	}
+
+	/**
+	 * Copies the output of a worker to ours, otherwise it blocks when
+	 * the pipe is full.
+	 */
+	static void drain(final InputStream is, final PrintStream out) {
+		Thread th = new Thread() {
+			public void run() {
+				try {
+					BufferedReader br = new BufferedReader(new InputStreamReader(is));
+					String line;
+					while ((line = br.readLine()) != null) {
+						out.println(line);
+					}
+				} catch (IOException e) {
+				}
+			}
+		};
+		th.setDaemon(true);
+		th.start();
+	}
+
+	/**
+	 * Next image for a worker: the head of its own shard or, if it is
+	 * empty, the tail of the biggest shard.
+	 *
+	 * @return    The index of the image, or -1 if there is nothing left.
+	 */
+	synchronized int next(int w) {
+		if (lo[w] < hi[w]) {
+			return lo[w]++;
+		}
+		int big = -1;
+		for (int i = 0; i < nworkers; i++) {
+			if (lo[i] < hi[i] && (big < 0 || hi[i] - lo[i] > hi[big] - lo[big])) {
+				big = i;
+			}
+		}
+		if (big < 0) return -1;
+		return --hi[big];
+	}
+
+	/**
+	 * A text in a single line of the protocol, e.g. the message of an
+	 * exception.
+	 */
+	static String oneLine(String text) {
+		return text.replace('\r', ' ').replace('\n', ' ');
+	}
+
+	synchronized void sending(int index) {
+		sent[index] = stamp(names[index]);
+		status[index] = 2;
+	}
+
+	synchronized void done(int index, int result, String error) {
+		status[index] = result;
+		if (error != null) errors.add(names[index].getName() + ": " + error);
+	}
+
+	/**
+	 * Serves one worker.
+	 */
+	class Handler extends Thread {
+		int w;
+		Socket socket;
+
+		Handler(int w, Socket socket) {
+			this.w = w;
+			this.socket = socket;
+		}
+
+		public void run() {
+			try {
+				// a hung worker: its image may be redone at the end
+				socket.setSoTimeout(TASK_TIMEOUT * 1000);
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+				PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+				out.println("OPTIONS " + (resize ? 1 : 0) + " " + width + " " + height
+						 + " " + (ccorrect ? 1 : 0) + " " + (thumbs ? 1 : 0));
+				int index;
+				while ((index = next(w)) >= 0) {
+					sending(index);
+					out.println("TASK " + index + " " + names[index].getAbsolutePath());
+					String reply = in.readLine();
+					if (reply == null) {
+						// the worker died: its image may be redone at the end
+						errors.add("worker " + w + " died at " + names[index].getName());
+						return;
+					}
+					if (reply.startsWith("DONE")) {
+						done(index, 1, null);
+					} else {
+						int k = reply.indexOf(' ', 5);
+						done(index, -1, k < 0 ? reply : reply.substring(k + 1));
+					}
+				}
+				out.println("QUIT");
+			} catch (IOException e) {
+				errors.add("worker " + w + ": " + e);
+			} finally {
+				try {
+					socket.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+}
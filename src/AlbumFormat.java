@@ -1,6 +1,14 @@
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
 import java.util.Vector;
+import javax.imageio.*;
+import javax.imageio.stream.ImageInputStream;
 import javax.media.jai.*;
+import titech.file.DecodedCache;
+import titech.file.ThumbPack;
 import titech.image.dsp.*;
 import java.util.Vector;
 
@@ -28,6 +36,10 @@ public class AlbumFormat {
 	/** The way to arrange the images in the html file */
 	int arrangement;
 
+	static {
+		ExecutionConfig.applyOnce();
+	}
+
 	/**
 	 * Constructs an HTML document with a table of images from the File array
 	 *
@@ -242,37 +254,111 @@ public class AlbumFormat {
 	 * @exception  IOException  Description of the Exception
 	 */
 	public void generateThumbs(File[] names) throws IOException {
-		String path = names[0].getParent() + File.separator + "thumbs";
+		File dire = thumbsDir(names[0]);
+		// thumbnails still valid in the pack are unpacked instead
+		ThumbPack pack = ThumbPack.open(names[0].getParentFile());
+		for (int i = 0; i < names.length; i++) {
+			int k = (pack == null) ? -1 : pack.indexOf(names[i]);
+			if (k >= 0) {
+				pack.unpack(k, new File(dire, names[i].getName()));
+			} else {
+				generateThumb(names[i]);
+			}
+		}
+	}
+
 
-		File dire = new File(path);
+	/**
+	 * Puts the thumbnails in thumbs/ in a single pack file, ThumbPack.DEFAULT_NAME
+	 * in the album directory. The loose files are kept for the HTML.
+	 *
+	 * @param  names            The images of the album.
+	 * @exception  IOException  Description of the Exception
+	 */
+	public void packThumbs(File[] names) throws IOException {
+		File dire = new File(names[0].getParent() + File.separator + "thumbs");
+		ThumbPack.Writer writer = new ThumbPack.Writer(
+				new File(names[0].getParentFile(), ThumbPack.DEFAULT_NAME));
+		for (int i = 0; i < names.length; i++) {
+			File thumb = new File(dire, names[i].getName());
+			if (!thumb.exists()) continue;
+			int[] size = imageSize(thumb);
+			writer.add(names[i].getName(), names[i].lastModified(), size[0], size[1], thumb);
+		}
+		writer.close();
+		System.out.println("... " + ThumbPack.DEFAULT_NAME + " saved.");
+	}
+
+
+	/**
+	 * Reads the size of an image from its header, without decoding it.
+	 *
+	 * @return    {width, height}, or {0, 0} if unknown.
+	 */
+	static int[] imageSize(File f) throws IOException {
+		ImageInputStream iis = ImageIO.createImageInputStream(f);
+		try {
+			Iterator readers = ImageIO.getImageReaders(iis);
+			if (readers.hasNext()) {
+				ImageReader reader = (ImageReader) readers.next();
+				reader.setInput(iis);
+				int[] size = new int[]{reader.getWidth(0), reader.getHeight(0)};
+				reader.dispose();
+				return size;
+			}
+		} finally {
+			iis.close();
+		}
+		return new int[]{0, 0};
+	}
+
+
+	/**
+	 * Creates the thumbs directory next to the given image, if needed.
+	 *
+	 * @param  name  One of the album images.
+	 * @return       The thumbs directory.
+	 */
+	public static File thumbsDir(File name) {
+		File dire = new File(name.getParent() + File.separator + "thumbs");
 		if (!dire.exists()) {
 			dire.mkdir();
 		}
+		return dire;
+	}
 
-		path += File.separator;
-		for (int i = 0; i < names.length; i++) {
-			//open image
-			PlanarImage pimg = JAI.create("fileload", names[i].getAbsolutePath());
-			//resize
-			int w = pimg.getWidth();
-			//resize
-			int h = pimg.getHeight();
-			int resultWidth = 100;
-			int resultHeight = 100;
-			if (w > h) {
-				resultWidth = 160;
-				//resultHeight = 120;
-				resultHeight = (h*160)/w;
-			} else {
-				//resultWidth = 120;
-				resultHeight = 160;
-				resultWidth = (w*160)/h;
-			}
-			RenderedOp rop = COps.scale(pimg, resultWidth, resultHeight);
-			//save it
-			COps.saveAsJPG(rop, path + names[i].getName());
-			System.out.println("... " + path + names[i].getName() + " saved.");
+
+	/**
+	 * Saves the thumbnail of a single image in the thumbs directory.
+	 * The directory must exist already (see thumbsDir).
+	 *
+	 * @param  name             The image file.
+	 * @exception  IOException  Description of the Exception
+	 */
+	public static void generateThumb(File name) throws IOException {
+		String path = name.getParent() + File.separator + "thumbs" + File.separator;
+		//open image
+		PlanarImage pimg = DecodedCache.load(name.getAbsolutePath());
+		//resize
+		int w = pimg.getWidth();
+		//resize
+		int h = pimg.getHeight();
+		int resultWidth = 100;
+		int resultHeight = 100;
+		if (w > h) {
+			resultWidth = 160;
+			//resultHeight = 120;
+			resultHeight = (h*160)/w;
+		} else {
+			//resultWidth = 120;
+			resultHeight = 160;
+			resultWidth = (w*160)/h;
 		}
+		RenderedOp rop = COps.scale(pimg, resultWidth, resultHeight);
+		ExecutionConfig.computeTiles(rop);
+		//save it
+		COps.saveAsJPG(rop, path + name.getName());
+		System.out.println("... " + path + name.getName() + " saved.");
 	}
 
 
@@ -287,29 +373,64 @@ public class AlbumFormat {
 	public void resizeImages(File[] names, int x, int y) throws IOException {
 
 		for (int i = 0; i < names.length; i++) {
-			//open image
-			PlanarImage pimg = JAI.create("fileload", names[i].getAbsolutePath());
-			//resize
-			int w = pimg.getWidth();
-			//resize
-			int h = pimg.getHeight();
-			int resultWidth = 100;
-			int resultHeight = 100;
-			if (w > h) {
-				resultWidth = x;
-				resultHeight = (h*x)/w;
-			} else {
-				resultWidth = (w*y)/h;
-				resultHeight = y;
-			}
-			RenderedOp rop = COps.scale(pimg, resultWidth, resultHeight);
-			//save it
-			COps.saveAsJPG(rop, names[i].getAbsolutePath());
-			System.out.println("... " + names[i].getAbsolutePath() + " saved.");
+			resizeImage(names[i], x, y);
 		}
 	}
 
 
+	/**
+	 * OVERWRITES INPUT!!! The new image replaces it at once, when it is
+	 * complete.
+	 *
+	 * @param  name             The image file.
+	 * @param  x                Width if the image is landscape.
+	 * @param  y                Height if the image is portrait.
+	 * @exception  IOException  Description of the Exception
+	 */
+	public static void resizeImage(File name, int x, int y) throws IOException {
+		File tmp = tempFile(name);
+		try {
+			resizeImage(name, tmp, x, y);
+			replace(tmp, name);
+		} finally {
+			tmp.delete();
+		}
+		System.out.println("... " + name.getAbsolutePath() + " saved.");
+	}
+
+
+	/**
+	 * Saves a resized copy of an image.
+	 *
+	 * @param  name             The image file.
+	 * @param  out              The file of the copy, another one.
+	 * @param  x                Width if the image is landscape.
+	 * @param  y                Height if the image is portrait.
+	 * @exception  IOException  Description of the Exception
+	 */
+	public static void resizeImage(File name, File out, int x, int y) throws IOException {
+		//open image; not from the cache, its entry would be stale once saved
+		PlanarImage pimg = JAI.create("fileload", name.getAbsolutePath());
+		//resize
+		int w = pimg.getWidth();
+		//resize
+		int h = pimg.getHeight();
+		int resultWidth = 100;
+		int resultHeight = 100;
+		if (w > h) {
+			resultWidth = x;
+			resultHeight = (h*x)/w;
+		} else {
+			resultWidth = (w*y)/h;
+			resultHeight = y;
+		}
+		RenderedOp rop = COps.scale(pimg, resultWidth, resultHeight);
+		ExecutionConfig.computeTiles(rop);
+		//save it
+		COps.saveAsJPG(rop, out.getAbsolutePath());
+	}
+
+
 	/**
 	 * OVERWRITES INPUTS!!!
 	 *
@@ -319,13 +440,68 @@ public class AlbumFormat {
 	public void correctColor(File[] names) throws IOException {
 
 		for (int i = 0; i < names.length; i++) {
-			//open image
-			PlanarImage pimg = JAI.create("fileload", names[i].getAbsolutePath());
-			//correct color
-			pimg = ColorManipulation.modWhiteInGray(pimg);
-			//save it
-			COps.saveAsJPG(pimg, names[i].getAbsolutePath());
-			System.out.println("... " + names[i].getAbsolutePath() + " saved.");
+			correctColor(names[i]);
+		}
+	}
+
+
+	/**
+	 * OVERWRITES INPUT!!! The new image replaces it at once, when it is
+	 * complete.
+	 *
+	 * @param  name             The image file.
+	 * @exception  IOException  Description of the Exception
+	 */
+	public static void correctColor(File name) throws IOException {
+		File tmp = tempFile(name);
+		try {
+			correctColor(name, tmp);
+			replace(tmp, name);
+		} finally {
+			tmp.delete();
+		}
+		System.out.println("... " + name.getAbsolutePath() + " saved.");
+	}
+
+
+	/**
+	 * Saves a color corrected copy of an image.
+	 *
+	 * @param  name             The image file.
+	 * @param  out              The file of the copy, another one.
+	 * @exception  IOException  Description of the Exception
+	 */
+	public static void correctColor(File name, File out) throws IOException {
+		//open image; not from the cache, its entry would be stale once saved
+		PlanarImage pimg = JAI.create("fileload", name.getAbsolutePath());
+		//correct color, estimated on a subsample of big pictures
+		pimg = ColorManipulation.modWhiteInGray(pimg, WhiteBalanceEstimate.DEFAULT_TOLERANCE);
+		ExecutionConfig.computeTiles(pimg);
+		//save it
+		COps.saveAsJPG(pimg, out.getAbsolutePath());
+	}
+
+
+	/**
+	 * A new empty file next to an image, to write its new version. It
+	 * isn't named as an image, so it is never taken for one.
+	 */
+	public static File tempFile(File name) throws IOException {
+		return File.createTempFile(name.getName() + ".", ".tmp", name.getAbsoluteFile().getParentFile());
+	}
+
+
+	/**
+	 * Moves a new version of a file in its place, atomically if the file
+	 * system can, so that the file is always either the old version or the
+	 * new one.
+	 */
+	public static void replace(File tmp, File name) throws IOException {
+		try {
+			Files.move(tmp.toPath(), name.toPath(),
+					StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp.toPath(), name.toPath(), StandardCopyOption.REPLACE_EXISTING);
 		}
 	}
 
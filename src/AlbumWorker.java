@@ -0,0 +1,60 @@
+import java.io.*;
+import java.net.*;
+import java.util.StringTokenizer;
+
+/**
+ *  Worker process of AlbumCoordinator. It connects to the coordinator and
+ *  processes the images it is given until it receives QUIT.
+ *
+ *  Usage: java AlbumWorker host port
+ *
+ * @author     Owner
+ * @created    2008/02/12
+ */
+public class AlbumWorker {
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: java AlbumWorker host port");
+			System.exit(1);
+		}
+		try {
+			Socket socket = new Socket(args[0], Integer.parseInt(args[1]));
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+			boolean resize = false, ccorrect = false, thumbs = false;
+			int x = 0, y = 0;
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("OPTIONS")) {
+					StringTokenizer stok = new StringTokenizer(line);
+					stok.nextToken();
+					resize = stok.nextToken().equals("1");
+					x = Integer.parseInt(stok.nextToken());
+					y = Integer.parseInt(stok.nextToken());
+					ccorrect = stok.nextToken().equals("1");
+					thumbs = stok.nextToken().equals("1");
+				} else if (line.startsWith("TASK")) {
+					// TASK index path; the path may have spaces
+					int k = line.indexOf(' ', 5);
+					String index = line.substring(5, k);
+					try {
+						AlbumCoordinator.process(new File(line.substring(k + 1)),
+								resize, x, y, ccorrect, thumbs);
+						out.println("DONE " + index);
+					} catch (Exception e) {
+						out.println("FAIL " + index + " " + AlbumCoordinator.oneLine(e.toString()));
+					}
+				} else if (line.startsWith("QUIT")) {
+					break;
+				}
+			}
+			socket.close();
+		} catch (Exception e) {
+			System.err.println("AlbumWorker: " + e);
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+
+}
@@ -4,6 +4,7 @@ import java.awt.event.*;
 import javax.swing.event.*;
 import java.io.*;
 import java.util.Vector;
+import javax.imageio.ImageIO;
 import javax.media.jai.*;
 import javax.swing.*;
 import titech.file.*;
@@ -22,9 +23,17 @@ public class IconBrowser extends ScrollableJPanel implements ActionListener {
 		if (fileList == null) return;
 		// always empty before adding
 		removeAll();
+		// if there is a thumbnail pack, all previews come from a single file
+		ThumbPack pack = (fileList.length>0)?ThumbPack.open(fileList[0].getParentFile()):null;
 		for (int i=0;i<fileList.length;i++) {
 			try {
-				PlanarImage pimg = JAI.create("fileload", fileList[i].getAbsolutePath());
+				PlanarImage pimg = null;
+				int k = (pack==null)?-1:pack.indexOf(fileList[i]);
+				if (k>=0) {
+					BufferedImage bi = ImageIO.read(pack.getInputStream(k));
+					if (bi!=null) pimg = PlanarImage.wrapRenderedImage(bi);
+				}
+				if (pimg==null) pimg = JAI.create("fileload", fileList[i].getAbsolutePath());
 				pimg = adjustImage(pimg, THUMB_LONG, THUMB_SHORT);				
 				JButton b = new JButton(new ImageIcon(pimg.getAsBufferedImage()));
 				JComboBox rcombo = new JComboBox(rotations);
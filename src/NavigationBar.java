@@ -162,12 +162,22 @@ public class NavigationBar extends JPanel implements ActionListener {
 				AlbumFormat af = new AlbumFormat(fileList, toolBar.thumbs());
 				af.setArrangement(arrangeCodes[arrangeCombo.getSelectedIndex()]);
 				//documentPane.setText("debugging 2..");
-				if (toolBar.resize())
-					af.resizeImages(fileList, toolBar.getWidth(), toolBar.getHeight());
-				if (toolBar.ccorrect())
-					af.correctColor(fileList);
+				if (toolBar.getWorkers() > 1) {
+					// process the images in several JVMs
+					AlbumCoordinator coordinator = new AlbumCoordinator(fileList, toolBar.getWorkers());
+					coordinator.setResize(toolBar.resize(), toolBar.getWidth(), toolBar.getHeight());
+					coordinator.setColorCorrect(toolBar.ccorrect());
+					coordinator.setThumbs(toolBar.thumbs());
+					coordinator.process();
+				} else {
+					if (toolBar.resize())
+						af.resizeImages(fileList, toolBar.getWidth(), toolBar.getHeight());
+					if (toolBar.ccorrect())
+						af.correctColor(fileList);
 
-				if (toolBar.thumbs()) af.generateThumbs(fileList);
+					if (toolBar.thumbs()) af.generateThumbs(fileList);
+				}
+				if (toolBar.thumbs() && toolBar.packThumbs()) af.packThumbs(fileList);
 				//documentPane.setText("debugging 3..");
 
 				
@@ -12,10 +12,12 @@ public class ToolBar extends JPanel {
 	public static final int ICON_HEIGHT=28;
 	
 	JCheckBox thumbsB;
+	JCheckBox packB;
 	JCheckBox resizeB;
 	JTextField widthB, heightB;
 	JCheckBox ccorrectB;
 	JCheckBox previewB;
+	JTextField workersB;
 	
     public ToolBar() {
 			    	
@@ -31,6 +33,9 @@ public class ToolBar extends JPanel {
 		thumbsB = new JCheckBox("Thumbs");
 		thumbsB.setActionCommand("thumbs");
 		//thumbsB.addActionListener(this);
+		packB = new JCheckBox("Pack");
+		packB.setActionCommand("pack");
+		packB.setToolTipText("Keep the thumbnails in a single file too");
 		
 		resizeB = new JCheckBox("Resize & Overwrite");
 		resizeB.setActionCommand("resize");
@@ -41,16 +46,23 @@ public class ToolBar extends JPanel {
 
 		ccorrectB = new JCheckBox("Color Correct");
 		ccorrectB.setActionCommand("ccorrect");
+
+		// number of worker processes to build the album
+		workersB = new JTextField("1",2);
+		workersB.setToolTipText("Worker processes");
 		
 		//loadB.addActionListener(this);
 		
 		
 		add(previewB);
 		add(thumbsB);
+		add(packB);
 		add(resizeB);
 		add(widthB);
 		add(heightB);
 		add(ccorrectB);
+		add(new JLabel("Workers"));
+		add(workersB);
     }
 	
 	public boolean resize() {
@@ -64,6 +76,10 @@ public class ToolBar extends JPanel {
 	public boolean thumbs() {
 		return thumbsB.isSelected();
 	}
+
+	public boolean packThumbs() {
+		return packB.isSelected();
+	}
 	
 	public int getWidth() {
 		return Integer.parseInt(widthB.getText());
@@ -77,6 +93,10 @@ public class ToolBar extends JPanel {
 		return previewB.isSelected();
 	}
 
+	public int getWorkers() {
+		return Integer.parseInt(workersB.getText());
+	}
+
 }
 
 
@@ -0,0 +1,272 @@
+package titech.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import javax.media.jai.JAI;
+import javax.media.jai.PlanarImage;
+
+/**
+ * A directory of decoded images, so that the same JPEG is not decoded again
+ * by every loop over a directory, comparison or album rebuild.
+ * <p>
+ * Each image is a RasterFile named after the MD5 of its absolute path. An
+ * entry is used only if the path, modification time and length of the
+ * source are those it was decoded from; otherwise the image is decoded and
+ * the entry written again. When the files go over the disk budget, the
+ * least recently used are deleted (a hit touches the lastModified of its
+ * entry). The size of the entries is kept as a running total, so the
+ * directory is only listed when it goes over the budget. Several processes,
+ * like the album workers, can share a cache directory: entries are written
+ * to a temporary file and moved in place, and the temporary files left by
+ * processes that died are deleted when a cache is opened.
+ * <p>
+ * The default cache is off, unless the directory is given with
+ * <pre>
+ *   -Dtitech.pixcache=DIR       cache directory
+ *   -Dtitech.pixcache.mb=MB     disk budget, DEFAULT_MB by default
+ * </pre>
+ * or the "pixcache" command of IPPanel.
+ *
+ * @author David Gavilan
+ */
+public class DecodedCache {
+
+	public static final long DEFAULT_MB = 2048;
+	public static final String SUFFIX = ".raw";
+	/** Age after which a temporary file of RasterFile.write is left over, in ms */
+	public static final long ORPHAN_AGE = 60 * 60 * 1000;
+
+	static DecodedCache instance;
+	static boolean initialized = false;
+
+	File dir;
+	/** In bytes */
+	long budget;
+	/** Running total of the size of the entries, or -1 if unknown */
+	long bytes = -1;
+	int hits, misses;
+
+	/**
+	 * @param  dir     The cache directory, created if missing.
+	 * @param  budget  Maximum size of the entries, in bytes.
+	 */
+	public DecodedCache(File dir, long budget) {
+		this.dir = dir;
+		this.budget = budget;
+		if (!dir.exists()) dir.mkdirs();
+		removeOrphans();
+	}
+
+	/**
+	 * Deletes the temporary files of writes that never finished.
+	 */
+	void removeOrphans() {
+		File[] files = dir.listFiles();
+		if (files == null) return;
+		long old = System.currentTimeMillis() - ORPHAN_AGE;
+		for (int i = 0; i < files.length; i++) {
+			String name = files[i].getName();
+			// another process may be writing the recent ones
+			if (name.startsWith("raster") && name.endsWith(".tmp")
+					 && files[i].lastModified() < old) {
+				files[i].delete();
+			}
+		}
+	}
+
+	/**
+	 * The cache set with the system properties or setDefault, or null if
+	 * there is none.
+	 */
+	public static synchronized DecodedCache getDefault() {
+		if (!initialized) {
+			initialized = true;
+			String d = System.getProperty("titech.pixcache");
+			if (d != null) {
+				long mb = Long.getLong("titech.pixcache.mb", DEFAULT_MB).longValue();
+				instance = new DecodedCache(new File(d), mb * 1024 * 1024);
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Sets the default cache, or null to decode every time.
+	 */
+	public static synchronized void setDefault(DecodedCache cache) {
+		initialized = true;
+		instance = cache;
+	}
+
+	/** Cache directory used when none is given */
+	public static File defaultDir() {
+		return new File(System.getProperty("java.io.tmpdir"), "kingsalbum-pixcache");
+	}
+
+	/**
+	 * Loads an image through the default cache, or with the "fileload"
+	 * operator if there is no cache.
+	 */
+	public static PlanarImage load(String path) {
+		DecodedCache cache = getDefault();
+		if (cache != null) {
+			try {
+				return cache.get(new File(path));
+			} catch (IOException e) {
+				System.err.println("DecodedCache: " + e);
+			}
+		}
+		return JAI.create("fileload", path);
+	}
+
+	/**
+	 * The decoded pixels of an image, from the cache if they are up to date.
+	 * Images that RasterFile can't hold (e.g. in an unknown color space) are decoded
+	 * and returned as they are.
+	 */
+	public PlanarImage get(File src) throws IOException {
+		File entry = entry(src);
+		if (entry.exists()) {
+			try {
+				RasterFile rf = new RasterFile(entry);
+				if (rf.isValidFor(src)) {
+					entry.setLastModified(System.currentTimeMillis());
+					synchronized (this) {
+						hits++;
+					}
+					return rf;
+				}
+			} catch (IOException e) {
+				// broken entry, written again below
+			}
+		}
+		synchronized (this) {
+			misses++;
+		}
+		PlanarImage img = JAI.create("fileload", src.getAbsolutePath());
+		if (!RasterFile.isSupported(img)) return img;
+		long before = entry.length();
+		RasterFile.write(img, src, entry);
+		added(entry, before);
+		try {
+			return new RasterFile(entry);
+		} catch (IOException e) {
+			// evicted at once, bigger than the budget
+			return img;
+		}
+	}
+
+	/** The entry file of an image */
+	File entry(File src) {
+		return new File(dir, md5(src.getAbsolutePath()) + SUFFIX);
+	}
+
+	/** The MD5 of a string, in hexadecimal */
+	public static String md5(String s) {
+		try {
+			return hex(MessageDigest.getInstance("MD5").digest(s.getBytes("UTF-8")));
+		} catch (Exception e) {
+			return Integer.toHexString(s.hashCode());
+		}
+	}
+
+	static String hex(byte[] d) {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < d.length; i++) {
+			sb.append(Integer.toHexString((d[i] >> 4) & 0xf));
+			sb.append(Integer.toHexString(d[i] & 0xf));
+		}
+		return sb.toString();
+	}
+
+	File[] entries() {
+		File[] files = dir.listFiles();
+		if (files == null) return new File[0];
+		int n = 0;
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].getName().endsWith(SUFFIX)) files[n++] = files[i];
+		}
+		File[] e = new File[n];
+		System.arraycopy(files, 0, e, 0, n);
+		return e;
+	}
+
+	/**
+	 * Counts an entry just written, and evicts if it goes over the budget.
+	 *
+	 * @param  before  The length of the entry it replaced, 0 if none.
+	 */
+	synchronized void added(File entry, long before) {
+		if (bytes >= 0) bytes += entry.length() - before;
+		evict();
+	}
+
+	/**
+	 * Deletes the least recently used entries until they fit in the budget.
+	 * The directory is only listed if the running total is over the budget
+	 * or unknown; the listing also counts the entries of other processes.
+	 */
+	public synchronized void evict() {
+		if (bytes >= 0 && bytes <= budget) return;
+		File[] e = entries();
+		long total = 0;
+		for (int i = 0; i < e.length; i++) {
+			total += e[i].length();
+		}
+		bytes = total;
+		if (total <= budget) return;
+		Arrays.sort(e, new Comparator() {
+			public int compare(Object a, Object b) {
+				long ta = ((File) a).lastModified(), tb = ((File) b).lastModified();
+				return (ta < tb) ? -1 : ((ta > tb) ? 1 : 0);
+			}
+		});
+		for (int i = 0; i < e.length && total > budget; i++) {
+			long len = e[i].length();
+			if (e[i].delete()) total -= len;
+		}
+		bytes = total;
+	}
+
+	/**
+	 * Deletes every entry.
+	 */
+	public synchronized void clear() {
+		File[] e = entries();
+		for (int i = 0; i < e.length; i++) {
+			e[i].delete();
+		}
+		bytes = -1;
+	}
+
+	/** Size of the entries, in bytes */
+	public long getBytes() {
+		File[] e = entries();
+		long total = 0;
+		for (int i = 0; i < e.length; i++) {
+			total += e[i].length();
+		}
+		return total;
+	}
+
+	public File getDirectory() {
+		return dir;
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	public String toString() {
+		return dir + ": " + entries().length + " images, " + (getBytes() >> 20) + " of "
+				 + (budget >> 20) + " MB, " + getHits() + " hits, " + getMisses() + " misses";
+	}
+}
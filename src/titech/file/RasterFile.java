@@ -0,0 +1,379 @@
+package titech.file;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import javax.media.jai.FloatDoubleColorModel;
+import javax.media.jai.IHSColorSpace;
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PlanarImage;
+
+/**
+ * Decoded pixels of an image in a raw file, read back as a PlanarImage.
+ * <p>
+ * Layout (big endian):
+ * <pre>
+ *   int    MAGIC
+ *   int    VERSION
+ *   int    offset of the data
+ *   UTF    source path
+ *   long   source lastModified
+ *   long   source length
+ *   int    minX, minY, width, height
+ *   int    tileGridXOffset, tileGridYOffset, tileWidth, tileHeight
+ *   int    bands, data type, color space, alpha (0 or 1)
+ *   int    palette bits, palette size (version 2)
+ *   int    the palette, 0xAARRGGBB, if any (version 2)
+ *   data   the tiles, row by row, each one tileWidth * tileHeight pixels
+ *          of interleaved bands, including the part out of the image
+ * </pre>
+ * The color space is one of ColorSpace.CS_*, CS_IHS, or NO_COLOR_MODEL.
+ * Any data type of DataBuffer is written, with a ComponentColorModel (a
+ * FloatDoubleColorModel for float and double), an IndexColorModel, or no
+ * color model. Version 1 files, only bytes without a palette, are read too.
+ * The file is mapped once and each tile is copied from the map when it is
+ * asked for, so reading costs a memory copy instead of a decode.
+ *
+ * @see DecodedCache
+ * @author David Gavilan
+ */
+public class RasterFile extends PlanarImage {
+
+	public static final int MAGIC = 0x4b524157; // "KRAW"
+	public static final int VERSION = 2;
+	/** Color space of the images without a color model */
+	public static final int NO_COLOR_MODEL = -1;
+	/** Color space of IHSColorSpace */
+	public static final int CS_IHS = -2;
+
+	String source;
+	long sourceModified, sourceLength;
+	int bands, dataType, colorSpace;
+	boolean alpha;
+	int dataOffset, tileSamples, tileBytes;
+	ByteBuffer map;
+
+	/**
+	 * Maps a raster file.
+	 *
+	 * @param  f                The raster file.
+	 * @exception  IOException  If the file is not a raster file, or it is
+	 *                          truncated.
+	 */
+	public RasterFile(File f) throws IOException {
+		FileInputStream fis = new FileInputStream(f);
+		try {
+			FileChannel ch = fis.getChannel();
+			if (ch.size() > Integer.MAX_VALUE) throw new IOException(f + " is too big");
+			map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		} finally {
+			// the mapping stays valid after closing the channel
+			fis.close();
+		}
+		DataInputStream dis = new DataInputStream(
+				new ThumbPack.ByteBufferInputStream(map.duplicate()));
+		if (dis.readInt() != MAGIC) throw new IOException(f + " is not a raster file");
+		int version = dis.readInt();
+		if (version != 1 && version != VERSION) {
+			throw new IOException(f + ": unknown raster version " + version);
+		}
+		dataOffset = dis.readInt();
+		source = dis.readUTF();
+		sourceModified = dis.readLong();
+		sourceLength = dis.readLong();
+		int x = dis.readInt(), y = dis.readInt(), w = dis.readInt(), h = dis.readInt();
+		int tgx = dis.readInt(), tgy = dis.readInt(), tw = dis.readInt(), th = dis.readInt();
+		bands = dis.readInt();
+		dataType = dis.readInt();
+		colorSpace = dis.readInt();
+		alpha = dis.readInt() != 0;
+		int paletteBits = 0;
+		int[] palette = new int[0];
+		if (version > 1) {
+			paletteBits = dis.readInt();
+			palette = new int[dis.readInt()];
+			for (int i = 0; i < palette.length; i++) palette[i] = dis.readInt();
+		}
+		if (sampleBytes(dataType) == 0 || w <= 0 || h <= 0 || tw <= 0 || th <= 0 || bands <= 0) {
+			throw new IOException(f + ": unsupported raster");
+		}
+
+		SampleModel sm = new PixelInterleavedSampleModel(dataType,
+				tw, th, bands, tw * bands, bandOffsets(bands));
+		ColorModel cm = null;
+		if (palette.length > 0) {
+			cm = new IndexColorModel(paletteBits, palette.length, palette, 0, alpha, -1, dataType);
+		} else if (colorSpace != NO_COLOR_MODEL) {
+			ColorSpace cs = (colorSpace == CS_IHS) ? IHSColorSpace.getInstance()
+					 : ColorSpace.getInstance(colorSpace);
+			int transparency = alpha ? Transparency.TRANSLUCENT : Transparency.OPAQUE;
+			if (dataType == DataBuffer.TYPE_FLOAT || dataType == DataBuffer.TYPE_DOUBLE) {
+				cm = new FloatDoubleColorModel(cs, alpha, false, transparency, dataType);
+			} else {
+				cm = new ComponentColorModel(cs, alpha, false, transparency, dataType);
+			}
+		}
+		setImageLayout(new ImageLayout(x, y, w, h, tgx, tgy, tw, th, sm, cm));
+
+		tileSamples = tw * th * bands;
+		tileBytes = tileSamples * sampleBytes(dataType);
+		long size = dataOffset + (long) tileBytes * getNumXTiles() * getNumYTiles();
+		if (size > map.capacity()) throw new IOException(f + " is truncated");
+	}
+
+	static int[] bandOffsets(int bands) {
+		int[] off = new int[bands];
+		for (int b = 0; b < bands; b++) off[b] = b;
+		return off;
+	}
+
+	/** Bytes of a sample of the data type, or 0 if unknown */
+	static int sampleBytes(int dataType) {
+		switch (dataType) {
+			case DataBuffer.TYPE_BYTE:
+				return 1;
+			case DataBuffer.TYPE_USHORT:
+			case DataBuffer.TYPE_SHORT:
+				return 2;
+			case DataBuffer.TYPE_INT:
+			case DataBuffer.TYPE_FLOAT:
+				return 4;
+			case DataBuffer.TYPE_DOUBLE:
+				return 8;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * Whether an image can be written: any data type, with a component
+	 * color model in a known color space, a palette of one band, or no
+	 * color model, and less than 2GB.
+	 */
+	public static boolean isSupported(RenderedImage img) {
+		SampleModel sm = img.getSampleModel();
+		ColorModel cm = img.getColorModel();
+		int bands = sm.getNumBands();
+		if (sampleBytes(sm.getDataType()) == 0) return false;
+		if (cm instanceof IndexColorModel) {
+			if (bands != 1) return false;
+		} else if (cm != null) {
+			if (!(cm instanceof ComponentColorModel) || colorSpaceOf(cm) == NO_COLOR_MODEL) return false;
+			if (bands != cm.getNumComponents()) return false;
+		}
+		long size = (long) img.getNumXTiles() * img.getNumYTiles()
+				 * img.getTileWidth() * img.getTileHeight() * bands * sampleBytes(sm.getDataType());
+		return size < Integer.MAX_VALUE - (1 << 20); // and the header
+	}
+
+	/** The color space code of the color model, or NO_COLOR_MODEL */
+	static int colorSpaceOf(ColorModel cm) {
+		if (cm == null) return NO_COLOR_MODEL;
+		ColorSpace cs = cm.getColorSpace();
+		if (cs.isCS_sRGB()) return ColorSpace.CS_sRGB;
+		if (cs instanceof IHSColorSpace) return CS_IHS;
+		int[] known = {ColorSpace.CS_GRAY, ColorSpace.CS_LINEAR_RGB, ColorSpace.CS_CIEXYZ,
+				ColorSpace.CS_PYCC};
+		for (int i = 0; i < known.length; i++) {
+			if (cs == ColorSpace.getInstance(known[i])) return known[i];
+		}
+		return NO_COLOR_MODEL;
+	}
+
+	/**
+	 * Writes the pixels of an image to a temporary file in the directory of
+	 * dest, and renames it, so readers never see a half written file.
+	 *
+	 * @param  img     The image, isSupported(img) must be true.
+	 * @param  source  The file it was decoded from, or null.
+	 * @param  dest    The raster file.
+	 */
+	public static void write(RenderedImage img, File source, File dest) throws IOException {
+		int bands = img.getSampleModel().getNumBands();
+		int type = img.getSampleModel().getDataType();
+		ColorModel cm = img.getColorModel();
+		int tw = img.getTileWidth(), th = img.getTileHeight();
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream hdr = new DataOutputStream(bos);
+		hdr.writeInt(MAGIC);
+		hdr.writeInt(VERSION);
+		hdr.writeInt(0); // data offset, below
+		hdr.writeUTF((source != null) ? source.getAbsolutePath() : "");
+		hdr.writeLong((source != null) ? source.lastModified() : 0);
+		hdr.writeLong((source != null) ? source.length() : 0);
+		hdr.writeInt(img.getMinX());
+		hdr.writeInt(img.getMinY());
+		hdr.writeInt(img.getWidth());
+		hdr.writeInt(img.getHeight());
+		hdr.writeInt(img.getTileGridXOffset());
+		hdr.writeInt(img.getTileGridYOffset());
+		hdr.writeInt(tw);
+		hdr.writeInt(th);
+		hdr.writeInt(bands);
+		hdr.writeInt(type);
+		hdr.writeInt(colorSpaceOf(cm));
+		hdr.writeInt((cm != null && cm.hasAlpha()) ? 1 : 0);
+		if (cm instanceof IndexColorModel) {
+			IndexColorModel icm = (IndexColorModel) cm;
+			int[] palette = new int[icm.getMapSize()];
+			icm.getRGBs(palette);
+			hdr.writeInt(icm.getPixelSize());
+			hdr.writeInt(palette.length);
+			for (int i = 0; i < palette.length; i++) hdr.writeInt(palette[i]);
+		} else {
+			hdr.writeInt(0);
+			hdr.writeInt(0);
+		}
+		hdr.flush();
+		byte[] header = bos.toByteArray();
+		int offset = header.length;
+		header[8] = (byte) (offset >>> 24);
+		header[9] = (byte) (offset >>> 16);
+		header[10] = (byte) (offset >>> 8);
+		header[11] = (byte) offset;
+
+		File dir = dest.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile("raster", ".tmp", dir);
+		Rectangle bounds = new Rectangle(img.getMinX(), img.getMinY(), img.getWidth(), img.getHeight());
+		int size = sampleBytes(type);
+		byte[] tile = new byte[tw * th * bands * size];
+		ByteBuffer tb = ByteBuffer.wrap(tile);
+		int[] row = null;
+		float[] frow = null;
+		double[] drow = null;
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16);
+		try {
+			os.write(header);
+			for (int ty = img.getMinTileY(); ty < img.getMinTileY() + img.getNumYTiles(); ty++) {
+				for (int tx = img.getMinTileX(); tx < img.getMinTileX() + img.getNumXTiles(); tx++) {
+					int x0 = img.getTileGridXOffset() + tx * tw;
+					int y0 = img.getTileGridYOffset() + ty * th;
+					Rectangle r = new Rectangle(x0, y0, tw, th).intersection(bounds);
+					java.util.Arrays.fill(tile, (byte) 0);
+					Raster ras = img.getTile(tx, ty);
+					for (int y = r.y; y < r.y + r.height; y++) {
+						int k = ((y - y0) * tw + (r.x - x0)) * bands;
+						int n = r.width * bands;
+						if (type == DataBuffer.TYPE_FLOAT) {
+							frow = ras.getPixels(r.x, y, r.width, 1, frow);
+							for (int i = 0; i < n; i++) tb.putFloat((k + i) * 4, frow[i]);
+						} else if (type == DataBuffer.TYPE_DOUBLE) {
+							drow = ras.getPixels(r.x, y, r.width, 1, drow);
+							for (int i = 0; i < n; i++) tb.putDouble((k + i) * 8, drow[i]);
+						} else {
+							row = ras.getPixels(r.x, y, r.width, 1, row);
+							if (size == 1) {
+								for (int i = 0; i < n; i++) tile[k + i] = (byte) row[i];
+							} else if (size == 2) {
+								for (int i = 0; i < n; i++) tb.putShort((k + i) * 2, (short) row[i]);
+							} else {
+								for (int i = 0; i < n; i++) tb.putInt((k + i) * 4, row[i]);
+							}
+						}
+					}
+					os.write(tile);
+				}
+			}
+		} catch (IOException e) {
+			os.close();
+			tmp.delete();
+			throw e;
+		}
+		os.close();
+		// readers see the old entry or the new one, never none
+		try {
+			try {
+				Files.move(tmp.toPath(), dest.toPath(),
+						StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			tmp.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Copies a tile from the map.
+	 */
+	public Raster getTile(int tx, int ty) {
+		if (tx < getMinTileX() || ty < getMinTileY() || tx > getMaxTileX() || ty > getMaxTileY()) {
+			return null;
+		}
+		int index = (ty - getMinTileY()) * getNumXTiles() + (tx - getMinTileX());
+		ByteBuffer b = map.duplicate();
+		b.position(dataOffset + index * tileBytes);
+		DataBuffer db;
+		switch (dataType) {
+			case DataBuffer.TYPE_BYTE:
+				byte[] bd = new byte[tileSamples];
+				b.get(bd);
+				db = new DataBufferByte(bd, tileSamples);
+				break;
+			case DataBuffer.TYPE_USHORT:
+				short[] ud = new short[tileSamples];
+				b.asShortBuffer().get(ud);
+				db = new DataBufferUShort(ud, tileSamples);
+				break;
+			case DataBuffer.TYPE_SHORT:
+				short[] sd = new short[tileSamples];
+				b.asShortBuffer().get(sd);
+				db = new DataBufferShort(sd, tileSamples);
+				break;
+			case DataBuffer.TYPE_INT:
+				int[] id = new int[tileSamples];
+				b.asIntBuffer().get(id);
+				db = new DataBufferInt(id, tileSamples);
+				break;
+			case DataBuffer.TYPE_FLOAT:
+				float[] fd = new float[tileSamples];
+				b.asFloatBuffer().get(fd);
+				db = new DataBufferFloat(fd, tileSamples);
+				break;
+			default:
+				double[] dd = new double[tileSamples];
+				b.asDoubleBuffer().get(dd);
+				db = new DataBufferDouble(dd, tileSamples);
+		}
+		return Raster.createWritableRaster(getSampleModel(), db,
+				new Point(tileXToX(tx), tileYToY(ty)));
+	}
+
+	/**
+	 * Reads the whole file into memory now, e.g. ahead of its use.
+	 */
+	public void load() {
+		if (map instanceof MappedByteBuffer) ((MappedByteBuffer) map).load();
+	}
+
+	/** Path of the image the pixels were decoded from */
+	public String getSourcePath() {
+		return source;
+	}
+
+	/** The lastModified of the source when it was decoded */
+	public long getSourceModified() {
+		return sourceModified;
+	}
+
+	/**
+	 * Whether the pixels are those of the file as it is now: same path,
+	 * modification time and length.
+	 */
+	public boolean isValidFor(File f) {
+		return f.getAbsolutePath().equals(source) && f.lastModified() == sourceModified
+				 && f.length() == sourceLength;
+	}
+}
@@ -0,0 +1,131 @@
+package titech.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.media.jai.PlanarImage;
+
+/**
+ * A directory of intermediate images of scripts, so that a script run again
+ * on the same images resumes after the commands it already did.
+ * <p>
+ * Each image is a RasterFile named after the MD5 of a key, which says where
+ * the image comes from: the content of the file loaded, the commands applied
+ * to it and the models they used (see the memo command of Interpreter). As
+ * in DecodedCache, the least recently used entries are deleted when the
+ * files go over the disk budget, and several processes can share the
+ * directory.
+ *
+ * @see DecodedCache
+ * @author David Gavilan
+ */
+public class ResultCache extends DecodedCache {
+
+	/** Hashes kept, the least recently used are forgotten */
+	public static int MAX_HASHES = 4096;
+	/** path|modified|length -> MD5 of the content, in access order */
+	static LinkedHashMap hashes = new LinkedHashMap(64, 0.75f, true);
+
+	/**
+	 * @param  dir     The cache directory, created if missing.
+	 * @param  budget  Maximum size of the entries, in bytes.
+	 */
+	public ResultCache(File dir, long budget) {
+		super(dir, budget);
+	}
+
+	/** Cache directory used when none is given */
+	public static File defaultDir() {
+		return new File(System.getProperty("java.io.tmpdir"), "kingsalbum-memo");
+	}
+
+	/** The entry file of a key */
+	File entry(String key) {
+		return new File(dir, md5(key) + SUFFIX);
+	}
+
+	/** Whether there is an image for the key */
+	public boolean contains(String key) {
+		return entry(key).exists();
+	}
+
+	/**
+	 * The image of a key, or null if there is none.
+	 */
+	public PlanarImage get(String key) {
+		File entry = entry(key);
+		if (entry.exists()) {
+			try {
+				RasterFile rf = new RasterFile(entry);
+				entry.setLastModified(System.currentTimeMillis());
+				synchronized (this) {
+					hits++;
+				}
+				return rf;
+			} catch (IOException e) {
+				// broken or evicted meanwhile
+				entry.delete();
+			}
+		}
+		synchronized (this) {
+			misses++;
+		}
+		return null;
+	}
+
+	/**
+	 * Keeps the image of a key, computing it.
+	 *
+	 * @return    false if RasterFile can't hold it.
+	 */
+	public boolean put(String key, PlanarImage img) throws IOException {
+		if (!RasterFile.isSupported(img)) return false;
+		File entry = entry(key);
+		long before = entry.length();
+		RasterFile.write(img, null, entry);
+		added(entry, before);
+		return true;
+	}
+
+	/**
+	 * The MD5 of the content of a file, in hexadecimal. It is read once
+	 * while its modification time and length stay the same.
+	 */
+	public static String contentHash(File f) throws IOException {
+		String id = f.getAbsolutePath() + "|" + f.lastModified() + "|" + f.length();
+		String h;
+		synchronized (hashes) {
+			h = (String) hashes.get(id);
+		}
+		if (h != null) return h;
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("MD5");
+		} catch (java.security.NoSuchAlgorithmException e) {
+			throw new IOException(e.toString());
+		}
+		InputStream in = new FileInputStream(f);
+		try {
+			byte[] b = new byte[65536];
+			int n;
+			while ((n = in.read(b)) > 0) md.update(b, 0, n);
+		} finally {
+			in.close();
+		}
+		h = hex(md.digest());
+		synchronized (hashes) {
+			hashes.put(id, h);
+			Iterator it = hashes.values().iterator();
+			while (hashes.size() > MAX_HASHES) {
+				it.next();
+				it.remove();
+			}
+		}
+		return h;
+	}
+}
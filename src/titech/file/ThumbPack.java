@@ -0,0 +1,363 @@
+package titech.file;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * A single file with many encoded thumbnails.
+ * <p>
+ * Layout (big endian):
+ * <pre>
+ *   int    MAGIC
+ *   int    VERSION
+ *   int    number of entries
+ *   entry* { UTF name, long source lastModified, long offset, int length,
+ *            int width, int height }
+ *   data   the encoded thumbnails, one after the other
+ * </pre>
+ * Offsets are absolute positions in the file. The reader maps the whole
+ * file once and {@link #getData(int)} returns a read-only slice of the map,
+ * so no bytes are copied and no file is opened per thumbnail. The
+ * lastModified of the images is read in one listing of the directory, the
+ * first time it is needed, instead of asking the file system per image.
+ *
+ * @author David Gavilan
+ */
+public class ThumbPack {
+
+	public static final int MAGIC = 0x4b54504b; // "KTPK"
+	public static final int VERSION = 1;
+	/** Name of the pack in the album directory */
+	public static final String DEFAULT_NAME = "thumbs.pack";
+
+	String[] names;
+	long[] modified;
+	long[] offsets;
+	int[] lengths, widths, heights;
+	Hashtable index = new Hashtable();
+	ByteBuffer map;
+	/** Directory of the pack and its images */
+	File dir;
+	/** name -> Long lastModified of the images, from a single listing */
+	Hashtable sources;
+
+	/**
+	 * Maps a pack file.
+	 *
+	 * @param  f                The pack file.
+	 * @exception  IOException  If the file is not a pack.
+	 */
+	public ThumbPack(File f) throws IOException {
+		dir = f.getAbsoluteFile().getParentFile();
+		FileInputStream fis = new FileInputStream(f);
+		try {
+			FileChannel ch = fis.getChannel();
+			map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		} finally {
+			// the mapping stays valid after closing the channel
+			fis.close();
+		}
+		DataInputStream dis = new DataInputStream(new ByteBufferInputStream(map.duplicate()));
+		if (dis.readInt() != MAGIC) throw new IOException(f + " is not a thumbnail pack");
+		int version = dis.readInt();
+		if (version != VERSION) throw new IOException(f + ": unknown pack version " + version);
+		int n = dis.readInt();
+		names = new String[n];
+		modified = new long[n];
+		offsets = new long[n];
+		lengths = new int[n];
+		widths = new int[n];
+		heights = new int[n];
+		for (int i = 0; i < n; i++) {
+			names[i] = dis.readUTF();
+			modified[i] = dis.readLong();
+			offsets[i] = dis.readLong();
+			lengths[i] = dis.readInt();
+			widths[i] = dis.readInt();
+			heights[i] = dis.readInt();
+			if (offsets[i] < 0 || offsets[i] + lengths[i] > map.capacity()) {
+				throw new IOException(f + ": entry " + names[i] + " out of bounds");
+			}
+			index.put(names[i], Integer.valueOf(i));
+		}
+	}
+
+	/**
+	 * Opens the pack of an album directory, if there is one.
+	 *
+	 * @return    The pack, or null if missing or unreadable.
+	 */
+	public static ThumbPack open(File dir) {
+		File f = new File(dir, DEFAULT_NAME);
+		if (!f.exists()) return null;
+		try {
+			return new ThumbPack(f);
+		} catch (IOException e) {
+			System.err.println("ThumbPack: " + e);
+			return null;
+		}
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	public String getName(int i) {
+		return names[i];
+	}
+
+	public int getWidth(int i) {
+		return widths[i];
+	}
+
+	public int getHeight(int i) {
+		return heights[i];
+	}
+
+	/**
+	 * The lastModified of the image the thumbnail was made from.
+	 */
+	public long getSourceModified(int i) {
+		return modified[i];
+	}
+
+	/**
+	 * @return    The index of the entry, or -1 if it isn't in the pack.
+	 */
+	public int indexOf(String name) {
+		Integer i = (Integer) index.get(name);
+		return i == null ? -1 : i.intValue();
+	}
+
+	/**
+	 * Looks for an up to date thumbnail of an image.
+	 *
+	 * @param  source  The original image.
+	 * @return         The index of the entry, or -1 if it is missing or
+	 *                 the image changed after packing.
+	 */
+	public int indexOf(File source) {
+		int i = indexOf(source.getName());
+		if (i >= 0 && modified[i] != lastModified(source)) return -1;
+		return i;
+	}
+
+	/**
+	 * The lastModified of an image, from the listing of the directory if
+	 * the image is next to the pack. The listing is taken once, so images
+	 * changed after it are not noticed; reopen the pack after rewriting
+	 * them.
+	 */
+	long lastModified(File source) {
+		if (!dir.equals(source.getAbsoluteFile().getParentFile())) return source.lastModified();
+		Long t = (Long) listing().get(source.getName());
+		return t == null ? 0 : t.longValue();
+	}
+
+	synchronized Hashtable listing() {
+		if (sources != null) return sources;
+		final Hashtable h = new Hashtable();
+		try {
+			// the attributes come with the walk, no stat call per file
+			// where the file system gives them in the listing
+			Files.walkFileTree(dir.toPath(), EnumSet.noneOf(FileVisitOption.class), 1,
+				new SimpleFileVisitor() {
+					public FileVisitResult visitFile(Object file, BasicFileAttributes attrs) {
+						h.put(((Path) file).getFileName().toString(),
+								Long.valueOf(attrs.lastModifiedTime().toMillis()));
+						return FileVisitResult.CONTINUE;
+					}
+				});
+		} catch (IOException e) {
+			System.err.println("ThumbPack: " + e);
+		}
+		sources = h;
+		return sources;
+	}
+
+	/**
+	 * The encoded thumbnail, as a read-only view of the mapped file.
+	 */
+	public ByteBuffer getData(int i) {
+		ByteBuffer b = map.duplicate();
+		b.limit((int) (offsets[i] + lengths[i]));
+		b.position((int) offsets[i]);
+		return b.slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * The encoded thumbnail as a stream, to give it to a decoder.
+	 */
+	public InputStream getInputStream(int i) {
+		return new ByteBufferInputStream(getData(i));
+	}
+
+	/**
+	 * Writes an entry as a loose file.
+	 *
+	 * @param  i     The entry.
+	 * @param  dest  The destination file.
+	 */
+	public void unpack(int i, File dest) throws IOException {
+		FileOutputStream fos = new FileOutputStream(dest);
+		try {
+			FileChannel ch = fos.getChannel();
+			ByteBuffer b = getData(i);
+			while (b.hasRemaining()) {
+				ch.write(b);
+			}
+		} finally {
+			fos.close();
+		}
+	}
+
+	/**
+	 * Writes all the entries as loose files in a directory.
+	 */
+	public void unpack(File dir) throws IOException {
+		if (!dir.exists()) dir.mkdirs();
+		for (int i = 0; i < names.length; i++) {
+			unpack(i, new File(dir, names[i]));
+		}
+	}
+
+	/**
+	 * Builds a pack. Thumbnails are kept in memory until close(), because
+	 * the header goes before the data.
+	 */
+	public static class Writer {
+		File dest;
+		Vector names = new Vector();
+		Vector modified = new Vector();
+		Vector sizes = new Vector();
+		Vector datas = new Vector();
+
+		public Writer(File dest) {
+			this.dest = dest;
+		}
+
+		/**
+		 * Adds an encoded thumbnail.
+		 *
+		 * @param  name      Name of the entry, usually the name of the image.
+		 * @param  modified  lastModified of the original image.
+		 * @param  w         Width of the thumbnail.
+		 * @param  h         Height of the thumbnail.
+		 * @param  data      The encoded thumbnail.
+		 */
+		public void add(String name, long modified, int w, int h, byte[] data) {
+			names.add(name);
+			this.modified.add(Long.valueOf(modified));
+			sizes.add(new int[]{w, h});
+			datas.add(data);
+		}
+
+		/**
+		 * Adds a loose thumbnail file.
+		 */
+		public void add(String name, long modified, int w, int h, File f) throws IOException {
+			byte[] data = new byte[(int) f.length()];
+			DataInputStream dis = new DataInputStream(new FileInputStream(f));
+			try {
+				dis.readFully(data);
+			} finally {
+				dis.close();
+			}
+			add(name, modified, w, h, data);
+		}
+
+		/**
+		 * Writes the pack to a temporary file and moves it in place, so
+		 * readers never see a half written pack, nor no pack at all.
+		 */
+		public void close() throws IOException {
+			int n = names.size();
+			// header size, to know the offsets
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			DataOutputStream hdr = new DataOutputStream(bos);
+			hdr.writeInt(MAGIC);
+			hdr.writeInt(VERSION);
+			hdr.writeInt(n);
+			for (int i = 0; i < n; i++) {
+				hdr.writeUTF((String) names.get(i));
+				hdr.writeLong(0);
+				hdr.writeLong(0);
+				hdr.writeInt(0);
+				hdr.writeInt(0);
+				hdr.writeInt(0);
+			}
+			long offset = bos.size();
+
+			File tmp = new File(dest.getPath() + ".tmp");
+			DataOutputStream dos = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				dos.writeInt(MAGIC);
+				dos.writeInt(VERSION);
+				dos.writeInt(n);
+				for (int i = 0; i < n; i++) {
+					byte[] data = (byte[]) datas.get(i);
+					int[] size = (int[]) sizes.get(i);
+					dos.writeUTF((String) names.get(i));
+					dos.writeLong(((Long) modified.get(i)).longValue());
+					dos.writeLong(offset);
+					dos.writeInt(data.length);
+					dos.writeInt(size[0]);
+					dos.writeInt(size[1]);
+					offset += data.length;
+				}
+				for (int i = 0; i < n; i++) {
+					dos.write((byte[]) datas.get(i));
+				}
+			} finally {
+				dos.close();
+			}
+			try {
+				Files.move(tmp.toPath(), dest.toPath(),
+						StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+	}
+
+	/**
+	 * Reads a ByteBuffer as an InputStream, without copying it.
+	 */
+	public static class ByteBufferInputStream extends InputStream {
+		ByteBuffer buf;
+
+		public ByteBufferInputStream(ByteBuffer buf) {
+			this.buf = buf;
+		}
+
+		public int read() {
+			return buf.hasRemaining() ? (buf.get() & 0xff) : -1;
+		}
+
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) return 0;
+			if (!buf.hasRemaining()) return -1;
+			len = Math.min(len, buf.remaining());
+			buf.get(b, off, len);
+			return len;
+		}
+
+		public long skip(long n) {
+			int k = (int) Math.min(n, buf.remaining());
+			buf.position(buf.position() + k);
+			return k;
+		}
+
+		public int available() {
+			return buf.remaining();
+		}
+	}
+
+}
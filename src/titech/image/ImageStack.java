@@ -0,0 +1,256 @@
+package titech.image;
+
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.EmptyStackException;
+import java.util.Vector;
+
+import javax.media.jai.PlanarImage;
+import javax.media.jai.TiledImage;
+
+import titech.file.RasterFile;
+import titech.image.dsp.OffHeapImage;
+
+/**
+ * The stack of images of the push and pop commands, within a memory budget.
+ * <p>
+ * A chain of operations is computed when it is pushed, and its pixels copied
+ * to a TiledImage, so that the stack doesn't keep the sources of the chain.
+ * When the images in the heap take more than the budget, the oldest ones
+ * are written to temporary RasterFiles, and pop gives them back mapped from
+ * the file, which is deleted; clear() deletes the files left. Images that
+ * are not in the heap (RasterFiles, off-heap images) are kept as they are,
+ * and images that RasterFile can't write stay in the heap.
+ * <p>
+ * The files are in a directory of their own, and what is still there when
+ * the JVM exits (a stack not cleared, a mapped file the system didn't let
+ * delete) goes with it.
+ * <p>
+ * The stacks of the workers of an interpreter share its budget: the images
+ * of all of them in the heap count against it, and the stack that goes over
+ * spills its own oldest images.
+ *
+ * @see RasterFile
+ * @author David Gavilan
+ */
+public class ImageStack {
+
+	/** A quarter of the heap */
+	public static final long DEFAULT_BUDGET = Runtime.getRuntime().maxMemory() / 4;
+
+	/** Directory of the spilled images of this JVM */
+	static File spillDir;
+
+	/** Entries, the top last */
+	Vector entries = new Vector();
+	/** The budget, maybe shared with other stacks */
+	Account account;
+	/** Bytes of the entries in the heap */
+	long bytes = 0;
+
+	public ImageStack() {
+		this(DEFAULT_BUDGET);
+	}
+
+	/**
+	 * @param  budget  Bytes of the images kept in the heap.
+	 */
+	public ImageStack(long budget) {
+		account = new Account(budget);
+	}
+
+	/**
+	 * An empty stack that shares the budget of another one, e.g. for a
+	 * worker. Clear it when it is no longer used, to give back its bytes.
+	 */
+	public ImageStack(ImageStack shared) {
+		account = shared.account;
+	}
+
+	public synchronized void push(PlanarImage img) {
+		Entry e = new Entry(materialize(img));
+		entries.addElement(e);
+		bytes += e.bytes;
+		account.add(e.bytes);
+		spill();
+	}
+
+	/**
+	 * Takes the image at the top.
+	 *
+	 * @exception  IOException  If it was spilled and can't be read back.
+	 */
+	public synchronized PlanarImage pop() throws IOException {
+		if (entries.isEmpty()) throw new EmptyStackException();
+		Entry e = (Entry) entries.remove(entries.size() - 1);
+		bytes -= e.bytes;
+		account.add(-e.bytes);
+		return e.get();
+	}
+
+	public synchronized boolean empty() {
+		return entries.isEmpty();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Removes every image, and deletes the spilled ones.
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < entries.size(); i++) {
+			Entry e = (Entry) entries.elementAt(i);
+			if (e.file != null) e.file.delete();
+		}
+		entries.removeAllElements();
+		account.add(-bytes);
+		bytes = 0;
+	}
+
+	/**
+	 * Sets the budget, of all the stacks that share it.
+	 */
+	public synchronized void setBudget(long b) {
+		account.setBudget(b);
+		spill();
+	}
+
+	public long getBudget() {
+		return account.getBudget();
+	}
+
+	/**
+	 * A chain of operations computed into a TiledImage; the other images as
+	 * they are.
+	 */
+	static PlanarImage materialize(PlanarImage img) {
+		if (img instanceof TiledImage || img instanceof RasterFile) return img;
+		TiledImage t = new TiledImage(img.getMinX(), img.getMinY(), img.getWidth(), img.getHeight(),
+				img.getTileGridXOffset(), img.getTileGridYOffset(),
+				img.getSampleModel(), img.getColorModel());
+		t.set(img);
+		return t;
+	}
+
+	/** Bytes of the image in the heap */
+	static long heapBytes(PlanarImage img) {
+		if (img instanceof RasterFile || OffHeapImage.isOffHeap(img)) return 0;
+		int bits = DataBuffer.getDataTypeSize(img.getSampleModel().getDataType());
+		return (long) img.getWidth() * img.getHeight() * img.getSampleModel().getNumBands() * bits / 8;
+	}
+
+	/**
+	 * Writes the oldest images in the heap to files until the rest fit in
+	 * the budget, or there are none left in this stack.
+	 */
+	void spill() {
+		for (int i = 0; i < entries.size() && account.isOver(); i++) {
+			Entry e = (Entry) entries.elementAt(i);
+			if (e.bytes == 0 || !RasterFile.isSupported(e.image)) continue;
+			File f = null;
+			try {
+				f = File.createTempFile("stack", ".raw", spillDir());
+				RasterFile.write(e.image, null, f);
+			} catch (IOException ex) {
+				// it stays in the heap
+				if (f != null) f.delete();
+				continue;
+			}
+			e.file = f;
+			e.image = null;
+			bytes -= e.bytes;
+			account.add(-e.bytes);
+			e.bytes = 0;
+		}
+	}
+
+	/**
+	 * The directory of the spilled images, created the first time, with a
+	 * single hook that deletes it when the JVM exits.
+	 */
+	static synchronized File spillDir() throws IOException {
+		if (spillDir == null || !spillDir.isDirectory()) {
+			final File dir = Files.createTempDirectory("stack").toFile();
+			Runtime.getRuntime().addShutdownHook(new Thread("ImageStack spill cleanup") {
+				public void run() {
+					File[] files = dir.listFiles();
+					for (int i = 0; files != null && i < files.length; i++) {
+						files[i].delete();
+					}
+					dir.delete();
+				}
+			});
+			spillDir = dir;
+		}
+		return spillDir;
+	}
+
+	public synchronized String toString() {
+		int spilled = 0;
+		for (int i = 0; i < entries.size(); i++) {
+			if (((Entry) entries.elementAt(i)).file != null) spilled++;
+		}
+		String s = entries.size() + " images, " + spilled + " on disk, " + (bytes >> 20) + " of "
+				 + (account.getBudget() >> 20) + " MB in the heap";
+		long all = account.getBytes();
+		return (all == bytes) ? s : s + " (" + (all >> 20) + " MB with the other stacks)";
+	}
+
+	/**
+	 * A budget and the bytes counted against it.
+	 */
+	static class Account {
+		long budget;
+		long bytes = 0;
+
+		Account(long budget) {
+			this.budget = budget;
+		}
+
+		synchronized void add(long b) {
+			bytes += b;
+		}
+
+		synchronized boolean isOver() {
+			return bytes > budget;
+		}
+
+		synchronized long getBytes() {
+			return bytes;
+		}
+
+		synchronized long getBudget() {
+			return budget;
+		}
+
+		synchronized void setBudget(long b) {
+			budget = b;
+		}
+	}
+
+	/**
+	 * An image, or the file where it was spilled.
+	 */
+	static class Entry {
+		PlanarImage image;
+		File file;
+		long bytes;
+
+		Entry(PlanarImage image) {
+			this.image = image;
+			this.bytes = heapBytes(image);
+		}
+
+		PlanarImage get() throws IOException {
+			if (file == null) return image;
+			RasterFile r = new RasterFile(file);
+			// the mapping stays valid, where the file system lets us delete it
+			file.delete();
+			return r;
+		}
+	}
+}
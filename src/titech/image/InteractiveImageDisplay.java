@@ -12,6 +12,8 @@ import javax.media.jai.iterator.*;
 
 import javax.swing.*;
 
+import titech.image.dsp.OpGraph;
+
 
 /**
  * This class allows to paint over an image at a different layer.
@@ -396,7 +398,8 @@ public class InteractiveImageDisplay
         } else {
             Graphics2D gpim = tim.createGraphics();
             drawOn(gpim);
-            source.dispose();
+            // a node of the OpGraph may be given again to other commands
+            if (!OpGraph.contains(source)) source.dispose();
             source = tim;
         }
 
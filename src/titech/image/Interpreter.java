@@ -0,0 +1,2271 @@
+package titech.image;
+
+import java.awt.*;
+import java.awt.color.*;
+import java.awt.image.*;
+import java.awt.image.renderable.*;
+import java.awt.event.*;
+import javax.media.jai.*;
+import javax.media.jai.iterator.*;
+import javax.media.jai.registry.*;
+import javax.media.jai.operator.MedianFilterDescriptor;
+import javax.media.jai.operator.MedianFilterShape;
+import java.text.NumberFormat;
+import java.util.*;
+import java.io.*;
+import titech.image.dsp.*;
+import titech.image.math.*;
+import titech.nn.*;
+import titech.file.*;
+
+/**
+ *  A command interpreter that contains different Image Processing functions
+ *  contained in this API, without any window: what it prints, and the changes
+ *  of its image, go to an OutputSink. IPPanel is the window of the
+ *  interpreter, and RunScript runs its scripts from the command line.
+ * 
+ * Version refers to both Interpreter and the scripting language defined here.
+ * Version: 1.10 
+ * <p><h5>
+ * Last modified: 2005/01/26 (jedit)
+ * </h5>
+ * @author     David Gavilan
+ * @created    2003/12/15
+ */
+public class Interpreter {
+
+	/**
+	 * Name of the last loaded image
+	 */
+	String lastLoaded;
+
+	/** A stack of images - for the commands push and pop */
+	ImageStack imageStack;
+	
+	/** To format numbers into Strings */
+	NumberFormat nf;
+
+	/** When true, this interpreter doesn't tell the sink about its images (to stop pulling images -- loopdir) */
+	private boolean passive = false;
+
+	/**
+	 * Image being processed
+	 */
+	PlanarImage currentImage;
+
+	byte[][] colormap = null;
+	int colormapBits = 8;
+	Perceptron perceptron = null;
+	ColorCategorization colorCat = null;
+	ObjectImage objectImage = null;
+	SOM nnsom = null;
+	/** Summed area tables of integralSource, for the integral command */
+	IntegralImage integral = null;
+	PlanarImage integralSource = null;
+	/** Off-heap memory of the float images, for the offheap command */
+	OffHeapArena arena = null;
+	/** Where the output goes */
+	OutputSink sink;
+	/** Times of the commands, for the profile command */
+	Profiler profiler = null;
+	/** Images decoded ahead by the loops, for the readahead command */
+	int readahead = 2;
+	/** Images of the loop being run */
+	Prefetcher prefetcher = null;
+	/** Commands that failed */
+	int errors = 0;
+	/** Results of the commands on disk, for the memo command */
+	ResultCache memo = null;
+	/**
+	 * Where the current image comes from, for the memo: the content of the
+	 * file loaded and the commands applied since, or null if it is unknown.
+	 */
+	String imageKey = null;
+	/** Hashes of the models (palette, networks, quantizer), for the memo */
+	Hashtable models = new Hashtable();
+	/** Image of a quantize skipped by the memo, for quanterror */
+	PlanarImage quantizeSource = null;
+	/** Commands being run inside another one, which the memo leaves alone */
+	int depth = 0;
+	/** Copy of the output, for the log command */
+	Writer logFile = null;
+	String logPath = null;
+	/** Flushes logFile every LOG_FLUSH ms, away from the thread that prints */
+	Timer logFlusher = null;
+	/** Closes logFile if the program exits with it open */
+	Thread logCloser = null;
+	/** Milliseconds between the flushes of the log file */
+	public static final int LOG_FLUSH = 1000;
+
+	/**
+	 * Commands that change what the workers of ploopdir share (models,
+	 * settings, the output), which can't run in them.
+	 */
+	static final String SERIAL_COMMANDS = " clear graph jai learn log loop2dirs loopdir lut memo offheap pixcache ploopdir profile quantizer readahead simd stack ";
+
+	/**
+	 * Commands whose only effect is the current image, which is the same for
+	 * the same image, arguments and models. The memo keeps their results.
+	 */
+	static final String MEMO_COMMANDS = " add binarize blur canny crop cropx cs derivative div gradient gray grey hsv invert laplacian maxcon median modwhite modwhiteg mult posterize quantize rgb sharpen size sizex type ";
+	
+	/**
+	 * Files each worker of ploopdir may be ahead of the one printed next:
+	 * the outputs and results of the files done out of order wait for it.
+	 */
+	static final int PLOOP_AHEAD = 2;
+
+	ImageFileFilter filter = new ImageFileFilter();
+
+
+	// Register "Wavelet" operator and its RIFs
+	static {
+		OperationRegistry registry =
+				JAI.getDefaultInstance().getOperationRegistry();
+
+		registry.registerDescriptor(new WaveletDescriptor());
+		RenderedImageFactory waveletRIF = new WaveletRIF();
+		RIFRegistry.register(registry, "Wavelet", "ccd-hyper", waveletRIF);
+
+		registry.registerDescriptor(new IWaveletDescriptor());
+		RenderedImageFactory iWaveletRIF = new IWaveletRIF();
+		RIFRegistry.register(registry, "IWavelet", "ccd-hyper", iWaveletRIF);
+		
+		registry.registerDescriptor(new DerivativeDescriptor());
+		RenderedImageFactory derivativeRIF = new DerivativeRIF();
+		RIFRegistry.register(registry, "Derivative", "titech", derivativeRIF);
+
+		registry.registerDescriptor(new IntegralDescriptor());
+		RenderedImageFactory integralRIF = new IntegralRIF();
+		RIFRegistry.register(registry, "Integral", "titech", integralRIF);
+
+		ExecutionConfig.apply();
+	}
+
+	/**
+	 *  Sets the image attribute of the Interpreter object
+	 *
+	 * @param  pimg  The new image value
+	 */
+	public void setImage(PlanarImage pimg) {
+		currentImage = pimg;
+	}
+
+
+	/**
+	 *  Gets the image attribute of the Interpreter object
+	 *
+	 * @return    The image value
+	 */
+	public PlanarImage getImage() {
+		return currentImage;
+	}
+
+
+	/**
+	 * Constructor for the Interpreter object
+	 *
+	 * @param  sink  Where the output goes.
+	 */
+	public Interpreter(OutputSink sink) {
+		this.sink = sink;
+		nf = NumberFormat.getInstance();
+		nf.setMaximumFractionDigits(4);
+		
+		imageStack = new ImageStack();
+		// reuse the operations repeated by the commands
+		OpGraph.setEnabled(true);
+		
+		filter.addExtension("jpg");
+		filter.addExtension("png");
+		filter.addExtension("jpeg");
+		filter.addExtension("bmp");
+		filter.addExtension("tiff");
+	}
+
+	/**
+	 * An interpreter for a worker of ploopdir. It has its own image, stack
+	 * and objects, and shares the palette, networks and arena of shared,
+	 * which its commands must not change. Its stack counts against the
+	 * budget of the stack of shared.
+	 */
+	Interpreter(Interpreter shared, OutputSink sink) {
+		this.sink = sink;
+		nf = NumberFormat.getInstance();
+		nf.setMaximumFractionDigits(4);
+		imageStack = new ImageStack(shared.imageStack);
+		filter = shared.filter;
+		lastLoaded = shared.lastLoaded;
+		colormap = shared.colormap;
+		colormapBits = shared.colormapBits;
+		perceptron = shared.perceptron;
+		nnsom = shared.nnsom;
+		arena = shared.arena;
+		profiler = shared.profiler;
+		memo = shared.memo;
+		models = (Hashtable) shared.models.clone();
+		if (shared.colorCat != null) {
+			// it keeps the error image of the last categorization
+			colorCat = new ColorCategorization(shared.colorCat.getNN(),
+				shared.colorCat.getPaletteBits(), shared.colorCat.getColormap());
+		}
+	}
+
+
+	public static String commandList = "add, binarize, blur, canny, clear, cs, div, extrema, features, fwt, gblob, getblobs, getsample, gradient, graph, gray, help, histohsv, integral, invert, iwt, jai, laplacian, load, log, loop2dirs, loopdir, lut, maxcon, mean, median, memo, modwhiteg, mult, offheap, palette, pixcache, ploopdir, profile, quanterror, quantize, quantizer, readahead, reload, rgb, segeval, sharpen, simd, size, stack, stats, threshold, type, xydiagram, xyimage, ?";
+	
+	/**
+	 * The command interpreter. Translates a String into actions.
+	 * Those actions are detailed within the user documentation.
+	 * <p>
+	 * If the result of the operation is a visualizable image, it
+	 * tells the sink.
+	 * <p>
+	 * Commands:<p>
+	 <center>
+	 <table border=1 align=center>
+	 <tr>
+	 	<th>Command</th><th>Arguments</th><th>Functionality</th></tr>
+	 <tr>
+	 	<th>add</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>binarize</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>blur</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>canny</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>clear</th><td></td><td>Clears the output window.</td></tr>
+	 <tr>
+	 	<th>cluster</th><td></td><td></td></tr>
+		
+	 <tr>
+	 	<th>crop</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>cropx</th><td></td><td></td></tr>		
+	 <tr>
+	 	<th>cs</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>div</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>extrema</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>features</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>fwt</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>gblob</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>getblobs</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>getsample</th><td>x y band</td><td></td></tr>
+	<tr>
+	 	<th>gradient</th><td></td><td>The image is automatically converted to a float image with values between 0 and 1. To convert it again to byte, use:<br>
+		<pre>
+		mult 255
+		type int
+		</pre>
+		</td></tr>
+	 <tr>
+	 	<th>graph</th><td>[on|off|clear|MB]</td><td>Operations identical to one done before (same operator, parameters and source) give its result again, with the tiles already computed. On by default; MB is the size of the images kept. @see OpGraph</td></tr>
+	 <tr>
+	 	<th>gray/grey</th><td></td><td></td></tr>		
+ 	<tr>
+	 	<th>histohsv</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>integral</th><td>[X Y W H]</td><td>Computes the summed area tables of the current image (kept until the image changes) and prints the sum, mean and variance per band of the rectangle, in constant time. @see IntegralImage</td></tr>
+	 <tr>
+	 	<th>invert</th><td></td><td><code>dst[x][y][b] = -src[x][y][b]</code></td></tr>
+	 <tr>
+	 	<th>iwt</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>jai</th><td>[threads N | prefetch N [PRIORITY] | cache MB | tile W [H]]</td><td>Shows or changes the JAI execution settings: threads computing tiles in parallel, prefetch threads, tile cache memory and tile size of new images. @see ExecutionConfig</td></tr>
+	 <tr>
+	 	<th>laplacian</th><td></td><td></td></tr>
+		<tr>
+	    <th>learn</th><td>(obj) [WORKERS] [DIR] [FEATURE_FILE]</td><td>Learns something from the images in DIR. 
+		<ul><li><code>obj:</code> applies getblobs to get properties, and learns them in the SOM network (see <b>som</b>). WORKERS images at a time, like ploopdir. The samples are kept as floats in memory, or written to FEATURE_FILE, a float per feature and a row per object.
+		</ul>
+		</td></tr>	 		
+	 <tr>
+	 	<th>load</th><td>[filename]</td><td>Loads an object into this panel. Possible objects are: colormaps (<code>.palette</code>), neural networks (<code>.xml</code>) and images (<code>jpeg, gif, tiff, bmp, ppm, ...</code>). If no argument is provided, a load requester is shown.</td></tr>
+	 <tr>
+	 	<th>log</th><td>[file PATH|off]</td><td>Appends all the output to the file PATH too, which is flushed every second, or stops it.</td></tr>
+	 <tr>
+	 <th>loop2dirs</th><td>[DIR1] [DIR2] [COMMAND1] [COMMAND2]</td><td>Executes COMMAND1 on every picture in directory DIR1 and then COMMAND2 on a picture of DIR2, sorted by filename.</td></tr>
+ 	 <tr>
+	 	<th>loopdir</th><td>[DIR] [COMMAND]</td><td>Executes COMMAND on every picture in directory DIR.</td></tr>
+	 <tr>
+	 	<th>lut</th><td>[on|off|check]</td><td>Uses lookup tables for the color space conversions and gray, or the JAI operators. <b>check</b> compares both on the current image.</td></tr>
+	 <tr>
+	 	<th>maxcon</th><td></td><td></td></tr>		
+	<tr>
+	 	<th>mean</th><td></td><td></td></tr>		
+	<tr>
+	 	<th>median</th><td>[SIZE] [square|plus|x]</td><td>Median filter, 3x3 square by default. Square masks of SIZE 7 or more on byte images take constant time per pixel, whatever the size. @see HistogramMedianOpImage</td></tr>
+	 <tr>
+	 	<th>memo</th><td>[on [DIR] [MB]|off|clear]</td><td>Keeps in DIR, up to MB megabytes, the image after each command that only changes the image (blur, size, quantize, ...), under the content of the file loaded, the commands applied to it and the models. A script run again resumes after the longest run of commands already done, and the loops don't read ahead. @see ResultCache</td></tr>
+	 <tr>
+	 	<th>modwhite</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>modwhiteg</th><td>[TOLERANCE]</td><td>Color correction, if the image falls onto the gray world assumption. With a TOLERANCE (e.g. 0.01), the gains are estimated on a subsample of the image, within that relative error.</td></tr>
+	 <tr>
+	 	<th>mult</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>objects</th><td>(map|index)<br>(an image in the stack)</td><td>Pops an image from the stack.</td></tr>
+	 <tr>
+	 	<th>offheap</th><td>[on|off|free]</td><td>With <b>on</b>, float images (e.g. the quantization error) are created out of the Java heap, in an arena, until <b>off</b>. <b>free</b> ends the arena; the memory of its images goes back as they are dropped.</td></tr>
+		
+	 <tr>
+	 	<th>palette</th><td>(partition|posterize|rainbow|indexed|show) [size]</td><td></td></tr>
+	 <tr>
+	 	<th>pixcache</th><td>[on [DIR] [MB]|off|clear]</td><td>Keeps the decoded pixels of the loaded images in DIR, up to MB megabytes, so that loading them again doesn't decode them. @see DecodedCache</td></tr>
+	 <tr>
+	 	<th>ploopdir</th><td>[WORKERS] [DIR] [COMMAND]</td><td>Like loopdir, with WORKERS images at a time (the number of processors by default). Each worker has its own image, stack and objects, and shares the palette and networks. The output of each image is printed in order. Commands that change what the workers share (quantizer, learn, jai, ...) are refused.</td></tr>
+	 <tr>
+	 	<th>pop</th><td></td><td>Takes an image from the stack.</td></tr>
+		
+	 <tr>
+	 	<th>posterize</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>profile</th><td>[on|off|report|clear]</td><td>Times every command: count, total, 50, 95 and 99 percentiles, and allocated memory. The tiles of the operators a command builds are timed when something computes them, and counted in its "tiles" column; operators built before <b>on</b> are not timed. <b>off</b> prints the report and stops timing. @see Profiler</td></tr>
+	 <tr>
+	 	<th>push</th><td></td><td>Puts current image into the image stack. A chain of operations is computed first, and only its pixels are kept. @see stack</td></tr>
+
+	<tr>
+	 	<th>quanterror</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>quantize</th><td>(map)</td><td>Outputs an indexed image. If "map" is specified, uses the euclidean distance to current palette. Otherwise, it uses a ColorCategorization object.</td></tr>
+	 <tr>
+	 	<th>quantizer</th><td>[threshold]</td><td>Builds a color quantizer object using a neural network, with the initial threshold. Before creating it, we need to load a netword using <b>load</b>. We also need to load a color map. For instance, <br>
+	 	<pre>
+	 	load universalEx.palette
+		load colorsEx.xml
+		quantizer
+	 	</pre>
+		</td></tr>
+	 <tr>
+	 	<th>readahead</th><td>[N]</td><td>The directory loops read and decode the next N images (2 by default, 0 for none) while the current one is processed, as long as they fit in the memory. @see Prefetcher</td></tr>
+	 <tr>
+	 	<th>reload</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>rgb</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>save</th><td>[fileName]</td><td>Saver current image to disk or overwrites last loaded one if no name is specified.</td></tr>
+	 <tr>
+	 	<th>savesamples</th><td>fileName</td><td>@see ColorManipulation.saveMaskedSamples</td></tr>
+		
+	<tr>
+	 	<th>segeval</th><td><em>none</em></td><td>Evaluates the segmentation result of an instanciated <code>ObjectImage</code>. To instanciate one copy, you need a <code>ColorCategorization</code> object, obtained with the <b>quantizer</b> command, and then you can use <b>getblobs</b></td></tr>
+	 <tr>
+	 	<th>sharpen</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>simd</th><td>[on|off|bench]</td><td>Selects the SIMD loops of the float operators, if the vector build is available. <b>bench</b> times each loop, scalar and selected.</td></tr>
+	 <tr>
+	 	<th>size</th><td>[WIDTH] [HEIGHT]</td><td></td></tr>
+	 <tr>
+	 	<th>sizex</th><td>[LONG] [SHORT]</td><td></td>
+		</tr>
+	 <tr>
+	 	<th>stack</th><td>[MB|clear]</td><td>Shows the image stack, or sets the memory of its images (a quarter of the heap by default). Beyond it, the oldest images are written to temporary files, and read back when they are popped. @see ImageStack</td></tr>
+	 <tr>
+	 	<th>stats</th><td>[PERIOD]</td><td>Mean, standard deviation and extrema of each band, in one pass. With a PERIOD, only one pixel every PERIOD in x and y is counted.</td></tr>
+	 <tr>
+	 	<th>threshold</th><td>[LOW] [HIGH] [CONSTANTS]</td><td></td>
+		</tr>
+	 <tr>
+	 	<th>type</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>xydiagram</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>xyimage</th><td></td><td></td></tr>
+	 <tr>
+	 	<th>? / help</th><td></td><td>Displays some help.</td></tr>
+	 </table>
+	 </center>
+	 * 
+	 *
+	 * @param  com  The command string.
+	 */
+	public void interpret(String com) {
+		Pipeline.Step step = Pipeline.Step.parse(com);
+		if (step != null) interpret(step);
+	}
+
+	/**
+	 * Runs the steps of a compiled pipeline.
+	 */
+	public void run(Pipeline p) {
+		for (int i = 0; i < p.size(); i++) {
+			// after a step of a run, interpret looks for the next ones
+			if (memo != null && imageKey != null && (i == 0 || !memoizable(p.getStep(i - 1)))) {
+				i = resume(p, i);
+			}
+			if (i < p.size()) interpret(p.getStep(i));
+		}
+	}
+
+	/**
+	 * Skips the longest run of steps from i whose result is in the memo,
+	 * taking that result as the current image.
+	 *
+	 * @return    The first step to run.
+	 */
+	int resume(Pipeline p, int i) {
+		String key = imageKey, found = null;
+		int end = i;
+		boolean quanterror = false;
+		for (int j = i; j < p.size(); j++) {
+			if (p.getStep(j).getCommand().equals("quanterror")) quanterror = true;
+		}
+		for (int j = i; j < p.size() && memoizable(p.getStep(j)); j++) {
+			// quanterror needs the quantize done
+			if (quanterror && p.getStep(j).getCommand().equals("quantize")) break;
+			key = memoKey(key, p.getStep(j));
+			if (memo.contains(key)) {
+				found = key;
+				end = j + 1;
+			}
+		}
+		if (found == null) return i;
+		PlanarImage img = memo.get(found);
+		if (img == null) return i;
+		currentImage = img;
+		imageKey = found;
+		generateEvent();
+		if (!passive) print(hora()+"memo: skipped "+(end - i)+" commands\n");
+		return end;
+	}
+
+	/**
+	 * The first command of a pipeline that can't run in a worker, or null.
+	 *
+	 * @see #SERIAL_COMMANDS
+	 */
+	static String serialCommand(Pipeline pipe) {
+		for (int i = 0; i < pipe.size(); i++) {
+			String sc = pipe.getStep(i).getCommand();
+			if (SERIAL_COMMANDS.indexOf(" " + sc + " ") >= 0) return sc;
+		}
+		return null;
+	}
+
+	/** Whether the memo keeps the result of a step */
+	static boolean memoizable(Pipeline.Step cmd) {
+		if (MEMO_COMMANDS.indexOf(" " + cmd.getCommand() + " ") < 0) return false;
+		// the foveal order depends on the objects, and quantize map sets
+		// the bits of the palette, which a hit would leave as they were
+		String c = cmd.getCommand();
+		return !(c.equals("rgb") || c.equals("quantize")) || !cmd.args().hasMoreTokens();
+	}
+
+	/**
+	 * The key of the result of a step on the image of key parent.
+	 */
+	String memoKey(String parent, Pipeline.Step cmd) {
+		StringBuffer sb = new StringBuffer(parent);
+		sb.append('\n').append(cmd.getNormalized()).append('\n');
+		String[] m = new String[models.size()];
+		int k = 0;
+		for (Enumeration e = models.keys(); e.hasMoreElements(); ) {
+			String name = (String) e.nextElement();
+			m[k++] = name + "=" + models.get(name);
+		}
+		Arrays.sort(m);
+		for (k = 0; k < m.length; k++) sb.append(m[k]).append(' ');
+		sb.append("bits=" + colormapBits + " lut=" + COps.colorLUT);
+		return DecodedCache.md5(sb.toString());
+	}
+
+	/**
+	 * A model changed; its new hash depends on the old one and how.
+	 */
+	void modelChanged(String model, String how) {
+		Object old = models.get(model);
+		models.put(model, DecodedCache.md5(((old != null) ? old : "") + "\n" + how));
+	}
+
+	/**
+	 * Interprets a command already split into tokens, and times it if the
+	 * profiler is on.
+	 *
+	 * @see Pipeline
+	 * @see Profiler
+	 */
+	public void interpret(Pipeline.Step cmd) {
+		ResultCache m = memo;
+		if (m == null || depth > 0) {
+			timed(cmd);
+			return;
+		}
+		String key = (imageKey != null && memoizable(cmd)) ? memoKey(imageKey, cmd) : null;
+		if (key != null) {
+			PlanarImage img = m.get(key);
+			if (img != null) {
+				if (cmd.getCommand().equals("quantize")) quantizeSource = currentImage;
+				currentImage = img;
+				imageKey = key;
+				generateEvent();
+				if (!passive) print(hora()+"memo: "+cmd.getNormalized()+"\n");
+				return;
+			}
+		}
+		PlanarImage before = currentImage;
+		String keyBefore = imageKey;
+		int errorsBefore = errors;
+		depth++;
+		try {
+			timed(cmd);
+		} finally {
+			depth--;
+		}
+		if (key != null) {
+			// the key is only true of the image the command made; if it
+			// failed or did nothing, the image keeps its key or has none
+			if (currentImage == before) return;
+			if (errors != errorsBefore) {
+				imageKey = null;
+				return;
+			}
+			imageKey = key;
+			try {
+				m.put(key, currentImage);
+			} catch (IOException e) {
+				if (!passive) print("memo: " + e + "\n");
+			}
+		} else if (currentImage != before && imageKey == keyBefore) {
+			// load makes a new key, even for the same file
+			imageKey = null;
+		}
+	}
+
+	/**
+	 * Executes a command, timing it if the profiler is on.
+	 */
+	void timed(Pipeline.Step cmd) {
+		Profiler p = profiler;
+		if (p == null || cmd.getCommand().equals("profile")) {
+			execute(cmd);
+			return;
+		}
+		PlanarImage before = currentImage;
+		long bytes = Profiler.allocatedBytes();
+		long charged = p.chargedHere();
+		long time = System.nanoTime();
+		execute(cmd);
+		// the tiles it pulled of other commands are charged to them
+		long t = System.nanoTime() - time - (p.chargedHere() - charged);
+		long b = (bytes < 0) ? -1 : Profiler.allocatedBytes() - bytes;
+		p.record(cmd.getCommand(), t, b);
+		if (currentImage != null && currentImage != before) {
+			// its tiles are charged to it when they are computed
+			try {
+				p.built(cmd.getCommand(), currentImage);
+			} catch (RuntimeException e) {
+				if (!passive) print("profile: " + e + "\n");
+			}
+		}
+	}
+
+	/**
+	 * Executes a command.
+	 */
+	void execute(Pipeline.Step cmd) {
+		Pipeline.Args stok = cmd.args();
+		String c = cmd.getCommand();
+		String token;
+		try {
+			if (c.equals("add")) {
+		   		if (stok.hasMoreTokens()) {
+			   		token = stok.nextToken();
+			   		float v = Float.parseFloat(token);
+			   		currentImage = COps.add(currentImage, v);
+			   		generateEvent();
+			   		if (!passive) print(hora() + "added constant "+v+"\n");
+		   		} else {
+			   		if (!passive) print(hora() + "add (const)\n");
+		   		}
+			} else if (c.equals("binarize")) {
+			   if (stok.hasMoreTokens()) {
+				   token = stok.nextToken();
+				   double th = Double.parseDouble(token);
+				   currentImage = COps.binarize(currentImage, th);
+				   generateEvent();
+				   if (!passive) print(hora() + "Image binarized (>"+ th + ")\n");
+			   } else {
+				   if (!passive) print(hora() + "binarize (const)\n");
+			   }
+		    } else if (c.equals("blur")) {			
+				double sigma = 0.45;
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					sigma = Double.parseDouble(token);
+				}
+				int size = (int)(Math.ceil(sigma*3) * 2 + 1);
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					size = Integer.parseInt(token);
+				}
+				currentImage = COps.gaussianBlur(currentImage, size, sigma);
+				generateEvent();
+				if (!passive) print(hora() + "Blurred (sigma, kernel size)=("
+						 + sigma + ", " + size + ")\n");
+		    } else if (c.equals("canny")) {
+			   currentImage = COps.cannyEdge(currentImage);
+			   generateEvent();
+			   if (!passive) print(hora() + "Canny Edge Operator applied.\n");
+		    } else if (c.equals("clear")) {
+			   sink.clear();
+		    } else if (c.equals("cluster")) {
+			   // classifies objects using a SOM
+			   // load objects.som
+			   // before doing so, do a load objects.palette
+			   if (nnsom == null) {
+				   print(hora()+" Create a SOM\n");
+			   } else if (objectImage == null) {
+				   print(hora() +" No object image! see getblobs.\n");
+			   } else {
+				   objectImage.regionClustering(nnsom);
+				   currentImage = objectImage.getClusterImage(8, colormap);
+				   generateEvent();
+				   print(hora()+ " Clustered!\n");
+			   }
+			} else if (c.equals("crop")) {
+				int x=0, y=0, width=64, height=64;
+				if (stok.hasMoreTokens()) {
+					x=Integer.parseInt(stok.nextToken());
+					y=Integer.parseInt(stok.nextToken());
+					width=Integer.parseInt(stok.nextToken());
+					height=Integer.parseInt(stok.nextToken());
+				}
+				
+				currentImage=COps.crop(currentImage,x,y,width,height);
+				generateEvent();
+				
+				print("Image cropped ("+x+", "+y+", "+width+", "+height+")\n");
+			} else if (c.equals("cropx")) {
+				int x=0, y=0, width=64, height=64;
+				if (stok.hasMoreTokens()) {
+					x=Integer.parseInt(stok.nextToken());
+					y=Integer.parseInt(stok.nextToken());
+					width=Integer.parseInt(stok.nextToken());
+					height=Integer.parseInt(stok.nextToken());
+				}
+				
+				if (currentImage.getWidth()>currentImage.getHeight()) {
+					interpret("crop "+x+" "+y+" "+" "+width+" "+height);
+				} else {
+					interpret("crop "+x+" "+y+" "+" "+height+" "+width);
+				}
+				
+			} else if (c.equals("cs")) {
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					if (token.equals("hsv")) {
+						currentImage = COps.colorConvert(currentImage, IHSColorSpace.getInstance());
+						generateEvent();
+						if (!passive) print(hora()+"Color space changed to IHS\n");
+					} else if (token.equals("rgb")) {
+						currentImage = COps.colorConvert(currentImage, ColorSpace.getInstance(ColorSpace.CS_sRGB));
+						generateEvent();
+						if (!passive) print(hora()+"Color space changed to RGB\n");
+					}
+				} else {
+					if (!passive) print("Specify color space: (hsv|rgb) n");
+				}
+		    } else if (c.equals("colortr")) { // color transform
+				PlanarImage filter = currentImage;
+				interpret("pop");
+				currentImage = ColorManipulation.changeColor(currentImage, filter);
+				generateEvent();
+				if (!passive) print(hora()+"Color transformed\n");
+			} else if (c.equals("derivative")) {
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					if (token.equals("x")) {
+						currentImage = Difference.differenciateX(currentImage);
+						generateEvent();
+						print(hora()+"Differenciated by X\n");
+					} else if (token.equals("y")) {
+						currentImage = Difference.differenciateY(currentImage);
+						generateEvent();
+						print(hora()+"Differenciated by Y\n");	
+					} else {
+						print("derivative (x|y)\n");
+					}
+				}
+			} else if (c.equals("div")) {
+			   if (stok.hasMoreTokens()) {
+				   token = stok.nextToken();
+				   float v = Float.parseFloat(token);
+				   currentImage = COps.multiply(currentImage, 1f/v);
+				   generateEvent();
+				   if (!passive) print(hora() + "divided by "+v+"\n");
+			   } else {
+				   if (!passive) print(hora() + "div (const)\n");
+			   }
+			} else if (c.equals("exec")) {
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					execScript(new File(token));
+				} else {
+					scriptCallback();
+				}				
+			} else if (c.equals("extrema")) {
+				double[][] ext = COps.extrema(currentImage);
+				if (!passive) print(AMath.showMatrix(ext)+"\n");
+			} else if (c.equals("features")) {
+				if (objectImage != null) {
+					double[][] feats = objectImage.getFeatures();
+					int[] cats = objectImage.getCategories();
+					
+					int[][] fi = AMath.toInt(AMath.mult(feats,255));
+					if (stok.hasMoreTokens()) {
+						int i = Integer.parseInt(stok.nextToken());
+						if (!passive) print(AMath.showVector(fi[i])+"\n");
+					} else {
+						if (!passive) print(AMath.showMatrix(fi)+"\n");
+					}
+					if (!passive) print("colors: "+AMath.showVector(cats)+"\n");
+					int cb = objectImage.getCentralBlob();
+					if (!passive) print("central blob: " + cb + " @ " 
+						+ AMath.showVector(objectImage.getCoords(cb))	
+						+ "\n");
+					if (!passive) print("foveal order: " + 
+						AMath.showVector(objectImage.fovealOrdering(cb))+"\n");
+				} else {
+					if (!passive) print(hora()+"No ObjectImage! Use [getblobs]\n");
+				}
+
+			} else if (c.equals("fwt")) {
+				String alg = "haar";
+				int level = 3;
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					if (token.equals("shore") || token.equals("haar")) {
+						alg = token;
+					}
+				}
+				if (stok.hasMoreTokens()) {
+					level = Integer.parseInt(stok.nextToken());
+				}
+				
+				fwtCallback(alg, level);
+
+			} else if (c.equals("gblob")) { // gaussian blob
+				int size = 21;
+				double[] sigmas = new double[] {1, 1, 1};
+				double[] mean = new double[] {255, 255, 255};
+				if (stok.hasMoreTokens()) {
+					size = Integer.parseInt(stok.nextToken());
+				}
+				if (stok.hasMoreTokens()) {
+					sigmas = new double[] {
+						Double.parseDouble(stok.nextToken()),
+						Double.parseDouble(stok.nextToken()),
+						Double.parseDouble(stok.nextToken())
+					};
+				}
+				if (stok.hasMoreTokens()) {
+					mean = new double[] {
+						Double.parseDouble(stok.nextToken()),
+						Double.parseDouble(stok.nextToken()),
+						Double.parseDouble(stok.nextToken())
+					};
+				}				
+				currentImage = TOps.gaussianBlob(size, sigmas, mean);
+				generateEvent();
+			} else if (c.equals("getblobs")) {
+				if (colorCat != null) {
+					double threshold=0.01;
+					if (stok.hasMoreTokens()) {
+						token = stok.nextToken();
+						threshold = Double.parseDouble(token); 
+					}
+					
+					objectImage = BlobOps.getBlobs(currentImage, colorCat, threshold);
+					currentImage = ImageObjects.Indexed2RGB(
+						objectImage.getLabeledImage(), 8,
+						objectImage.getColormap());
+					generateEvent();
+					if (!passive) print(" "+objectImage+"\n");
+				} else {
+					if (!passive) print(hora()+"No quantizer selected.\n");
+				}
+			} else if (c.equals("getsample")) { // gets the value of a pixel
+				if (stok.hasMoreTokens()) {
+					int x = Integer.parseInt(stok.nextToken());
+					int y = Integer.parseInt(stok.nextToken());
+					int b = Integer.parseInt(stok.nextToken());
+					
+					RandomIter src = RandomIterFactory.create(currentImage, null);
+					int color = src.getSample(x, y, b);
+					
+					print(""+color+"\n");
+				} else {
+					print(hora()+" getsample x y band \n");
+				}
+			} else if (c.equals("graph")) { // memo of the operations
+				token = stok.hasMoreTokens() ? stok.nextToken() : "";
+				if (token.equals("on") || token.equals("off")) {
+					OpGraph.setEnabled(token.equals("on"));
+				} else if (token.equals("clear")) {
+					OpGraph.clear();
+				} else if (token.length() > 0) {
+					OpGraph.setBudget(Long.parseLong(token)*1024L*1024L);
+				}
+				if (!passive) print("Operation graph "+OpGraph.describe()+"\n");
+			} else if (c.equals("gradient")) {
+				// magnitude and direction
+				EdgeImage ei = new EdgeImage(currentImage, EdgeImage.GRADIENT);
+				currentImage = ei.magnitude;
+				String what="Magnitude";
+				
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					if (token.equals("direction")) {
+						currentImage = ei.direction;
+						what="Direction";
+					}
+				}
+				
+				generateEvent();
+				if (!passive) print(hora()+"Gradient "+what+"\n");
+			} else if (c.equals("gray") || c.equals("grey")) {
+				currentImage = COps.toBW(currentImage);
+				generateEvent();
+				if (!passive) print(hora()+"Color to Gray\n");
+			} else if (c.equals("histohsv")) {
+				ColorManipulation.getHSVColorHistogram(currentImage);
+				if (!passive) print(hora()+"Computed HSV Color Histogram\n");
+			} else if (c.equals("hsv")) {
+				if (colormap != null) {
+					currentImage = ImageObjects.Indexed2HSV(currentImage, colormapBits, colormap);
+					generateEvent();
+				}			
+			} else if (c.equals("integral")) { // box statistics
+				if (integral == null || integralSource != currentImage) {
+					long time = System.currentTimeMillis();
+					integral = new IntegralImage(currentImage);
+					integralSource = currentImage;
+					if (!passive) print(hora()+"Summed area tables in "
+						+nf.format((System.currentTimeMillis()-time)/1000.0)+" secs.\n");
+				}
+				if (stok.hasMoreTokens()) {
+					int x = Integer.parseInt(stok.nextToken());
+					int y = Integer.parseInt(stok.nextToken());
+					int w = Integer.parseInt(stok.nextToken());
+					int h = Integer.parseInt(stok.nextToken());
+					double[] sums = new double[integral.getNumBands()];
+					for (int b=0;b<sums.length;b++) sums[b] = integral.sum(b, x, y, w, h);
+					print("sum: "+AMath.showVector(sums)+"\n");
+					print("mean: "+AMath.showVector(integral.mean(x, y, w, h))+"\n");
+					print("variance: "+AMath.showVector(integral.variance(x, y, w, h))+"\n");
+				}
+			} else if (c.equals("invert")) {
+				currentImage = COps.invert(currentImage);
+				generateEvent();
+				if (!passive) print(hora()+"Colors Inverted\n");
+			} else if (c.equals("iwt")) {
+				String alg = "haar";
+				int level = 3;
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					if (token.equals("shore") || token.equals("haar")) {
+						alg = token;
+					}
+				}
+				if (stok.hasMoreTokens()) {
+					level = Integer.parseInt(stok.nextToken());
+				}
+				
+				iwtCallback(alg, level);
+			} else if (c.equals("jai")) { // execution settings
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					if (token.equals("threads")) {
+						ExecutionConfig.setThreads(Integer.parseInt(stok.nextToken()));
+					} else if (token.equals("prefetch")) {
+						int n = Integer.parseInt(stok.nextToken());
+						int priority = ExecutionConfig.getPrefetchPriority();
+						if (stok.hasMoreTokens()) priority = Integer.parseInt(stok.nextToken());
+						ExecutionConfig.setPrefetch(n, priority);
+					} else if (token.equals("cache")) {
+						ExecutionConfig.setCacheCapacity(Long.parseLong(stok.nextToken())*1024L*1024L);
+					} else if (token.equals("tile")) {
+						int w = Integer.parseInt(stok.nextToken());
+						int h = stok.hasMoreTokens()?Integer.parseInt(stok.nextToken()):w;
+						ExecutionConfig.setTileSize(w, h);
+					} else {
+						print("jai [threads N | prefetch N [PRIORITY] | cache MB | tile W [H]]\n");
+					}
+				}
+				print(hora()+"JAI "+ExecutionConfig.describe()+"\n");
+			} else if (c.equals("laplacian")) {
+				double sigma = 0.45;
+				
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					sigma = Double.parseDouble(token);
+				}
+				int size = (int)(Math.ceil(sigma*3) * 2 + 1);
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					size = Integer.parseInt(token);
+				}
+				currentImage = COps.laplacianGaussian(currentImage, size, sigma);
+				generateEvent();
+				if (!passive) print(hora() + "LoG (sigma, kernel size)=("
+						 + sigma + ", " + size + ")\n");
+				
+			} else if (c.equals("learn")) { // this executes a batch of commands on every picture in the dir and learns something from them
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					
+					if (token.equals("obj")) {
+					
+					if (stok.hasMoreTokens()) {
+						String currentPath = stok.nextToken();
+						int nworkers = Runtime.getRuntime().availableProcessors();
+						if (currentPath.matches("[0-9]+") && !new File(currentPath).isDirectory()
+								&& stok.hasMoreTokens()) {
+							nworkers = Math.max(1, Integer.parseInt(currentPath));
+							currentPath = stok.nextToken();
+						}
+						File featureFile = stok.hasMoreTokens() ? new File(stok.nextToken()) : null;
+						if (nnsom == null) {
+							if (!passive) print(hora()+"No SOM! see som.\n");
+							return;
+						}
+						File[] fileList = new File(currentPath).listFiles(filter);
+						Arrays.sort(fileList);
+						
+						// the samples of every image, in the order of the files
+						final FeatureCollector x = new FeatureCollector(ObjectImage.NFEATURES, featureFile);
+						long totalTime;
+						try {
+							totalTime = ploop(fileList, Pipeline.compile("getblobs"), nworkers,
+								new Collector() {
+									public Object take(Interpreter worker) {
+										if (worker.objectImage == null) return null;
+										double[][] f = worker.objectImage.getFeatures();
+										// files without objects give nothing
+										return (f == null || f.length == 0) ? null : f;
+									}
+									public void add(int i, Object result) throws IOException {
+										x.add((double[][]) result);
+									}
+								});
+							if (x.size() == 0) {
+								if (!passive) print(hora()+"No objects in "+currentPath+"\n");
+								return;
+							}
+							nnsom.iniRandomSamples(x);
+							interpret("som"); //output values
+							nnsom.learn(x, 0.8, 0.00001);
+						} finally {
+							x.close();
+						}
+						
+						double t = (double) totalTime / 1000.0;
+						if (!passive) print(hora()+"Learned "+x.size()+" objects of "+fileList.length
+							+" images in "+nf.format(t)+" secs ("+nworkers+" workers).\n");
+					} else if (token.equals("img")) {
+						// learn image categories
+						
+						// getblobs, cluster and getclusterhistogram to learn
+						
+					}
+					
+					} else {
+						if (!passive) print("learn obj [WORKERS] DIR [FEATURE_FILE] \n");						
+					}
+					
+				} else {
+					if (!passive) print("loopdir DIR ACTION_COMMAND \n Please, specify directory.\n");
+				}
+				
+			} else if (c.equals("load")) {
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					load(token);
+				} else {
+					openCallback();
+				}
+			} else if (c.equals("log")) { // copy of the output in a file
+				token = stok.hasMoreTokens() ? stok.nextToken() : "";
+				if (token.equals("file") && stok.hasMoreTokens()) {
+					openLog(stok.nextToken());
+				} else if (token.equals("off")) {
+					closeLog();
+				}
+				if (!passive) print("Log file "+(logFile == null ? "off" : logPath)+"\n");
+			} else if (c.equals("loopdir")) { // this executes a batch of commands on every picture in the dir and measures time
+				if (stok.hasMoreTokens()) {
+					String currentPath = stok.nextToken();
+								
+					if (stok.hasMoreTokens()) {
+						String command = stok.nextToken("\t"); // hopefully, the rest of the String
+						Pipeline pipe = Pipeline.compile(command);
+						if (pipe.hasErrors()) {
+							print(pipe.getErrors());
+							return;
+						}
+						File sf = new File(currentPath);
+						File[] fileList = sf.listFiles(filter);
+						// sort the list
+						Vector fileVector = new Vector(fileList.length);
+						for (int i = 0;i<fileList.length;i++) fileVector.add(fileList[i]);
+						Collections.sort(fileVector);
+						for (int i = 0;i<fileList.length;i++) fileList[i]=(File)fileVector.get(i);
+
+						
+						long totalTime = 0;
+						// a loop in the command has its own
+						Prefetcher outer = prefetcher;
+						if (readahead > 0 && memo == null) prefetcher = new Prefetcher(fileList, readahead);
+						try {
+							for (int i = 0; i < fileList.length; i++) {
+								File f = fileList[i];
+								passive = true;
+								interpret(Pipeline.Step.of("load", f.getAbsolutePath()));
+								long time = System.currentTimeMillis();
+								print(f.getName() + ":\t");
+								run(pipe);
+								totalTime += System.currentTimeMillis() - time;
+							}
+						} finally {
+							if (prefetcher != outer) prefetcher.close();
+							prefetcher = outer;
+						}
+						passive = false;
+						double t = (double) totalTime / 1000.0;
+						if (!passive) print(hora()+"Computed "+command+" for "+fileList.length
+							+" images in "+nf.format(t)+" secs.\n");
+						
+					} else {
+						if (!passive) print("loopdir DIR ACTION_COMMAND \n Please, specify Command.\n");						
+					}
+					
+				} else {
+					if (!passive) print("loopdir DIR ACTION_COMMAND \n Please, specify directory.\n");
+				}
+			} else if (c.equals("ploopdir")) { // loopdir with several interpreters at a time
+				if (stok.hasMoreTokens()) {
+					String currentPath = stok.nextToken();
+					int nworkers = Runtime.getRuntime().availableProcessors();
+					if (currentPath.matches("[0-9]+") && !new File(currentPath).isDirectory()
+							&& stok.hasMoreTokens()) {
+						nworkers = Math.max(1, Integer.parseInt(currentPath));
+						currentPath = stok.nextToken();
+					}
+
+					if (stok.hasMoreTokens()) {
+						String command = stok.nextToken("\t");
+						Pipeline pipe = Pipeline.compile(command);
+						if (pipe.hasErrors()) {
+							print(pipe.getErrors());
+							return;
+						}
+						String sc = serialCommand(pipe);
+						if (sc != null) {
+							print("ploopdir: "+sc+" can't run in parallel, use loopdir.\n");
+							return;
+						}
+						File[] fileList = new File(currentPath).listFiles(filter);
+						Arrays.sort(fileList);
+
+						long time = System.currentTimeMillis();
+						long work = ploop(fileList, pipe, nworkers);
+						double t = (double) (System.currentTimeMillis() - time) / 1000.0;
+						if (!passive) print(hora()+"Computed "+command+" for "+fileList.length
+							+" images in "+nf.format(t)+" secs ("+nf.format((double) work / 1000.0)
+							+" secs in "+nworkers+" workers).\n");
+
+					} else {
+						if (!passive) print("ploopdir [WORKERS] DIR ACTION_COMMAND \n Please, specify Command.\n");
+					}
+
+				} else {
+					if (!passive) print("ploopdir [WORKERS] DIR ACTION_COMMAND \n Please, specify directory.\n");
+				}
+			} else if (c.equals("loop2dirs")) { // this executes a batch of commands on every picture in the dir and measures time
+				if (stok.hasMoreTokens()) {
+					String dirA = stok.nextToken();
+					String dirB = stok.nextToken();
+					
+					if (stok.hasMoreTokens()) {
+						String command = stok.nextToken("\t");
+						StringTokenizer stcomms = new StringTokenizer(command,",");
+						String commandA = stcomms.nextToken();
+						String commandB = stcomms.nextToken();
+						Pipeline pipeA = Pipeline.compile(commandA);
+						Pipeline pipeB = Pipeline.compile(commandB);
+						if (pipeA.hasErrors() || pipeB.hasErrors()) {
+							print(pipeA.getErrors() + pipeB.getErrors());
+							return;
+						}
+						
+						File sf = new File(dirA);
+						File[] fileListA = sf.listFiles(filter);
+						// sort the list
+						Vector fileVector = new Vector(fileListA.length);
+						for (int i = 0;i<fileListA.length;i++) fileVector.add(fileListA[i]);
+						Collections.sort(fileVector);
+						for (int i = 0;i<fileListA.length;i++) fileListA[i]=(File)fileVector.get(i);
+
+						sf = new File(dirB);
+						File[] fileListB = sf.listFiles(filter);
+						// sort the list
+						fileVector = new Vector(fileListB.length);
+						for (int i = 0;i<fileListB.length;i++) fileVector.add(fileListB[i]);
+						Collections.sort(fileVector);
+						for (int i = 0;i<fileListB.length;i++) fileListB[i]=(File)fileVector.get(i);
+						
+						long totalTime = 0;
+						Prefetcher outer = prefetcher;
+						if (readahead > 0 && memo == null) {
+							// in the order they are loaded
+							int n = Math.min(fileListA.length, fileListB.length);
+							File[] both = new File[2*n];
+							for (int i = 0; i < n; i++) {
+								both[2*i] = fileListA[i];
+								both[2*i+1] = fileListB[i];
+							}
+							prefetcher = new Prefetcher(both, readahead);
+						}
+						try {
+							for (int i = 0; i < fileListA.length; i++) {
+								File fA = fileListA[i];
+								File fB = fileListB[i];
+
+								passive = true;
+								long time = System.currentTimeMillis();
+								print(fA.getName() + " - "+fB.getName()+":\t");
+
+								interpret(Pipeline.Step.of("load", fA.getAbsolutePath()));
+								run(pipeA);
+								interpret(Pipeline.Step.of("load", fB.getAbsolutePath()));
+								run(pipeB);
+								
+								totalTime += System.currentTimeMillis() - time;
+							}
+						} finally {
+							if (prefetcher != outer) prefetcher.close();
+							prefetcher = outer;
+						}
+						passive = false;
+						double t = (double) totalTime / 1000.0;
+						if (!passive) print(hora()+"Computed "+commandA+" and "+commandB+" for 2x"+fileListA.length
+							+" images in "+	nf.format(t)+" secs.\n");
+						
+					} else {
+						if (!passive) print("loop2dirs DIR-1 DIR-2 \\t ACTION_COMMAND-1 \\t ACTION_COMMAND-2\n Please, specify Command.\n");						
+					}
+					
+				} else {
+					if (!passive) print("loop2dir DIR-1 DIR-2 \\t ACTION_COMMAND-1 \\t ACTION_COMMAND-2\n Please, specify directory.\n");
+				}
+			} else if (c.equals("lut")) { // color conversion tables
+				token = stok.hasMoreTokens() ? stok.nextToken() : "";
+				if (token.equals("on") || token.equals("off")) {
+					COps.colorLUT = token.equals("on");
+				} else if (token.equals("check")) {
+					if (ColorLUT.supports(currentImage)) {
+						long time = System.currentTimeMillis();
+						PlanarImage a = COps.colorLookup(currentImage, ColorLUT.get(currentImage.getColorModel(),
+							IHSColorSpace.getInstance()));
+						a.getTiles();
+						long tlut = System.currentTimeMillis() - time;
+						time = System.currentTimeMillis();
+						PlanarImage b = COps.colorConvertOp(currentImage, IHSColorSpace.getInstance());
+						b.getTiles();
+						long top = System.currentTimeMillis() - time;
+						double[][] d = ColorLUT.compare(a, b, true);
+						print("IHS, table "+tlut+" ms, ColorConvert "+top+" ms\n");
+						print(" max error:  "+AMath.showVector(d[0])+"\n");
+						print(" mean error: "+AMath.showVector(d[1])+"\n");
+						d = ColorLUT.compare(COps.toBW(currentImage), COps.toBWOp(currentImage), false);
+						print("gray max error: "+d[0][0]+", mean error: "+d[1][0]+"\n");
+					} else {
+						print("lut check needs a 3 band byte image\n");
+					}
+				}
+				if (!passive) print("Color conversion tables "+(COps.colorLUT ? "on" : "off")+"\n");
+			} else if (c.equals("maxcon")) {
+				currentImage = COps.maxcon(currentImage);
+				generateEvent();
+				if (!passive) print(hora()+"Contrast linearly maximized.\n");
+			} else if (c.equals("median")) {
+				int size = 3;
+				MedianFilterShape shape = MedianFilterDescriptor.MEDIAN_MASK_SQUARE;
+				if (stok.hasMoreTokens()) size = Integer.parseInt(stok.nextToken());
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					if (token.equals("plus")) {
+						shape = MedianFilterDescriptor.MEDIAN_MASK_PLUS;
+					} else if (token.equals("x")) {
+						shape = MedianFilterDescriptor.MEDIAN_MASK_X;
+					}
+				}
+				long time = System.currentTimeMillis();
+				currentImage = COps.medianFilter(currentImage, shape, size);
+				currentImage.getTiles();
+				generateEvent();
+				if (!passive) print(hora()+"Median "+size+"x"+size+" ("+(System.currentTimeMillis()-time)+" ms)\n");
+			} else if (c.equals("mean")) {
+				double[] means = COps.mean(currentImage);
+				print(AMath.showVector(means)+"\n");				
+			} else if (c.equals("memo")) { // results of the commands on disk
+				token = stok.hasMoreTokens() ? stok.nextToken() : "";
+				if (token.equals("on")) {
+					File dir = stok.hasMoreTokens() ? new File(stok.nextToken()) : ResultCache.defaultDir();
+					long mb = stok.hasMoreTokens() ? Long.parseLong(stok.nextToken()) : ResultCache.DEFAULT_MB;
+					memo = new ResultCache(dir, mb * 1024 * 1024);
+					// known from the next load
+					imageKey = null;
+				} else if (token.equals("off")) {
+					memo = null;
+				} else if (token.equals("clear") && memo != null) {
+					memo.clear();
+				}
+				if (!passive) print("Memo "+(memo == null ? "off" : memo.toString())+"\n");
+			} else if (c.equals("modwhite")) {
+				currentImage = ColorManipulation.modWhite(currentImage);
+				generateEvent();
+				if (!passive) print(hora()+"Color corrected.\n");				
+			} else if (c.equals("modwhiteg")) {
+				if (stok.hasMoreTokens()) {
+					double tol = Double.parseDouble(stok.nextToken());
+					WhiteBalanceEstimate est = new WhiteBalanceEstimate(currentImage, tol);
+					currentImage = est.apply(currentImage);
+					if (!passive) print(hora()+"Estimate: "+est+"\n");
+				} else {
+					currentImage = ColorManipulation.modWhiteInGray(currentImage);
+				}
+				generateEvent();
+				if (!passive) print(hora()+"Color corrected.\n");
+			} else if (c.equals("mult")) {
+			   if (stok.hasMoreTokens()) {
+				   token = stok.nextToken();
+				   float v = Float.parseFloat(token);
+				   currentImage = COps.multiply(currentImage, v);
+				   generateEvent();
+				   if (!passive) print(hora() + "multiplied by "+v+"\n");
+			   } else {
+				   if (!passive) print(hora() + "mult (const)\n");
+			   }
+			} else if (c.equals("objects")) {
+				PlanarImage indexed=null;
+				double threshold = 0.01;
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					if (token.equals("map") && colormap!=null) { // euclidean distance to colormap
+						if (stok.hasMoreTokens()) {
+							token = stok.nextToken();
+							threshold = Double.parseDouble(token); 
+						}						
+						colormapBits = 8;
+						indexed = ImageObjects.RGB2Indexed(currentImage, colormapBits, colormap);
+					} else if (token.equals("index")) { // currentImage is already indexed
+						if (stok.hasMoreTokens()) {
+							token = stok.nextToken();
+							threshold = Double.parseDouble(token); 
+						}
+						indexed = currentImage;
+					} else {
+						threshold = Double.parseDouble(token);
+					}
+				
+				} else if (colorCat != null) {
+					indexed = colorCat.categorize(currentImage);
+				}
+				if (indexed!=null) {
+					if (imageStack.empty()) {
+						objectImage = new ObjectImage(indexed, null, threshold);
+						currentImage = objectImage.getLabeledImage();
+					} else {
+						// recovers the original (not blurred) image from the stack
+						interpret("pop"); 
+						objectImage = new ObjectImage(indexed, currentImage, threshold);
+					
+						currentImage = ImageObjects.Indexed2RGB(
+							objectImage.getLabeledImage(), 8,
+							objectImage.getColormap());
+					}
+					generateEvent();
+					print(hora() + " "+objectImage+"\n");
+				} else {
+					print("There is no quantizer!\n");
+				}
+			} else if (c.equals("offheap")) { // float intermediates out of the heap
+				token = stok.hasMoreTokens() ? stok.nextToken() : "";
+				if (token.equals("on")) {
+					if (arena == null) arena = new OffHeapArena("Interpreter");
+					OffHeapImage.setArena(arena);
+				} else if (token.equals("off")) {
+					OffHeapImage.setArena(null);
+				} else if (token.equals("free") && arena != null) {
+					currentImage = onHeap(currentImage);
+					OffHeapImage.setArena(null);
+					arena.close();
+					arena = null;
+				}
+				if (!passive) {
+					print("Off-heap float images "+(OffHeapImage.getArena() != null ? "on" : "off")
+						+(arena != null ? ", "+arena : "")+"\n");
+				}
+			} else if (c.equals("pixcache")) { // decoded images on disk
+				token = stok.hasMoreTokens() ? stok.nextToken() : "";
+				if (token.equals("on")) {
+					File dir = stok.hasMoreTokens() ? new File(stok.nextToken()) : DecodedCache.defaultDir();
+					long mb = stok.hasMoreTokens() ? Long.parseLong(stok.nextToken()) : DecodedCache.DEFAULT_MB;
+					DecodedCache.setDefault(new DecodedCache(dir, mb * 1024 * 1024));
+				} else if (token.equals("off")) {
+					DecodedCache.setDefault(null);
+				} else if (token.equals("clear") && DecodedCache.getDefault() != null) {
+					DecodedCache.getDefault().clear();
+				}
+				if (!passive) {
+					DecodedCache cache = DecodedCache.getDefault();
+					print("Decoded image cache "+(cache == null ? "off" : cache.toString())+"\n");
+				}
+			} else if (c.equals("palette")) {
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					if (token.equals("partition")) {
+						//colormap = ImageObjects.paletteHSVPartition(18, 2, 2, 4);
+						int[] b = new int[] {6, 6, 5};
+						int k=0;
+						while (stok.hasMoreTokens() && k<3) b[k++]=Integer.parseInt(stok.nextToken());
+						 
+						colormap = ImageObjects.paletteRGBPartition(b[0], b[1], b[2]);
+						//if (!passive) print(AMath.showMatrix(colormap)+"\n");
+					} else if (token.equals("posterize")) {
+						int[] b = new int[] {6, 6, 6};
+						int k=0;
+						while (stok.hasMoreTokens() && k<3) b[k++]=Integer.parseInt(stok.nextToken());
+						 
+						colormap = ImageObjects.palettePosterizeShrink(b);
+						//if (!passive) print(AMath.showMatrix(colormap)+"\n");
+						
+					} else if (token.equals("rainbow")) {
+						int ncols = 32;
+						if (stok.hasMoreTokens()) ncols = Integer.parseInt(stok.nextToken());
+						colormap = ImageObjects.paletteRainbow(ncols);
+						
+					} else if (token.equals("gray")) {
+						int ncols = 32;
+						if (stok.hasMoreTokens()) ncols = Integer.parseInt(stok.nextToken());
+						colormap = ImageObjects.paletteGray(ncols);
+						
+					} else if (token.equals("indexed")) {
+						// tries getting the palette from currentImage (assumes indexed)
+						colormap = ImageObjects.paletteFromImage(currentImage);
+					} else if (token.equals("add")) { // add bins to current palette
+						int nbins = 1;
+						if (stok.hasMoreTokens()) nbins = Integer.parseInt(stok.nextToken());
+						
+						colormap = ImageObjects.addBins(colormap, nbins);
+					} else { // if (token.equals("show"))
+						print(AMath.showMatrix(colormap) + "\n");
+					}
+					if (!token.equals("show")) {
+						String from = (imageKey != null) ? imageKey : "image " + System.currentTimeMillis();
+						modelChanged(".palette", cmd.getNormalized()
+							 + (token.equals("indexed") ? " " + from : ""));
+					}
+					if (!passive) print(hora()+" You got a palette of "+colormap[0].length+"bins.\n");
+				} else {
+					if (!passive) print("Specify type: (partition) (size)\n");
+				}
+			} else if (c.equals("pop")) {
+				currentImage = imageStack.pop();
+				generateEvent();
+				if (!passive) print("Image Popped\n");
+			} else if (c.equals("posterize")) {
+				int[] levels = new int[] {6, 6, 6};
+				
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					levels[0] = Integer.parseInt(token);
+					if (stok.hasMoreTokens()) {
+						levels[1] = Integer.parseInt(stok.nextToken());
+						levels[2] = Integer.parseInt(stok.nextToken());
+					} else {
+						levels[2] = levels[1] = levels[0];
+					}
+				}
+				currentImage = ColorManipulation.posterize(currentImage, levels);
+				generateEvent();
+				if (!passive) print(hora() + "posterized - "+AMath.showVector(levels)+" levels.\n");
+			} else if (c.equals("profile")) { // times of the commands
+				token = stok.hasMoreTokens() ? stok.nextToken() : "report";
+				if (token.equals("on")) {
+					if (profiler == null) {
+						profiler = new Profiler();
+						ProfilingTileCache.install(profiler);
+					}
+					print("Profiling the commands\n");
+				} else if (profiler == null) {
+					print("profile on|off|report|clear\n The profiler is off.\n");
+				} else if (token.equals("off")) {
+					print(profiler.report());
+					ProfilingTileCache.uninstall();
+					profiler = null;
+				} else if (token.equals("clear")) {
+					profiler.clear();
+				} else {
+					print(profiler.report());
+				}
+			} else if (c.equals("push")) {
+				imageStack.push(currentImage);
+				if (!passive) print("Image pushed\n");
+			} else if (c.equals("quanterror")) {
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					if (token.equals("obj") && objectImage !=null) {
+						currentImage = onHeap(objectImage.getError());
+						generateEvent();
+						if (!passive) print(hora()+"Obj Quantization Error.\n");
+					}
+				} else if (colorCat != null) {
+					if (quantizeSource != null) {
+						// the memo skipped the quantize
+						colorCat.categorize(quantizeSource);
+						quantizeSource = null;
+					} else if (colorCat.getError()==null) colorCat.categorize(currentImage);
+					currentImage=onHeap(colorCat.getError());
+					generateEvent();
+					if (!passive) print(hora()+"Quantization Error.\n");
+				} else {
+					if (!passive) print("No quantizer selected.\n");
+				}
+			} else if (c.equals("quantize")) {
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					if (token.equals("map") && colormap!=null) { // euclidean distance to colormap
+						colormapBits = 8;
+						currentImage = ImageObjects.RGB2Indexed(currentImage, colormapBits, colormap);
+						generateEvent();
+					}
+				} else if (colorCat != null) {
+					currentImage = colorCat.categorize(currentImage);
+					quantizeSource = null;
+					generateEvent();
+					if (!passive) print(hora()+"Color Quantized.\n");
+				} else {
+					if (!passive) print(hora()+"No quantizer selected.\n");
+				}
+			} else if (c.equals("quantizer")) {
+				double threshold = BlobOps.THRESHOLD;
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					threshold = Double.parseDouble(token);
+				}
+				if (colormap != null && perceptron != null) {
+					perceptron.setThreshold(threshold);
+					colormapBits = 5;
+					colorCat = new ColorCategorization(perceptron,colormapBits,colormap);
+					models.put("quantizer", DecodedCache.md5(models.get(".palette") + " "
+						 + models.get(".xml") + " " + threshold));
+					if (!passive) print(hora()+"New quantizer. Threshold = "+ nf.format(threshold) +"\n");
+				}
+			} else if (c.equals("readahead")) { // decoding of the next images of the loops
+				if (stok.hasMoreTokens()) {
+					readahead = Math.max(0, Integer.parseInt(stok.nextToken()));
+				}
+				if (!passive) print("Loops decode "+readahead+" images ahead\n");
+			} else if (c.equals("reload")) {
+				reloadCallback();
+				generateEvent();
+			} else if (c.equals("rgb")) {
+				if (colormap != null) {
+					byte[][] map = colormap;
+					if (stok.hasMoreTokens() && objectImage != null) {
+						if (stok.nextToken().equals("foveal")) {
+							// reorder palette using objectImage.fovealOrdering
+							int cb = objectImage.getCentralBlob();
+							if (stok.hasMoreTokens()) {
+								cb = Integer.parseInt(stok.nextToken());
+							}
+							int[] order = objectImage.fovealOrdering(cb);
+							map = ImageObjects.reorderMap(colormap, order);
+						}
+					}
+					currentImage = ImageObjects.Indexed2RGB(currentImage, colormapBits, map);
+					generateEvent();
+					if (!passive) print(hora()+"Indexed Image transformed to RGB\n");
+				}
+			} else if (c.equals("save")) {
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					save(token);
+				} else { // overwrites lastLoaded file
+					save(lastLoaded);
+				}
+			} else if (c.equals("savesamples")) {
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					
+					BufferedWriter bwsamples = new BufferedWriter(
+						new OutputStreamWriter(
+						new FileOutputStream(token,true))); //append
+
+					PlanarImage mask = currentImage;
+					currentImage = imageStack.pop();
+					
+					ColorManipulation.saveMaskedSamples(currentImage, mask, bwsamples);
+					bwsamples.close();
+					
+					if (!passive) print(hora()+ "Samples saved ["+token+"].\n"); 
+
+				} else { 
+					if (!passive) print("savesamples filename\n");
+				}				
+			} else if (c.equals("segeval")) { // Evaluation of Color Segmentation
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					if (token.equals("map")) {
+						// even in passive mode, outputs the result
+						print("F(I) = " + objectImage.evaluationF(objectImage.getError(), 0) + "\n");
+
+					} else if (token.equals("regions")) { //number of regions
+						print("#reg = " + objectImage.getNRegions() +"\n");
+					}
+				} else if (colorCat!=null && objectImage!=null) {
+					// even in passive mode, outputs the result
+					print("F(I) = " + objectImage.evaluationF(colorCat.getError(), 
+						colorCat.getNN().getThreshold())+"\n");
+				} else {
+					if (!passive) print(hora()+"No segmentation performed. See 'getblobs'\n");
+				}
+			} else if (c.equals("simd")) { // float loops
+				token = stok.hasMoreTokens() ? stok.nextToken() : "";
+				if (token.equals("on") || token.equals("off")) {
+					FloatKernels.setVector(token.equals("on"));
+				} else if (token.equals("bench")) {
+					int n = 1 << 16, reps = 200;
+					double[] ts = FloatKernels.getScalar().bench(n, reps);
+					double[] tv = FloatKernels.get().bench(n, reps);
+					NumberFormat nf = NumberFormat.getInstance();
+					nf.setMaximumFractionDigits(3);
+					for (int i = 0; i < FloatKernels.NAMES.length; i++) {
+						print(" "+FloatKernels.NAMES[i]+": scalar "+nf.format(ts[i])
+							+" ns, "+FloatKernels.get()+" "+nf.format(tv[i])+" ns, x"
+							+nf.format(ts[i] / tv[i])+"\n");
+					}
+				}
+				if (!passive) print("Float loops: "+FloatKernels.get()+"\n");
+			} else if (c.equals("sharpen")) {
+				currentImage = COps.sharpen(currentImage);
+				generateEvent();
+				if (!passive) print(hora() + "sharpened\n");
+			} else if (c.equals("size")) {
+				int bands = currentImage.getSampleModel().getNumBands();				
+				int width = currentImage.getWidth();
+				int height = currentImage.getHeight();
+				int tileWidth = currentImage.getTileWidth();
+				int tileHeight = currentImage.getTileHeight();
+
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					int x = Integer.parseInt(token);
+					if (stok.hasMoreTokens()) {
+						int y = Integer.parseInt(stok.nextToken());
+						if (stok.hasMoreTokens()) {
+							if (stok.nextToken().equals("linear")) {
+								currentImage = COps.scaleN(currentImage,
+								(float) x / (float) width,
+								(float) y / (float) height);
+							} else {
+								if (!passive) print(hora()+"interpolation? (linear)\n");
+							}
+						} else {
+							currentImage = COps.scale(currentImage,
+								(float) x / (float) width,
+								(float) y / (float) height, 0, 0);
+						}
+					} else {
+						currentImage = COps.scale(currentImage,
+								(float) x / (float) width,
+								(float) x / (float) width, 0, 0);
+					}
+					generateEvent();
+				} else {
+					if (!passive) print(hora() + "size: " + width + "x" + height +
+							"x" + bands + " - tile: " + 
+							tileWidth + "x" + tileHeight + "\n");
+				}
+			} else if (c.equals("sizex")) {
+				int imglong = BlobOps.IMGLONG, imgshort=BlobOps.IMGSHORT;
+				int resultWidth = BlobOps.IMGLONG, resultHeight=BlobOps.IMGLONG;
+				String algo="";
+				
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					imglong = Integer.parseInt(token);
+					if (stok.hasMoreTokens()) {
+						imgshort = Integer.parseInt(stok.nextToken());
+						if (stok.hasMoreTokens()) {
+							algo = " "+stok.nextToken();
+						}
+					}
+				}
+		
+				if (currentImage.getWidth()>currentImage.getHeight()) {
+					resultWidth = imglong; resultHeight = imgshort;
+				} else {
+					resultWidth = imgshort; resultHeight = imglong;
+				}
+				
+				interpret("size "+resultWidth+" "+resultHeight+algo);
+			} else if (c.equals("som")) {
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					int noutputs = Integer.parseInt(token);
+					int ninputs = ObjectImage.NFEATURES;
+					if (stok.hasMoreTokens()) 
+						ninputs = Integer.parseInt(stok.nextToken());
+					
+					nnsom = new SOM(ninputs,noutputs);
+					nnsom.iniRandom();
+					
+					if (!passive) print(hora()+"new "+nnsom+"\n");
+					if (!passive) print(AMath.showMatrix(nnsom.getWeights()));
+				} else {
+					if (!passive) print(hora()+nnsom+"\n");
+					if (!passive && nnsom!=null ) print(AMath.showMatrix(nnsom.getWeights()));
+				}
+			} else if (c.equals("ssr") || c.equals("ssc")) {
+				int s = 20;
+				int row = 0;
+				double step = 1.;
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					s = Integer.parseInt(token);
+					if (stok.hasMoreTokens()) {
+						token = stok.nextToken();
+						row = Integer.parseInt(token);
+					}
+					if (stok.hasMoreTokens()) {
+						token = stok.nextToken();
+						step = Double.parseDouble(token);
+					}
+					if (c.equals("ssr")) 
+					    currentImage = TOps.buildSSrow(currentImage, s, row, step);
+					else
+					    currentImage = TOps.buildSScol(currentImage, s, row);
+					
+					generateEvent();
+					if (!passive) print("Scale Space of " + s + " scales\n");
+				} else {
+					if (!passive) print("SS <scales> [row] \n");
+				}
+				
+			} else if (c.equals("stack")) { // memory of push and pop
+				token = stok.hasMoreTokens() ? stok.nextToken() : "";
+				if (token.equals("clear")) {
+					imageStack.clear();
+				} else if (token.length() > 0) {
+					imageStack.setBudget(Long.parseLong(token)*1024L*1024L);
+				}
+				if (!passive) print("Image stack: "+imageStack+"\n");
+			} else if (c.equals("stats")) {
+				int period = 1;
+				if (stok.hasMoreTokens()) {
+					period = Integer.parseInt(stok.nextToken());
+				}
+				ImageStatistics st = new ImageStatistics(currentImage, null, null, null, period, period);
+				if (!passive) {
+					print("pixels: "+st.getCount()+"\n");
+					print("mean:   "+AMath.showVector(st.getMean())+"\n");
+					print("stddev: "+AMath.showVector(st.getStdDev())+"\n");
+					print("min:    "+AMath.showVector(st.getMin())+"\n");
+					print("max:    "+AMath.showVector(st.getMax())+"\n");
+				}
+			} else if (c.equals("threshold")) {
+			   double low = 1.,high=255.,out=255.;
+			   
+			   if (stok.hasMoreTokens()) {
+				   token = stok.nextToken();
+				   low = Double.parseDouble(token);
+			   }
+			   if (stok.hasMoreTokens()) {
+				   token = stok.nextToken();
+				   high = Double.parseDouble(token);
+			   }
+			   if (stok.hasMoreTokens()) {
+				   token = stok.nextToken();
+				   out = Double.parseDouble(token);
+			   }
+			   
+			   currentImage = COps.threshold(currentImage, low, high, out);
+			   generateEvent();
+			   
+			   if (!passive) print(hora() + "Image thresholded: "+ low + " <= img <= "+high+"\n");
+				
+			} else if (c.equals("type")) {
+				if (stok.hasMoreTokens()) {
+					token = stok.nextToken();
+					int t = DataBuffer.TYPE_FLOAT;
+					if (token.equals("int")) t = DataBuffer.TYPE_INT;
+					else if (token.equals("byte")) t = DataBuffer.TYPE_BYTE;
+					else if (token.equals("float")) t = DataBuffer.TYPE_FLOAT;					
+					currentImage = COps.reformat(currentImage, t);
+					generateEvent();
+					if (!passive) print(hora()+"Type changed to "+token+"\n");
+				} else {
+					if (!passive) print(hora()+"Type: "+COps.getDataTypeName(
+						currentImage.getSampleModel().getDataType())+"\n");
+				}
+			} else if (c.equals("xydiagram")) {
+				int size = 512;
+				double luz = 0.1;
+				if (stok.hasMoreTokens()) {
+					size = Integer.parseInt(stok.nextToken());
+				}
+				if (stok.hasMoreTokens()) {
+					luz = Double.parseDouble(stok.nextToken());
+				}
+				currentImage = ImageObjects.createXYDiagram(size, (float)luz);
+				generateEvent();
+				if (!passive) print(hora()+" XY diagram created\n");
+
+			} else if (c.equals("xyimage")) {
+				int size = 512;
+				if (stok.hasMoreTokens()) {
+					size = Integer.parseInt(stok.nextToken());
+				}
+				currentImage = ImageObjects.createXYDiagram(size, currentImage);
+				generateEvent();
+				if (!passive) print(hora()+" XY diagram created\n");
+				
+			} else if (c.equals("?")||c.equals("help")) {
+				if (!passive) print("Available commands: "+commandList);
+			} // other commands are ignored (# for comments)						
+		} catch (Exception e) {
+			errors++;
+			if (!passive) print("interpret: " + e + "\n");
+			// just in case it crashed in loopdir:
+			passive = false;
+		}
+	}
+
+	// end interpret
+
+
+
+
+	// --------------------------------------- COMMANDS ------------------------------
+
+	/**
+	 * Asks for a file, for the commands that need one when it isn't given.
+	 * Without a window there is no one to ask.
+	 *
+	 * @return    The file, or null if cancelled.
+	 */
+	protected File chooseFile() {
+		return null;
+	}
+
+	/**
+	 * Opens a file-load requester to load an image
+	 */
+	void openCallback() {
+		try {
+			File f = chooseFile();
+			if (f != null) {
+				String path = f.getAbsolutePath();
+
+				load(path);
+			} else {
+				if (!passive) print(hora() + "Open command cancelled by user.\n");
+			}
+		} catch (Exception e) {
+			if (!passive) print("load: " + e + "\n");
+		}
+	}
+
+
+	/**
+	 *  Description of the Method
+	 *
+	 * @param  file  Description of the Parameter
+	 */
+	void load(String file) throws 
+		java.io.IOException,
+		javax.xml.parsers.ParserConfigurationException,
+		org.xml.sax.SAXException {
+		String ext = getExtension(file);
+		if (ext.equals(".palette")) {
+			FileInputStream sPalette = new FileInputStream(file);
+			colormap = ImageObjects.loadPalette(sPalette);
+			models.put(ext, ResultCache.contentHash(new File(file)));
+		} else if (ext.equals(".xml")) {
+			perceptron = new Perceptron();
+			perceptron.load(new FileInputStream(file));
+			models.put(ext, ResultCache.contentHash(new File(file)));
+			//nn.setThreshold(0.6);
+			//colorCat = new ColorCategorization(nn,5,colormap);
+		} else if (ext.equals(".som")) {
+			nnsom = new SOM(new FileReader(file));
+			models.put(ext, ResultCache.contentHash(new File(file)));
+		} else {
+			if (file.substring(0,4).equals("http")) {
+				currentImage = JAI.create("url", new java.net.URL(file));
+			} else {
+				File f = new File(file);
+				PlanarImage img = (prefetcher != null) ? prefetcher.take(f) : null;
+				currentImage = (img != null) ? img : decode(f);
+			}
+			imageKey = (memo != null && !file.startsWith("http"))
+				 ? "file " + ResultCache.contentHash(new File(file)) : null;
+			lastLoaded = file;
+			generateEvent();
+		}
+
+		if (!passive) print(hora() + "Loaded \"" + file + "\"\n");
+
+	}
+
+	/**
+	 * Decodes an image file, through the DecodedCache if there is one.
+	 */
+	static PlanarImage decode(File f) {
+		// the same file, unchanged, is the same node of the graph
+		return OpGraph.leaf(f.getAbsolutePath()+"|"+f.lastModified()+"|"+f.length(),
+			DecodedCache.load(f.getPath()));
+	}
+
+	void save(String fileName) throws java.io.IOException {
+		String ext = getExtension(fileName);
+				
+		if (ext.equals(".jpg") || ext.equals(".jpeg")) {
+			COps.saveAsJPG(currentImage, fileName, 1f);
+		} else if (ext.equals(".png")) {
+			if (indexed()) {
+				COps.saveAsPNG(currentImage, AMath.vflattenInt(colormap), fileName);
+			} else {
+				COps.saveAsPNG(currentImage, fileName);
+			}
+		} else {
+			print("Unknown Extension! ("+ext+")");
+		}
+		
+		print(hora()+"Saved \"" + fileName + "\"");
+		
+	}
+
+	/**
+	 * Executes a script file
+	 *
+	 * @param  f             the file name of the script
+	 * @throws  IOException
+	 */
+	void execScript(File f) throws IOException {
+		String script = f.getAbsolutePath();
+		Pipeline pipe = Pipeline.compile(f);
+		if (pipe.hasErrors()) {
+			print(pipe.getErrors());
+			print(hora() + "[Not executed \"" + script + "\"]\n");
+			return;
+		}
+		if (!passive) print(hora() + "[Begin \"" + script + "\"]\n");
+
+		run(pipe);
+
+		if (!passive) print(hora() + "[End \"" + script + "\"]\n");
+	}
+
+
+	/**
+	 * Runs a pipeline on every file with several workers, each one with its
+	 * own interpreter. The output of the files is printed in their order, as
+	 * soon as the previous ones are done. The workers don't go more than
+	 * PLOOP_AHEAD files each beyond the file printed next.
+	 *
+	 * @return    The time spent by the workers on the pipeline, in ms,
+	 *            without loading the files.
+	 */
+	long ploop(File[] files, Pipeline pipe, int nworkers) throws InterruptedException, IOException {
+		return ploop(files, pipe, nworkers, null);
+	}
+
+	/**
+	 * Something ploop keeps of every file, e.g. the features of its objects.
+	 */
+	interface Collector {
+		/**
+		 * What to keep of the file the worker just did, or null. It is called
+		 * by the worker thread.
+		 */
+		Object take(Interpreter worker);
+
+		/**
+		 * Keeps what was taken of file i. It is called by the thread of
+		 * ploop, in the order of the files.
+		 */
+		void add(int i, Object result) throws IOException;
+	}
+
+	/**
+	 * Like ploop(File[], Pipeline, int), giving the collector what it takes
+	 * from each file. The names of the files are not printed.
+	 */
+	long ploop(final File[] files, final Pipeline pipe, int nworkers, final Collector collector)
+			throws InterruptedException, IOException {
+		final String[] outs = new String[files.length];
+		final Object[] results = new Object[files.length];
+		final long[] times = new long[files.length];
+		final int[] next = {0};
+		// the file printed next
+		final int[] printed = {0};
+		Thread[] workers = new Thread[Math.min(nworkers, files.length)];
+		Interpreter[] interpreters = new Interpreter[workers.length];
+		final int ahead = PLOOP_AHEAD * workers.length;
+		for (int w = 0; w < workers.length; w++) {
+			final OutputSink.Buffer out = new OutputSink.Buffer();
+			final Interpreter worker = new Interpreter(this, out);
+			interpreters[w] = worker;
+			workers[w] = new Thread("ploopdir-" + w) {
+				public void run() {
+					while (true) {
+						int i;
+						synchronized (outs) {
+							while (next[0] < files.length && next[0] - printed[0] >= ahead) {
+								try {
+									outs.wait();
+								} catch (InterruptedException e) {
+									return;
+								}
+							}
+							if (next[0] >= files.length) return;
+							i = next[0]++;
+						}
+						worker.passive = true;
+						// the objects of the previous file are not of this one
+						worker.objectImage = null;
+						long time = 0;
+						try {
+							worker.interpret(Pipeline.Step.of("load", files[i].getAbsolutePath()));
+							time = System.currentTimeMillis();
+							if (collector == null) worker.print(files[i].getName() + ":\t");
+							worker.run(pipe);
+							time = System.currentTimeMillis() - time;
+							if (collector != null) results[i] = collector.take(worker);
+						} catch (Throwable e) {
+							// interpret catches the exceptions, not the errors
+							worker.print("ploopdir: " + e + "\n");
+							time = 0;
+						}
+						synchronized (outs) {
+							times[i] = time;
+							outs[i] = out.take();
+							outs.notifyAll();
+						}
+					}
+				}
+			};
+			workers[w].start();
+		}
+
+		long total = 0;
+		try {
+			for (int i = 0; i < files.length; i++) {
+				String o;
+				synchronized (outs) {
+					while (outs[i] == null) outs.wait();
+					o = outs[i];
+					outs[i] = "";
+					total += times[i];
+					printed[0] = i + 1;
+					outs.notifyAll();
+				}
+				print(o);
+				if (collector != null && results[i] != null) {
+					Object r = results[i];
+					results[i] = null;
+					collector.add(i, r);
+				}
+			}
+		} finally {
+			// if the collector failed, the workers take no more files
+			synchronized (outs) {
+				next[0] = files.length;
+				outs.notifyAll();
+			}
+			for (int w = 0; w < workers.length; w++) {
+				workers[w].join();
+				errors += interpreters[w].errors;
+				// its images no longer count against our budget
+				interpreters[w].imageStack.clear();
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Opens a file requester to select a script file to execute
+	 */
+	void scriptCallback() {
+		try {
+			File f = chooseFile();
+			if (f != null) {
+				execScript(f);
+			} else {
+				if (!passive) print(hora() + "Execution cancelled by user.\n");
+			}
+		} catch (Exception e) {
+			if (!passive) print("script: " + e + "\n");
+		}
+	}
+	// end scriptCallback
+
+
+
+
+	/**
+	 * Reloads last loaded image
+	 */
+	void reloadCallback() {
+		try {
+			load(lastLoaded);
+			//currentImage = JAI.create("fileload", lastLoaded);
+
+			//if (!passive) print(hora() + "Loaded \"" + lastLoaded + "\"\n");
+		} catch (Exception e) {
+			if (!passive) print(e + "\n");
+		}
+
+	}
+
+
+
+	/**
+	 * Checks whether the image in the Image Panel is multiple of 2^level
+	 *
+	 * @param  operation  a String representing the operation which wants to
+	 *        check this condition
+	 * @return            Description of the Return Value
+	 */
+	boolean canBeDecomposed(String operation, int level) {
+		int factor = 1 << level;
+		int width = currentImage.getTileWidth();
+		int height = currentImage.getTileHeight();
+		if ((width % factor != 0) ||
+				(height % factor != 0)) {
+			if (!passive) print("Operation \"" + operation + "\" can not be applied to " +
+					width + "x" + height + " tiles being level " + level + "\n");
+			return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Called to do <b>Forward Wavelet Transform</b> on the current image.
+	 *
+	 * @param  algorythm  the algorythm to use (haar, shore, ...)
+	 */
+	void fwtCallback(String algorythm, int level) {
+
+		//if (!isSquare("Wavelet")) return;
+		if (!canBeDecomposed("Wavelet",level)) {
+			return;
+		}
+
+		try {
+
+			//runGc();
+			RenderedOp rop =
+					COps.wavelet(currentImage, algorythm, level);
+			//currentImage = rop.createInstance();
+			currentImage = rop;
+			generateEvent();
+
+			if (!passive) print(hora() + "Forward " + algorythm + " DWT\n");
+		} catch (Exception e) {
+			if (!passive) print("FWT: " + e + "\n");
+		}
+	}
+
+
+	/**
+	 * Called to do <b>Inverse Wavelet Transform</b> on the CURRENT image.
+	 *
+	 * @param  algorythm  the algorythm to use (haar, shore, ...)
+	 */
+	void iwtCallback(String algorythm, int level) {
+		//if (!isSquare("IWavelet")) return;
+		if (!canBeDecomposed("IWavelet",level)) {
+			return;
+		}
+
+		try {
+			RenderedOp rop =
+					COps.iwavelet(currentImage, algorythm, level);
+			currentImage = rop.createInstance();
+			generateEvent();
+
+			if (!passive) print(hora() + "Inverse DWT\n");
+		} catch (Exception e) {
+			if (!passive) print(hora() + e);
+		}
+	}
+
+
+
+	// ----------------------------------- COMMODITIES ------------------------------
+
+
+	/**
+	 * Returns a string with system's time.
+	 *
+	 * @return    System's Time.
+	 */
+	public final static String hora() {
+		Calendar c = new GregorianCalendar();
+		int min = c.get(Calendar.MINUTE);
+		return ("[" + c.get(Calendar.HOUR_OF_DAY) + ":" + ((min < 10) ? "0" + min : "" + min) + "] ");
+	}
+
+
+	/**
+	 *  Gets the extension of a file, that is, just the substring after the last '.',
+	 *  in lower case. It also returns the colon!
+	 *
+	 * @param  file  Description of the Parameter
+	 * @return       The extension value
+	 */
+	public final static String getExtension(String file) {
+		int pos = file.lastIndexOf('.');
+		return file.substring(pos).toLowerCase();
+	}
+
+	/** Tells you if currentImage is indexed type */
+	public boolean indexed() {
+		int bands = currentImage.getSampleModel().getNumBands();				
+		if (bands == 1 && colormap!=null) return true;
+		return false;
+	}
+	
+	/** Sends some text to the output */
+	public void print(String text) {
+		sink.print(text);
+		Writer w = logFile;
+		if (w != null) {
+			try {
+				synchronized (w) {
+					w.write(text);
+				}
+			} catch (IOException e) {
+				logFailed(w, e);
+			}
+		}
+	}
+
+	/**
+	 * Starts copying the output at the end of a file, which is flushed every
+	 * LOG_FLUSH ms and closed by closeLog, or when the program exits.
+	 */
+	void openLog(String path) throws IOException {
+		closeLog();
+		logFile = new BufferedWriter(new FileWriter(path, true));
+		logPath = path;
+		logFlusher = new Timer("log flush", true);
+		logFlusher.schedule(new TimerTask() {
+			public void run() {
+				flushLog();
+			}
+		}, LOG_FLUSH, LOG_FLUSH);
+		logCloser = new Thread("log close") {
+			public void run() {
+				closeLog();
+			}
+		};
+		Runtime.getRuntime().addShutdownHook(logCloser);
+	}
+
+	/** Writes in the file what the log file keeps in its buffer, if any */
+	public void flushLog() {
+		Writer w = logFile;
+		if (w == null) return;
+		try {
+			synchronized (w) {
+				w.flush();
+			}
+		} catch (IOException e) {
+			logFailed(w, e);
+		}
+	}
+
+	/**
+	 * Flushes and closes the copy of the output in a file, if any.
+	 */
+	public void closeLog() {
+		IOException e = stopLog();
+		if (e != null) sink.print("log: " + e + "\n");
+	}
+
+	/**
+	 * Stops the log after an error writing w, if it is still the log file.
+	 */
+	void logFailed(Writer w, IOException e) {
+		if (logFile != w) return; // closed meanwhile
+		stopLog();
+		sink.print("log: " + e + "\n");
+	}
+
+	/**
+	 * Closes the log file and stops its flushes.
+	 *
+	 * @return    The error closing it, or null.
+	 */
+	synchronized IOException stopLog() {
+		Writer w = logFile;
+		logFile = null;
+		if (logFlusher != null) logFlusher.cancel();
+		logFlusher = null;
+		if (logCloser != null && logCloser != Thread.currentThread()) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(logCloser);
+			} catch (IllegalStateException e) {
+				// exiting, the hook runs anyway
+			}
+		}
+		logCloser = null;
+		if (w == null) return null;
+		try {
+			synchronized (w) {
+				w.close();
+			}
+		} catch (IOException e) {
+			return e;
+		}
+		return null;
+	}
+
+	/** Number of commands that failed with an exception */
+	public int getErrors() {
+		return errors;
+	}
+
+	// --------------------------------------- EVENTS ------------------------------
+
+	/**
+	 * A copy in the heap of an off-heap image, which can be displayed.
+	 */
+	private PlanarImage onHeap(PlanarImage img) {
+		return OffHeapImage.isOffHeap(img) ? OffHeapImage.toHeap(img) : img;
+	}
+
+	/**
+	 *  Description of the Method
+	 */
+	private void generateEvent() {
+		if (!passive) sink.imageChanged(this);
+	}	
+}
+
+
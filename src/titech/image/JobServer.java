@@ -0,0 +1,656 @@
+package titech.image;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.text.NumberFormat;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs jobs of the Interpreter for other programs of the host, without
+ * starting a JVM and registering the JAI operators for each one:
+ * <pre>
+ *   java -cp KingsAlbum.jar titech.image.JobServer [-p PORT] [-w WORKERS] [-q QUEUE]
+ *        [-r DIR] [-t TOKENFILE] [SCRIPT] ...
+ * </pre>
+ * The scripts are run first, to load the palette, networks and quantizer
+ * that the jobs share. Then it listens on the loopback only, with HTTP:
+ * <pre>
+ *   POST /jobs?input=PATH&amp;input=...   the script in the body; 202 and the job
+ *   GET  /jobs/ID[?wait=SECS]           the job, when it is done or after SECS
+ *   GET  /jobs                          a line per job
+ *   GET  /status                        the queue and the workers
+ * </pre>
+ * Every request must have the header X-Job-Token with the token made at
+ * start, which is printed and, with -t, written to TOKENFILE, readable by
+ * its owner only. Requests whose Host or Origin is not the loopback are
+ * refused, so that web pages can't send jobs through a browser. e.g.
+ * <pre>
+ *   curl -H "X-Job-Token: $(cat TOKENFILE)" --data-binary @blobs.txt 'http://127.0.0.1:8765/jobs?input=/img/a.jpg'
+ * </pre>
+ * Each input is loaded and the script run on it, as ploopdir does; an input
+ * directory stands for its images, and a job without inputs runs the script
+ * once. With -r, the inputs must be in one of the DIRs. Each job has its own
+ * interpreter, so its image and stack are its own; commands that would
+ * change what the jobs share are refused, as in ploopdir, and so are the
+ * ones that read or write the files the script names (load, save,
+ * savesamples) or run other scripts (exec).
+ * <p>
+ * WORKERS jobs run at a time (the number of processors by default), and
+ * at most QUEUE wait. When the queue is full the request is answered with
+ * 503 and Retry-After, and the client should try again later. Answers are
+ * plain text, "name: value" lines followed by the output of the job, of
+ * which only the last OUTPUT_CHARS characters are kept (HISTORY_CHARS,
+ * once RECENT newer jobs are done).
+ *
+ * @see Interpreter
+ * @see RunScript
+ * @author David Gavilan
+ */
+public class JobServer {
+
+	public static final int DEFAULT_PORT = 8765;
+	public static final int DEFAULT_QUEUE = 64;
+	/** Jobs done that are remembered */
+	public static final int HISTORY = 1000;
+	/** Jobs done that keep all the output kept */
+	public static final int RECENT = 32;
+	/** Characters of output kept of a job, the last ones */
+	public static final int OUTPUT_CHARS = 64 * 1024;
+	/** Characters of output kept of a job done before the RECENT last */
+	public static final int HISTORY_CHARS = 1024;
+	/** Longest wait of a request for a job, in seconds */
+	public static final int MAX_WAIT = 60;
+	/** Requests answered at a time */
+	public static final int HTTP_THREADS = 16;
+	/** Header with the token */
+	public static final String TOKEN_HEADER = "X-Job-Token";
+	/** Commands that read or write the files named in the script, or run scripts */
+	static final String FILE_COMMANDS = " exec load save savesamples ";
+
+	static final String QUEUED = "queued", RUNNING = "running", DONE = "done", FAILED = "failed";
+
+	Interpreter shared;
+	int nworkers;
+	int capacity;
+	/** Jobs waiting, the first to run first */
+	Vector queue = new Vector();
+	/** Integer id -> Job */
+	Hashtable jobs = new Hashtable();
+	/** Jobs done, the oldest first */
+	Vector history = new Vector();
+	int nextId = 1;
+	int running = 0, done = 0, rejected = 0;
+	boolean stopped = false;
+	Thread[] workers;
+	HttpServer http;
+	ExecutorService httpThreads;
+	String token;
+	/** Directories of the inputs, or null for any */
+	File[] roots;
+
+	/**
+	 * @param  shared    The interpreter with the models of the jobs.
+	 * @param  nworkers  Jobs run at a time.
+	 * @param  capacity  Jobs that can wait.
+	 */
+	public JobServer(Interpreter shared, int nworkers, int capacity) {
+		this.shared = shared;
+		this.nworkers = Math.max(1, nworkers);
+		this.capacity = Math.max(1, capacity);
+	}
+
+	/**
+	 * Only inputs in these directories are accepted.
+	 *
+	 * @param  dirs  The directories, or null for any.
+	 */
+	public void setRoots(File[] dirs) throws IOException {
+		if (dirs == null) {
+			roots = null;
+			return;
+		}
+		roots = new File[dirs.length];
+		for (int i = 0; i < dirs.length; i++) {
+			roots[i] = dirs[i].getCanonicalFile();
+		}
+	}
+
+	/** Whether a file is in one of the roots */
+	boolean allowed(File f) throws IOException {
+		if (roots == null) return true;
+		String path = f.getCanonicalPath();
+		for (int i = 0; i < roots.length; i++) {
+			String root = roots[i].getPath();
+			if (path.equals(root) || path.startsWith(root.endsWith(File.separator) ? root : root + File.separator)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The first command of a script that can't run in a job, or null.
+	 */
+	static String refusedCommand(Pipeline script) {
+		String sc = Interpreter.serialCommand(script);
+		if (sc != null) return sc;
+		for (int i = 0; i < script.size(); i++) {
+			String c = script.getStep(i).getCommand();
+			if (FILE_COMMANDS.indexOf(" " + c + " ") >= 0) return c;
+		}
+		return null;
+	}
+
+	/**
+	 * Queues a job.
+	 *
+	 * @param  script  The commands.
+	 * @param  inputs  The images to run them on; directories stand for their
+	 *                 images.
+	 * @return         The job, or null if the queue is full.
+	 * @exception  IllegalArgumentException  If the script has errors or
+	 *                                       commands that can't run in a job.
+	 */
+	public Job submit(Pipeline script, String[] inputs) {
+		if (script.hasErrors()) throw new IllegalArgumentException(script.getErrors());
+		String sc = refusedCommand(script);
+		if (sc != null) throw new IllegalArgumentException(sc + " can't run in a job\n");
+		Vector files = new Vector();
+		for (int i = 0; i < inputs.length; i++) {
+			File f = new File(inputs[i]);
+			boolean ok;
+			try {
+				ok = allowed(f);
+			} catch (IOException e) {
+				ok = false;
+			}
+			if (!ok) {
+				throw new IllegalArgumentException(inputs[i] + " is not in the input directories\n");
+			} else if (f.isDirectory()) {
+				File[] list = f.listFiles(shared.filter);
+				Arrays.sort(list);
+				for (int k = 0; k < list.length; k++) {
+					// links may lead out of the roots
+					try {
+						if (allowed(list[k])) files.addElement(list[k]);
+					} catch (IOException e) {
+						// left out
+					}
+				}
+			} else if (f.exists()) {
+				files.addElement(f);
+			} else {
+				throw new IllegalArgumentException(inputs[i] + " doesn't exist\n");
+			}
+		}
+		File[] fs = new File[files.size()];
+		files.copyInto(fs);
+
+		synchronized (this) {
+			if (stopped || queue.size() >= capacity) {
+				rejected++;
+				return null;
+			}
+			Job job = new Job(nextId++, script, fs);
+			jobs.put(Integer.valueOf(job.id), job);
+			queue.addElement(job);
+			notifyAll();
+			return job;
+		}
+	}
+
+	public synchronized Job getJob(int id) {
+		return (Job) jobs.get(Integer.valueOf(id));
+	}
+
+	/** The next job to run, waiting for one; null once stopped */
+	synchronized Job take() throws InterruptedException {
+		while (!stopped && queue.isEmpty()) wait();
+		if (stopped) return null;
+		running++;
+		return (Job) queue.remove(0);
+	}
+
+	synchronized void finished(Job job) {
+		running--;
+		done++;
+		history.addElement(job);
+		if (history.size() > RECENT) {
+			((Job) history.elementAt(history.size() - 1 - RECENT)).trim(HISTORY_CHARS);
+		}
+		while (history.size() > HISTORY) {
+			Job old = (Job) history.remove(0);
+			jobs.remove(Integer.valueOf(old.id));
+		}
+	}
+
+	/**
+	 * Starts the workers, and the HTTP server on the loopback, with a new
+	 * token.
+	 *
+	 * @param  port  The port, 0 for any.
+	 */
+	public void start(int port) throws IOException {
+		byte[] b = new byte[16];
+		new SecureRandom().nextBytes(b);
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < b.length; i++) {
+			sb.append(Integer.toHexString((b[i] >> 4) & 0xf)).append(Integer.toHexString(b[i] & 0xf));
+		}
+		token = sb.toString();
+
+		workers = new Thread[nworkers];
+		for (int w = 0; w < nworkers; w++) {
+			workers[w] = new Thread("JobServer-" + w) {
+				public void run() {
+					try {
+						Job job;
+						while ((job = take()) != null) {
+							job.run(shared);
+							finished(job);
+						}
+					} catch (InterruptedException e) {
+						// stopped
+					}
+				}
+			};
+			workers[w].start();
+		}
+		http = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 0);
+		http.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange ex) throws IOException {
+				try {
+					serve(ex);
+				} catch (RuntimeException e) {
+					reply(ex, 500, e + "\n");
+				} finally {
+					ex.close();
+				}
+			}
+		});
+		// some requests wait for their jobs, at most MAX_WAIT
+		httpThreads = Executors.newFixedThreadPool(HTTP_THREADS);
+		http.setExecutor(httpThreads);
+		http.start();
+	}
+
+	/** The token of the requests, made by start */
+	public String getToken() {
+		return token;
+	}
+
+	/**
+	 * Writes the token to a file that only its owner can read.
+	 */
+	public void writeToken(File f) throws IOException {
+		f.delete();
+		new FileOutputStream(f).close();
+		f.setReadable(false, false);
+		f.setWritable(false, false);
+		f.setReadable(true, true);
+		f.setWritable(true, true);
+		Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+		try {
+			w.write(token + "\n");
+		} finally {
+			w.close();
+		}
+	}
+
+	/** The port it listens to */
+	public int getPort() {
+		return http.getAddress().getPort();
+	}
+
+	/**
+	 * Stops the HTTP server and the workers, after the jobs running; the
+	 * ones waiting are not run. The log file of the shared interpreter, if
+	 * any, is closed.
+	 */
+	public void stop() {
+		if (http != null) http.stop(0);
+		if (httpThreads != null) httpThreads.shutdownNow();
+		synchronized (this) {
+			stopped = true;
+			notifyAll();
+		}
+		for (int w = 0; workers != null && w < workers.length; w++) {
+			try {
+				workers[w].join();
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		shared.closeLog();
+	}
+
+	void serve(HttpExchange ex) throws IOException {
+		String method = ex.getRequestMethod();
+		String path = ex.getRequestURI().getPath();
+		Hashtable query = parseQuery(ex.getRequestURI().getRawQuery());
+
+		// a page in a browser may send requests to the loopback: a Host
+		// of another name (DNS rebinding) or an Origin tell them apart
+		String origin = ex.getRequestHeaders().getFirst("Origin");
+		if (!isLocal(ex.getRequestHeaders().getFirst("Host"))
+				 || (origin != null && !isLocal(origin.startsWith("http://") ? origin.substring(7) : ""))) {
+			reply(ex, 403, "Only requests of this host\n");
+			return;
+		}
+		String t = ex.getRequestHeaders().getFirst(TOKEN_HEADER);
+		if (t == null || !MessageDigest.isEqual(t.trim().getBytes("UTF-8"), token.getBytes("UTF-8"))) {
+			reply(ex, 401, "The " + TOKEN_HEADER + " header must have the token of the server\n");
+			return;
+		}
+
+		if (path.equals("/jobs") && method.equals("POST")) {
+			Pipeline pipe = Pipeline.compile(new InputStreamReader(ex.getRequestBody(), "UTF-8"), "job");
+			Vector in = (Vector) query.get("input");
+			String[] inputs = new String[(in == null) ? 0 : in.size()];
+			if (in != null) in.copyInto(inputs);
+			Job job;
+			try {
+				job = submit(pipe, inputs);
+			} catch (IllegalArgumentException e) {
+				reply(ex, 400, e.getMessage());
+				return;
+			}
+			if (job == null) {
+				ex.getResponseHeaders().set("Retry-After", "1");
+				reply(ex, 503, "The queue is full (" + capacity + " jobs)\n");
+				return;
+			}
+			ex.getResponseHeaders().set("Location", "/jobs/" + job.id);
+			reply(ex, 202, job.status(false));
+		} else if (path.startsWith("/jobs/") && method.equals("GET")) {
+			Job job = null;
+			try {
+				job = getJob(Integer.parseInt(path.substring(6)));
+			} catch (NumberFormatException e) {
+				// not found
+			}
+			if (job == null) {
+				reply(ex, 404, "No job " + path.substring(6) + "\n");
+				return;
+			}
+			Vector wait = (Vector) query.get("wait");
+			if (wait != null) {
+				double secs;
+				try {
+					secs = Double.parseDouble((String) wait.firstElement());
+				} catch (NumberFormatException e) {
+					reply(ex, 400, "wait must be a number of seconds\n");
+					return;
+				}
+				// the request holds one of the HTTP_THREADS meanwhile
+				secs = (secs > 0) ? Math.min(secs, MAX_WAIT) : 0;
+				try {
+					job.waitFor((long) (secs * 1000));
+				} catch (InterruptedException e) {
+					// answers as it is
+				}
+			}
+			reply(ex, 200, job.status(true));
+		} else if (path.equals("/jobs") && method.equals("GET")) {
+			StringBuffer sb = new StringBuffer();
+			Job[] js;
+			synchronized (this) {
+				js = new Job[jobs.size()];
+				jobs.values().toArray(js);
+			}
+			Arrays.sort(js, new Comparator() {
+				public int compare(Object a, Object b) {
+					return ((Job) a).id - ((Job) b).id;
+				}
+			});
+			for (int i = 0; i < js.length; i++) sb.append(js[i].summary()).append('\n');
+			reply(ex, 200, sb.toString());
+		} else if (path.equals("/status") && method.equals("GET")) {
+			reply(ex, 200, toString() + "\n");
+		} else {
+			reply(ex, 404, "Unknown request " + method + " " + path + "\n");
+		}
+	}
+
+	/**
+	 * Whether a Host header, or the host:port of an Origin, is the
+	 * loopback.
+	 */
+	static boolean isLocal(String host) {
+		if (host == null) return false;
+		int colon = host.lastIndexOf(':');
+		if (colon >= 0) host = host.substring(0, colon);
+		return host.equals("127.0.0.1") || host.equalsIgnoreCase("localhost");
+	}
+
+	/** name -> Vector of the values */
+	static Hashtable parseQuery(String q) throws UnsupportedEncodingException {
+		Hashtable h = new Hashtable();
+		if (q == null) return h;
+		StringTokenizer st = new StringTokenizer(q, "&");
+		while (st.hasMoreTokens()) {
+			String p = st.nextToken();
+			int eq = p.indexOf('=');
+			String name = URLDecoder.decode((eq < 0) ? p : p.substring(0, eq), "UTF-8");
+			String value = (eq < 0) ? "" : URLDecoder.decode(p.substring(eq + 1), "UTF-8");
+			Vector v = (Vector) h.get(name);
+			if (v == null) {
+				v = new Vector();
+				h.put(name, v);
+			}
+			v.addElement(value);
+		}
+		return h;
+	}
+
+	static void reply(HttpExchange ex, int code, String text) throws IOException {
+		byte[] b = text.getBytes("UTF-8");
+		ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		ex.sendResponseHeaders(code, b.length);
+		OutputStream out = ex.getResponseBody();
+		out.write(b);
+		out.close();
+	}
+
+	public synchronized String toString() {
+		return "JobServer: " + queue.size() + " of " + capacity + " queued, " + running + " of "
+				 + nworkers + " running, " + done + " done, " + rejected + " rejected";
+	}
+
+	/**
+	 * A script and its inputs, and what it printed. It is the output of the
+	 * interpreter that runs it.
+	 */
+	public static class Job implements OutputSink {
+		final int id;
+		final Pipeline script;
+		final File[] inputs;
+		String state = QUEUED;
+		long submitted = System.currentTimeMillis(), started, finished;
+		int errors = 0;
+		/** The end of the output, made when the job prints */
+		OutputSink.Ring output;
+		/** Characters printed, kept or not */
+		long printed = 0;
+
+		Job(int id, Pipeline script, File[] inputs) {
+			this.id = id;
+			this.script = script;
+			this.inputs = inputs;
+		}
+
+		void run(Interpreter shared) {
+			synchronized (this) {
+				state = RUNNING;
+				started = System.currentTimeMillis();
+			}
+			// it prints its log and errors, as in IPPanel
+			Interpreter worker = new Interpreter(shared, this);
+			try {
+				if (inputs.length == 0) {
+					worker.run(script);
+				}
+				for (int i = 0; i < inputs.length; i++) {
+					worker.interpret(Pipeline.Step.of("load", inputs[i].getAbsolutePath()));
+					print(inputs[i].getName() + ":\t");
+					worker.run(script);
+				}
+			} catch (Throwable e) {
+				// interpret catches the exceptions, not the errors
+				print("job: " + e + "\n");
+				worker.errors++;
+			} finally {
+				// its images no longer count against the shared budget
+				worker.imageStack.clear();
+			}
+			synchronized (this) {
+				errors = worker.errors;
+				state = (errors > 0) ? FAILED : DONE;
+				finished = System.currentTimeMillis();
+				notifyAll();
+			}
+		}
+
+		/** Waits until it is done, at most ms */
+		public synchronized void waitFor(long ms) throws InterruptedException {
+			long end = System.currentTimeMillis() + ms;
+			while (!isDone()) {
+				long left = end - System.currentTimeMillis();
+				if (left <= 0) return;
+				wait(left);
+			}
+		}
+
+		public synchronized boolean isDone() {
+			return state == DONE || state == FAILED;
+		}
+
+		public synchronized String getState() {
+			return state;
+		}
+
+		/** The end of the output */
+		public synchronized String getOutput() {
+			return (output == null) ? "" : output.toString();
+		}
+
+		public synchronized void print(String text) {
+			if (output == null) output = new OutputSink.Ring(OUTPUT_CHARS);
+			output.print(text);
+			printed += text.length();
+		}
+
+		public synchronized void clear() {
+			if (output != null) output.clear();
+			printed = 0;
+		}
+
+		/** Keeps only the last chars of the output */
+		synchronized void trim(int chars) {
+			if (output == null || output.getCapacity() <= chars) return;
+			String kept = output.toString();
+			output = new OutputSink.Ring(chars);
+			output.print(kept);
+		}
+
+		public void imageChanged(Interpreter source) {
+		}
+
+		/** Seconds waiting and running, so far */
+		synchronized double[] times() {
+			long now = System.currentTimeMillis();
+			long wait = ((started > 0) ? started : now) - submitted;
+			long run = (started == 0) ? 0 : ((finished > 0) ? finished : now) - started;
+			return new double[]{wait / 1000.0, run / 1000.0};
+		}
+
+		/** A line: id, state, times, inputs and errors */
+		synchronized String summary() {
+			NumberFormat nf = NumberFormat.getInstance();
+			nf.setMaximumFractionDigits(3);
+			double[] t = times();
+			return id + "\t" + state + "\t" + nf.format(t[0]) + "\t" + nf.format(t[1]) + "\t"
+					 + inputs.length + "\t" + errors;
+		}
+
+		/**
+		 * "name: value" lines, and the output so far after a blank line.
+		 */
+		synchronized String status(boolean withOutput) {
+			NumberFormat nf = NumberFormat.getInstance();
+			nf.setMaximumFractionDigits(3);
+			double[] t = times();
+			String s = "id: " + id + "\nstate: " + state + "\ninputs: " + inputs.length
+					 + "\ncommands: " + script.size() + "\nqueued: " + nf.format(t[0])
+					 + " secs\nrun: " + nf.format(t[1]) + " secs\nerrors: " + errors + "\n";
+			if (!withOutput) return s;
+			String out = getOutput();
+			if (out.length() < printed) s += "output: the last " + out.length() + " of " + printed + " chars\n";
+			return s + "\n" + out;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = DEFAULT_PORT;
+		int nworkers = Runtime.getRuntime().availableProcessors();
+		int queue = DEFAULT_QUEUE;
+		Vector scripts = new Vector();
+		Vector roots = new Vector();
+		File tokenFile = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-p") && i + 1 < args.length) {
+				port = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-w") && i + 1 < args.length) {
+				nworkers = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-q") && i + 1 < args.length) {
+				queue = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-r") && i + 1 < args.length) {
+				roots.addElement(new File(args[++i]));
+			} else if (args[i].equals("-t") && i + 1 < args.length) {
+				tokenFile = new File(args[++i]);
+			} else if (args[i].startsWith("-")) {
+				System.err.println("usage: JobServer [-p PORT] [-w WORKERS] [-q QUEUE] [-r DIR] [-t TOKENFILE] [SCRIPT] ...");
+				System.exit(2);
+			} else {
+				scripts.addElement(args[i]);
+			}
+		}
+		if (System.getProperty("java.awt.headless") == null) {
+			System.setProperty("java.awt.headless", "true");
+		}
+
+		Interpreter shared = new Interpreter(new OutputSink.Stream(System.out));
+		for (int i = 0; i < scripts.size(); i++) {
+			String name = (String) scripts.elementAt(i);
+			Pipeline p = Pipeline.compile(new File(name));
+			if (p.hasErrors()) {
+				System.err.print(p.getErrors());
+				System.exit(2);
+			}
+			shared.run(p);
+		}
+		if (shared.getErrors() > 0) System.exit(1);
+
+		JobServer server = new JobServer(shared, nworkers, queue);
+		if (roots.size() > 0) {
+			File[] r = new File[roots.size()];
+			roots.copyInto(r);
+			server.setRoots(r);
+		}
+		server.start(port);
+		if (tokenFile != null) server.writeToken(tokenFile);
+		System.out.println("Listening on http://127.0.0.1:" + server.getPort() + "/ with "
+				 + server.nworkers + " workers");
+		System.out.println(TOKEN_HEADER + ": " + server.getToken());
+	}
+}
@@ -0,0 +1,155 @@
+package titech.image;
+
+import java.io.PrintStream;
+
+/**
+ * Where an Interpreter sends what it prints and the changes of its image:
+ * the log of IPPanel, the console of RunScript, or a buffer.
+ * <p>
+ * The output may be printed by a thread other than the event thread.
+ *
+ * @see Interpreter
+ * @author David Gavilan
+ */
+public interface OutputSink {
+
+	/** Appends some text to the output */
+	void print(String text);
+
+	/** Clears the output, if it can be */
+	void clear();
+
+	/**
+	 * The current image of the interpreter changed, and can be shown.
+	 *
+	 * @see Interpreter#getImage
+	 */
+	void imageChanged(Interpreter source);
+
+	/**
+	 * Writes the output to a stream, e.g. System.out, and ignores the
+	 * images.
+	 */
+	public static class Stream implements OutputSink {
+		PrintStream out;
+
+		public Stream(PrintStream out) {
+			this.out = out;
+		}
+
+		public void print(String text) {
+			out.print(text);
+			out.flush();
+		}
+
+		public void clear() {
+		}
+
+		public void imageChanged(Interpreter source) {
+		}
+	}
+
+	/**
+	 * Keeps the output in memory until it is taken, and ignores the images.
+	 */
+	public static class Buffer implements OutputSink {
+		StringBuffer buffer = new StringBuffer();
+
+		public synchronized void print(String text) {
+			buffer.append(text);
+		}
+
+		public synchronized void clear() {
+			buffer.setLength(0);
+		}
+
+		public void imageChanged(Interpreter source) {
+		}
+
+		/** The output so far, which is cleared */
+		public synchronized String take() {
+			String s = buffer.toString();
+			buffer.setLength(0);
+			return s;
+		}
+	}
+
+	/**
+	 * Keeps the last characters of the output, so that a long loop takes the
+	 * same memory whatever it prints. A window shows what was printed since
+	 * it last looked, a few times per second, instead of once per line.
+	 */
+	public static class Ring implements OutputSink {
+		char[] ring;
+		/** Characters printed, and shown */
+		long written = 0, taken = 0;
+		/** Whether the text shown must be replaced */
+		boolean replace = false;
+
+		/**
+		 * @param  capacity  Characters kept.
+		 */
+		public Ring(int capacity) {
+			ring = new char[Math.max(1, capacity)];
+		}
+
+		public int getCapacity() {
+			return ring.length;
+		}
+
+		public synchronized void print(String text) {
+			int n = text.length();
+			// only the end fits
+			int from = Math.max(0, n - ring.length);
+			written += from;
+			while (from < n) {
+				int at = (int) (written % ring.length);
+				int k = Math.min(n - from, ring.length - at);
+				text.getChars(from, from + k, ring, at);
+				from += k;
+				written += k;
+			}
+		}
+
+		public synchronized void clear() {
+			written = taken = 0;
+			replace = true;
+		}
+
+		public void imageChanged(Interpreter source) {
+		}
+
+		/**
+		 * Appends what was printed since the last take. If some of it is lost,
+		 * or the output was cleared, it appends all that is kept instead, which
+		 * should replace the text shown.
+		 *
+		 * @return    Whether the text shown must be replaced.
+		 */
+		public synchronized boolean take(StringBuffer to) {
+			long kept = Math.max(0, written - ring.length);
+			boolean r = replace || taken < kept;
+			copy(r ? kept : taken, to);
+			taken = written;
+			replace = false;
+			return r;
+		}
+
+		/** Appends the characters from the position from to the end */
+		void copy(long from, StringBuffer to) {
+			while (from < written) {
+				int at = (int) (from % ring.length);
+				int k = (int) Math.min(written - from, ring.length - at);
+				to.append(ring, at, k);
+				from += k;
+			}
+		}
+
+		/** The characters kept */
+		public synchronized String toString() {
+			StringBuffer sb = new StringBuffer();
+			copy(Math.max(0, written - ring.length), sb);
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,337 @@
+package titech.image;
+
+import java.io.*;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Commands of the Interpreter split and checked once, to be run
+ * many times, as loopdir does with its command for every image.
+ * <p>
+ * Compiling a command or a script splits every line into a Step, with its
+ * tokens, and checks that the command exists and that the arguments that
+ * must be numbers are numbers. The errors of the whole script are gathered
+ * with their line, so a batch can be refused before it starts instead of
+ * failing on the first image. "exec" lines are replaced by the steps of
+ * their script. Lines starting with # are comments.
+ * <pre>
+ *   Pipeline p = Pipeline.compile("blur 2.5");
+ *   if (p.hasErrors()) print(p.getErrors());
+ *   else for (...) panel.run(p);
+ * </pre>
+ * A Pipeline and its steps are immutable; each run reads the arguments of a
+ * step with a new Args.
+ *
+ * @see Interpreter#interpret(Pipeline.Step)
+ * @author David Gavilan
+ */
+public class Pipeline {
+
+	/** Depth of nested exec */
+	public static final int MAX_DEPTH = 16;
+
+	/**
+	 * Arguments of each command: i integer, l long, n number, s anything.
+	 * Only the arguments given are checked, and only up to the length of
+	 * the signature; commands with keywords are left to the interpreter.
+	 */
+	static Hashtable signatures = new Hashtable();
+
+	static {
+		String[] sig = {
+			"add", "n", "binarize", "n", "blur", "n i", "canny", "", "clear", "",
+			"cluster", "", "colortr", "", "crop", "i i i i", "cropx", "i i i i",
+			"cs", "s", "derivative", "s", "div", "n", "exec", "s", "extrema", "",
+			"features", "i", "fwt", "s i", "gblob", "i n n n n n n", "getblobs", "n",
+			"getsample", "i i i", "gradient", "s", "graph", "s", "gray", "", "grey", "",
+			"histohsv", "", "hsv", "", "integral", "i i i i", "invert", "", "iwt", "s i",
+			"jai", "s", "laplacian", "n i", "learn", "s s", "load", "s", "log", "s s",
+			"loopdir", "s", "loop2dirs", "s s", "lut", "s", "maxcon", "", "mean", "",
+			"median", "i s", "memo", "s s l", "modwhite", "", "modwhiteg", "n", "mult", "n",
+			"objects", "s", "offheap", "s", "palette", "s", "pixcache", "s",
+			"ploopdir", "s", "pop", "", "posterize", "i i i", "profile", "s", "push", "", "quanterror", "s",
+			"quantize", "s", "quantizer", "n", "readahead", "i", "reload", "", "rgb", "s",
+			"save", "s", "savesamples", "s", "segeval", "s", "sharpen", "",
+			"simd", "s", "size", "i i s", "sizex", "i i s", "som", "i i",
+			"ssr", "i i n", "ssc", "i i n", "stack", "s", "stats", "i", "threshold", "n n n",
+			"type", "s", "xydiagram", "i n", "xyimage", "i", "?", "", "help", ""
+		};
+		for (int i = 0; i < sig.length; i += 2) {
+			signatures.put(sig[i], sig[i + 1]);
+		}
+	}
+
+	Step[] steps;
+	Vector errors = new Vector();
+
+	Pipeline(Vector steps, Vector errors) {
+		this.steps = new Step[steps.size()];
+		steps.copyInto(this.steps);
+		this.errors = errors;
+	}
+
+	/**
+	 * Compiles a single command.
+	 */
+	public static Pipeline compile(String command) {
+		Vector steps = new Vector(), errors = new Vector();
+		add(command, "command", 0, steps, errors, 0);
+		return new Pipeline(steps, errors);
+	}
+
+	/**
+	 * Compiles a script, a command per line.
+	 *
+	 * @exception  IOException  If the script can't be read. The scripts it
+	 *                          executes that can't be read are errors.
+	 */
+	public static Pipeline compile(File script) throws IOException {
+		Vector steps = new Vector(), errors = new Vector();
+		addScript(script, steps, errors, 0);
+		return new Pipeline(steps, errors);
+	}
+
+	/**
+	 * Compiles a script read from somewhere else, e.g. a request; where
+	 * names it in the errors.
+	 */
+	public static Pipeline compile(Reader script, String where) throws IOException {
+		Vector steps = new Vector(), errors = new Vector();
+		addLines(new BufferedReader(script), where, steps, errors, 0);
+		return new Pipeline(steps, errors);
+	}
+
+	static void addScript(File script, Vector steps, Vector errors, int depth)
+			throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(script));
+		try {
+			addLines(br, script.getPath(), steps, errors, depth);
+		} finally {
+			br.close();
+		}
+	}
+
+	static void addLines(BufferedReader br, String where, Vector steps, Vector errors, int depth)
+			throws IOException {
+		String line;
+		int n = 0;
+		while ((line = br.readLine()) != null) {
+			n++;
+			add(line, where, n, steps, errors, depth);
+		}
+	}
+
+	static void add(String line, String where, int n, Vector steps, Vector errors, int depth) {
+		Step s = Step.parse(line);
+		if (s == null || s.command.startsWith("#")) return;
+		String error = check(s);
+		if (error != null) {
+			errors.addElement(where + ":" + n + ": " + error + ": " + line.trim());
+			return;
+		}
+		if (s.command.equals("exec") && s.tokens.length > 1) {
+			if (depth >= MAX_DEPTH) {
+				errors.addElement(where + ":" + n + ": exec nested too deep");
+				return;
+			}
+			File f = new File(s.tokens[1]);
+			try {
+				addScript(f, steps, errors, depth + 1);
+			} catch (IOException e) {
+				errors.addElement(where + ":" + n + ": " + e);
+			}
+			return;
+		}
+		steps.addElement(s);
+	}
+
+	/**
+	 * Checks a step against the signature of its command.
+	 *
+	 * @return    The error, or null if there is none.
+	 */
+	static String check(Step s) {
+		String sig = (String) signatures.get(s.command);
+		if (sig == null) return "unknown command " + s.command;
+		String[] types = (sig.length() == 0) ? new String[0] : sig.split(" ");
+		for (int i = 0; i < types.length && i + 1 < s.tokens.length; i++) {
+			String t = s.tokens[i + 1];
+			try {
+				if (types[i].equals("i")) {
+					Integer.parseInt(t);
+				} else if (types[i].equals("l")) {
+					Long.parseLong(t);
+				} else if (types[i].equals("n")) {
+					Double.parseDouble(t);
+				}
+			} catch (NumberFormatException e) {
+				return "argument " + (i + 1) + " of " + s.command + " is not a number (" + t + ")";
+			}
+		}
+		return null;
+	}
+
+	public boolean hasErrors() {
+		return errors.size() > 0;
+	}
+
+	/**
+	 * The errors, one per line.
+	 */
+	public String getErrors() {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < errors.size(); i++) {
+			sb.append(errors.elementAt(i)).append('\n');
+		}
+		return sb.toString();
+	}
+
+	public int size() {
+		return steps.length;
+	}
+
+	public Step getStep(int i) {
+		return steps[i];
+	}
+
+	public String toString() {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < steps.length; i++) {
+			if (i > 0) sb.append("; ");
+			sb.append(steps[i].line.trim());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * A command line split into tokens, as StringTokenizer does.
+	 */
+	public static class Step {
+		static final String WHITE = " \t\n\r\f";
+
+		final String line;
+		final String command;
+		/** The command and its arguments */
+		final String[] tokens;
+		/** Position in the line after each token */
+		final int[] ends;
+
+		Step(String line, String[] tokens, int[] ends) {
+			this.line = line;
+			this.tokens = tokens;
+			this.ends = ends;
+			this.command = tokens[0];
+		}
+
+		/**
+		 * Splits a line.
+		 *
+		 * @return    The step, or null if the line is blank.
+		 */
+		public static Step parse(String line) {
+			Vector t = new Vector();
+			Vector e = new Vector();
+			int i = 0, n = line.length();
+			while (true) {
+				while (i < n && WHITE.indexOf(line.charAt(i)) >= 0) i++;
+				if (i >= n) break;
+				int start = i;
+				while (i < n && WHITE.indexOf(line.charAt(i)) < 0) i++;
+				t.addElement(line.substring(start, i));
+				e.addElement(Integer.valueOf(i));
+			}
+			if (t.size() == 0) return null;
+			String[] tokens = new String[t.size()];
+			t.copyInto(tokens);
+			int[] ends = new int[e.size()];
+			for (int k = 0; k < ends.length; k++) {
+				ends[k] = ((Integer) e.elementAt(k)).intValue();
+			}
+			return new Step(line, tokens, ends);
+		}
+
+		/**
+		 * A step made of tokens, e.g. a file name that may have spaces.
+		 */
+		public static Step of(String command, String arg) {
+			String line = command + " " + arg;
+			return new Step(line, new String[]{command, arg},
+					new int[]{command.length(), line.length()});
+		}
+
+		public String getCommand() {
+			return command;
+		}
+
+		public String getLine() {
+			return line;
+		}
+
+		/** The command and its arguments, separated by a space */
+		public String getNormalized() {
+			StringBuffer sb = new StringBuffer(command);
+			for (int i = 1; i < tokens.length; i++) sb.append(' ').append(tokens[i]);
+			return sb.toString();
+		}
+
+		/** The arguments, after the command */
+		public Args args() {
+			return new Args(this);
+		}
+
+		public String toString() {
+			return line;
+		}
+	}
+
+	/**
+	 * Reads the arguments of a step with the methods of StringTokenizer
+	 * that the interpreter uses. After nextToken(delim) the rest of the line
+	 * is split with the new delimiters, as StringTokenizer does.
+	 */
+	public static class Args {
+		Step step;
+		/** Next token, while the delimiters are the white space */
+		int next = 1;
+		/** Position in the line, once the delimiters change */
+		int pos;
+		String delim = null;
+
+		Args(Step step) {
+			this.step = step;
+			this.pos = step.ends[0];
+		}
+
+		public boolean hasMoreTokens() {
+			if (delim == null) return next < step.tokens.length;
+			return skip(pos) < step.line.length();
+		}
+
+		public String nextToken() {
+			if (delim == null) {
+				if (next >= step.tokens.length) throw new java.util.NoSuchElementException();
+				pos = step.ends[next];
+				return step.tokens[next++];
+			}
+			int start = skip(pos);
+			if (start >= step.line.length()) throw new java.util.NoSuchElementException();
+			int end = start;
+			while (end < step.line.length() && delim.indexOf(step.line.charAt(end)) < 0) end++;
+			pos = end;
+			return step.line.substring(start, end);
+		}
+
+		/**
+		 * Changes the delimiters and returns the next token.
+		 */
+		public String nextToken(String delim) {
+			this.delim = delim;
+			return nextToken();
+		}
+
+		int skip(int i) {
+			while (i < step.line.length() && delim.indexOf(step.line.charAt(i)) >= 0) i++;
+			return i;
+		}
+	}
+}
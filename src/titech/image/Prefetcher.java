@@ -0,0 +1,222 @@
+package titech.image;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.Hashtable;
+
+import javax.media.jai.PlanarImage;
+
+import titech.file.RasterFile;
+import titech.image.dsp.ExecutionConfig;
+
+/**
+ * Reads and decodes the next images of a loop while the current one is
+ * processed, so that the disk and the processors work at the same time.
+ * <p>
+ * The files are fetched in the order of the loop, at most depth of them
+ * ahead of the one the loop is at. Fetching an image decodes all its tiles,
+ * which stay in the JAI tile cache, or pages in its RasterFile if it comes
+ * from the DecodedCache. The loop gets the same image object with
+ * {@link #take}, so its tiles are found in the cache.
+ * <p>
+ * When the images waiting to be taken would take more than half the tile
+ * cache, or more than half the free heap, the fetching waits for the loop
+ * to take them; there is always one image fetched ahead, at least.
+ * <p>
+ * Fetching is mostly waiting for the disk, so the threads are virtual
+ * threads if the JVM has them (Java 21), or daemon threads.
+ *
+ * @see Interpreter#decode(File)
+ * @author David Gavilan
+ */
+public class Prefetcher {
+
+	static final int WAITING = 0, FETCHING = 1, READY = 2, TAKEN = 3;
+
+	/** Thread.startVirtualThread(Runnable), or null */
+	static Method startVirtual;
+
+	static {
+		try {
+			startVirtual = Thread.class.getMethod("startVirtualThread", new Class[]{Runnable.class});
+		} catch (Exception e) {
+			startVirtual = null;
+		}
+	}
+
+	File[] files;
+	int depth;
+	/** absolute path -> Integer, its first position */
+	Hashtable index = new Hashtable();
+	int[] state;
+	PlanarImage[] images;
+	long[] bytes;
+	/** Next file to fetch */
+	int next = 0;
+	/** Position of the loop, the files before it are not fetched */
+	int taken = 0;
+	/** Bytes of the images fetched and not taken */
+	long pending = 0;
+	boolean closed = false;
+	int hits;
+
+	/**
+	 * Starts fetching.
+	 *
+	 * @param  files  The files, in the order the loop takes them.
+	 * @param  depth  How many files to have ready ahead of the loop.
+	 */
+	public Prefetcher(File[] files, int depth) {
+		this.files = files;
+		this.depth = Math.max(1, depth);
+		state = new int[files.length];
+		images = new PlanarImage[files.length];
+		bytes = new long[files.length];
+		for (int i = files.length - 1; i >= 0; i--) {
+			index.put(files[i].getAbsolutePath(), Integer.valueOf(i));
+		}
+		int n = Math.min(this.depth, files.length);
+		for (int t = 0; t < n; t++) {
+			start(new Runnable() {
+				public void run() {
+					fetchLoop();
+				}
+			});
+		}
+	}
+
+	static void start(Runnable r) {
+		if (startVirtual != null) {
+			try {
+				startVirtual.invoke(null, new Object[]{r});
+				return;
+			} catch (Exception e) {
+				startVirtual = null;
+			}
+		}
+		Thread t = new Thread(r, "Prefetcher");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	void fetchLoop() {
+		while (true) {
+			int i;
+			synchronized (this) {
+				while (!closed && next < files.length && next >= taken + depth) {
+					waitQuietly();
+				}
+				if (closed || next >= files.length) return;
+				if (next < taken) next = taken;
+				i = next++;
+				if (state[i] != WAITING) continue;
+				state[i] = FETCHING;
+			}
+
+			PlanarImage img = null;
+			long b = 0;
+			try {
+				img = decode(files[i]);
+				b = (long) img.getWidth() * img.getHeight() * img.getSampleModel().getNumBands()
+						 * img.getSampleModel().getSampleSize(0) / 8;
+				synchronized (this) {
+					// unless the loop is already waiting for it
+					while (!closed && pending > 0 && i >= taken && underPressure(b)) {
+						waitQuietly();
+					}
+					pending += b;
+				}
+				if (img instanceof RasterFile) {
+					((RasterFile) img).load();
+				} else {
+					img.getTiles();
+				}
+			} catch (Throwable e) {
+				// the loop loads it again and reports the error
+				img = null;
+			}
+			synchronized (this) {
+				// taken - 1 is the one the loop may be waiting for
+				if (state[i] == FETCHING && img != null && !closed && i >= taken - 1) {
+					state[i] = READY;
+					images[i] = img;
+					bytes[i] = b;
+				} else {
+					state[i] = TAKEN;
+					pending -= b;
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Creates the image of a file, as the load command does.
+	 */
+	protected PlanarImage decode(File f) {
+		return Interpreter.decode(f);
+	}
+
+	/** Whether one more image of b bytes would be too much */
+	boolean underPressure(long b) {
+		if (pending + b > ExecutionConfig.getCacheCapacity() / 2) return true;
+		Runtime rt = Runtime.getRuntime();
+		long free = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+		return pending + b > free / 2;
+	}
+
+	void waitQuietly() {
+		try {
+			wait(200);
+		} catch (InterruptedException e) {
+			closed = true;
+		}
+	}
+
+	/**
+	 * The image of a file, once it is fetched, or null if it is not one of
+	 * the files or it couldn't be fetched. The files before it won't be
+	 * fetched any more.
+	 */
+	public synchronized PlanarImage take(File f) {
+		Integer k = (Integer) index.get(f.getAbsolutePath());
+		if (k == null) return null;
+		int i = k.intValue();
+		// the ones skipped won't be taken
+		for (int j = taken; j < i; j++) {
+			if (state[j] == READY) {
+				images[j] = null;
+				pending -= bytes[j];
+				state[j] = TAKEN;
+			}
+		}
+		if (i + 1 > taken) taken = i + 1;
+		notifyAll();
+		while (state[i] == FETCHING && !closed) {
+			waitQuietly();
+		}
+		PlanarImage img = null;
+		if (state[i] == READY) {
+			img = images[i];
+			images[i] = null;
+			pending -= bytes[i];
+			hits++;
+		}
+		state[i] = TAKEN;
+		return img;
+	}
+
+	/**
+	 * Stops fetching. The images fetched and not taken are forgotten.
+	 */
+	public synchronized void close() {
+		closed = true;
+		for (int i = 0; i < images.length; i++) images[i] = null;
+		notifyAll();
+	}
+
+	public synchronized String toString() {
+		return "Prefetcher: " + hits + " of " + taken + " images were ready, depth " + depth
+				 + ((startVirtual != null) ? ", virtual threads" : "");
+	}
+}
@@ -0,0 +1,244 @@
+package titech.image;
+
+import java.awt.image.RenderedImage;
+import java.lang.reflect.Method;
+import java.text.NumberFormat;
+import java.util.*;
+
+import javax.media.jai.OpImage;
+import javax.media.jai.RenderedOp;
+
+/**
+ * Times of the commands of an Interpreter, per command: how many times it
+ * ran, the total, the percentiles of its latency and the memory it
+ * allocated.
+ * <p>
+ * Most commands only build a chain of RenderedOps, which computes its
+ * tiles later, when something pulls them (a display, save, stats...), and
+ * only the tiles it needs. While profiling, the tile cache of JAI is a
+ * ProfilingTileCache, which times the tiles as they are computed and
+ * charges each to the command that built its operator: that time is
+ * counted apart, in the "tiles" column. Nothing is computed for the
+ * profiler, so a profiled run does the work of a real one.
+ * <p>
+ * The loops are commands too: their time includes that of the commands
+ * they run, which are also counted on their own.
+ * <p>
+ * The allocated bytes are those of the thread, if the JVM tells them
+ * (com.sun.management.ThreadMXBean); the tiles computed by the JAI threads
+ * are not counted.
+ *
+ * @see Interpreter#interpret(Pipeline.Step)
+ * @author David Gavilan
+ */
+public class Profiler {
+
+	/** command -> Stats */
+	Hashtable stats = new Hashtable();
+	/** Operator -> the command that built it */
+	WeakHashMap built = new WeakHashMap();
+	/** Time of the tiles the thread computed for other commands, long[1] */
+	ThreadLocal charged = new ThreadLocal() {
+		protected Object initialValue() {
+			return new long[1];
+		}
+	};
+	long started = System.currentTimeMillis();
+
+	static Object threadBean;
+	static Method allocatedBytes;
+
+	static {
+		try {
+			Class mf = Class.forName("java.lang.management.ManagementFactory");
+			threadBean = mf.getMethod("getThreadMXBean", new Class[0]).invoke(null, new Object[0]);
+			Class c = Class.forName("com.sun.management.ThreadMXBean");
+			if (c.isInstance(threadBean)) {
+				Method m = c.getMethod("getThreadAllocatedBytes", new Class[]{long.class});
+				// -1 if it is disabled
+				Object b = m.invoke(threadBean, new Object[]{Long.valueOf(Thread.currentThread().getId())});
+				if (((Long) b).longValue() >= 0) allocatedBytes = m;
+			}
+		} catch (Throwable e) {
+			allocatedBytes = null;
+		}
+	}
+
+	/**
+	 * Bytes allocated so far by the current thread, or -1 if the JVM
+	 * doesn't tell.
+	 */
+	public static long allocatedBytes() {
+		if (allocatedBytes == null) return -1;
+		try {
+			Object b = allocatedBytes.invoke(threadBean,
+				new Object[]{Long.valueOf(Thread.currentThread().getId())});
+			return ((Long) b).longValue();
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Counts a run of a command.
+	 *
+	 * @param  command  The command name.
+	 * @param  ns       Its time, in nanoseconds.
+	 * @param  bytes    Bytes it allocated, or -1 if unknown.
+	 */
+	public synchronized void record(String command, long ns, long bytes) {
+		stats(command).add(ns, bytes);
+	}
+
+	/**
+	 * Counts the time of a tile of an operator the command built.
+	 *
+	 * @param  outer  Whether no other timed tile was computing it, so its
+	 *      time (with its sources) is in that of the command running.
+	 */
+	public void tile(String command, long ns, long outer) {
+		synchronized (this) {
+			Stats s = stats(command);
+			s.total += ns;
+			s.tiles += ns;
+		}
+		((long[]) charged.get())[0] += outer;
+	}
+
+	/**
+	 * Time of the tiles the current thread computed while running commands,
+	 * charged to the commands that built them, in ns. The difference of two
+	 * calls is not time of the command that ran in between.
+	 */
+	public long chargedHere() {
+		return ((long[]) charged.get())[0];
+	}
+
+	Stats stats(String command) {
+		Stats s = (Stats) stats.get(command);
+		if (s == null) {
+			s = new Stats(command);
+			stats.put(command, s);
+		}
+		return s;
+	}
+
+	/**
+	 * The operators of an image, and those of its sources that no command
+	 * built before, were built by the command. It creates the rendering of
+	 * a RenderedOp, but computes no tiles.
+	 */
+	public void built(String command, RenderedImage img) {
+		Vector todo = new Vector();
+		todo.addElement(img);
+		while (!todo.isEmpty()) {
+			Object o = todo.remove(todo.size() - 1);
+			if (o instanceof RenderedOp) o = ((RenderedOp) o).getRendering();
+			if (!(o instanceof OpImage)) continue;
+			synchronized (this) {
+				if (built.containsKey(o)) continue;
+				built.put(o, command);
+			}
+			Vector sources = ((OpImage) o).getSources();
+			if (sources != null) todo.addAll(sources);
+		}
+	}
+
+	/** The command that built an operator, or null */
+	public synchronized String builtBy(RenderedImage op) {
+		return (String) built.get(op);
+	}
+
+	public synchronized void clear() {
+		stats.clear();
+		started = System.currentTimeMillis();
+	}
+
+	/**
+	 * A table with a line per command, the slowest in total first. Times in
+	 * ms, except the totals, in seconds. The total includes the time of the
+	 * tiles; the percentiles are of the runs of the command, without them.
+	 */
+	public synchronized String report() {
+		Stats[] s = new Stats[stats.size()];
+		stats.values().toArray(s);
+		Arrays.sort(s, new Comparator() {
+			public int compare(Object a, Object b) {
+				long ta = ((Stats) a).total, tb = ((Stats) b).total;
+				return (ta > tb) ? -1 : ((ta < tb) ? 1 : 0);
+			}
+		});
+		NumberFormat nf = NumberFormat.getInstance();
+		nf.setMinimumFractionDigits(2);
+		nf.setMaximumFractionDigits(2);
+		nf.setGroupingUsed(false);
+
+		StringBuffer sb = new StringBuffer();
+		sb.append("Profile of " + nf.format((System.currentTimeMillis() - started) / 1000.0) + " secs\n");
+		sb.append(pad("command", -12) + pad("count", 8) + pad("total s", 10) + pad("tiles s", 10)
+				 + pad("p50", 10) + pad("p95", 10) + pad("p99", 10) + pad("max", 10)
+				 + pad("alloc MB", 10) + "\n");
+		for (int i = 0; i < s.length; i++) {
+			Stats t = s[i];
+			sb.append(pad(t.command, -12) + pad("" + t.count, 8)
+					 + pad(nf.format(t.total / 1e9), 10) + pad(nf.format(t.tiles / 1e9), 10)
+					 + pad(nf.format(t.percentile(50) / 1e6), 10)
+					 + pad(nf.format(t.percentile(95) / 1e6), 10)
+					 + pad(nf.format(t.percentile(99) / 1e6), 10)
+					 + pad(nf.format(t.percentile(100) / 1e6), 10)
+					 + pad((t.bytes < 0) ? "?" : nf.format(t.bytes / 1048576.0), 10) + "\n");
+		}
+		return sb.toString();
+	}
+
+	/** Pads to n characters, on the left, or on the right if n < 0 */
+	static String pad(String s, int n) {
+		StringBuffer sb = new StringBuffer();
+		int w = Math.abs(n);
+		if (n < 0) sb.append(s);
+		for (int i = s.length(); i < w; i++) sb.append(' ');
+		if (n > 0) sb.append(s);
+		return sb.toString();
+	}
+
+	/**
+	 * Times of a command. Every time is kept, for the percentiles.
+	 */
+	static class Stats {
+		String command;
+		int count;
+		long total, tiles;
+		/** -1 if unknown */
+		long bytes = 0;
+		long[] times = new long[16];
+		boolean sorted = true;
+
+		Stats(String command) {
+			this.command = command;
+		}
+
+		void add(long ns, long b) {
+			if (count == times.length) {
+				long[] t = new long[2 * count];
+				System.arraycopy(times, 0, t, 0, count);
+				times = t;
+			}
+			times[count++] = ns;
+			sorted = false;
+			total += ns;
+			if (b < 0 || bytes < 0) bytes = -1;
+			else bytes += b;
+		}
+
+		/** Nearest rank percentile, in ns */
+		long percentile(double p) {
+			if (count == 0) return 0;
+			if (!sorted) {
+				Arrays.sort(times, 0, count);
+				sorted = true;
+			}
+			int k = (int) Math.ceil(p / 100.0 * count) - 1;
+			return times[Math.max(0, Math.min(count - 1, k))];
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package titech.image;
+
+import java.awt.Point;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.Comparator;
+import java.util.Vector;
+
+import javax.media.jai.JAI;
+import javax.media.jai.TileCache;
+
+/**
+ * The tile cache of JAI while profiling: it times the tiles as they are
+ * computed, whenever something pulls them, and charges them to the Profiler.
+ * <p>
+ * An operator computes a tile after looking for it in the cache, and adds
+ * it there right after, in the same thread (its own or one of the
+ * TileScheduler). The time in between is the time of the tile, and of the
+ * tiles of its sources computed for it; those are timed on their own and
+ * subtracted, so each operator is charged only its work. A tile is charged
+ * to the command that built its operator, see {@link Profiler#built}; the
+ * operators of no command are charged to the tile that needed them.
+ * <p>
+ * Operators take the cache when they are created, so the ones created
+ * before the profiler is on are not timed.
+ *
+ * @see Profiler
+ * @author David Gavilan
+ */
+public class ProfilingTileCache implements TileCache {
+
+	/** Tiles being computed by a thread that are still pending, at most */
+	static final int MAX_PENDING = 256;
+
+	TileCache cache;
+	Profiler profiler;
+
+	/** Tiles being computed by the current thread, the last on top */
+	ThreadLocal computing = new ThreadLocal() {
+		protected Object initialValue() {
+			return new Vector();
+		}
+	};
+
+	/** A tile being computed */
+	static class Frame {
+		RenderedImage owner;
+		int x, y;
+		String command;
+		long start;
+		/** Time of the tiles of other commands computed for it */
+		long sources;
+	}
+
+	ProfilingTileCache(TileCache cache, Profiler profiler) {
+		this.cache = cache;
+		this.profiler = profiler;
+	}
+
+	/**
+	 * Times the tiles computed from now on with the profiler.
+	 */
+	public static synchronized void install(Profiler profiler) {
+		JAI jai = JAI.getDefaultInstance();
+		TileCache c = jai.getTileCache();
+		if (c instanceof ProfilingTileCache) c = ((ProfilingTileCache) c).cache;
+		jai.setTileCache(new ProfilingTileCache(c, profiler));
+	}
+
+	/**
+	 * Puts back the cache of JAI. The operators created meanwhile keep this
+	 * one, which times nothing more.
+	 */
+	public static synchronized void uninstall() {
+		JAI jai = JAI.getDefaultInstance();
+		TileCache c = jai.getTileCache();
+		if (c instanceof ProfilingTileCache) {
+			((ProfilingTileCache) c).profiler = null;
+			jai.setTileCache(((ProfilingTileCache) c).cache);
+		}
+	}
+
+	public Raster getTile(RenderedImage owner, int tileX, int tileY) {
+		Raster tile = cache.getTile(owner, tileX, tileY);
+		Profiler p = profiler;
+		if (tile == null && p != null) {
+			String command = p.builtBy(owner);
+			if (command != null) {
+				Vector stack = (Vector) computing.get();
+				if (stack.size() >= MAX_PENDING) stack.removeAllElements();
+				Frame f = new Frame();
+				f.owner = owner;
+				f.x = tileX;
+				f.y = tileY;
+				f.command = command;
+				f.start = System.nanoTime();
+				stack.addElement(f);
+			}
+		}
+		return tile;
+	}
+
+	/**
+	 * A tile was computed: charges its time, if it was being timed. The
+	 * tiles above it were never added (their operator failed), and are
+	 * dropped.
+	 */
+	void computed(RenderedImage owner, int tileX, int tileY) {
+		Profiler p = profiler;
+		if (p == null) return;
+		Vector stack = (Vector) computing.get();
+		for (int i = stack.size() - 1; i >= 0; i--) {
+			Frame f = (Frame) stack.elementAt(i);
+			if (f.owner == owner && f.x == tileX && f.y == tileY) {
+				stack.setSize(i);
+				long t = System.nanoTime() - f.start;
+				p.tile(f.command, t - f.sources, (i == 0) ? t : 0);
+				if (i > 0) ((Frame) stack.elementAt(i - 1)).sources += t;
+				return;
+			}
+		}
+	}
+
+	public void add(RenderedImage owner, int tileX, int tileY, Raster data) {
+		cache.add(owner, tileX, tileY, data);
+		computed(owner, tileX, tileY);
+	}
+
+	public void add(RenderedImage owner, int tileX, int tileY, Raster data, Object tileCacheMetric) {
+		cache.add(owner, tileX, tileY, data, tileCacheMetric);
+		computed(owner, tileX, tileY);
+	}
+
+	public void addTiles(RenderedImage owner, Point[] tileIndices, Raster[] tiles, Object tileCacheMetric) {
+		cache.addTiles(owner, tileIndices, tiles, tileCacheMetric);
+		for (int i = 0; i < tileIndices.length; i++) {
+			computed(owner, tileIndices[i].x, tileIndices[i].y);
+		}
+	}
+
+	public void remove(RenderedImage owner, int tileX, int tileY) {
+		cache.remove(owner, tileX, tileY);
+	}
+
+	public Raster[] getTiles(RenderedImage owner) {
+		return cache.getTiles(owner);
+	}
+
+	public Raster[] getTiles(RenderedImage owner, Point[] tileIndices) {
+		return cache.getTiles(owner, tileIndices);
+	}
+
+	public void removeTiles(RenderedImage owner) {
+		cache.removeTiles(owner);
+	}
+
+	public void flush() {
+		cache.flush();
+	}
+
+	public void memoryControl() {
+		cache.memoryControl();
+	}
+
+	public void setTileCapacity(int tileCapacity) {
+		cache.setTileCapacity(tileCapacity);
+	}
+
+	public int getTileCapacity() {
+		return cache.getTileCapacity();
+	}
+
+	public void setMemoryCapacity(long memoryCapacity) {
+		cache.setMemoryCapacity(memoryCapacity);
+	}
+
+	public long getMemoryCapacity() {
+		return cache.getMemoryCapacity();
+	}
+
+	public void setMemoryThreshold(float memoryThreshold) {
+		cache.setMemoryThreshold(memoryThreshold);
+	}
+
+	public float getMemoryThreshold() {
+		return cache.getMemoryThreshold();
+	}
+
+	public void setTileComparator(Comparator comparator) {
+		cache.setTileComparator(comparator);
+	}
+
+	public Comparator getTileComparator() {
+		return cache.getTileComparator();
+	}
+}
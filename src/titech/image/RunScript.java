@@ -0,0 +1,64 @@
+package titech.image;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Runs scripts of the Interpreter from the command line, without a window,
+ * e.g. for batch jobs in a server:
+ * <pre>
+ *   java -cp KingsAlbum.jar titech.image.RunScript [-c COMMAND] [SCRIPT] ...
+ * </pre>
+ * The scripts and commands are run in order by the same interpreter, so
+ * a script can use the palette or networks loaded by the one before. They
+ * are all compiled first, and nothing is run if any of them has errors.
+ * What they print goes to the standard output.
+ * <p>
+ * Exit status: 0 if every command ran, 1 if some command failed, 2 if the
+ * scripts couldn't be read or compiled.
+ *
+ * @see Interpreter
+ * @author David Gavilan
+ */
+public class RunScript {
+
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.err.println("usage: RunScript [-c COMMAND] [SCRIPT] ...");
+			System.exit(2);
+		}
+		if (System.getProperty("java.awt.headless") == null) {
+			System.setProperty("java.awt.headless", "true");
+		}
+
+		Pipeline[] pipes = new Pipeline[args.length];
+		boolean ok = true;
+		int n = 0;
+		for (int i = 0; i < args.length; i++) {
+			try {
+				if (args[i].equals("-c") && i + 1 < args.length) {
+					pipes[n++] = Pipeline.compile(args[++i]);
+				} else {
+					pipes[n++] = Pipeline.compile(new File(args[i]));
+				}
+			} catch (IOException e) {
+				System.err.println(args[i] + ": " + e);
+				ok = false;
+				continue;
+			}
+			if (pipes[n - 1].hasErrors()) {
+				System.err.print(pipes[n - 1].getErrors());
+				ok = false;
+			}
+		}
+		if (!ok) System.exit(2);
+
+		Interpreter interpreter = new Interpreter(new OutputSink.Stream(System.out));
+		for (int i = 0; i < n; i++) {
+			interpreter.run(pipes[i]);
+		}
+		interpreter.closeLog();
+		// the JAI threads would keep the JVM alive
+		System.exit(interpreter.getErrors() > 0 ? 1 : 0);
+	}
+}
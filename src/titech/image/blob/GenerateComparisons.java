@@ -67,7 +67,7 @@ public class GenerateComparisons {
 
 			for (int i = 0; i < fileList.length; i++) {
 				File f = fileList[i];			
-				PlanarImage pimg = JAI.create("fileload", f.getAbsolutePath());
+				PlanarImage pimg = DecodedCache.load(f.getAbsolutePath());
 				ObjectImage obi = BlobOps.getBlobs(pimg, colorCatT);
 				double[][] features =  obi.getFeatures();
 				//RenderedOp res = ImageObjects.Indexed2RGB(obi.getLabeledImage(), 8, obi.getColormap());
@@ -92,7 +92,7 @@ public class GenerateComparisons {
 				
 				for (int j=0;j<fileList.length;j++) {
 					File fc = fileList[j];
-					PlanarImage pimgc = JAI.create("fileload", fc.getAbsolutePath());
+					PlanarImage pimgc = DecodedCache.load(fc.getAbsolutePath());
 					ObjectImage obic = BlobOps.getBlobs(pimgc, colorCatT);
 					
 					TiledImage comparison = obi.compareImages(obic);
@@ -39,14 +39,22 @@ public class BlobOps {
 			resultWidth = IMGSHORT; resultHeight = IMGLONG;
 		}
 	
-		PlanarImage ccorrected = ColorManipulation.modWhiteInGray(pimg);
-		
-		RenderedOp rop = COps.scale(ccorrected,resultWidth,resultHeight);
-		rop = COps.gaussianBlur(rop,SCALE);
+		if (!BlobPreprocess.canCorrect(pimg)) {
+			// the fused correction is for RGB images only
+			PlanarImage ccorrected = ColorManipulation.modWhiteInGray(pimg);
+			RenderedOp rop = COps.scale(ccorrected,resultWidth,resultHeight);
+			rop = COps.gaussianBlur(rop,SCALE);
+			TiledImage reg = colorCat.categorize(rop);
+			return new ObjectImage(reg,COps.scale(pimg,resultWidth,resultHeight),osize);
+		}
+
+		// downsample first, then correct, blur and categorize the small image
+		BlobPreprocess pre = new BlobPreprocess(pimg,resultWidth,resultHeight);
+		pre.correctColor();
 
-		TiledImage reg = colorCat.categorize(rop);
+		TiledImage reg = pre.categorize(colorCat,SCALE);
 		
-		return new ObjectImage(reg,COps.scale(pimg,resultWidth,resultHeight),osize);
+		return new ObjectImage(reg,pre.getOriginal(),osize);
 		
 	}
 }
@@ -0,0 +1,249 @@
+package titech.image.dsp;
+
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+
+import javax.media.jai.*;
+
+/**
+ * The preprocessing of the color blobs segmentation, fused in one pass over
+ * the big image:
+ * <ol>
+ * <li>area average downsampling, reading each source tile once;</li>
+ * <li>color correction (ColorManipulation.modWhiteInGray), with the mean and
+ *     the histograms taken from the small image;</li>
+ * <li>gaussian blur with reflected borders;</li>
+ * <li>color categorization.</li>
+ * </ol>
+ * All but the first step work on a small array in memory. The uncorrected
+ * small image gives the colors of the ObjectImage. The color correction is
+ * only done for RGB images; for the others BlobOps keeps the correction at
+ * full resolution.
+ * <pre>
+ *   BlobPreprocess pre = new BlobPreprocess(img, 80, 60);
+ *   pre.correctColor();
+ *   TiledImage reg = pre.categorize(colorCat, BlobOps.SCALE);
+ *   new ObjectImage(reg, pre.getOriginal(), osize);
+ * </pre>
+ *
+ * @see BlobOps#getBlobs
+ * @author David Gavilan
+ */
+public class BlobPreprocess {
+
+	int width, height, bands;
+	/** Area averages of the source, band interleaved, row by row */
+	double[] small;
+	/** Color correction gains, or null if not corrected */
+	double[] gains;
+	/** Sample and color models of the source, for getOriginal */
+	SampleModel sampleModel;
+	ColorModel colorModel;
+
+	/**
+	 * Downsamples an image averaging the source pixels of each destination
+	 * pixel.
+	 */
+	public BlobPreprocess(RenderedImage src, int width, int height) {
+		this.width = width;
+		this.height = height;
+		bands = src.getSampleModel().getNumBands();
+		sampleModel = src.getSampleModel().createCompatibleSampleModel(width, height);
+		colorModel = src.getColorModel();
+		small = areaAverage(src, width, height);
+	}
+
+	/**
+	 * Whether correctColor works for this image: it has 3 bands of bytes.
+	 */
+	public static boolean canCorrect(RenderedImage src) {
+		SampleModel sm = src.getSampleModel();
+		return sm.getNumBands() == 3 && sm.getDataType() == DataBuffer.TYPE_BYTE;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * The gains applied by correctColor, or null.
+	 */
+	public double[] getGains() {
+		return gains;
+	}
+
+	/**
+	 * Area average downsampling. Each source pixel goes to one destination
+	 * pixel, so the ones near the borders of a cell are not split.
+	 *
+	 * @return    The averages, band interleaved, row by row.
+	 */
+	public static double[] areaAverage(RenderedImage src, int width, int height) {
+		int bands = src.getSampleModel().getNumBands();
+		int sw = src.getWidth(), sh = src.getHeight();
+		int minX = src.getMinX(), minY = src.getMinY();
+		double[] sums = new double[width * height * bands];
+		int[] counts = new int[width * height];
+		int[] cellX = new int[sw];
+		for (int x = 0; x < sw; x++) {
+			cellX[x] = (int) ((long) x * width / sw);
+		}
+
+		Rectangle[] rects = BlockAccess.tiles(src);
+		int[] buf = null;
+		for (int t = 0; t < rects.length; t++) {
+			Rectangle r = rects[t];
+			if (r.isEmpty()) continue;
+			buf = BlockAccess.readInts(src, r, buf);
+			int k = 0;
+			for (int y = 0; y < r.height; y++) {
+				int row = (int) ((long) (r.y + y - minY) * height / sh) * width;
+				for (int x = 0; x < r.width; x++) {
+					int cell = row + cellX[r.x + x - minX];
+					counts[cell]++;
+					int c = cell * bands;
+					for (int b = 0; b < bands; b++) {
+						sums[c + b] += buf[k++];
+					}
+				}
+			}
+		}
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] == 0) continue;
+			for (int b = 0; b < bands; b++) {
+				sums[i * bands + b] /= counts[i];
+			}
+		}
+		return sums;
+	}
+
+	/**
+	 * Color correction as ColorManipulation.modWhiteInGray, but measured on
+	 * the small image: if the mean is above GW_THRESHOLD, the modified White
+	 * World gains are computed from its histograms.
+	 *
+	 * @return    true if the colors were corrected, false if the mean is
+	 *            low or the source is not RGB (see canCorrect).
+	 */
+	public boolean correctColor() {
+		gains = null;
+		if (bands != 3 || sampleModel.getDataType() != DataBuffer.TYPE_BYTE) return false;
+		int n = width * height;
+		double media = 0;
+		int[][] bins = new int[bands][256];
+		for (int i = 0, k = 0; i < n; i++) {
+			for (int b = 0; b < bands; b++, k++) {
+				media += small[k];
+				int v = (int) small[k];
+				bins[b][(v < 0) ? 0 : ((v > 255) ? 255 : v)]++;
+			}
+		}
+		media /= n * bands;
+		if (media <= ColorManipulation.GW_THRESHOLD) return false;
+
+		gains = ColorManipulation.whiteGains(bins, n, bands);
+		return true;
+	}
+
+	/**
+	 * The small image, color corrected and blurred, rounded to 0..255.
+	 *
+	 * @param  sigma  Standard deviation of the gaussian.
+	 */
+	public int[] blurred(double sigma) {
+		int n = width * height;
+		double[] data = new double[n * bands];
+		for (int i = 0, k = 0; i < n; i++) {
+			for (int b = 0; b < bands; b++, k++) {
+				double v = small[k];
+				if (gains != null) {
+					v *= gains[b];
+					if (v > 255) v = 255;
+				}
+				data[k] = v;
+			}
+		}
+
+		double[] kernel = Difference.gaussian1Dkernel((int) (Math.ceil(sigma * 3) * 2 + 1), sigma);
+		if (kernel != null) {
+			double[] line = new double[Math.max(width, height) * bands];
+			// rows
+			for (int y = 0; y < height; y++) {
+				convolveLine(data, y * width * bands, bands, width, kernel, line);
+			}
+			// columns
+			for (int x = 0; x < width; x++) {
+				convolveLine(data, x * bands, width * bands, height, kernel, line);
+			}
+		}
+
+		int[] out = new int[data.length];
+		for (int k = 0; k < data.length; k++) {
+			int v = (int) Math.floor(data[k] + 0.5);
+			out[k] = (v < 0) ? 0 : ((v > 255) ? 255 : v);
+		}
+		return out;
+	}
+
+	/**
+	 * Convolves a row or column of pixels in place, all bands at once.
+	 * @param off    index of the first sample
+	 * @param stride distance between pixels
+	 * @param len    number of pixels
+	 */
+	void convolveLine(double[] data, int off, int stride, int len,
+			double[] kernel, double[] line) {
+		int half = kernel.length / 2;
+		for (int i = 0; i < len; i++) {
+			for (int b = 0; b < bands; b++) {
+				double s = 0;
+				for (int j = 0; j < kernel.length; j++) {
+					int p = RecursiveGaussianOpImage.reflect(i + j - half, len);
+					s += kernel[j] * data[off + p * stride + b];
+				}
+				line[i * bands + b] = s;
+			}
+		}
+		for (int i = 0; i < len; i++) {
+			for (int b = 0; b < bands; b++) {
+				data[off + i * stride + b] = line[i * bands + b];
+			}
+		}
+	}
+
+	/**
+	 * Blurs and categorizes the small image.
+	 *
+	 * @param  sigma  Standard deviation of the gaussian.
+	 */
+	public TiledImage categorize(ColorCategorization colorCat, double sigma) {
+		return colorCat.categorize(blurred(sigma), bands, width, height);
+	}
+
+	/**
+	 * The small image without color correction, for the colors of the
+	 * objects. It has the sample type of the source.
+	 */
+	public TiledImage getOriginal() {
+		ColorModel cm = (colorModel != null) ? colorModel : PlanarImage.createColorModel(sampleModel);
+		TiledImage img = new TiledImage(0, 0, width, height, 0, 0, sampleModel, cm);
+		int type = sampleModel.getDataType();
+		if (type == DataBuffer.TYPE_FLOAT || type == DataBuffer.TYPE_DOUBLE) {
+			BlockAccess.writeDoubles(img, BlockAccess.bounds(img), small);
+			return img;
+		}
+		int[] data = new int[small.length];
+		for (int k = 0; k < small.length; k++) {
+			data[k] = (int) Math.floor(small[k] + 0.5);
+		}
+		BlockAccess.writeInts(img, BlockAccess.bounds(img), data);
+		return img;
+	}
+}
@@ -0,0 +1,452 @@
+package titech.image.dsp;
+
+import java.awt.Rectangle;
+import java.awt.image.*;
+
+import javax.media.jai.TiledImage;
+
+/**
+ * Bulk access to the pixels of an image, a rectangle at a time.
+ * <p>
+ * Pixels are read into and written from primitive arrays in band interleaved
+ * order, row by row: sample (x, y, b) of the rectangle r is at
+ * <pre>((y - r.y) * r.width + (x - r.x)) * bands + b</pre>
+ * When the raster is a ComponentSampleModel over a byte, ushort, short, int,
+ * float or double DataBuffer, the data arrays are accessed directly. Other
+ * layouts (e.g. MultiPixelPackedSampleModel) go through Raster.getPixels one
+ * row at a time. Either way there is no call per pixel.
+ * <p>
+ * The usual loop works tile by tile:
+ * <pre>
+ *   Rectangle[] rects = BlockAccess.tiles(dest);
+ *   for (int t = 0; t &lt; rects.length; t++) {
+ *       buf = BlockAccess.readInts(source, rects[t], buf);
+ *       ... modify buf ...
+ *       BlockAccess.writeInts(dest, rects[t], buf);
+ *   }
+ * </pre>
+ * Reading and writing keep the conversions of Raster.getSample/setSample:
+ * float to int truncates, int to byte keeps the lower 8 bits.
+ *
+ * @author David Gavilan
+ */
+public class BlockAccess {
+
+	/**
+	 * The tiles of an image, clipped to the image bounds.
+	 */
+	public static Rectangle[] tiles(RenderedImage img) {
+		Rectangle bounds = new Rectangle(img.getMinX(), img.getMinY(),
+				img.getWidth(), img.getHeight());
+		int nx = img.getNumXTiles(), ny = img.getNumYTiles();
+		Rectangle[] rects = new Rectangle[nx * ny];
+		int k = 0;
+		for (int ty = 0; ty < ny; ty++) {
+			for (int tx = 0; tx < nx; tx++) {
+				Rectangle tile = new Rectangle(
+						img.getTileGridXOffset() + (img.getMinTileX() + tx) * img.getTileWidth(),
+						img.getTileGridYOffset() + (img.getMinTileY() + ty) * img.getTileHeight(),
+						img.getTileWidth(), img.getTileHeight());
+				rects[k++] = tile.intersection(bounds);
+			}
+		}
+		return rects;
+	}
+
+	/**
+	 * The bounds of an image.
+	 */
+	public static Rectangle bounds(RenderedImage img) {
+		return new Rectangle(img.getMinX(), img.getMinY(), img.getWidth(), img.getHeight());
+	}
+
+	/** First tile index (x) overlapping the rectangle */
+	static int tileX0(RenderedImage img, Rectangle r) {
+		return floorDiv(r.x - img.getTileGridXOffset(), img.getTileWidth());
+	}
+
+	static int tileX1(RenderedImage img, Rectangle r) {
+		return floorDiv(r.x + r.width - 1 - img.getTileGridXOffset(), img.getTileWidth());
+	}
+
+	static int tileY0(RenderedImage img, Rectangle r) {
+		return floorDiv(r.y - img.getTileGridYOffset(), img.getTileHeight());
+	}
+
+	static int tileY1(RenderedImage img, Rectangle r) {
+		return floorDiv(r.y + r.height - 1 - img.getTileGridYOffset(), img.getTileHeight());
+	}
+
+	static int floorDiv(int a, int b) {
+		return (a >= 0) ? a / b : -((-a + b - 1) / b);
+	}
+
+	/**
+	 * Reads the samples of all bands in a rectangle as ints.
+	 *
+	 * @param  img  The image.
+	 * @param  r    The rectangle, inside the image bounds.
+	 * @param  buf  Where to put them, or null. It is reallocated if too small.
+	 * @return      The buffer.
+	 */
+	public static int[] readInts(RenderedImage img, Rectangle r, int[] buf) {
+		int bands = img.getSampleModel().getNumBands();
+		int n = r.width * r.height * bands;
+		if (buf == null || buf.length < n) buf = new int[n];
+		int[] row = null;
+		for (int ty = tileY0(img, r); ty <= tileY1(img, r); ty++) {
+			for (int tx = tileX0(img, r); tx <= tileX1(img, r); tx++) {
+				Raster tile = img.getTile(tx, ty);
+				Rectangle s = tile.getBounds().intersection(r);
+				if (s.isEmpty()) continue;
+				int off = ((s.y - r.y) * r.width + (s.x - r.x)) * bands;
+				int scan = r.width * bands;
+				if (!readDirect(tile, s, buf, null, null, off, scan, bands)) {
+					if (row == null || row.length < s.width * bands) row = new int[s.width * bands];
+					for (int y = 0; y < s.height; y++) {
+						tile.getPixels(s.x, s.y + y, s.width, 1, row);
+						System.arraycopy(row, 0, buf, off + y * scan, s.width * bands);
+					}
+				}
+			}
+		}
+		return buf;
+	}
+
+	/**
+	 * Reads the samples of all bands in a rectangle as floats.
+	 * @see #readInts
+	 */
+	public static float[] readFloats(RenderedImage img, Rectangle r, float[] buf) {
+		int bands = img.getSampleModel().getNumBands();
+		int n = r.width * r.height * bands;
+		if (buf == null || buf.length < n) buf = new float[n];
+		float[] row = null;
+		for (int ty = tileY0(img, r); ty <= tileY1(img, r); ty++) {
+			for (int tx = tileX0(img, r); tx <= tileX1(img, r); tx++) {
+				Raster tile = img.getTile(tx, ty);
+				Rectangle s = tile.getBounds().intersection(r);
+				if (s.isEmpty()) continue;
+				int off = ((s.y - r.y) * r.width + (s.x - r.x)) * bands;
+				int scan = r.width * bands;
+				if (!readDirect(tile, s, null, buf, null, off, scan, bands)) {
+					if (row == null || row.length < s.width * bands) row = new float[s.width * bands];
+					for (int y = 0; y < s.height; y++) {
+						tile.getPixels(s.x, s.y + y, s.width, 1, row);
+						System.arraycopy(row, 0, buf, off + y * scan, s.width * bands);
+					}
+				}
+			}
+		}
+		return buf;
+	}
+
+	/**
+	 * Reads the samples of all bands in a rectangle as doubles.
+	 * @see #readInts
+	 */
+	public static double[] readDoubles(RenderedImage img, Rectangle r, double[] buf) {
+		int bands = img.getSampleModel().getNumBands();
+		int n = r.width * r.height * bands;
+		if (buf == null || buf.length < n) buf = new double[n];
+		double[] row = null;
+		for (int ty = tileY0(img, r); ty <= tileY1(img, r); ty++) {
+			for (int tx = tileX0(img, r); tx <= tileX1(img, r); tx++) {
+				Raster tile = img.getTile(tx, ty);
+				Rectangle s = tile.getBounds().intersection(r);
+				if (s.isEmpty()) continue;
+				int off = ((s.y - r.y) * r.width + (s.x - r.x)) * bands;
+				int scan = r.width * bands;
+				if (!readDirect(tile, s, null, null, buf, off, scan, bands)) {
+					if (row == null || row.length < s.width * bands) row = new double[s.width * bands];
+					for (int y = 0; y < s.height; y++) {
+						tile.getPixels(s.x, s.y + y, s.width, 1, row);
+						System.arraycopy(row, 0, buf, off + y * scan, s.width * bands);
+					}
+				}
+			}
+		}
+		return buf;
+	}
+
+	/**
+	 * Writes ints to all bands of a rectangle.
+	 *
+	 * @param  img   The destination.
+	 * @param  r     The rectangle, inside the image bounds.
+	 * @param  data  The samples, as returned by readInts.
+	 */
+	public static void writeInts(TiledImage img, Rectangle r, int[] data) {
+		write(img, r, data, null, null);
+	}
+
+	/**
+	 * Writes floats to all bands of a rectangle.
+	 * @see #writeInts
+	 */
+	public static void writeFloats(TiledImage img, Rectangle r, float[] data) {
+		write(img, r, null, data, null);
+	}
+
+	/**
+	 * Writes doubles to all bands of a rectangle.
+	 * @see #writeInts
+	 */
+	public static void writeDoubles(TiledImage img, Rectangle r, double[] data) {
+		write(img, r, null, null, data);
+	}
+
+	/** Only one of idata, fdata, ddata is not null. */
+	static void write(TiledImage img, Rectangle r, int[] idata, float[] fdata, double[] ddata) {
+		int bands = img.getSampleModel().getNumBands();
+		int scan = r.width * bands;
+		for (int ty = tileY0(img, r); ty <= tileY1(img, r); ty++) {
+			for (int tx = tileX0(img, r); tx <= tileX1(img, r); tx++) {
+				WritableRaster tile = img.getWritableTile(tx, ty);
+				try {
+					Rectangle s = tile.getBounds().intersection(r);
+					if (s.isEmpty()) continue;
+					int off = ((s.y - r.y) * r.width + (s.x - r.x)) * bands;
+					if (writeDirect(tile, s, idata, fdata, ddata, off, scan, bands)) continue;
+					int len = s.width * bands;
+					for (int y = 0; y < s.height; y++) {
+						int p = off + y * scan;
+						if (idata != null) {
+							int[] row = new int[len];
+							System.arraycopy(idata, p, row, 0, len);
+							tile.setPixels(s.x, s.y + y, s.width, 1, row);
+						} else if (fdata != null) {
+							float[] row = new float[len];
+							System.arraycopy(fdata, p, row, 0, len);
+							tile.setPixels(s.x, s.y + y, s.width, 1, row);
+						} else {
+							double[] row = new double[len];
+							System.arraycopy(ddata, p, row, 0, len);
+							tile.setPixels(s.x, s.y + y, s.width, 1, row);
+						}
+					}
+				} finally {
+					img.releaseWritableTile(tx, ty);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies a rectangle of a raster straight from its data arrays.
+	 * Only one of idst, fdst, ddst is not null.
+	 *
+	 * @return    false if the raster layout is not supported.
+	 */
+	static boolean readDirect(Raster tile, Rectangle s, int[] idst, float[] fdst,
+			double[] ddst, int off, int scan, int bands) {
+		if (!(tile.getSampleModel() instanceof ComponentSampleModel)) return false;
+		ComponentSampleModel csm = (ComponentSampleModel) tile.getSampleModel();
+		DataBuffer db = tile.getDataBuffer();
+		int ps = csm.getPixelStride();
+		int ss = csm.getScanlineStride();
+		int[] bankIndices = csm.getBankIndices();
+		int[] bandOffsets = csm.getBandOffsets();
+		int[] dbOffsets = db.getOffsets();
+		int sx = s.x - tile.getSampleModelTranslateX();
+		int sy = s.y - tile.getSampleModelTranslateY();
+
+		for (int b = 0; b < bands; b++) {
+			int bank = bankIndices[b];
+			int base = dbOffsets[bank] + sy * ss + sx * ps + bandOffsets[b];
+			switch (db.getDataType()) {
+				case DataBuffer.TYPE_BYTE: {
+					byte[] a = ((DataBufferByte) db).getData(bank);
+					for (int y = 0; y < s.height; y++) {
+						int p = base + y * ss;
+						int d = off + y * scan + b;
+						if (idst != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) idst[d] = a[p] & 0xff;
+						} else if (fdst != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) fdst[d] = a[p] & 0xff;
+						} else {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) ddst[d] = a[p] & 0xff;
+						}
+					}
+					break;
+				}
+				case DataBuffer.TYPE_USHORT: {
+					short[] a = ((DataBufferUShort) db).getData(bank);
+					for (int y = 0; y < s.height; y++) {
+						int p = base + y * ss;
+						int d = off + y * scan + b;
+						if (idst != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) idst[d] = a[p] & 0xffff;
+						} else if (fdst != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) fdst[d] = a[p] & 0xffff;
+						} else {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) ddst[d] = a[p] & 0xffff;
+						}
+					}
+					break;
+				}
+				case DataBuffer.TYPE_SHORT: {
+					short[] a = ((DataBufferShort) db).getData(bank);
+					for (int y = 0; y < s.height; y++) {
+						int p = base + y * ss;
+						int d = off + y * scan + b;
+						if (idst != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) idst[d] = a[p];
+						} else if (fdst != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) fdst[d] = a[p];
+						} else {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) ddst[d] = a[p];
+						}
+					}
+					break;
+				}
+				case DataBuffer.TYPE_INT: {
+					int[] a = ((DataBufferInt) db).getData(bank);
+					for (int y = 0; y < s.height; y++) {
+						int p = base + y * ss;
+						int d = off + y * scan + b;
+						if (idst != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) idst[d] = a[p];
+						} else if (fdst != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) fdst[d] = a[p];
+						} else {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) ddst[d] = a[p];
+						}
+					}
+					break;
+				}
+				case DataBuffer.TYPE_FLOAT: {
+					// JAI may use its own DataBufferFloat
+					if (!(db instanceof java.awt.image.DataBufferFloat)) return false;
+					float[] a = ((java.awt.image.DataBufferFloat) db).getData(bank);
+					for (int y = 0; y < s.height; y++) {
+						int p = base + y * ss;
+						int d = off + y * scan + b;
+						if (idst != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) idst[d] = (int) a[p];
+						} else if (fdst != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) fdst[d] = a[p];
+						} else {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) ddst[d] = a[p];
+						}
+					}
+					break;
+				}
+				case DataBuffer.TYPE_DOUBLE: {
+					if (!(db instanceof java.awt.image.DataBufferDouble)) return false;
+					double[] a = ((java.awt.image.DataBufferDouble) db).getData(bank);
+					for (int y = 0; y < s.height; y++) {
+						int p = base + y * ss;
+						int d = off + y * scan + b;
+						if (idst != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) idst[d] = (int) a[p];
+						} else if (fdst != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) fdst[d] = (float) a[p];
+						} else {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) ddst[d] = a[p];
+						}
+					}
+					break;
+				}
+				default:
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Copies a rectangle to the data arrays of a raster.
+	 * Only one of isrc, fsrc, dsrc is not null.
+	 *
+	 * @return    false if the raster layout is not supported.
+	 */
+	static boolean writeDirect(WritableRaster tile, Rectangle s, int[] isrc, float[] fsrc,
+			double[] dsrc, int off, int scan, int bands) {
+		if (!(tile.getSampleModel() instanceof ComponentSampleModel)) return false;
+		ComponentSampleModel csm = (ComponentSampleModel) tile.getSampleModel();
+		DataBuffer db = tile.getDataBuffer();
+		int type = db.getDataType();
+		if (type == DataBuffer.TYPE_FLOAT && !(db instanceof java.awt.image.DataBufferFloat)) return false;
+		if (type == DataBuffer.TYPE_DOUBLE && !(db instanceof java.awt.image.DataBufferDouble)) return false;
+		int ps = csm.getPixelStride();
+		int ss = csm.getScanlineStride();
+		int[] bankIndices = csm.getBankIndices();
+		int[] bandOffsets = csm.getBandOffsets();
+		int[] dbOffsets = db.getOffsets();
+		int sx = s.x - tile.getSampleModelTranslateX();
+		int sy = s.y - tile.getSampleModelTranslateY();
+
+		for (int b = 0; b < bands; b++) {
+			int bank = bankIndices[b];
+			int base = dbOffsets[bank] + sy * ss + sx * ps + bandOffsets[b];
+			for (int y = 0; y < s.height; y++) {
+				int p = base + y * ss;
+				int d = off + y * scan + b;
+				switch (type) {
+					case DataBuffer.TYPE_BYTE: {
+						byte[] a = ((DataBufferByte) db).getData(bank);
+						if (isrc != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) a[p] = (byte) isrc[d];
+						} else if (fsrc != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) a[p] = (byte) (int) fsrc[d];
+						} else {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) a[p] = (byte) (int) dsrc[d];
+						}
+						break;
+					}
+					case DataBuffer.TYPE_USHORT:
+					case DataBuffer.TYPE_SHORT: {
+						short[] a = (type == DataBuffer.TYPE_SHORT) ?
+								((DataBufferShort) db).getData(bank) : ((DataBufferUShort) db).getData(bank);
+						if (isrc != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) a[p] = (short) isrc[d];
+						} else if (fsrc != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) a[p] = (short) (int) fsrc[d];
+						} else {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) a[p] = (short) (int) dsrc[d];
+						}
+						break;
+					}
+					case DataBuffer.TYPE_INT: {
+						int[] a = ((DataBufferInt) db).getData(bank);
+						if (isrc != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) a[p] = isrc[d];
+						} else if (fsrc != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) a[p] = (int) fsrc[d];
+						} else {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) a[p] = (int) dsrc[d];
+						}
+						break;
+					}
+					case DataBuffer.TYPE_FLOAT: {
+						float[] a = ((java.awt.image.DataBufferFloat) db).getData(bank);
+						if (isrc != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) a[p] = isrc[d];
+						} else if (fsrc != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) a[p] = fsrc[d];
+						} else {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) a[p] = (float) dsrc[d];
+						}
+						break;
+					}
+					case DataBuffer.TYPE_DOUBLE: {
+						double[] a = ((java.awt.image.DataBufferDouble) db).getData(bank);
+						if (isrc != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) a[p] = isrc[d];
+						} else if (fsrc != null) {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) a[p] = fsrc[d];
+						} else {
+							for (int x = 0; x < s.width; x++, p += ps, d += bands) a[p] = dsrc[d];
+						}
+						break;
+					}
+					default:
+						return false;
+				}
+			}
+		}
+		return true;
+	}
+
+}
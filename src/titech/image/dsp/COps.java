@@ -16,6 +16,7 @@ import java.util.Vector;
 import javax.media.jai.*;
 import javax.media.jai.iterator.*;
 import javax.media.jai.operator.*;
+import javax.media.jai.registry.RIFRegistry;
 
 import titech.image.math.*;
 
@@ -29,6 +30,63 @@ import titech.image.math.*;
  */
 public class COps {
 
+	/** Use lookup tables in colorConvert and toBW */
+	public static boolean colorLUT = true;
+	/** Weights of the bands in toBW (plus the constant term) */
+	public static final double[][] GRAY_WEIGHTS = { { 0.114D, 0.587D, 0.299D, 0.0D } };
+	static ColorLUT grayTable;
+
+	/** From this mask size on, square median filters use HistogramMedian */
+	public static final int HISTOGRAM_MEDIAN_SIZE = 7;
+
+	/** From this sigma on, gaussianBlur uses the recursive filter. */
+	public static final double RECURSIVE_SIGMA = 4.0;
+
+	static {
+		// here and not in IPPanel, because COps is also used without it
+		OperationRegistry registry =
+				JAI.getDefaultInstance().getOperationRegistry();
+
+		registry.registerDescriptor(new RecursiveGaussianDescriptor());
+		RenderedImageFactory recursiveGaussianRIF = new RecursiveGaussianRIF();
+		RIFRegistry.register(registry, "RecursiveGaussian", "titech", recursiveGaussianRIF);
+
+		registry.registerDescriptor(new HistogramMedianDescriptor());
+		RenderedImageFactory histogramMedianRIF = new HistogramMedianRIF();
+		RIFRegistry.register(registry, "HistogramMedian", "titech", histogramMedianRIF);
+
+		registry.registerDescriptor(new FloatPointDescriptor());
+		RenderedImageFactory floatPointRIF = new FloatPointRIF();
+		RIFRegistry.register(registry, "FloatPoint", "titech", floatPointRIF);
+
+		registry.registerDescriptor(new ColorLUTDescriptor());
+		RenderedImageFactory colorLUTRIF = new ColorLUTRIF();
+		RIFRegistry.register(registry, "ColorLUT", "titech", colorLUTRIF);
+	}
+
+    /**
+    * Creates a JAI operation. When the OpGraph is on, an identical operation
+    * on the same sources gives the node created before.
+    * @see OpGraph
+    */
+    public static RenderedOp create(String name, ParameterBlock pb, 
+                                    RenderingHints hints) {
+        return OpGraph.create(name, pb, hints);
+    }
+
+    public static RenderedOp create(String name, ParameterBlock pb) {
+        return OpGraph.create(name, pb, null);
+    }
+
+    /** As JAI.create(String, RenderedImage, Object) */
+    public static RenderedOp create(String name, RenderedImage src, 
+                                    Object param) {
+        ParameterBlock pb = new ParameterBlock();
+        pb.addSource(src);
+        pb.add(param);
+        return OpGraph.create(name, pb, null);
+    }
+
     /**
     * Applies the wavelet operation to a <b>float</b> image. The result is another
     * float image.
@@ -46,7 +104,7 @@ public class COps {
         pb.add(algorism);
         pb.add(level);
 
-        return JAI.create("Wavelet", pb);
+        return create("Wavelet", pb);
     }
 
     /**
@@ -66,7 +124,7 @@ public class COps {
         pb.add(algorism);
         pb.add(level);
 
-        return JAI.create("IWavelet", pb);
+        return create("IWavelet", pb);
     }
 
     /**
@@ -89,7 +147,7 @@ public class COps {
         pb.add(level);
         pb.add(coefs);
 
-        return JAI.create("Quantization", pb);
+        return create("Quantization", pb);
     }
 
     /**
@@ -112,7 +170,7 @@ public class COps {
         pb.add(level);
         pb.add(coefs);
 
-        return JAI.create("Dequantization", pb);
+        return create("Dequantization", pb);
     }
 
     /*  public static RenderedOp lookup(PlanarImage image,) {
@@ -120,24 +178,27 @@ public class COps {
                               1/8f,  1/4f, 1/8f,
                   1/16f, 1/8f, 1/16f};
         KernelJAI blurkernel = new KernelJAI(3,3,blurmatrix);
-        return JAI.create("lookup", image, blurkernel);
+        return create("lookup", image, blurkernel);
       }*/
 	/**
 	 * Applies a gaussian kernel over the image.
+	 * The kernel is separable, so it is applied as two 1D passes (2*size
+	 * operations per pixel instead of size*size).
 	 * @param size The size of the kernel matrix.
 	 * @param sigma The standard deviation of the gaussian.
 	 */
     public static RenderedOp gaussianBlur(PlanarImage image, int size, 
                                            double sigma) {
 
-        double[][] kernel = Difference.gaussian2Dkernel(size, sigma);
+        double[] kernel = Difference.gaussian1Dkernel(size, sigma);
 
-        //System.out.println(AMath.showMatrix(kernel));
         if (kernel == null)
 
             return null;
 
-        KernelJAI blurkernel = new KernelJAI(size, size, AMath.flattenFloat(kernel));
+        float[] k = new float[size];
+        for (int i = 0; i < size; i++) k[i] = (float) kernel[i];
+        KernelJAI blurkernel = new KernelJAI(size, size, size/2, size/2, k, k);
         ParameterBlock pb = new ParameterBlock();
         pb.addSource(image);
         pb.add(blurkernel);
@@ -146,12 +207,34 @@ public class COps {
                                     BorderExtender.BORDER_REFLECT);
         RenderingHints rhints = new RenderingHints(JAI.KEY_BORDER_EXTENDER, be);
 
-        return JAI.create("convolve", pb, rhints);
+        return create("convolve", pb, rhints);
     }
 
+	/**
+	 * Applies a gaussian of size ceil(3*sigma)*2+1.
+	 * From RECURSIVE_SIGMA on, it uses the recursive filter, whose cost
+	 * doesn't depend on sigma.
+	 * @see RecursiveGaussianOpImage
+	 */
 	public static RenderedOp gaussianBlur(PlanarImage image, double sigma) {
+		if (sigma >= RECURSIVE_SIGMA) {
+			return recursiveGaussian(image, sigma);
+		}
 		return gaussianBlur(image, (int)(Math.ceil(sigma*3) * 2 + 1), sigma);
 	}
+
+	/**
+	 * Gaussian blur with the Young - van Vliet recursive filter.
+	 * Borders are reflected, as in gaussianBlur.
+	 * @param sigma The standard deviation of the gaussian, at least 0.5.
+	 */
+	public static RenderedOp recursiveGaussian(PlanarImage image, double sigma) {
+        ParameterBlock pb = new ParameterBlock();
+        pb.addSource(image);
+        pb.add(sigma);
+
+        return create("RecursiveGaussian", pb);
+	}
 	
 	/**
 	 * Applies a Laplacian of Gaussian kernel over the image.
@@ -177,7 +260,7 @@ public class COps {
                                     BorderExtender.BORDER_REFLECT);
         RenderingHints rhints = new RenderingHints(JAI.KEY_BORDER_EXTENDER, be);
 
-        return JAI.create("convolve", pb, rhints);
+        return create("convolve", pb, rhints);
     }
 
     public static RenderedOp blur(PlanarImage image) {
@@ -189,7 +272,7 @@ public class COps {
         };
         KernelJAI blurkernel = new KernelJAI(3, 3, blurmatrix);
 
-        return JAI.create("convolve", image, blurkernel);
+        return create("convolve", image, blurkernel);
     }
 
     public static RenderedOp sharpen(PlanarImage image) {
@@ -200,7 +283,7 @@ public class COps {
         };
         KernelJAI sharpkernel = new KernelJAI(3, 3, sharpmatrix);
 
-        return JAI.create("convolve", image, sharpkernel);
+        return create("convolve", image, sharpkernel);
     }
 
 	public static RenderedOp laplacian(PlanarImage image) {
@@ -210,25 +293,48 @@ public class COps {
 		    0f,  -1f, 0f};
 		KernelJAI laplacianKernel = new KernelJAI(3,3,laplacianMatrix);
 		
-		return JAI.create("convolve", image, laplacianKernel);
+		return create("convolve", image, laplacianKernel);
 	}
 	
 	public static RenderedOp convolve(PlanarImage image, float[] matrix, int x, int y) {
 		KernelJAI kernel = new KernelJAI(x, y, matrix);
 		
-		return JAI.create("convolve", image, kernel);
+		return create("convolve", image, kernel);
 	}
 	
+	/**
+	 * Median filter. Square masks of byte images from HISTOGRAM_MEDIAN_SIZE
+	 * on use the histogram median, whose cost doesn't grow with the mask.
+	 * @see HistogramMedianOpImage
+	 */
     public static RenderedOp medianFilter(PlanarImage image, 
                                           MedianFilterShape maskShape, 
                                           int maskSize) {
 
+        if (maskShape == MedianFilterDescriptor.MEDIAN_MASK_SQUARE
+                && maskSize >= HISTOGRAM_MEDIAN_SIZE && maskSize % 2 == 1
+                && image.getSampleModel().getDataType() == DataBuffer.TYPE_BYTE) {
+            return histogramMedian(image, maskSize / 2);
+        }
+
         ParameterBlock pb = new ParameterBlock();
         pb.addSource(image);
         pb.add(maskShape);
         pb.add(maskSize);
 
-        return JAI.create("MedianFilter", pb);
+        return create("MedianFilter", pb);
+    }
+
+	/**
+	 * Median of a (2*radius+1) square mask, in constant time per pixel.
+	 * Only for byte images.
+	 */
+    public static RenderedOp histogramMedian(PlanarImage image, int radius) {
+        ParameterBlock pb = new ParameterBlock();
+        pb.addSource(image);
+        pb.add(radius);
+
+        return create("HistogramMedian", pb);
     }
 
     public static RenderedOp sobelGradientMagnitude(PlanarImage image) {
@@ -240,7 +346,7 @@ public class COps {
         pb.add(sobelHorizKernel);
         pb.add(sobelVertKernel);
 
-        return JAI.create("gradientmagnitude", pb);
+        return create("gradientmagnitude", pb);
     }
 
     public static TiledImage cannyEdge(PlanarImage image) {
@@ -272,7 +378,7 @@ public class COps {
         pb.add(transy);
         pb.add(interp);
 
-        return JAI.create("scale", pb);
+        return create("scale", pb);
     }
 
 	/** Uses default values: transparency 0, nearest interpolation */
@@ -283,7 +389,7 @@ public class COps {
         pb.add(magx);
         pb.add(magy);
 
-        return JAI.create("scale", pb);
+        return create("scale", pb);
     }
 	
 	
@@ -294,7 +400,7 @@ public class COps {
 		pb.addSource(img);
 		pb.add(x).add(y).add(w).add(h);
 		
-		return JAI.create("crop", pb);
+		return create("crop", pb);
 	}
 
 	public static RenderedOp crop(PlanarImage img, int x, int y, int w, int h) {		
@@ -303,6 +409,8 @@ public class COps {
 	
     public static RenderedOp add(PlanarImage img, double val) {
 
+        if (isFloat(img)) return floatPoint(img, FloatPointOpImage.RESCALE, 1, val);
+
         int bands = img.getSampleModel().getNumBands();
         double[] cons = new double[bands];
 
@@ -313,7 +421,7 @@ public class COps {
         pb.addSource(img);
         pb.add(cons);
 
-        return JAI.create("AddConst", pb);
+        return create("AddConst", pb);
     }
 
     public static RenderedOp add(PlanarImage img1, PlanarImage img2) {
@@ -322,7 +430,7 @@ public class COps {
         pb.addSource(img1);
         pb.addSource(img2);
 
-        return JAI.create("Add", pb);
+        return create("Add", pb);
     }
 
     public static RenderedOp subtract(PlanarImage img1, PlanarImage img2) {
@@ -331,7 +439,7 @@ public class COps {
         pb.addSource(img1);
         pb.addSource(img2);
 
-        return JAI.create("subtract", pb);
+        return create("subtract", pb);
     }
 
     public static RenderedOp DCT(PlanarImage img) {
@@ -339,7 +447,7 @@ public class COps {
         ParameterBlock pb = new ParameterBlock();
         pb.addSource(img);
 
-        return JAI.create("dct", pb);
+        return create("dct", pb);
     }
 
     public static RenderedOp inverseDCT(PlanarImage img) {
@@ -347,15 +455,17 @@ public class COps {
         ParameterBlock pb = new ParameterBlock();
         pb.addSource(img);
 
-        return JAI.create("idct", pb);
+        return create("idct", pb);
     }
 
     public static RenderedOp absolute(PlanarImage img) {
 
+        if (isFloat(img)) return floatPoint(img, FloatPointOpImage.ABSOLUTE, 1, 0);
+
         ParameterBlock pb = new ParameterBlock();
         pb.addSource(img);
 
-        return JAI.create("absolute", pb);
+        return create("absolute", pb);
     }
 
     public static RenderedOp invert(PlanarImage img) {
@@ -363,7 +473,7 @@ public class COps {
         ParameterBlock pb = new ParameterBlock();
         pb.addSource(img);
 
-        return JAI.create("invert", pb);
+        return create("invert", pb);
     }
 
 	public static RenderedOp binarize(PlanarImage img, double threshold) {
@@ -371,11 +481,13 @@ public class COps {
 		pb.addSource(img);
 		pb.add(threshold);
 		
-		return JAI.create("binarize", pb);
+		return create("binarize", pb);
 	}
 	
     public static RenderedOp multiply(PlanarImage img, double val) {
 
+        if (isFloat(img)) return floatPoint(img, FloatPointOpImage.RESCALE, val, 0);
+
         int bands = img.getSampleModel().getNumBands();
         double[] cons = new double[bands];
 
@@ -386,7 +498,7 @@ public class COps {
         pb.addSource(img);
         pb.add(cons);
 
-        return JAI.create("MultiplyConst", pb);
+        return create("MultiplyConst", pb);
     }
 
     public static RenderedOp divide(PlanarImage img1, PlanarImage img2) {
@@ -395,7 +507,7 @@ public class COps {
         pb.addSource(img1);
         pb.addSource(img2);
 
-        return JAI.create("Divide", pb);
+        return create("Divide", pb);
     }
 
     public static RenderedOp rescale(PlanarImage img, int factor, int offset) {
@@ -414,7 +526,27 @@ public class COps {
         pb.add(con);
         pb.add(off);
 
-        return JAI.create("rescale", pb);
+        return create("rescale", pb);
+    }
+
+    static boolean isFloat(PlanarImage img) {
+        return img.getSampleModel().getDataType() == DataBuffer.TYPE_FLOAT;
+    }
+
+    /**
+     * Rescale or absolute value of a float image with the FloatKernels
+     * loops, SIMD when available.
+     * @see FloatPointOpImage
+     */
+    public static RenderedOp floatPoint(PlanarImage img, int type, 
+                                        double scale, double offset) {
+        ParameterBlock pb = new ParameterBlock();
+        pb.addSource(img);
+        pb.add(type);
+        pb.add(scale);
+        pb.add(offset);
+
+        return create("FloatPoint", pb);
     }
 
     /** Rescale samples of the image from by doing <br>
@@ -423,6 +555,8 @@ public class COps {
     public static RenderedOp rescale(PlanarImage img, double scale, 
                                      double offset) {
 
+        if (isFloat(img)) return floatPoint(img, FloatPointOpImage.RESCALE, scale, offset);
+
         int bands = img.getSampleModel().getNumBands();
         double[] offsets = new double[bands];
         double[] scales = new double[bands];
@@ -437,7 +571,7 @@ public class COps {
         pb.add(scales);
         pb.add(offsets);
 
-        return JAI.create("rescale", pb);
+        return create("rescale", pb);
     }
 
     /** Rescale samples of the image from by doing <br>
@@ -452,47 +586,17 @@ public class COps {
         pb.add(scales);
         pb.add(offsets);
 
-        return JAI.create("rescale", pb);
+        return create("rescale", pb);
     }
 
     /** Find the extrema values of the image */
     public static double[][] extrema(PlanarImage im) {
-
-        ParameterBlock pb = new ParameterBlock();
-        pb.addSource(im); // The source image
-
-        //pb.add(roi);        // The region of the image to scan
-        pb.add(null); // the entire image
-        pb.add(1); // The horizontal sampling rate
-        pb.add(1); // The vertical sampling rate
-
-        // Perform the extrema operation on the source image
-        RenderedOp op = JAI.create("extrema", pb);
-
-        // Retrieve both the maximum and minimum pixel value
-        double[][] extrema = (double[][])op.getProperty("extrema");
-
-        return extrema;
+        return new ImageStatistics(im).getExtrema();
     }
 
     /** Find the mean value of the image (for each band)*/
     public static double[] mean(PlanarImage im) {
-
-        ParameterBlock pb = new ParameterBlock();
-        pb.addSource(im); // The source image
-
-        //pb.add(roi);        // The region of the image to scan
-        pb.add(null); // the entire image
-        pb.add(1); // The horizontal sampling rate
-        pb.add(1); // The vertical sampling rate
-
-        // Perform the extrema operation on the source image
-        RenderedOp op = JAI.create("mean", pb);
-
-        // Retrieve both the maximum and minimum pixel value
-        double[] mean = (double[])op.getProperty("mean");
-
-        return mean;
+        return new ImageStatistics(im).getMean();
     }
 	
 	
@@ -543,7 +647,7 @@ public class COps {
         pb.addSource(img);
         pb.add(type);
 
-        return JAI.create("format", pb, tileHints);
+        return create("format", pb, tileHints);
     }
 
     /**
@@ -571,22 +675,25 @@ public class COps {
         int width = img.getWidth();
         double[] mse = new double[bands];
 
-        // used to access the source image
-        RandomIter iter = RandomIterFactory.create(img, null);
+        // read it tile by tile
+        Rectangle[] rects = BlockAccess.tiles(img);
+        float[] buf = null;
         double v;
 
-        for (int band = 0; band < bands; band++) {
-            mse[band] = 0f;
+        for (int t = 0; t < rects.length; t++) {
+            buf = BlockAccess.readFloats(img, rects[t], buf);
+            int n = rects[t].width * rects[t].height * bands;
 
-            for (int i = 0; i < width; i++)
+            for (int k = 0; k < n; k += bands)
 
-                for (int j = 0; j < height; j++) {
-                    v = (double)iter.getSampleFloat(i, j, band);
+                for (int band = 0; band < bands; band++) {
+                    v = (double)buf[k + band];
                     mse[band] += v * v;
                 }
+        }
 
+        for (int band = 0; band < bands; band++)
             mse[band] /= (double)width * height;
-        }
 
         return mse;
     }
@@ -741,22 +848,27 @@ public class COps {
                                                               false, false, 
                                                               Transparency.OPAQUE, 
                                                               DataBuffer.TYPE_FLOAT);
-        TiledImage outImage = new TiledImage(in.getMinX(), in.getMinY(), 
-                                             in.getWidth(), in.getHeight(), 
-                                             in.getMinX(), in.getMinY(), csm, 
-                                             ccm);
-
-        // used to access the source image
-        RandomIter iter = RandomIterFactory.create(in, null);
-
-        for (int band = 0; band < bands; band++) {
+        TiledImage outImage;
+        OffHeapArena arena = OffHeapImage.getArena();
+        if (arena != null) {
+            outImage = OffHeapImage.create(in.getMinX(), in.getMinY(), 
+                                           in.getWidth(), in.getHeight(), 
+                                           in.getMinX(), in.getMinY(), 
+                                           tileWidth, tileHeight, bands, arena);
+        } else {
+            outImage = new TiledImage(in.getMinX(), in.getMinY(), 
+                                      in.getWidth(), in.getHeight(), 
+                                      in.getMinX(), in.getMinY(), csm, 
+                                      ccm);
+        }
 
-            for (int i = 0; i < width; i++)
+        // copy tile by tile (the source is read as int, as before)
+        Rectangle[] rects = BlockAccess.tiles(outImage);
+        int[] buf = null;
 
-                for (int j = 0; j < height; j++) {
-                    outImage.setSample(i, j, band, 
-                                       (float)iter.getSample(i, j, band));
-                }
+        for (int t = 0; t < rects.length; t++) {
+            buf = BlockAccess.readInts(in, rects[t], buf);
+            BlockAccess.writeInts(outImage, rects[t], buf);
         }
 
         return outImage;
@@ -787,24 +899,33 @@ public class COps {
                                              in.getMinX(), in.getMinY(), csm, 
                                              ccm);
 
-        // used to access the source image
-        RandomIter iter = RandomIterFactory.create(in, null);
-
-        for (int band = 0; band < bands; band++) {
-
-            for (int i = 0; i < width; i++)
+        // copy tile by tile, keeping the lower 8 bits as the (byte) cast did
+        Rectangle[] rects = BlockAccess.tiles(outImage);
+        float[] buf = null;
 
-                for (int j = 0; j < height; j++) {
-                    outImage.setSample(i, j, band, 
-                                       (byte)iter.getSampleFloat(i, j, band));
-                }
+        for (int t = 0; t < rects.length; t++) {
+            buf = BlockAccess.readFloats(in, rects[t], buf);
+            BlockAccess.writeFloats(outImage, rects[t], buf);
         }
 
         return outImage;
     }
 
-	/** Converts an image to gray. The input image should have just 3 channels (doesn't work with alpha channel). */
+	/** Converts an image to gray. The input image should have just 3 channels (doesn't work with alpha channel).
+	  * Byte images are converted with exact lookup tables.
+	  * @see ColorLUT#separable
+	  */
     public static RenderedOp toBW(PlanarImage image) {
+        if (colorLUT && image.getSampleModel().getDataType() == DataBuffer.TYPE_BYTE
+                && image.getSampleModel().getNumBands() == 3) {
+            if (grayTable == null) grayTable = ColorLUT.separable(GRAY_WEIGHTS[0]);
+            return colorLookup(image, grayTable);
+        }
+        return toBWOp(image);
+    }
+
+	/** Converts an image to gray with the bandcombine operator. */
+    public static RenderedOp toBWOp(PlanarImage image) {
 
         /*     ColorSpace colorSpace = ICC_ColorSpace.getInstance(ColorSpace.CS_GRAY);
         
@@ -812,16 +933,16 @@ public class COps {
              pb.addSource(image).add(colorSpace);
         
              // Perform the color conversion.
-             return JAI.create("ColorConvert", pb);
+             return create("ColorConvert", pb);
         */
-        double[][] matrix = { { 0.114D, 0.587D, 0.299D, 0.0D } };
+        double[][] matrix = GRAY_WEIGHTS;
 
         //    if (i.getSampleModel().getNumBands() != 3) { throw new IllegalArgumentException("Image # bands <> 3"); }
         ParameterBlock pb = new ParameterBlock();
         pb.addSource(image);
         pb.add(matrix);
 
-        return (JAI.create("bandcombine", pb, null));
+        return (create("bandcombine", pb, null));
     }
 
     /** Converts a 1 band image into 3 band RGB, byte datatype.
@@ -855,17 +976,21 @@ public class COps {
                                              in.getMinX(), in.getMinY(), csm, 
                                              ccm);
 
-        // used to access the source image
-        RandomIter iter = RandomIterFactory.create(in, null);
-
-        for (int band = 0; band < 3; band++)
+        // replicate the gray band, tile by tile
+        Rectangle[] rects = BlockAccess.tiles(outImage);
+        int[] gray = null;
+        int[] rgb = null;
 
-            for (int i = 0; i < width; i++)
+        for (int t = 0; t < rects.length; t++) {
+            gray = BlockAccess.readInts(in, rects[t], gray);
+            int n = rects[t].width * rects[t].height;
+            if (rgb == null || rgb.length < n * 3) rgb = new int[n * 3];
 
-                for (int j = 0; j < height; j++) {
-                    outImage.setSample(i, j, band, 
-                                       (byte)iter.getSample(i, j, 0));
-                }
+            for (int k = 0; k < n; k++) {
+                rgb[3 * k] = rgb[3 * k + 1] = rgb[3 * k + 2] = gray[k];
+            }
+            BlockAccess.writeInts(outImage, rects[t], rgb);
+        }
 
         return outImage;
     }
@@ -873,11 +998,34 @@ public class COps {
 	/**
 	 * Performs a color conversion. Now it may just work for type byte images.
 	 * <pre>r = COps.colorConvert(r, IHSColorSpace.getInstance());</pre>
+	 * 3 band byte images are converted with a cached 3D lookup table.
 	 * @param src The source image.
 	 * @param cs The desired color space.
 	 * @return
+	 * @see ColorLUT
 	 */
 	public static RenderedOp colorConvert(PlanarImage src, ColorSpace cs) {
+		if (colorLUT && ColorLUT.supports(src)
+			&& src.getColorModel().getColorSpace() != cs) {
+			return colorLookup(src, ColorLUT.get(src.getColorModel(), cs));
+		}
+		return colorConvertOp(src, cs);
+	}
+
+	/**
+	 * Converts a 3 band byte image with a table, with the ColorLUT operator.
+	 * @see ColorLUTOpImage
+	 */
+	public static RenderedOp colorLookup(PlanarImage src, ColorLUT table) {
+		ParameterBlock pb = new ParameterBlock();
+		pb.addSource(src).add(table);
+		return create("ColorLUT", pb);
+	}
+
+	/**
+	 * Performs a color conversion with the ColorConvert operator.
+	 */
+	public static RenderedOp colorConvertOp(PlanarImage src, ColorSpace cs) {
 		// ColorSpace colorSpace = IHSColorSpace.getInstance();
 		// BYTE is ok for IHS (HSV) ???
 		int dataType = src.getSampleModel().getDataType();
@@ -893,7 +1041,7 @@ public class COps {
 		pb.addSource(src).add(ccm);
 
 		// Perform the color conversion.
-		RenderedOp a = JAI.create("ColorConvert", pb);
+		RenderedOp a = create("ColorConvert", pb);
 
 		return a;
 	}
@@ -911,9 +1059,6 @@ public class COps {
         int height = image.getHeight();
         int width = image.getWidth();
 
-        // used to access the source image
-        RandomIter iter = RandomIterFactory.create(image, null);
-
         // normalized R,G values
         float[] palette = {
             0.7f, // orange
@@ -929,16 +1074,24 @@ public class COps {
             255
         };
 
-        for (int samp = 0; samp < width; samp++) {
+        Rectangle[] rects = BlockAccess.tiles(outImage);
+        int[] in = null;
+        int[] out = null;
+        float[] v = new float[3];
+
+        for (int t = 0; t < rects.length; t++) {
+            in = BlockAccess.readInts(image, rects[t], in);
+            int n = rects[t].width * rects[t].height * bands;
+            if (out == null || out.length < n) out = new int[n];
+            java.util.Arrays.fill(out, 0);
 
-            for (int line = 0; line < height; line++) {
+            for (int pix = 0; pix < n; pix += bands) {
 
-                float[] v = new float[3];
                 float sum = 0f;
 
                 for (int band = 0; band < bands; band++) {
 
-                    int dn = iter.getSample(samp, line, band);
+                    int dn = in[pix + band];
                     v[band] = dn; // whatever
                     sum += dn;
                 }
@@ -954,14 +1107,15 @@ public class COps {
 
                     if ((v[0] - palette[p]) * (v[0] - palette[p]) + 
                         (v[1] - palette[p + 1]) * (v[1] - palette[p + 1]) < distances[k]) {
-                        outImage.setSample(samp, line, 0, lookup[lk]);
-                        outImage.setSample(samp, line, 1, lookup[lk + 1]);
-                        outImage.setSample(samp, line, 2, lookup[lk + 2]);
+                        out[pix] = lookup[lk];
+                        out[pix + 1] = lookup[lk + 1];
+                        out[pix + 2] = lookup[lk + 2];
 
                         break;
                     }
                 }
             }
+            BlockAccess.writeInts(outImage, rects[t], out);
         }
 
         return outImage;
@@ -1007,7 +1161,7 @@ public class COps {
 		pb.add(high);
 		pb.add(constants);
 		
-		return JAI.create("threshold", pb);
+		return create("threshold", pb);
 	}
 	
 	public static RenderedOp threshold(PlanarImage img, 
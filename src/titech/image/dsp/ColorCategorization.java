@@ -1,8 +1,8 @@
 package titech.image.dsp;
 
+import java.awt.Rectangle;
 
 import javax.media.jai.*;
-import javax.media.jai.iterator.*;
 import titech.nn.*;
 
 
@@ -44,28 +44,34 @@ public class ColorCategorization {
 	 * @see titech.nn.Perceptron
 	 */
     private TiledImage MLPCategorization(PlanarImage image) {
-
-        TiledImage outImage = ImageObjects.createIndexedImage(image.getWidth(), image.getHeight(), paletteBits, colormap);
-		errorImage = ImageObjects.createFloatImage(image.getWidth(), image.getHeight(), 1);
-
-        // Loop over the input, copy each pixel to the output, modifying // them as we go
         int bands = image.getSampleModel().getNumBands();
-        int height = image.getHeight();
-        int width = image.getWidth();
+        int[] pixels = BlockAccess.readInts(image, BlockAccess.bounds(image), null);
+        return MLPCategorization(pixels, bands, image.getWidth(), image.getHeight());
+    }
 
-        // used to access the source image
-        RandomIter iter = RandomIterFactory.create(image, null);
+	/**
+	 * Categorizes pixels already in memory, band interleaved and row by row,
+	 * range 0..255.
+	 * @see BlockAccess
+	 */
+	public TiledImage categorize(int[] pixels, int bands, int width, int height) {
+		return MLPCategorization(pixels, bands, width, height);
+	}
+
+    private TiledImage MLPCategorization(int[] pixels, int bands, int width, int height) {
 
+        TiledImage outImage = ImageObjects.createIndexedImage(width, height, paletteBits, colormap);
+		errorImage = ImageObjects.createFloatImage(width, height, 1);
 
-        for (int samp = 0; samp < width; samp++) {
-			//String debug = "";
-            for (int line = 0; line < height; line++) {
+        int[] out = new int[width * height];
+        float[] error = new float[width * height];
+        double[] rgb = new double[3];
 
-                double[] rgb = new double[3];
+        for (int i = 0, k = 0; i < out.length; i++, k += bands) {
 
-                for (int band = 0; band < bands; band++) {
+                for (int band = 0; band < bands && band < 3; band++) {
 
-                    double dn = iter.getSample(samp, line, band);
+                    double dn = pixels[k + band];
                     rgb[band] = (dn/255.0); // normalize between 0 and 1
                 }
 
@@ -75,25 +81,21 @@ public class ColorCategorization {
                 // search for the cluster in the neural network
                 // el orden es importante pq un color se puede parecer a varios de la paletta
 				
-				//System.out.println(titech.image.math.AMath.showMatrix(nn.forward(v)));
 				double[][] ff = nn.forward(v);
 				int activatedNeuron[] = nn.selectWinnerNeuron(ff);
 				int aNeuron = activatedNeuron[0];
-				//debug +=activatedNeuron[0];
-                outImage.setSample(samp, line, 0, aNeuron);
+                out[i] = aNeuron;
                 if (aNeuron==0) { // below the threshold
-                	double tt = nn.getThreshold();
-                	nn.setThreshold(-1); // no threshold
-                	activatedNeuron = nn.selectWinnerNeuron(ff);
+                	activatedNeuron = nn.selectWinnerNeuron(ff, -1); // no threshold
                 	aNeuron = activatedNeuron[0];
-                	nn.setThreshold(tt); // recover Threshold
                 }
-				errorImage.setSample(samp, line, 0, (ff[0][aNeuron-1]+1.0)/2.0); // normalized between 0..1
-
-            }
-			//System.out.println(debug);
+				error[i] = (float) ((ff[0][aNeuron-1]+1.0)/2.0); // normalized between 0..1
         }
 
+        Rectangle r = new Rectangle(0, 0, width, height);
+        BlockAccess.writeInts(outImage, r, out);
+        BlockAccess.writeFloats(errorImage, r, error);
+
         return outImage;
     }
 	
@@ -0,0 +1,273 @@
+package titech.image.dsp;
+
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.util.Hashtable;
+
+import javax.media.jai.*;
+
+/**
+ * Color conversions of byte images compiled into lookup tables.
+ * <p>
+ * A 3D table samples the conversion on a GRID<sup>3</sup> lattice of the
+ * source color cube (nodes every STEP levels, and 255), and the rest of the
+ * colors are found with tetrahedral interpolation: 4 table entries per pixel.
+ * The lattice is converted with the same JAI ColorConvert operator it
+ * replaces, so the table follows its exact output at the nodes. Hue bands
+ * (IHSColorSpace band 1) are periodic, and they are interpolated the short
+ * way around the circle.
+ * <p>
+ * Conversions that are a weighted sum of the bands, like the conversion to
+ * gray, are separable and use exact 256 entries tables, one per band.
+ * <p>
+ * The tables are built once per pair of color spaces and cached. They are
+ * applied by the "ColorLUT" operator, so the converted images are computed
+ * tile by tile, as the other operators, when something needs them.
+ *
+ * @see ColorLUTOpImage
+ * @see COps#colorConvert
+ * @see COps#toBW
+ * @author David Gavilan
+ */
+public class ColorLUT {
+
+	/** Nodes per axis */
+	public static final int GRID = 33;
+	/** Distance between the nodes */
+	public static final int STEP = 8;
+
+	/** source ColorSpace -> (destination ColorSpace -> ColorLUT) */
+	static Hashtable cache = new Hashtable();
+	/** Lower node and weight of the upper node of each level */
+	static int[] cell = new int[256];
+	static float[] frac = new float[256];
+
+	static {
+		for (int v = 0; v < 256; v++) {
+			int c = Math.min(v / STEP, GRID - 2);
+			int lo = c * STEP, hi = Math.min(255, (c + 1) * STEP);
+			cell[v] = c;
+			frac[v] = (float) (v - lo) / (hi - lo);
+		}
+	}
+
+	/** Value of node i on each axis */
+	static int node(int i) {
+		return Math.min(255, i * STEP);
+	}
+
+	/** Destination color space, null for separable tables */
+	ColorSpace to;
+	/** GRID^3 entries of outBands values, r major, b minor */
+	float[] table;
+	int outBands;
+	/** Periodic bands, with a period of 256 */
+	boolean[] periodic;
+	/** Tables of a weighted sum, [band][value], instead of the 3D table */
+	float[][] separable;
+
+	/**
+	 * Builds the table of the conversion of the images with a ColorModel
+	 * like src to the color space cs.
+	 */
+	ColorLUT(ColorModel src, ColorSpace cs) {
+		this.to = cs;
+		int w = GRID * GRID, h = GRID;
+		SampleModel sm = src.createCompatibleSampleModel(w, h);
+		TiledImage lattice = new TiledImage(0, 0, w, h, 0, 0, sm, src);
+		int[] data = new int[w * h * 3];
+		int k = 0;
+		for (int r = 0; r < GRID; r++) {
+			for (int g = 0; g < GRID; g++) {
+				for (int b = 0; b < GRID; b++) {
+					data[k++] = node(r);
+					data[k++] = node(g);
+					data[k++] = node(b);
+				}
+			}
+		}
+		BlockAccess.writeInts(lattice, BlockAccess.bounds(lattice), data);
+
+		RenderedOp conv = COps.colorConvertOp(lattice, cs);
+		outBands = conv.getSampleModel().getNumBands();
+		table = BlockAccess.readFloats(conv, BlockAccess.bounds(conv), null);
+		periodic = new boolean[outBands];
+		if (cs instanceof IHSColorSpace && outBands > 1) periodic[1] = true;
+	}
+
+	/**
+	 * The table to convert images like src to cs, built the first time.
+	 */
+	public static synchronized ColorLUT get(ColorModel src, ColorSpace cs) {
+		Hashtable to = (Hashtable) cache.get(src.getColorSpace());
+		if (to == null) {
+			to = new Hashtable();
+			cache.put(src.getColorSpace(), to);
+		}
+		ColorLUT lut = (ColorLUT) to.get(cs);
+		if (lut == null) {
+			lut = new ColorLUT(src, cs);
+			to.put(cs, lut);
+		}
+		return lut;
+	}
+
+	/**
+	 * Whether an image can be converted with a 3D table: 3 bands of bytes,
+	 * with a ComponentColorModel.
+	 */
+	public static boolean supports(PlanarImage img) {
+		SampleModel sm = img.getSampleModel();
+		return sm.getDataType() == DataBuffer.TYPE_BYTE && sm.getNumBands() == 3
+				 && img.getColorModel() instanceof ComponentColorModel;
+	}
+
+	/**
+	 * Converts n pixels of 3 bands, band interleaved, 0..255, into dst with
+	 * {@link #getNumBands()} bands. dst may be src if it has 3 bands.
+	 */
+	public void convert(int[] src, int[] dst, int n) {
+		if (separable != null) {
+			float[] t0 = separable[0], t1 = separable[1], t2 = separable[2];
+			for (int p = 0, k = 0; p < n; p++, k += 3) {
+				float s = t0[src[k]] + t1[src[k + 1]] + t2[src[k + 2]];
+				int v = (int) Math.floor(s + 0.5f);
+				dst[p] = (v < 0) ? 0 : ((v > 255) ? 255 : v);
+			}
+			return;
+		}
+		float[] c = new float[outBands];
+		for (int p = 0, k = 0; p < n; p++, k += 3) {
+			lookup(src[k], src[k + 1], src[k + 2], c);
+			for (int b = 0; b < outBands; b++) {
+				int v = (int) Math.floor(c[b] + 0.5f);
+				if (periodic[b]) {
+					v &= 0xff;
+				} else {
+					v = (v < 0) ? 0 : ((v > 255) ? 255 : v);
+				}
+				dst[p * outBands + b] = v;
+			}
+		}
+	}
+
+	/**
+	 * Tetrahedral interpolation of one color.
+	 *
+	 * @param  out  Receives the outBands converted values.
+	 */
+	public void lookup(int r, int g, int b, float[] out) {
+		float fr = frac[r], fg = frac[g], fb = frac[b];
+		int base = ((cell[r] * GRID + cell[g]) * GRID + cell[b]) * outBands;
+		int dr = GRID * GRID * outBands, dg = GRID * outBands, db = outBands;
+		// the tetrahedron: from c000 to c111 along the axes in decreasing
+		// order of their fractions
+		int o1, o2;
+		float w1, w2, w3;
+		if (fr >= fg) {
+			if (fg >= fb) {        // r g b
+				o1 = dr; o2 = dr + dg; w1 = fr; w2 = fg; w3 = fb;
+			} else if (fr >= fb) { // r b g
+				o1 = dr; o2 = dr + db; w1 = fr; w2 = fb; w3 = fg;
+			} else {               // b r g
+				o1 = db; o2 = db + dr; w1 = fb; w2 = fr; w3 = fg;
+			}
+		} else {
+			if (fr >= fb) {        // g r b
+				o1 = dg; o2 = dg + dr; w1 = fg; w2 = fr; w3 = fb;
+			} else if (fg >= fb) { // g b r
+				o1 = dg; o2 = dg + db; w1 = fg; w2 = fb; w3 = fr;
+			} else {               // b g r
+				o1 = db; o2 = db + dg; w1 = fb; w2 = fg; w3 = fr;
+			}
+		}
+		int o3 = dr + dg + db;
+		for (int c = 0; c < outBands; c++) {
+			float c0 = table[base + c];
+			float c1 = table[base + o1 + c];
+			float c2 = table[base + o2 + c];
+			float c3 = table[base + o3 + c];
+			if (periodic[c]) {
+				c1 = unwrap(c1, c0);
+				c2 = unwrap(c2, c0);
+				c3 = unwrap(c3, c0);
+			}
+			out[c] = c0 + w1 * (c1 - c0) + w2 * (c2 - c1) + w3 * (c3 - c2);
+		}
+	}
+
+	/** The value of the period 256 circle nearest to ref */
+	static float unwrap(float v, float ref) {
+		if (v - ref > 128) return v - 256;
+		if (ref - v > 128) return v + 256;
+		return v;
+	}
+
+	/**
+	 * Tables for a weighted sum of 3 bands of bytes, as the bandcombine
+	 * operator computes it: table[band][v] = weight[band] * v, in float.
+	 * The result has one band.
+	 */
+	public static ColorLUT separable(double[] weights) {
+		float[][] t = new float[3][256];
+		for (int b = 0; b < 3; b++) {
+			for (int v = 0; v < 256; v++) {
+				t[b][v] = (float) weights[b] * (float) v;
+			}
+		}
+		return new ColorLUT(t);
+	}
+
+	ColorLUT(float[][] separable) {
+		this.separable = separable;
+		outBands = 1;
+	}
+
+	/** Bands of the converted images */
+	public int getNumBands() {
+		return outBands;
+	}
+
+	/**
+	 * A ColorModel for the converted images with the given SampleModel: of
+	 * the destination color space, or gray for separable tables.
+	 */
+	public ColorModel createColorModel(SampleModel sm) {
+		if (to == null) return PlanarImage.createColorModel(sm);
+		int[] bits = new int[outBands];
+		for (int b = 0; b < outBands; b++) bits[b] = 8;
+		return new ComponentColorModel(to, bits, false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+	}
+
+	/**
+	 * Compares two images of the same size band by band, for the precision
+	 * of the tables: [0][band] the maximum absolute difference, [1][band]
+	 * the mean. Bands of a periodic color space are compared on the circle.
+	 */
+	public static double[][] compare(PlanarImage a, PlanarImage b, boolean hue) {
+		int bands = a.getSampleModel().getNumBands();
+		double[][] d = new double[2][bands];
+		Rectangle[] rects = BlockAccess.tiles(a);
+		int[] ba = null, bb = null;
+		long n = 0;
+		for (int t = 0; t < rects.length; t++) {
+			ba = BlockAccess.readInts(a, rects[t], ba);
+			bb = BlockAccess.readInts(b, rects[t], bb);
+			int len = rects[t].width * rects[t].height * bands;
+			for (int k = 0; k < len; k++) {
+				int c = k % bands;
+				int e = Math.abs(ba[k] - bb[k]);
+				if (hue && c == 1 && e > 128) e = 256 - e;
+				if (e > d[0][c]) d[0][c] = e;
+				d[1][c] += e;
+			}
+			n += rects[t].width * rects[t].height;
+		}
+		for (int c = 0; c < bands && n > 0; c++) {
+			d[1][c] /= n;
+		}
+		return d;
+	}
+}
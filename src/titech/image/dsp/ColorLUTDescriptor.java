@@ -0,0 +1,63 @@
+package titech.image.dsp;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.awt.image.renderable.*;
+import javax.media.jai.*;
+import javax.media.jai.registry.RenderedRegistryMode;
+
+/**
+  * An <code>OperationDescriptor</code> describing the "ColorLUT" operation.
+  *
+  * <p><table border=1>
+  * <caption>Resource List</caption>
+  * <tr><th>Name</th><th>Value</th></tr>
+  * <tr><th>GlobalName</th><td>ColorLUT</td></tr>
+  * <tr><th>LocalName</th><td>ColorLUT</td></tr>
+  * <tr><th>Description</th><td>Color conversion of 3 band byte images with a lookup table</td></tr>
+  * <tr><th>DocURL</th><td>ColorLUTDescriptor.html</td></tr>
+  * <tr><th>Version</th><td>0.1</td></tr>
+  * <tr><th>arg0Desc</th><td>Table.</td></tr>
+  * </table></p>
+  * <p><table border=1>
+  * <caption>Parameter List</caption>
+  * <tr><th>Name</th><th>Class Type</th><th>Default Value</th></tr>
+  * <tr><td>table</td><td>titech.image.dsp.ColorLUT</td><td>NO_PARAMETER_DEFAULT</td></tr>
+  * </table></p>  
+  * @see ColorLUTOpImage
+  * @author David Gavilan
+  */
+public class ColorLUTDescriptor extends OperationDescriptorImpl {
+
+  private static final String[][] resources = {
+     {"GlobalName", "ColorLUT"},
+     {"LocalName",  "ColorLUT"},
+     {"Description", "Color conversion of 3 band byte images with a lookup table."},
+     {"DocURL",      "ColorLUTDescriptor.html"},
+     {"Version",     "0.1"},
+     {"arg0Desc",    "Table."}
+  };
+  
+  private static final Class[] paramClasses = { ColorLUT.class };
+  private static final String[] paramNames = { "table" };
+  private static final Object[] paramDefaults = {
+      OperationDescriptor.NO_PARAMETER_DEFAULT };
+  
+  public ColorLUTDescriptor() {
+    super(resources, new String[] {RenderedRegistryMode.MODE_NAME}, 1,
+	  paramNames, paramClasses, paramDefaults, null);
+  }
+
+  /** The source must have 3 bands of bytes */
+  protected boolean validateSources(String modeName, ParameterBlock args,
+          StringBuffer msg) {
+    if (!super.validateSources(modeName, args, msg)) return false;
+    SampleModel sm = args.getRenderedSource(0).getSampleModel();
+    if (sm.getDataType() != DataBuffer.TYPE_BYTE || sm.getNumBands() != 3) {
+      msg.append(getName() + ": the source must have 3 bands of bytes.");
+      return false;
+    }
+    return true;
+  }
+    
+}
@@ -0,0 +1,57 @@
+package titech.image.dsp;
+
+import java.awt.*;
+import java.awt.image.*;
+import javax.media.jai.*;
+import java.util.Map;
+
+/**
+  * OpImage implementation for "ColorLUT" operator: converts each tile of a
+  * 3 band byte image with a ColorLUT. The result has the bands of the
+  * table, of bytes, with the tile grid of the source.
+  *
+  * @see ColorLUT
+  * @author David Gavilan
+  */
+public class ColorLUTOpImage extends PointOpImage {
+
+  protected ColorLUT table;
+
+  /**
+    * Constructs an OpImage representing a point operation.
+    * @param table the conversion
+    */
+  public ColorLUTOpImage(RenderedImage source, ImageLayout layout,
+         Map config, ColorLUT table) {
+     super(source, layout(source, layout, table), config, true);
+     
+     this.table = table;
+  }
+
+  /** The layout asked for, with the bytes and bands of the table */
+  static ImageLayout layout(RenderedImage source, ImageLayout layout, ColorLUT table) {
+     ImageLayout il = (layout == null) ? new ImageLayout() : (ImageLayout) layout.clone();
+     SampleModel sm = RasterFactory.createPixelInterleavedSampleModel(DataBuffer.TYPE_BYTE,
+             il.getTileWidth(source), il.getTileHeight(source), table.getNumBands());
+     il.setSampleModel(sm);
+     il.setColorModel(table.createColorModel(sm));
+     return il;
+  }
+
+  /**
+    * Computes a rectangle of the destination.
+    * @param sources an array with the source Raster.
+    * @param dest a WritableRaster containing the area to be computed
+    * @param destRect the rectangle within dest to be processed
+    */
+  public void computeRect(Raster sources[], WritableRaster dest,
+          Rectangle destRect) {
+     int x = destRect.x, y = destRect.y;
+     int w = destRect.width, h = destRect.height;
+     int[] pixels = sources[0].getPixels(x, y, w, h, (int[]) null);
+     int bands = table.getNumBands();
+     int[] out = (bands == 3) ? pixels : new int[w * h * bands];
+     table.convert(pixels, out, w * h);
+     dest.setPixels(x, y, w, h, out);
+  }
+}
@@ -0,0 +1,27 @@
+package titech.image.dsp;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.awt.image.renderable.*;
+import javax.media.jai.*;
+
+/**
+  * Class implementing the RIF interface for the ColorLUT operator.
+  * An instance of this class should be registered with the OperationRegistry
+  * with operation name "ColorLUT" and product name "titech".
+  */
+public class ColorLUTRIF implements RenderedImageFactory {
+   public ColorLUTRIF() {}
+   
+   public RenderedImage create(ParameterBlock paramBlock,
+                               RenderingHints renderHints) {
+      RenderedImage source = paramBlock.getRenderedSource(0);
+      
+      ImageLayout layout = renderHints == null ? null : 
+                  (ImageLayout)renderHints.get(JAI.KEY_IMAGE_LAYOUT);
+           
+      ColorLUT table = (ColorLUT) paramBlock.getObjectParameter(0);
+		  
+      return new ColorLUTOpImage(source, layout, renderHints, table);
+   }
+}
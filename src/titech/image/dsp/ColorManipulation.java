@@ -33,67 +33,69 @@ public class ColorManipulation {
 	  * gray world assumption (very dark images).
 	  */
 	public static PlanarImage modWhiteInGray(PlanarImage img) {
-		double media = 0f;
-
-        ParameterBlock pb = new ParameterBlock();
-        pb.addSource(img); // The source image
-
-        //pb.add(roi);        // The region of the image to scan
-        pb.add(null); // the entire image
-        pb.add(1); // The horizontal sampling rate
-        pb.add(1); // The vertical sampling rate
-
-        // Perform the mean operation on the source image
-        RenderedOp op = JAI.create("mean", pb);
-
-        // Retrieve the mean pixel value at each channel
-        double[] mean = (double[])op.getProperty("mean");
-		
-		for (int i=0;i<mean.length;i++) {
-			media += mean[i];
-			// OK! :)
-			//System.out.println("mean "+mean[i]);
-		}
-		media /= mean.length;
+		// one pass for the mean and the histograms
+		ImageStatistics stats = new ImageStatistics(img, 256, 0, 256);
 		
-		if (media <= GW_THRESHOLD) return img;
+		if (stats.getMeanOfBands() <= GW_THRESHOLD) return img;
 		
-		return modWhite(img);
+		return modWhite(img, stats);
+	}
+	
+	/**
+	  * As modWhiteInGray(img), but the mean and the white point are measured
+	  * on a subsample of the image, just dense enough to keep the gains
+	  * within a relative tolerance of the ones of the full image.
+	  * @param tolerance relative error of the gains, e.g. 0.01
+	  * @see WhiteBalanceEstimate
+	  */
+	public static PlanarImage modWhiteInGray(PlanarImage img, double tolerance) {
+		WhiteBalanceEstimate est = new WhiteBalanceEstimate(img, tolerance);
+		return est.apply(img);
 	}
 	
 	/**
 	  * Corrects image color under the modified White World Assumption.
-	  * @see javax.media.jai.operator.HistogramDescriptor;
-	  * @see javax.media.jai.Histogram;
+	  * @see ImageStatistics
 	  */
 	public static RenderedOp modWhite(PlanarImage img) {
+		return modWhite(img, new ImageStatistics(img, 256, 0, 256));
+	}
+	
+	/**
+	  * Corrects image color under the modified White World Assumption,
+	  * with the 256 bins histograms already computed.
+	  */
+	public static RenderedOp modWhite(PlanarImage img, ImageStatistics stats) {
         int bands = img.getSampleModel().getNumBands();
-        double[] cons = new double[bands];
-
-		ParameterBlock pb = new ParameterBlock();
-        pb.addSource(img); // The source image
-
-        //pb.add(roi);        // The region of the image to scan
-        pb.add(null); // the entire image
-        pb.add(1); // The horizontal sampling rate
-        pb.add(1); // The vertical sampling rate
-		// those are the default values, so it's not necessary
-        //pb.add(new int[] {256, 256, 256}); // numBins
-        //pb.add(new double[] {0, 0, 0}); // lowValue
-		//pb.add(new double[] {256, 256, 256}); // highValue
-
-		
-		RenderedOp op = JAI.create("histogram",pb);
-		
-		Histogram histo = (Histogram)op.getProperty("histogram");
-		
-		int[][] bins = histo.getBins();
-		double npix = img.getWidth()*img.getHeight();
+		double[] cons = whiteGains(stats.getBins(), stats.getCount(), bands);
 		
+        ParameterBlock pb = new ParameterBlock();
+        pb.addSource(img);
+        pb.add(cons);
+
+        return JAI.create("MultiplyConst", pb);
+	}
+	
+	/**
+	 * The gains of the modified White World Assumption: the brightest
+	 * WW_THRESHOLD of the pixels of each band are taken as white.
+	 * @param bins 256 bins histogram of each band.
+	 * @param npix number of pixels counted in the histogram.
+	 */
+	public static double[] whiteGains(int[][] bins, double npix, int bands) {
+		return whiteGains(bins, npix, bands, WW_THRESHOLD);
+	}
+	
+	/**
+	 * @param fraction of the brightest pixels taken as white.
+	 */
+	public static double[] whiteGains(int[][] bins, double npix, int bands,
+		double fraction) {
+		double[] cons = new double[bands];
 		double maxw[]={255, 255, 255};
 		for (int i = 0; i < bands; i++) {
 			double suma = 0;
-			while(maxw[i]>0 && suma<WW_THRESHOLD) {
+			while(maxw[i]>0 && suma<fraction) {
 				suma += ((double)bins[i][(int)maxw[i]])/npix;
 				maxw[i]--;
 			}
@@ -103,16 +105,9 @@ public class ColorManipulation {
             cons[i] = white[i]/maxw[i];
 			//System.out.println("gain "+cons[i]);
 		}
-		
-        pb = new ParameterBlock();
-        pb.addSource(img);
-        pb.add(cons);
-
-        return JAI.create("MultiplyConst", pb);
-
+		return cons;
 	}
 	
-	
 	/** This considers each band apart (independent probabilities), so the resulting
 	 * vector is just of size <code>RED_BINS + GREEN_BINS + BLUE_BINS</code>.
 	 */
@@ -153,13 +148,14 @@ public class ColorManipulation {
 				numBins = bins;
 			}
 			
-			Histogram histoa=getHistogram(a, numBins);
-			Histogram histob=getHistogram(b, numBins);
-
-			int[][] ha = histoa.getBins();
-			double na = a.getWidth()*a.getHeight();
-			int[][] hb = histob.getBins();
-			double nb = b.getWidth()*b.getHeight();
+			double[] low = {0, 0, 0}, high = {256, 256, 256};
+			ImageStatistics sa = new ImageStatistics(a, numBins, low, high, 1, 1);
+			ImageStatistics sb = new ImageStatistics(b, numBins, low, high, 1, 1);
+
+			int[][] ha = sa.getBins();
+			double na = sa.getCount();
+			int[][] hb = sb.getBins();
+			double nb = sb.getCount();
 			
 			double sum = 0;
 			for (int band=0;band<3;band++)
@@ -175,11 +171,9 @@ public class ColorManipulation {
 	 * Resulting size is <code>RED_BINS * GREEN_BINS * BLUE_BINS</code>.
 	 */
 	public static Histogram getColorHistogram(PlanarImage src) {
-		byte[][] palette = ImageObjects.paletteRGBPartition(RED_BINS, GREEN_BINS, BLUE_BINS);
-		
 		int nbins = RED_BINS * GREEN_BINS * BLUE_BINS;
 		
-		PlanarImage quantized = ImageObjects.RGB2Indexed(src, 8, palette);
+		PlanarImage quantized = quantizeColors(src);
 		
 		ParameterBlock pb = new ParameterBlock();
         pb.addSource(quantized); // The source image
@@ -196,6 +190,22 @@ public class ColorManipulation {
 		
 		return (Histogram)op.getProperty("histogram");		
 	}
+	
+	/**
+	 * The same bins as getColorHistogram, counted with ImageStatistics.
+	 */
+	public static int[] getColorHistogramBins(PlanarImage src) {
+		int nbins = RED_BINS * GREEN_BINS * BLUE_BINS;
+		ImageStatistics stats = new ImageStatistics(quantizeColors(src), nbins, 0, nbins);
+		return stats.getBins(0);
+	}
+	
+	/** Indexes the colors with the RED_BINS x GREEN_BINS x BLUE_BINS partition */
+	static PlanarImage quantizeColors(PlanarImage src) {
+		byte[][] palette = ImageObjects.paletteRGBPartition(RED_BINS, GREEN_BINS, BLUE_BINS);
+		return ImageObjects.RGB2Indexed(src, 8, palette);
+	}
+	
 	/**
 	 * The input image is supposed to be a RGB image, and this function converts it to HSV color space.
 	 * <p>
@@ -206,8 +216,8 @@ public class ColorManipulation {
 		
 		int nbins =HUE_BINS * SAT_BINS * VAL_BINS + GRAY_BINS;
 		
-		RenderedOp rop = COps.colorConvert(src, IHSColorSpace.getInstance());
-		PlanarImage quantized = ImageObjects.RGB2Indexed(rop, 8, palette);
+		PlanarImage ihs = COps.colorConvert(src, IHSColorSpace.getInstance());
+		PlanarImage quantized = ImageObjects.RGB2Indexed(ihs, 8, palette);
 		
 		ParameterBlock pb = new ParameterBlock();
 		pb.addSource(quantized); // The source image
@@ -229,12 +239,9 @@ public class ColorManipulation {
 	 */
 	public static double colorHistogramDistance(PlanarImage a, PlanarImage b) {
 			
-			Histogram histoa=getColorHistogram(a);
-			Histogram histob=getColorHistogram(b);
-
-			int[] ha = histoa.getBins(0);
+			int[] ha = getColorHistogramBins(a);
 			double na = a.getWidth()*a.getHeight();
-			int[] hb = histob.getBins(0);
+			int[] hb = getColorHistogramBins(b);
 			double nb = b.getWidth()*b.getHeight();
 			
 			double sum = 0;
@@ -353,24 +360,24 @@ public class ColorManipulation {
 	 * 
 	 */
 	public static float[] RGBtoXYZ(float[] rgb) {
-		// it was transposed! now (05/01/15) OK
-		float[][] M= new float[][] { 
+		return AMath.fmultV(rgb, RGB2XYZ);
+	}
+  
+	// it was transposed! now (05/01/15) OK
+	static final float[][] RGB2XYZ = new float[][] { 
 			new float[] {0.412424f, 0.357579f, 0.180464f},
 			new float[] {0.212656f, 0.715158f, 0.0721856f},
 			new float[] {0.0193324f, 0.119193f, 0.950444f}};
-		return AMath.fmultV(rgb, M);
-	}
-  
  
 	public static float[] XYZtoRGB(float[] xyz) {
-		// it was transposed! now OK
-		float[][] M= new float[][] {
+		return AMath.fmultV(xyz, XYZ2RGB);
+	}
+	
+	// it was transposed! now OK
+	static final float[][] XYZ2RGB = new float[][] {
 		new float[] {3.24071f, -1.53726f, -0.498571f}, 
 		new float[] {-0.969258f, 1.87599f, 0.0415557f},   
 		new float[] {0.0556352f, -0.203996f, 1.05707f}};
-		
-		return AMath.fmultV(xyz, M);
-	}
 
 	
 	/** Chang */
@@ -392,6 +399,21 @@ public class ColorManipulation {
 		return srgb;
 	}
 	
+	/**
+	 * sRGBtoRGB of each byte level, exact: the conversion is the same for
+	 * every band.
+	 * @param scale the level v is converted as v / scale.
+	 */
+	public static float[] sRGBtoRGBTable(float scale) {
+		float[] t = new float[256];
+		float[] v = new float[3];
+		for (int i = 0; i < 256; i++) {
+			v[0] = v[1] = v[2] = i / scale;
+			t[i] = sRGBtoRGB(v)[0];
+		}
+		return t;
+	}
+	
 	/** Expects normalized values. */
 	public static float[] sRGBtoRGB(float[] srgb) {
 		float[] rgb = new float[3];
@@ -128,6 +128,7 @@ public class DerivativeOpImage extends PointOpImage {
 		     int sizex, int sizey) {
     
       float ant, sig;   
+      FloatKernels kernels = FloatKernels.get();
       
       for (int j = 0; j<sizey; j++) {
 	  int srcPixelOffset = srcScanlineOffset;
@@ -139,6 +140,13 @@ public class DerivativeOpImage extends PointOpImage {
 	  srcPixelOffset += srcPixelStride;
 	  dstPixelOffset += dstPixelStride;
 
+	  if (srcPixelStride == 1 && dstPixelStride == 1) {
+	      // contiguous row
+	      kernels.halfDiff(srcData, srcPixelOffset-1, srcData, srcPixelOffset+1,
+			       dstData, dstPixelOffset, sizex-2);
+	      srcPixelOffset += sizex-2;
+	      dstPixelOffset += sizex-2;
+	  } else {
 	  for (int i = 1; i<sizex-1; i++) {
 
 	      ant = srcData[srcPixelOffset-srcPixelStride];
@@ -149,6 +157,7 @@ public class DerivativeOpImage extends PointOpImage {
 	      srcPixelOffset += srcPixelStride;
 	      dstPixelOffset += dstPixelStride;
 	   
+	  }
 	  }
 	  ant = srcData[srcPixelOffset-srcPixelStride];
 	  sig = srcData[srcPixelOffset];
@@ -178,6 +187,18 @@ public class DerivativeOpImage extends PointOpImage {
 		     int sizex, int sizey) {
     
       float ant, sig;   
+
+      if (srcPixelStride == 1 && dstPixelStride == 1 && sizey > 1) {
+	  // the same differences, a whole row at a time
+	  FloatKernels kernels = FloatKernels.get();
+	  for (int j = 0; j<sizey; j++) {
+	      int above = Math.max(j-1, 0), below = Math.min(j+1, sizey-1);
+	      kernels.halfDiff(srcData, srcScanlineOffset+above*srcScanlineStride,
+			       srcData, srcScanlineOffset+below*srcScanlineStride,
+			       dstData, dstScanlineOffset+j*dstScanlineStride, sizex);
+	  }
+	  return;
+      }
       
       for (int i = 0; i<sizex; i++) {
 	  int srcPixelOffset = srcScanlineOffset;
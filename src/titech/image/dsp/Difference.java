@@ -3,6 +3,7 @@ package titech.image.dsp;
 import java.awt.image.*;
 import java.awt.image.renderable.*;
 import javax.media.jai.*;
+import java.awt.Rectangle;
 import java.awt.Transparency;
 import javax.media.jai.iterator.*;
 import titech.image.math.*;
@@ -229,19 +230,21 @@ public class Difference {
 		int height = source.getHeight();
 		int width = source.getWidth();
 
-		// used to access the source image
-		RandomIter iterX = RandomIterFactory.create(gradVector[0], null);
-		RandomIter iterY = RandomIterFactory.create(gradVector[1], null);
-
-		for (int samp = 0; samp < width; samp++) {
-			for (int line = 0; line < height; line++) {
-				for (int band = 0; band < bands; band++) {
-					dest.setSample(samp, line, band,
-							AMath.atangent(
-							iterX.getSample(samp, line, band),
-							iterY.getSample(samp, line, band)));
-				}
+		// tile by tile; samples are read as int, as they always were
+		Rectangle[] rects = BlockAccess.tiles(dest);
+		int[] gx = null;
+		int[] gy = null;
+		double[] out = null;
+
+		for (int t = 0; t < rects.length; t++) {
+			gx = BlockAccess.readInts(gradVector[0], rects[t], gx);
+			gy = BlockAccess.readInts(gradVector[1], rects[t], gy);
+			int n = rects[t].width * rects[t].height * bands;
+			if (out == null || out.length < n) out = new double[n];
+			for (int k = 0; k < n; k++) {
+				out[k] = AMath.atangent(gx[k], gy[k]);
 			}
+			BlockAccess.writeDoubles(dest, rects[t], out);
 		}
 
 		return dest;
@@ -268,19 +271,22 @@ public class Difference {
 		int height = source.getHeight();
 		int width = source.getWidth();
 
-		// used to access the source image
-		RandomIter iterX = RandomIterFactory.create(gradVector[0], null);
-		RandomIter iterY = RandomIterFactory.create(gradVector[1], null);
-
-		for (int samp = 0; samp < width; samp++) {
-			for (int line = 0; line < height; line++) {
-				for (int band = 0; band < bands; band++) {
-					dest.setSample(samp, line, band,
-							Math.sqrt(
-							Math.pow(iterX.getSample(samp, line, band), 2) +
-							Math.pow(iterY.getSample(samp, line, band), 2)));
-				}
+		// tile by tile; samples are read as int, as they always were
+		Rectangle[] rects = BlockAccess.tiles(dest);
+		int[] gx = null;
+		int[] gy = null;
+		double[] out = null;
+
+		for (int t = 0; t < rects.length; t++) {
+			gx = BlockAccess.readInts(gradVector[0], rects[t], gx);
+			gy = BlockAccess.readInts(gradVector[1], rects[t], gy);
+			int n = rects[t].width * rects[t].height * bands;
+			if (out == null || out.length < n) out = new double[n];
+			for (int k = 0; k < n; k++) {
+				double x = gx[k], y = gy[k];
+				out[k] = Math.sqrt(x * x + y * y);
 			}
+			BlockAccess.writeDoubles(dest, rects[t], out);
 		}
 
 		return dest;
@@ -386,6 +392,36 @@ public class Difference {
 	}
 
 
+	/**
+	 * The 1D gaussian whose outer product with itself is gaussian2Dkernel(size, s),
+	 * so the 2D blur can be done with two 1D passes.
+	 *
+	 * @param  size  Size of the kernel, odd and >= 3.
+	 * @param  s     Sigma
+	 * @return       The normalized kernel, or null if size is wrong.
+	 */
+	public static double[] gaussian1Dkernel(int size, double s) {
+		if (size < 3) {
+			return null;
+		}
+		if (size % 2 == 0) {
+			return null;
+		}
+
+		int half = size >> 1;
+		double[] kernel = new double[size];
+		double sum = 0;
+		for (int i = -half; i <= half; i++) {
+			kernel[i + half] = Math.exp(-(i * i) / (2. * s * s));
+			sum += kernel[i + half];
+		}
+		for (int i = 0; i < size; i++) {
+			kernel[i] /= sum;
+		}
+		return kernel;
+	}
+
+
 	/**
 	 * Laplacian of the gaussian (Matlab 'fspecial' -> 'log')
 	 * The Matlab implementation does adjust the filter coefficients to make sure they sum
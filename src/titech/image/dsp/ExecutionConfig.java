@@ -0,0 +1,182 @@
+package titech.image.dsp;
+
+import java.awt.Dimension;
+import java.awt.Point;
+
+import javax.media.jai.*;
+
+/**
+ * Central place for the JAI execution settings: how many threads compute
+ * tiles, how much memory the tile cache may use, and the default tile size.
+ * <p>
+ * JAI computes the tiles of an image in parallel only when several tiles
+ * are requested at once (e.g. with getTiles() or prefetchTiles()), using
+ * the TileScheduler. Its default parallelism is 2, and the tile cache is
+ * small for big pictures, so both are raised here to the number of cores
+ * and a quarter of the heap.
+ * <p>
+ * The initial values can be set with system properties:
+ * <pre>
+ *   -Dtitech.jai.threads=N      tile computing threads
+ *   -Dtitech.jai.prefetch=N     prefetch threads
+ *   -Dtitech.jai.cache=MB       tile cache capacity
+ *   -Dtitech.jai.tile=WxH       default tile size
+ * </pre>
+ * Call {@link #apply()} to make them effective.
+ *
+ * @author David Gavilan
+ */
+public class ExecutionConfig {
+
+	static int threads;
+	static int prefetchThreads;
+	static int priority = Thread.NORM_PRIORITY;
+	static int prefetchPriority = Thread.MIN_PRIORITY;
+	/** In bytes */
+	static long cacheCapacity;
+	static int tileWidth = ImageObjects.TILEWIDTH;
+	static int tileHeight = ImageObjects.TILEHEIGHT;
+	static boolean applied = false;
+
+	static {
+		int cpus = Runtime.getRuntime().availableProcessors();
+		threads = Integer.getInteger("titech.jai.threads", cpus).intValue();
+		prefetchThreads = Integer.getInteger("titech.jai.prefetch", Math.max(1, cpus / 2)).intValue();
+		long mb = Long.getLong("titech.jai.cache",
+				Runtime.getRuntime().maxMemory() / 4 / (1024 * 1024)).longValue();
+		cacheCapacity = mb * 1024 * 1024;
+		String tile = System.getProperty("titech.jai.tile");
+		if (tile != null) {
+			int x = tile.toLowerCase().indexOf('x');
+			try {
+				if (x < 0) {
+					tileWidth = tileHeight = Integer.parseInt(tile);
+				} else {
+					tileWidth = Integer.parseInt(tile.substring(0, x));
+					tileHeight = Integer.parseInt(tile.substring(x + 1));
+				}
+			} catch (NumberFormatException e) {
+				System.err.println("ExecutionConfig: wrong titech.jai.tile " + tile);
+			}
+		}
+	}
+
+	/**
+	 * Sets the current values into the default JAI instance.
+	 */
+	public static synchronized void apply() {
+		JAI jai = JAI.getDefaultInstance();
+		TileScheduler ts = jai.getTileScheduler();
+		ts.setParallelism(threads);
+		ts.setPriority(priority);
+		ts.setPrefetchParallelism(prefetchThreads);
+		ts.setPrefetchPriority(prefetchPriority);
+		jai.getTileCache().setMemoryCapacity(cacheCapacity);
+		JAI.setDefaultTileSize(new Dimension(tileWidth, tileHeight));
+		applied = true;
+	}
+
+	/**
+	 * Applies the configuration, only the first time it is called.
+	 * For classes that may be used with or without IPPanel.
+	 */
+	public static synchronized void applyOnce() {
+		if (!applied) apply();
+	}
+
+	/**
+	 * @param  n  Number of threads computing tiles. At least 1.
+	 */
+	public static synchronized void setThreads(int n) {
+		threads = Math.max(1, n);
+		JAI.getDefaultInstance().getTileScheduler().setParallelism(threads);
+	}
+
+	public static int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @param  n         Number of threads prefetching tiles. At least 1.
+	 * @param  priority  Their priority, Thread.MIN_PRIORITY..Thread.MAX_PRIORITY
+	 */
+	public static synchronized void setPrefetch(int n, int priority) {
+		prefetchThreads = Math.max(1, n);
+		prefetchPriority = Math.max(Thread.MIN_PRIORITY, Math.min(Thread.MAX_PRIORITY, priority));
+		TileScheduler ts = JAI.getDefaultInstance().getTileScheduler();
+		ts.setPrefetchParallelism(prefetchThreads);
+		ts.setPrefetchPriority(prefetchPriority);
+	}
+
+	public static int getPrefetchThreads() {
+		return prefetchThreads;
+	}
+
+	public static int getPrefetchPriority() {
+		return prefetchPriority;
+	}
+
+	/**
+	 * @param  bytes  Memory for the tile cache.
+	 */
+	public static synchronized void setCacheCapacity(long bytes) {
+		cacheCapacity = Math.max(0, bytes);
+		JAI.getDefaultInstance().getTileCache().setMemoryCapacity(cacheCapacity);
+	}
+
+	public static long getCacheCapacity() {
+		return cacheCapacity;
+	}
+
+	/**
+	 * Tile size of the new images. Existing images keep theirs.
+	 */
+	public static synchronized void setTileSize(int w, int h) {
+		tileWidth = Math.max(16, w);
+		tileHeight = Math.max(16, h);
+		JAI.setDefaultTileSize(new Dimension(tileWidth, tileHeight));
+	}
+
+	/** Tile width for the images created in ImageObjects */
+	public static int getTileWidth() {
+		return tileWidth;
+	}
+
+	/** Tile height for the images created in ImageObjects */
+	public static int getTileHeight() {
+		return tileHeight;
+	}
+
+	/**
+	 * Computes all the tiles of an image at once, in parallel with the
+	 * TileScheduler threads. Useful before a serial consumer, like an encoder,
+	 * pulls the tiles one by one. The tiles stay in the tile cache if they fit.
+	 */
+	public static void computeTiles(PlanarImage img) {
+		if (img == null) return;
+		int n = img.getNumXTiles() * img.getNumYTiles();
+		if (n < 2 || threads < 2) return;
+		Point[] indices = new Point[n];
+		int k = 0;
+		for (int ty = img.getMinTileY(); ty <= img.getMaxTileY(); ty++) {
+			for (int tx = img.getMinTileX(); tx <= img.getMaxTileX(); tx++) {
+				indices[k++] = new Point(tx, ty);
+			}
+		}
+		img.getTiles(indices);
+	}
+
+	/**
+	 * Returns a description of the current settings.
+	 */
+	public static String describe() {
+		JAI jai = JAI.getDefaultInstance();
+		TileScheduler ts = jai.getTileScheduler();
+		Dimension d = JAI.getDefaultTileSize();
+		return "threads: " + ts.getParallelism() + " (priority " + ts.getPriority() + ")"
+				 + ", prefetch: " + ts.getPrefetchParallelism() + " (priority " + ts.getPrefetchPriority() + ")"
+				 + ", cache: " + jai.getTileCache().getMemoryCapacity() / (1024 * 1024) + " MB"
+				 + ", tile: " + (d == null ? "none" : d.width + "x" + d.height)
+				 + ", cores: " + Runtime.getRuntime().availableProcessors();
+	}
+}
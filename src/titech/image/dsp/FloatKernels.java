@@ -0,0 +1,215 @@
+package titech.image.dsp;
+
+/**
+ * Inner loops over contiguous runs of floats, shared by the point operators
+ * and the wavelet and derivative OpImages.
+ * <p>
+ * This class is the scalar implementation. When the build includes the
+ * optional src/vector tree (ant target "vector", JDK 17 or later) and the
+ * JVM runs with <code>--add-modules jdk.incubator.vector</code>,
+ * {@link #get()} returns VectorFloatKernels instead, which overrides the
+ * same methods with SIMD loops. Both give the same results: every method is
+ * a single IEEE float operation per element, or two in a fixed order.
+ * <p>
+ * Set <code>-Dtitech.simd=false</code> to force the scalar loops.
+ *
+ * @author David Gavilan
+ */
+public class FloatKernels {
+
+	/** Name of the optional SIMD implementation */
+	static final String VECTOR_CLASS = "titech.image.dsp.VectorFloatKernels";
+
+	static FloatKernels scalar = new FloatKernels();
+	static FloatKernels instance;
+
+	/**
+	 * The fastest implementation available.
+	 */
+	public static synchronized FloatKernels get() {
+		if (instance == null) {
+			instance = scalar;
+			if (!"false".equals(System.getProperty("titech.simd"))) {
+				FloatKernels k = load(VECTOR_CLASS);
+				if (k != null) instance = k;
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * The scalar implementation, the reference of the others.
+	 */
+	public static FloatKernels getScalar() {
+		return scalar;
+	}
+
+	/**
+	 * Selects the SIMD implementation (if available) or the scalar one.
+	 * @return   the implementation in use.
+	 */
+	public static synchronized FloatKernels setVector(boolean on) {
+		instance = scalar;
+		if (on) {
+			FloatKernels k = load(VECTOR_CLASS);
+			if (k != null) instance = k;
+		}
+		return instance;
+	}
+
+	/**
+	 * Loads an implementation, checking that it gives the same results as
+	 * the scalar one.
+	 *
+	 * @return    null if it is missing, or it can't run in this JVM.
+	 */
+	static FloatKernels load(String name) {
+		try {
+			FloatKernels k = (FloatKernels) Class.forName(name).getDeclaredConstructor().newInstance();
+			if (k.agrees(scalar)) return k;
+			System.err.println("FloatKernels: " + name + " disagrees with the scalar loops, not used");
+		} catch (ClassNotFoundException e) {
+			// not built
+		} catch (LinkageError e) {
+			// built, but the incubator module isn't there
+		} catch (java.lang.reflect.InvocationTargetException e) {
+			if (!(e.getCause() instanceof LinkageError)) System.err.println("FloatKernels: " + e.getCause());
+		} catch (Exception e) {
+			System.err.println("FloatKernels: " + e);
+		}
+		return null;
+	}
+
+	/**
+	 * Runs every kernel on the same random data with both implementations.
+	 */
+	public boolean agrees(FloatKernels ref) {
+		int n = 1037; // not a multiple of any vector length
+		java.util.Random rnd = new java.util.Random(n);
+		float[] a = new float[n + 3], b = new float[n + 3];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = (float) (rnd.nextGaussian() * 100);
+			b[i] = (float) (rnd.nextGaussian() * 100);
+		}
+		float[] d1 = new float[n + 3], d2 = new float[n + 3];
+		for (int op = 0; op < 9; op++) {
+			run(op, a, b, d1, n);
+			ref.run(op, a, b, d2, n);
+			for (int i = 0; i < d1.length; i++) {
+				if (Float.floatToIntBits(d1[i]) != Float.floatToIntBits(d2[i])) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * One of the kernels by number, for agrees() and the benchmark.
+	 */
+	public void run(int op, float[] a, float[] b, float[] d, int n) {
+		switch (op) {
+			case 0: add(a, 1, b, 2, d, 3, n); break;
+			case 1: subtract(a, 1, b, 2, d, 3, n); break;
+			case 2: multiply(a, 1, b, 2, d, 3, n); break;
+			case 3: average(a, 1, b, 2, d, 3, n); break;
+			case 4: halfDiff(a, 1, b, 2, d, 3, n); break;
+			case 5: addHalf(a, 1, b, 2, d, 3, n); break;
+			case 6: subtractHalf(a, 1, b, 2, d, 3, n); break;
+			case 7: scale(a, 1, 1.7f, -3.1f, d, 3, n); break;
+			default: absolute(a, 1, d, 3, n); break;
+		}
+	}
+
+	/** Names of the kernels of run() */
+	public static final String[] NAMES = {"add", "subtract", "multiply",
+			"average", "halfDiff", "addHalf", "subtractHalf", "scale", "absolute"};
+
+	/** d = a + b */
+	public void add(float[] a, int ao, float[] b, int bo, float[] d, int dOff, int n) {
+		for (int i = 0; i < n; i++) {
+			d[dOff + i] = a[ao + i] + b[bo + i];
+		}
+	}
+
+	/** d = a - b */
+	public void subtract(float[] a, int ao, float[] b, int bo, float[] d, int dOff, int n) {
+		for (int i = 0; i < n; i++) {
+			d[dOff + i] = a[ao + i] - b[bo + i];
+		}
+	}
+
+	/** d = a * b */
+	public void multiply(float[] a, int ao, float[] b, int bo, float[] d, int dOff, int n) {
+		for (int i = 0; i < n; i++) {
+			d[dOff + i] = a[ao + i] * b[bo + i];
+		}
+	}
+
+	/** d = (a + b) / 2, the Haar low pass */
+	public void average(float[] a, int ao, float[] b, int bo, float[] d, int dOff, int n) {
+		for (int i = 0; i < n; i++) {
+			d[dOff + i] = (a[ao + i] + b[bo + i]) / 2f;
+		}
+	}
+
+	/** d = (b - a) / 2, the central derivative of a before and b after */
+	public void halfDiff(float[] a, int ao, float[] b, int bo, float[] d, int dOff, int n) {
+		for (int i = 0; i < n; i++) {
+			d[dOff + i] = (b[bo + i] - a[ao + i]) / 2f;
+		}
+	}
+
+	/** d = a + b / 2, the inverse Haar */
+	public void addHalf(float[] a, int ao, float[] b, int bo, float[] d, int dOff, int n) {
+		for (int i = 0; i < n; i++) {
+			d[dOff + i] = a[ao + i] + b[bo + i] / 2f;
+		}
+	}
+
+	/** d = a - b / 2, the inverse Haar */
+	public void subtractHalf(float[] a, int ao, float[] b, int bo, float[] d, int dOff, int n) {
+		for (int i = 0; i < n; i++) {
+			d[dOff + i] = a[ao + i] - b[bo + i] / 2f;
+		}
+	}
+
+	/** d = a * s + o */
+	public void scale(float[] a, int ao, float s, float o, float[] d, int dOff, int n) {
+		for (int i = 0; i < n; i++) {
+			d[dOff + i] = a[ao + i] * s + o;
+		}
+	}
+
+	/** d = |a| */
+	public void absolute(float[] a, int ao, float[] d, int dOff, int n) {
+		for (int i = 0; i < n; i++) {
+			d[dOff + i] = Math.abs(a[ao + i]);
+		}
+	}
+
+	/**
+	 * Times every kernel on n floats, for this implementation.
+	 *
+	 * @return    Nanoseconds per element of each kernel.
+	 */
+	public double[] bench(int n, int reps) {
+		float[] a = new float[n + 3], b = new float[n + 3], d = new float[n + 3];
+		java.util.Random rnd = new java.util.Random(n);
+		for (int i = 0; i < a.length; i++) {
+			a[i] = rnd.nextFloat();
+			b[i] = rnd.nextFloat();
+		}
+		double[] ns = new double[NAMES.length];
+		for (int op = 0; op < NAMES.length; op++) {
+			// warm up, so the JIT compiles the loop
+			for (int r = 0; r < reps; r++) run(op, a, b, d, n);
+			long t = System.nanoTime();
+			for (int r = 0; r < reps; r++) run(op, a, b, d, n);
+			ns[op] = (double) (System.nanoTime() - t) / reps / n;
+		}
+		return ns;
+	}
+
+	public String toString() {
+		return "scalar";
+	}
+}
@@ -0,0 +1,66 @@
+package titech.image.dsp;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.awt.image.renderable.*;
+import javax.media.jai.*;
+import javax.media.jai.registry.RenderedRegistryMode;
+import javax.media.jai.registry.RenderableRegistryMode;
+import javax.media.jai.util.Range;
+
+/**
+  * An <code>OperationDescriptor</code> describing the "FloatPoint" operation.
+  *
+  * <p><table border=1>
+  * <caption>Resource List</caption>
+  * <tr><th>Name</th><th>Value</th></tr>
+  * <tr><th>GlobalName</th><td>FloatPoint</td></tr>
+  * <tr><th>LocalName</th><td>FloatPoint</td></tr>
+  * <tr><th>Description</th><td>Point operations on float images</td></tr>
+  * <tr><th>DocURL</th><td>FloatPointDescriptor.html</td></tr>
+  * <tr><th>Version</th><td>0.1</td></tr>
+  * <tr><th>arg0Desc</th><td>Type.</td></tr>
+  * <tr><th>arg1Desc</th><td>Scale.</td></tr>
+  * <tr><th>arg2Desc</th><td>Offset.</td></tr>
+  * </table></p>
+  * <p><table border=1>
+  * <caption>Parameter List</caption>
+  * <tr><th>Name</th><th>Class Type</th><th>Default Value</th></tr>
+  * <tr><td>type</td><td>java.lang.Integer</td><td>1</td></tr>
+  * <tr><td>scale</td><td>java.lang.Double</td><td>1.0</td></tr>
+  * <tr><td>offset</td><td>java.lang.Double</td><td>0.0</td></tr>
+  * </table></p>  
+  * @see FloatPointOpImage
+  * @author David Gavilan
+  */
+public class FloatPointDescriptor extends OperationDescriptorImpl {
+
+  private static final String[][] resources = {
+     {"GlobalName", "FloatPoint"},
+     {"LocalName",  "FloatPoint"},
+     {"Description", "Rescale or absolute value of a float image."},
+     {"DocURL",      "FloatPointDescriptor.html"},
+     {"Version",     "0.1"},
+     {"arg0Desc",    "Type."},
+     {"arg1Desc",    "Scale."},
+     {"arg2Desc",    "Offset."}
+  };
+  
+  private static final Class[] paramClasses = {
+      java.lang.Integer.class, java.lang.Double.class, java.lang.Double.class };
+  private static final String[] paramNames = {
+      "type", "scale", "offset" };
+  private static final Object[] paramDefaults = {
+      Integer.valueOf(1), Double.valueOf(1.0), Double.valueOf(0.0) };
+  private static final Object[] validParamValues  = {      
+      new Range(Integer.class, Integer.valueOf(1), Integer.valueOf(2)),
+      null, null
+      };
+  
+  public FloatPointDescriptor() {
+    super(resources, new String[] {RenderedRegistryMode.MODE_NAME,
+          RenderableRegistryMode.MODE_NAME}, 1,
+	  paramNames, paramClasses, paramDefaults, validParamValues);
+  }
+    
+}
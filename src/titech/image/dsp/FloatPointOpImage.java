@@ -0,0 +1,154 @@
+package titech.image.dsp;
+
+import java.awt.*;
+import java.awt.image.*;
+import javax.media.jai.*;
+import java.util.Map;
+
+/**
+  * OpImage implementation for "FloatPoint" operator: the rescale and the
+  * absolute value of float images, with the FloatKernels loops (SIMD if
+  * available). Contiguous runs of samples (a banded raster, or all the
+  * bands of a pixel interleaved one) go to the kernels in one call per row.
+  *
+  * @see FloatKernels
+  * @author David Gavilan
+  */
+public class FloatPointOpImage extends PointOpImage {
+
+  /** dst = src * scale + offset */
+  public static final int RESCALE=1;
+  /** dst = |src| */
+  public static final int ABSOLUTE=2;
+
+  protected int type;
+  protected float scale, offset;
+
+  /**
+    * Constructs an OpImage representing a point operation.
+    * @param type RESCALE or ABSOLUTE
+    */
+  public FloatPointOpImage(RenderedImage source, ImageLayout layout,
+         Map config, int type, float scale, float offset) {
+     super(source,layout,config,true);
+     
+     this.type = type;
+     this.scale = scale;
+     this.offset = offset;
+  }
+
+  /**
+    * Computes a rectangle of the destination.
+    * @param sources an array with the source Raster.
+    * @param dest a WritableRaster containing the area to be computed
+    * @param destRect the rectangle within dest to be processed
+    */
+  public void computeRect(Raster sources[], WritableRaster dest,
+          Rectangle destRect) {
+  
+     RasterFormatTag[] formatTags = getFormatTags();
+     
+     RasterAccessor dst = new RasterAccessor(dest, destRect, 
+        formatTags[1], getColorModel());
+     RasterAccessor src = new RasterAccessor(sources[0],
+        mapDestRect(destRect, 0), formatTags[0],
+	getSourceImage(0).getColorModel());
+
+     if (dst.getDataType() != DataBuffer.TYPE_FLOAT
+         || src.getDataType() != DataBuffer.TYPE_FLOAT) {
+        throw new IllegalArgumentException("Supports float data only.");
+     }
+     
+     int width = dst.getWidth();
+     int height = dst.getHeight();
+     int bands = dst.getNumBands();
+     
+     float dstDataArrays[][] = dst.getFloatDataArrays();
+     int dstBandOffsets[] = dst.getBandOffsets();
+     int dstPixelStride = dst.getPixelStride();
+     int dstScanlineStride = dst.getScanlineStride();
+
+     float srcDataArrays[][] = src.getFloatDataArrays();
+     int srcBandOffsets[] = src.getBandOffsets();
+     int srcPixelStride = src.getPixelStride();
+     int srcScanlineStride = src.getScanlineStride();
+
+     FloatKernels kernels = FloatKernels.get();
+
+     if (interleaved(srcDataArrays, srcBandOffsets, srcPixelStride)
+         && interleaved(dstDataArrays, dstBandOffsets, dstPixelStride)
+         && sameOrder(srcBandOffsets, dstBandOffsets)) {
+        // every band of a row is one run
+        int srcOff = min(srcBandOffsets), dstOff = min(dstBandOffsets);
+        for (int j = 0; j < height; j++) {
+           apply(kernels, srcDataArrays[0], srcOff, dstDataArrays[0], dstOff, width * bands);
+           srcOff += srcScanlineStride;
+           dstOff += dstScanlineStride;
+        }
+     } else {
+        for (int k = 0; k < bands; k++) {
+           float srcData[] = srcDataArrays[k];
+           float dstData[] = dstDataArrays[k];
+           int srcOff = srcBandOffsets[k], dstOff = dstBandOffsets[k];
+           for (int j = 0; j < height; j++) {
+              if (srcPixelStride == 1 && dstPixelStride == 1) {
+                 apply(kernels, srcData, srcOff, dstData, dstOff, width);
+              } else {
+                 int s = srcOff, d = dstOff;
+                 for (int i = 0; i < width; i++) {
+                    float v = srcData[s];
+                    dstData[d] = (type == ABSOLUTE) ? Math.abs(v) : v * scale + offset;
+                    s += srcPixelStride;
+                    d += dstPixelStride;
+                 }
+              }
+              srcOff += srcScanlineStride;
+              dstOff += dstScanlineStride;
+           }
+        }
+     }
+     
+     if (dst.isDataCopy()) {
+       dst.clampDataArrays();
+       dst.copyDataToRaster();
+     }
+  }
+
+  void apply(FloatKernels kernels, float[] src, int srcOff,
+          float[] dst, int dstOff, int n) {
+     if (type == ABSOLUTE) {
+        kernels.absolute(src, srcOff, dst, dstOff, n);
+     } else {
+        kernels.scale(src, srcOff, scale, offset, dst, dstOff, n);
+     }
+  }
+
+  /** All the bands in one array, one after the other in each pixel */
+  static boolean interleaved(float[][] arrays, int[] offsets, int pixelStride) {
+     if (pixelStride != arrays.length) return false;
+     int first = min(offsets);
+     boolean[] seen = new boolean[arrays.length];
+     for (int k = 0; k < arrays.length; k++) {
+        if (arrays[k] != arrays[0]) return false;
+        int b = offsets[k] - first;
+        if (b < 0 || b >= arrays.length || seen[b]) return false;
+        seen[b] = true;
+     }
+     return true;
+  }
+
+  /** The bands are in the same order in both pixels */
+  static boolean sameOrder(int[] a, int[] b) {
+     int ma = min(a), mb = min(b);
+     for (int k = 0; k < a.length; k++) {
+        if (a[k] - ma != b[k] - mb) return false;
+     }
+     return true;
+  }
+
+  static int min(int[] a) {
+     int m = a[0];
+     for (int i = 1; i < a.length; i++) m = Math.min(m, a[i]);
+     return m;
+  }
+}
@@ -0,0 +1,30 @@
+package titech.image.dsp;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.awt.image.renderable.*;
+import javax.media.jai.*;
+
+/**
+  * Class implementing the RIF interface for the FloatPoint operator.
+  * An instance of this class should be registered with the OperationRegistry
+  * with operation name "FloatPoint" and product name "titech".
+  */
+public class FloatPointRIF implements RenderedImageFactory {
+   public FloatPointRIF() {}
+   
+   public RenderedImage create(ParameterBlock paramBlock,
+                               RenderingHints renderHints) {
+      RenderedImage source = paramBlock.getRenderedSource(0);
+      
+      ImageLayout layout = renderHints == null ? null : 
+                  (ImageLayout)renderHints.get(JAI.KEY_IMAGE_LAYOUT);
+           
+      int type = paramBlock.getIntParameter(0);
+      double scale = paramBlock.getDoubleParameter(1);
+      double offset = paramBlock.getDoubleParameter(2);
+		  
+      return new FloatPointOpImage(source, layout, renderHints,
+             type, (float) scale, (float) offset);
+   }
+}
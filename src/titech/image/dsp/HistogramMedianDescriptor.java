@@ -0,0 +1,60 @@
+package titech.image.dsp;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.awt.image.renderable.*;
+import javax.media.jai.*;
+import javax.media.jai.registry.RenderedRegistryMode;
+import javax.media.jai.registry.RenderableRegistryMode;
+import javax.media.jai.util.Range;
+
+/**
+  * An <code>OperationDescriptor</code> describing the "HistogramMedian" operation.
+  *
+  * <p><table border=1>
+  * <caption>Resource List</caption>
+  * <tr><th>Name</th><th>Value</th></tr>
+  * <tr><th>GlobalName</th><td>HistogramMedian</td></tr>
+  * <tr><th>LocalName</th><td>HistogramMedian</td></tr>
+  * <tr><th>Description</th><td>Median filter with histograms</td></tr>
+  * <tr><th>DocURL</th><td>HistogramMedianDescriptor.html</td></tr>
+  * <tr><th>Version</th><td>0.1</td></tr>
+  * <tr><th>arg0Desc</th><td>Radius of the square mask.</td></tr>
+  * </table></p>
+  * <p><table border=1>
+  * <caption>Parameter List</caption>
+  * <tr><th>Name</th><th>Class Type</th><th>Default Value</th></tr>
+  * <tr><td>radius</td><td>java.lang.Integer</td><td>1</td></tr>
+  * </table></p>  
+  * Only for byte images.
+  * @see HistogramMedianOpImage
+  * @author David Gavilan
+  */
+public class HistogramMedianDescriptor extends OperationDescriptorImpl {
+
+  private static final String[][] resources = {
+     {"GlobalName", "HistogramMedian"},
+     {"LocalName",  "HistogramMedian"},
+     {"Description", "Median filter of a square mask, with histograms."},
+     {"DocURL",      "HistogramMedianDescriptor.html"},
+     {"Version",     "0.1"},
+     {"arg0Desc",    "Radius of the square mask."}
+  };
+  
+  private static final Class[] paramClasses = {
+      java.lang.Integer.class };
+  private static final String[] paramNames = {
+      "radius" };
+  private static final Object[] paramDefaults = {
+      Integer.valueOf(1) };
+  private static final Object[] validParamValues  = {      
+      new Range(Integer.class, Integer.valueOf(1), Integer.valueOf(Integer.MAX_VALUE)) 
+      };
+  
+  public HistogramMedianDescriptor() {
+    super(resources, new String[] {RenderedRegistryMode.MODE_NAME,
+          RenderableRegistryMode.MODE_NAME}, 1,
+	  paramNames, paramClasses, paramDefaults, validParamValues);
+  }
+    
+}
@@ -0,0 +1,153 @@
+package titech.image.dsp;
+
+import java.awt.*;
+import java.awt.image.*;
+import javax.media.jai.*;
+import java.util.Map;
+
+/**
+  * OpImage implementation for "HistogramMedian" operator.
+  * <p>
+  * Median filter of a (2r+1)x(2r+1) square mask on byte images, whose cost
+  * per pixel doesn't depend on r. It keeps a histogram of each column of
+  * the mask height; moving down a row updates a column with one pixel in
+  * and one out. The histogram of the mask is the sum of 2r+1 column
+  * histograms, and moving right adds the entering column and subtracts the
+  * leaving one. Histograms have two levels, 16 coarse bins of 16 fine bins,
+  * so that the median is found visiting at most 32 bins.
+  * <p>
+  * Tiles are independent, so JAI can compute them in parallel. As other
+  * AreaOpImages, without a BorderExtender the destination is r pixels
+  * smaller on each side.
+  * <p>
+  * Ref. S. Perreault, P. H&eacute;bert, "Median Filtering in Constant Time",
+  * IEEE Trans. on Image Processing 16(9) (2007) 2389-2394.
+  *
+  * @author David Gavilan
+  */
+public class HistogramMedianOpImage extends AreaOpImage {
+
+  protected int radius;
+
+  /**
+    * Constructs an OpImage representing a median filter.
+    * @param radius Radius of the square mask, at least 1.
+    */
+  public HistogramMedianOpImage(RenderedImage source, BorderExtender extender,
+         Map config, ImageLayout layout, int radius) {
+     super(source, layout, config, true, extender,
+           radius, radius, radius, radius);
+     if (source.getSampleModel().getDataType() != DataBuffer.TYPE_BYTE) {
+        throw new IllegalArgumentException("HistogramMedian: only byte images");
+     }
+     this.radius = radius;
+  }
+
+  /**
+    * Filters a rectangle.
+    * @param sources an array with the source Raster, which covers destRect
+    *        plus the padding.
+    * @param dest a WritableRaster containing the area to be computed
+    * @param destRect the rectangle within dest to be processed
+    */
+  protected void computeRect(Raster[] sources, WritableRaster dest,
+          Rectangle destRect) {
+
+     Raster src = sources[0];
+     int r = radius;
+     int size = 2 * r + 1;
+     int width = destRect.width, height = destRect.height;
+     int sw = width + 2 * r, sh = height + 2 * r;
+     int sx0 = destRect.x - r, sy0 = destRect.y - r;
+     int bands = dest.getNumBands();
+     int rank = size * size / 2;
+
+     int[] in = new int[sw * sh];
+     int[] out = new int[width * height];
+     // column histograms, fine and coarse
+     int[] colFine = new int[sw * 256];
+     int[] colCoarse = new int[sw * 16];
+     int[] fine = new int[256];
+     int[] coarse = new int[16];
+
+     for (int b = 0; b < bands; b++) {
+        src.getSamples(sx0, sy0, sw, sh, b, in);
+        java.util.Arrays.fill(colFine, 0);
+        java.util.Arrays.fill(colCoarse, 0);
+        // the columns of the first row of the destination
+        for (int y = 0; y < size; y++) {
+           for (int x = 0; x < sw; x++) {
+              int v = in[y * sw + x];
+              colFine[x * 256 + v]++;
+              colCoarse[x * 16 + (v >> 4)]++;
+           }
+        }
+
+        for (int y = 0; y < height; y++) {
+           if (y > 0) {
+              // move every column one row down
+              int outRow = (y - 1) * sw, inRow = (y + size - 1) * sw;
+              for (int x = 0; x < sw; x++) {
+                 int v = in[outRow + x];
+                 colFine[x * 256 + v]--;
+                 colCoarse[x * 16 + (v >> 4)]--;
+                 v = in[inRow + x];
+                 colFine[x * 256 + v]++;
+                 colCoarse[x * 16 + (v >> 4)]++;
+              }
+           }
+
+           // mask histogram of the first pixel of the row
+           java.util.Arrays.fill(fine, 0);
+           java.util.Arrays.fill(coarse, 0);
+           for (int x = 0; x < size; x++) {
+              add(fine, coarse, colFine, colCoarse, x, 1);
+           }
+           out[y * width] = median(fine, coarse, rank);
+
+           for (int x = 1; x < width; x++) {
+              add(fine, coarse, colFine, colCoarse, x - 1, -1);
+              add(fine, coarse, colFine, colCoarse, x + size - 1, 1);
+              out[y * width + x] = median(fine, coarse, rank);
+           }
+        }
+        dest.setSamples(destRect.x, destRect.y, width, height, b, out);
+     }
+  }
+
+  /**
+    * Adds (sign 1) or subtracts (sign -1) a column histogram.
+    * Only the fine bins of non empty coarse bins are visited.
+    */
+  static void add(int[] fine, int[] coarse, int[] colFine, int[] colCoarse,
+          int x, int sign) {
+     int cf = x * 256, cc = x * 16;
+     for (int c = 0; c < 16; c++) {
+        int n = colCoarse[cc + c];
+        if (n == 0) continue;
+        coarse[c] += sign * n;
+        int f0 = c * 16;
+        for (int f = f0; f < f0 + 16; f++) {
+           fine[f] += sign * colFine[cf + f];
+        }
+     }
+  }
+
+  /**
+    * The value of the given rank: walks the coarse bins, then the fine
+    * bins of the one containing it.
+    */
+  static int median(int[] fine, int[] coarse, int rank) {
+     int c = 0, sum = 0;
+     while (sum + coarse[c] <= rank) {
+        sum += coarse[c];
+        c++;
+     }
+     int f = c * 16;
+     while (sum + fine[f] <= rank) {
+        sum += fine[f];
+        f++;
+     }
+     return f;
+  }
+}
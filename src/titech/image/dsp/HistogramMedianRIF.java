@@ -0,0 +1,30 @@
+package titech.image.dsp;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.awt.image.renderable.*;
+import javax.media.jai.*;
+
+/**
+  * Class implementing the RIF interface for the HistogramMedian operator.
+  * An instance of this class should be registered with the OperationRegistry
+  * with operation name "HistogramMedian" and product name "titech".
+  */
+public class HistogramMedianRIF implements RenderedImageFactory {
+   public HistogramMedianRIF() {}
+   
+   public RenderedImage create(ParameterBlock paramBlock,
+                               RenderingHints renderHints) {
+      RenderedImage source = paramBlock.getRenderedSource(0);
+      
+      ImageLayout layout = renderHints == null ? null : 
+                  (ImageLayout)renderHints.get(JAI.KEY_IMAGE_LAYOUT);
+      BorderExtender extender = renderHints == null ? null : 
+                  (BorderExtender)renderHints.get(JAI.KEY_BORDER_EXTENDER);
+           
+      int radius = paramBlock.getIntParameter(0);
+		  
+      return new HistogramMedianOpImage(source, extender, renderHints,
+             layout, radius);
+   }
+}
@@ -162,22 +162,35 @@ public class IWaveletOpImage extends WaveletOpImage {
      int sslo = srcScanlineOffset;
      
      // apply 1D Haar vertically
-     for (int i = 0; i<sizex;i++) {
-	 	int dstPixelOffset = dslo;
-	 	int srcPixelOffset = sslo;
+     if (srcPixelStride == 1 && dstPixelStride == 1) {
+        // a whole row at a time
+        FloatKernels kernels = FloatKernels.get();
+        for (int k = 0; k<halfy; k++) {
+           int lo = srcScanlineOffset + k*srcScanlineStride;
+           int hi = lo + halfy*srcScanlineStride;
+           int even = dstScanlineOffset + (k<<1)*dstScanlineStride;
+           kernels.addHalf(srcData, lo, srcData, hi, dstData, even, sizex);
+           kernels.subtractHalf(srcData, lo, srcData, hi,
+               dstData, even + dstScanlineStride, sizex);
+        }
+     } else {
+        for (int i = 0; i<sizex;i++) {
+	 	   int dstPixelOffset = dslo;
+	 	   int srcPixelOffset = sslo;
 	 
-	 	float[] vline=cropBuffer(srcData, srcScanlineOffset,
-	         srcPixelStride, srcScanlineStride,
-		 	srcPixelOffset, 1, sizey);
-	 	for (int j = 0; j<sizey; j+=2) {
-		   dstData[dstPixelOffset] = vline[j>>1]+vline[(j>>1)+halfy]/2f;
-		   dstData[dstPixelOffset+dstScanlineStride] =
-		       vline[j>>1]-vline[(j>>1)+halfy]/2f;
-
-		   dstPixelOffset += dstScanlineStride<<1;
-		 }
-		 dslo +=dstPixelStride;
-		 sslo +=srcPixelStride;
+	 	   float[] vline=cropBuffer(srcData, srcScanlineOffset,
+	            srcPixelStride, srcScanlineStride,
+		 	   srcPixelOffset, 1, sizey);
+	 	   for (int j = 0; j<sizey; j+=2) {
+		      dstData[dstPixelOffset] = vline[j>>1]+vline[(j>>1)+halfy]/2f;
+		      dstData[dstPixelOffset+dstScanlineStride] =
+		          vline[j>>1]-vline[(j>>1)+halfy]/2f;
+
+		      dstPixelOffset += dstScanlineStride<<1;
+		   }
+		   dslo +=dstPixelStride;
+		   sslo +=srcPixelStride;
+        }
      }
      
      // apply 1D Haar horizontally
@@ -1,5 +1,6 @@
 package titech.image.dsp;
 
+import java.awt.Rectangle;
 import java.awt.Transparency;
 import java.awt.color.*;
 import java.awt.image.*;
@@ -27,6 +28,7 @@ import titech.image.math.*;
  */
 public class ImageObjects {
 
+	/** Default tile size. The one in use is ExecutionConfig.getTileWidth() */
 	public static final int TILEWIDTH=512;
 	public static final int TILEHEIGHT=512;
 	
@@ -39,8 +41,8 @@ public class ImageObjects {
 
         TiledImage outImage;
 
-        int tileHeight = TILEHEIGHT;
-        int tileWidth = TILEWIDTH;
+        int tileHeight = ExecutionConfig.getTileHeight();
+        int tileWidth = ExecutionConfig.getTileWidth();
 		
         //int tileHeight = (height>=(TILEHEIGHT<<1))?TILEHEIGHT:height;
         //int tileWidth = (width>=(TILEWIDTH<<1))?TILEWIDTH:width;
@@ -70,8 +72,8 @@ public class ImageObjects {
 
         TiledImage outImage;
 
-        int tileHeight = TILEHEIGHT;
-        int tileWidth = TILEWIDTH;
+        int tileHeight = ExecutionConfig.getTileHeight();
+        int tileWidth = ExecutionConfig.getTileWidth();
 
         //int tileHeight = (height>=(TILEHEIGHT<<1))?TILEHEIGHT:height;
         //int tileWidth = (width>=(TILEWIDTH<<1))?TILEWIDTH:width;
@@ -99,8 +101,8 @@ public class ImageObjects {
 
 		TiledImage outImage;
 
-        int tileHeight = TILEHEIGHT;
-        int tileWidth = TILEWIDTH;
+        int tileHeight = ExecutionConfig.getTileHeight();
+        int tileWidth = ExecutionConfig.getTileWidth();
 		
         //int tileHeight = (height>=(TILEHEIGHT<<1))?TILEHEIGHT:height;
         //int tileWidth = (width>=(TILEWIDTH<<1))?TILEWIDTH:width;
@@ -122,13 +124,20 @@ public class ImageObjects {
 	
 	/**
 	 * Creates a TiledImage in RGB or Gray colorspace with Float data type.
+	 * If there is a default OffHeapArena, the image is created there.
 	 */
 	public static TiledImage createFloatImage(int width, int height, int bands) {
 
 		TiledImage outImage;
 
-        int tileHeight = TILEHEIGHT;
-        int tileWidth = TILEWIDTH;
+        int tileHeight = ExecutionConfig.getTileHeight();
+        int tileWidth = ExecutionConfig.getTileWidth();
+
+		OffHeapArena arena = OffHeapImage.getArena();
+		if (arena != null) {
+			return OffHeapImage.create(0, 0, width, height, 0, 0, 
+									   tileWidth, tileHeight, bands, arena);
+		}
 
         //int tileHeight = (height>=(TILEHEIGHT<<1))?TILEHEIGHT:height;
         //int tileWidth = (width>=(TILEWIDTH<<1))?TILEWIDTH:width;
@@ -185,25 +194,29 @@ public class ImageObjects {
 
             return outImage;
 
-        // Loop over the input, copy each pixel to the output, modifying them as we go
-        // used to access the source image
-        RandomIter iter = RandomIterFactory.create(image, null);
+        // Loop over the input tile by tile, modifying the pixels as we go
+        Rectangle[] rects = BlockAccess.tiles(outImage);
+        int[] rgb = null;
+        int[] index = null;
 
         //float[] hsb = {0f, 0f, 0f};
-        for (int samp = 0; samp < width; samp++) {
+        for (int t = 0; t < rects.length; t++) {
+            rgb = BlockAccess.readInts(image, rects[t], rgb);
+            int n = rects[t].width * rects[t].height;
+            if (index == null || index.length < n) index = new int[n];
 
-            for (int line = 0; line < height; line++) {
+            for (int k = 0; k < n; k++) {
 
-                int red = iter.getSample(samp, line, 0);
-                int green = iter.getSample(samp, line, 1);
-                int blue = iter.getSample(samp, line, 2);
+                int red = rgb[3 * k];
+                int green = rgb[3 * k + 1];
+                int blue = rgb[3 * k + 2];
 
                 //Color.RGBtoHSB(red, green, blue, hsb);
                 // probamos ahora con una simple distancia euclidea
                 // en el espacio RGB
-                outImage.setSample(samp, line, 0, 
-                                   minEuclidean(colormap, red, green, blue));
+                index[k] = minEuclidean(colormap, red, green, blue);
             }
+            BlockAccess.writeInts(outImage, rects[t], index);
         }
 
         return outImage;
@@ -213,25 +226,7 @@ public class ImageObjects {
                                          byte[][] colormap) {
 		TiledImage outImage = createRGBImage(image.getWidth(), image.getHeight());
 
-        // Loop over the input, copy each pixel to the output, modifying them as we go
-        // used to access the source image
-        RandomIter iter = RandomIterFactory.create(image, null);
-
-        for (int samp = 0; samp < image.getWidth(); samp++) {
-            for (int line = 0; line < image.getHeight(); line++) {
-
-				int i = iter.getSample(samp, line, 0);
-                int red = (256+(int)colormap[0][i])%256;
-                int green = (256+(int)colormap[1][i])%256;
-                int blue = (256+(int)colormap[2][i])%256;
-
-                outImage.setSample(samp, line, 0, red);
-                outImage.setSample(samp, line, 1, green);
-                outImage.setSample(samp, line, 2, blue);
-            }
-        }
-		
-		return outImage;
+		return indexedToColor(image, colormap, outImage);
 	}
 
 	public static byte[][] reorderMap(byte[][] colormap, int[] order) {
@@ -252,22 +247,40 @@ public class ImageObjects {
 										 byte[][] colormap) {
 		TiledImage outImage = createHSVImage(image.getWidth(), image.getHeight());
 
-		// Loop over the input, copy each pixel to the output, modifying them as we go
-		// used to access the source image
-		RandomIter iter = RandomIterFactory.create(image, null);
-
-		for (int samp = 0; samp < image.getWidth(); samp++) {
-			for (int line = 0; line < image.getHeight(); line++) {
+		return indexedToColor(image, colormap, outImage);
+	}
 
-				int i = iter.getSample(samp, line, 0);
-				int red = (256+(int)colormap[0][i])%256;
-				int green = (256+(int)colormap[1][i])%256;
-				int blue = (256+(int)colormap[2][i])%256;
+	/**
+	 * Fills a 3 band image with the colors of the palette.
+	 * The indexed image and the output image start at (0,0).
+	 */
+	static TiledImage indexedToColor(PlanarImage image, byte[][] colormap,
+										 TiledImage outImage) {
+		// unsigned palette, once
+		int[][] map = new int[3][colormap[0].length];
+		for (int c = 0; c < 3; c++) {
+			for (int i = 0; i < map[c].length; i++) {
+				map[c][i] = (256+(int)colormap[c][i])%256;
+			}
+		}
 
-				outImage.setSample(samp, line, 0, red);
-				outImage.setSample(samp, line, 1, green);
-				outImage.setSample(samp, line, 2, blue);
+		// Loop over the output tile by tile, copying each pixel from the palette
+		Rectangle[] rects = BlockAccess.tiles(outImage);
+		int[] index = null;
+		int[] rgb = null;
+
+		for (int t = 0; t < rects.length; t++) {
+			index = BlockAccess.readInts(image, rects[t], index);
+			int n = rects[t].width * rects[t].height;
+			if (rgb == null || rgb.length < 3 * n) rgb = new int[3 * n];
+
+			for (int k = 0; k < n; k++) {
+				int i = index[k];
+				rgb[3 * k] = map[0][i];
+				rgb[3 * k + 1] = map[1][i];
+				rgb[3 * k + 2] = map[2][i];
 			}
+			BlockAccess.writeInts(outImage, rects[t], rgb);
 		}
 		
 		return outImage;
@@ -665,7 +678,10 @@ public class ImageObjects {
 			return result;
 		}
 
-		float[] srgb = new float[] {0f, 0f, 0f};
+		// sRGBtoRGB of each level, and RGBtoXYZ inline
+		float[] lin = ColorManipulation.sRGBtoRGBTable(1f);
+		float[][] M = ColorManipulation.RGB2XYZ;
+		float[] xyz = new float[3];
 		double x=0, y=0;
         RandomIter iter = RandomIterFactory.create(source, null);
         for (int samp = 0; samp < width; samp++) {
@@ -675,9 +691,13 @@ public class ImageObjects {
                 int green = iter.getSample(samp, line, 1);
                 int blue = iter.getSample(samp, line, 2);
 				
-				srgb[0]=(float)red; srgb[1]=(float)green; srgb[2]=(float)blue;
-				float[] rgb=ColorManipulation.sRGBtoRGB(srgb);
-				float[] xyz=ColorManipulation.RGBtoXYZ(rgb);
+				float r = lin[red & 0xff], g = lin[green & 0xff], b = lin[blue & 0xff];
+				for (int i = 0; i < 3; i++) {
+					xyz[i] = 0f;
+					xyz[i] += r * M[i][0];
+					xyz[i] += g * M[i][1];
+					xyz[i] += b * M[i][2];
+				}
 				x=xyz[0]/(xyz[0]+xyz[1]+xyz[2]);
 				y=xyz[1]/(xyz[0]+xyz[1]+xyz[2]);
 				
@@ -0,0 +1,340 @@
+package titech.image.dsp;
+
+import java.awt.Rectangle;
+import java.awt.image.RenderedImage;
+import java.util.concurrent.*;
+
+/**
+ * Per band statistics of an image gathered in one pass: mean, minimum,
+ * maximum, variance and, optionally, histograms.
+ * <p>
+ * The tiles are shared among ExecutionConfig.getThreads() threads, each one
+ * with its own partial statistics, merged at the end. The threads come from
+ * a pool shared by all the instances, and the calling thread is one of them.
+ * The pixels can be subsampled with a period in x and y, as the JAI
+ * statistics operators do.
+ * <pre>
+ *   ImageStatistics st = new ImageStatistics(img, 256, 0, 256);
+ *   double[] mean = st.getMean();
+ *   int[][] bins = st.getBins();
+ * </pre>
+ * Histograms work like javax.media.jai.Histogram: bin i of a band counts the
+ * samples in [low + i*(high-low)/numBins, low + (i+1)*(high-low)/numBins).
+ *
+ * @author David Gavilan
+ */
+public class ImageStatistics {
+
+	int bands;
+	/** Number of pixels counted */
+	long count;
+	double[] sum, sumSquares, min, max;
+	/** Histograms, or null if not wanted */
+	int[][] bins;
+	int[] numBins;
+	double[] low, high;
+	int xPeriod = 1, yPeriod = 1;
+
+	/**
+	 * Mean, extrema and variance of all the pixels, without histograms.
+	 */
+	public ImageStatistics(RenderedImage img) {
+		this(img, null, null, null, 1, 1);
+	}
+
+	/**
+	 * Statistics with the same histogram range for every band.
+	 *
+	 * @param  numBins  Number of bins of each band.
+	 * @param  low      Lowest value counted, inclusive.
+	 * @param  high     Highest value counted, exclusive.
+	 */
+	public ImageStatistics(RenderedImage img, int numBins, double low, double high) {
+		this(img, fill(img, numBins), fill(img, low), fill(img, high), 1, 1);
+	}
+
+	/**
+	 * @param  numBins  Bins of each band, or null for no histograms.
+	 * @param  low      Lowest value counted of each band, inclusive.
+	 * @param  high     Highest value counted of each band, exclusive.
+	 * @param  xPeriod  Horizontal sampling period, 1 for every pixel.
+	 * @param  yPeriod  Vertical sampling period.
+	 */
+	public ImageStatistics(RenderedImage img, int[] numBins, double[] low,
+			double[] high, int xPeriod, int yPeriod) {
+		this(img.getSampleModel().getNumBands(), numBins, low, high);
+		this.xPeriod = Math.max(1, xPeriod);
+		this.yPeriod = Math.max(1, yPeriod);
+		compute(img);
+	}
+
+	/** Empty statistics, to be merged into */
+	ImageStatistics(int bands, int[] numBins, double[] low, double[] high) {
+		this.bands = bands;
+		this.numBins = numBins;
+		this.low = low;
+		this.high = high;
+		sum = new double[bands];
+		sumSquares = new double[bands];
+		min = new double[bands];
+		max = new double[bands];
+		for (int b = 0; b < bands; b++) {
+			min[b] = Double.POSITIVE_INFINITY;
+			max[b] = Double.NEGATIVE_INFINITY;
+		}
+		if (numBins != null) {
+			bins = new int[bands][];
+			for (int b = 0; b < bands; b++) {
+				bins[b] = new int[numBins[b]];
+			}
+		}
+	}
+
+	static int[] fill(RenderedImage img, int v) {
+		int[] a = new int[img.getSampleModel().getNumBands()];
+		for (int i = 0; i < a.length; i++) a[i] = v;
+		return a;
+	}
+
+	static double[] fill(RenderedImage img, double v) {
+		double[] a = new double[img.getSampleModel().getNumBands()];
+		for (int i = 0; i < a.length; i++) a[i] = v;
+		return a;
+	}
+
+	static ExecutorService pool;
+	static int poolSize;
+
+	/**
+	 * The shared pool, with ExecutionConfig.getThreads() - 1 threads. It is
+	 * replaced if the number of threads changes.
+	 */
+	static synchronized ExecutorService pool() {
+		int n = Math.max(1, ExecutionConfig.getThreads() - 1);
+		if (pool == null || poolSize != n) {
+			if (pool != null) pool.shutdown();
+			pool = Executors.newFixedThreadPool(n, new ThreadFactory() {
+				int count = 0;
+
+				public synchronized Thread newThread(Runnable r) {
+					Thread th = new Thread(r, "ImageStatistics-" + count++);
+					th.setDaemon(true);
+					return th;
+				}
+			});
+			poolSize = n;
+		}
+		return pool;
+	}
+
+	/**
+	 * Shares the tiles among the threads and merges their results.
+	 */
+	void compute(final RenderedImage img) {
+		final Rectangle[] rects = BlockAccess.tiles(img);
+		int nthreads = Math.min(ExecutionConfig.getThreads(), rects.length);
+		if (nthreads < 2) {
+			for (int t = 0; t < rects.length; t++) {
+				accumulate(img, rects[t], null);
+			}
+			return;
+		}
+		final int[] next = {0};
+		// per task: 0 not started, 1 started, 2 dropped; guarded by next
+		final int[] state = new int[nthreads];
+		ImageStatistics[] partial = new ImageStatistics[nthreads];
+		Future[] tasks = new Future[nthreads];
+		ExecutorService pool = pool();
+		for (int i = 0; i < nthreads; i++) {
+			final ImageStatistics p = new ImageStatistics(bands, numBins, low, high);
+			p.xPeriod = xPeriod;
+			p.yPeriod = yPeriod;
+			partial[i] = p;
+			final int id = i;
+			Runnable task = new Runnable() {
+				public void run() {
+					synchronized (next) {
+						if (state[id] == 2) return;
+						state[id] = 1;
+					}
+					double[] buf = null;
+					while (true) {
+						int t;
+						synchronized (next) {
+							t = next[0]++;
+						}
+						if (t >= rects.length) break;
+						buf = p.accumulate(img, rects[t], buf);
+					}
+				}
+			};
+			// the last share is done here
+			if (i < nthreads - 1) {
+				tasks[i] = pool.submit(task);
+			} else {
+				task.run();
+			}
+		}
+		for (int i = 0; i < nthreads; i++) {
+			// all the tiles are taken: the tasks not started yet are dropped,
+			// so a busy pool never blocks us
+			boolean started;
+			synchronized (next) {
+				if (state[i] == 0) state[i] = 2;
+				started = state[i] == 1;
+			}
+			if (tasks[i] != null && started) {
+				try {
+					tasks[i].get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					throw new RuntimeException(e.getCause());
+				}
+			}
+			merge(partial[i]);
+		}
+	}
+
+	/**
+	 * Adds the sampled pixels of a rectangle.
+	 *
+	 * @return    The buffer used, to be reused.
+	 */
+	double[] accumulate(RenderedImage img, Rectangle r, double[] buf) {
+		if (r.isEmpty()) return buf;
+		// first sampled pixel of the rectangle, on the grid of the image
+		int x0 = r.x + mod(img.getMinX() - r.x, xPeriod);
+		int y0 = r.y + mod(img.getMinY() - r.y, yPeriod);
+		if (x0 >= r.x + r.width || y0 >= r.y + r.height) return buf;
+		Rectangle rows = r;
+		if (yPeriod > 1) rows = new Rectangle(r.x, y0, r.width, 1);
+		for (int y = y0; y < r.y + r.height; y += yPeriod) {
+			int k0;
+			if (yPeriod > 1) {
+				rows.y = y;
+				buf = BlockAccess.readDoubles(img, rows, buf);
+				k0 = 0;
+			} else {
+				if (y == y0) buf = BlockAccess.readDoubles(img, r, buf);
+				k0 = (y - r.y) * r.width * bands;
+			}
+			for (int x = x0; x < r.x + r.width; x += xPeriod) {
+				int k = k0 + (x - r.x) * bands;
+				for (int b = 0; b < bands; b++) {
+					add(b, buf[k + b]);
+				}
+				count++;
+			}
+		}
+		return buf;
+	}
+
+	static int mod(int a, int p) {
+		int m = a % p;
+		return (m < 0) ? m + p : m;
+	}
+
+	void add(int b, double v) {
+		sum[b] += v;
+		sumSquares[b] += v * v;
+		if (v < min[b]) min[b] = v;
+		if (v > max[b]) max[b] = v;
+		if (bins != null && v >= low[b] && v < high[b]) {
+			int i = (int) ((v - low[b]) * numBins[b] / (high[b] - low[b]));
+			if (i >= numBins[b]) i = numBins[b] - 1;
+			bins[b][i]++;
+		}
+	}
+
+	void merge(ImageStatistics p) {
+		count += p.count;
+		for (int b = 0; b < bands; b++) {
+			sum[b] += p.sum[b];
+			sumSquares[b] += p.sumSquares[b];
+			if (p.min[b] < min[b]) min[b] = p.min[b];
+			if (p.max[b] > max[b]) max[b] = p.max[b];
+			if (bins != null) {
+				for (int i = 0; i < bins[b].length; i++) {
+					bins[b][i] += p.bins[b][i];
+				}
+			}
+		}
+	}
+
+	public int getNumBands() {
+		return bands;
+	}
+
+	/** Number of pixels counted */
+	public long getCount() {
+		return count;
+	}
+
+	public double[] getMean() {
+		double[] m = new double[bands];
+		if (count == 0) return m;
+		for (int b = 0; b < bands; b++) {
+			m[b] = sum[b] / count;
+		}
+		return m;
+	}
+
+	/**
+	 * The mean of all bands together.
+	 */
+	public double getMeanOfBands() {
+		double[] m = getMean();
+		double media = 0;
+		for (int b = 0; b < bands; b++) {
+			media += m[b];
+		}
+		return (bands == 0) ? 0 : media / bands;
+	}
+
+	public double[] getMin() {
+		return min.clone();
+	}
+
+	public double[] getMax() {
+		return max.clone();
+	}
+
+	/**
+	 * Minimum and maximum, as the "extrema" property of JAI:
+	 * [0][band] the minimums, [1][band] the maximums.
+	 */
+	public double[][] getExtrema() {
+		return new double[][]{getMin(), getMax()};
+	}
+
+	/** Population variance of each band */
+	public double[] getVariance() {
+		double[] v = new double[bands];
+		if (count == 0) return v;
+		for (int b = 0; b < bands; b++) {
+			double m = sum[b] / count;
+			v[b] = Math.max(0, sumSquares[b] / count - m * m);
+		}
+		return v;
+	}
+
+	public double[] getStdDev() {
+		double[] v = getVariance();
+		for (int b = 0; b < bands; b++) {
+			v[b] = Math.sqrt(v[b]);
+		}
+		return v;
+	}
+
+	/**
+	 * The histograms, [band][bin], or null if none were asked.
+	 */
+	public int[][] getBins() {
+		return bins;
+	}
+
+	public int[] getBins(int band) {
+		return (bins == null) ? null : bins[band];
+	}
+}
@@ -0,0 +1,42 @@
+package titech.image.dsp;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.awt.image.renderable.*;
+import javax.media.jai.*;
+import javax.media.jai.registry.RenderedRegistryMode;
+import javax.media.jai.registry.RenderableRegistryMode;
+
+/**
+  * An <code>OperationDescriptor</code> describing the "Integral" operation.
+  *
+  * <p><table border=1>
+  * <caption>Resource List</caption>
+  * <tr><th>Name</th><th>Value</th></tr>
+  * <tr><th>GlobalName</th><td>Integral</td></tr>
+  * <tr><th>LocalName</th><td>Integral</td></tr>
+  * <tr><th>Description</th><td>Summed Area Tables</td></tr>
+  * <tr><th>DocURL</th><td>IntegralDescriptor.html</td></tr>
+  * <tr><th>Version</th><td>0.1</td></tr>
+  * </table></p>
+  * No parameters.
+  * @see IntegralOpImage
+  * @author David Gavilan
+  */
+public class IntegralDescriptor extends OperationDescriptorImpl {
+
+  private static final String[][] resources = {
+     {"GlobalName", "Integral"},
+     {"LocalName",  "Integral"},
+     {"Description", "Summed area tables of the samples and their squares."},
+     {"DocURL",      "IntegralDescriptor.html"},
+     {"Version",     "0.1"}
+  };
+  
+  public IntegralDescriptor() {
+    super(resources, new String[] {RenderedRegistryMode.MODE_NAME,
+          RenderableRegistryMode.MODE_NAME}, 1,
+	  null, null, null, null);
+  }
+    
+}
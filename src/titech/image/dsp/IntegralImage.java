@@ -0,0 +1,126 @@
+package titech.image.dsp;
+
+import java.awt.Rectangle;
+import java.awt.image.*;
+import java.awt.image.renderable.ParameterBlock;
+
+import javax.media.jai.*;
+
+/**
+ * Constant time sums, means and variances over any rectangle of an image,
+ * using the summed area tables of the "Integral" operator.
+ * <pre>
+ *   IntegralImage ii = new IntegralImage(img);
+ *   double m = ii.mean(0, x, y, w, h);
+ *   double v = ii.variance(0, x, y, w, h);
+ * </pre>
+ * Coordinates are the ones of the source image. Rectangles are clipped
+ * to the image bounds.
+ *
+ * @see IntegralOpImage
+ * @author David Gavilan
+ */
+public class IntegralImage {
+
+	/** The tables, one tile */
+	Raster sat;
+	int bands;
+	int minX, minY, width, height;
+
+	/**
+	 * Computes the summed area tables of an image.
+	 */
+	public IntegralImage(PlanarImage img) {
+		ParameterBlock pb = new ParameterBlock();
+		pb.addSource(img);
+		RenderedOp op = JAI.create("Integral", pb);
+		sat = op.getTile(op.getMinTileX(), op.getMinTileY());
+		bands = img.getSampleModel().getNumBands();
+		minX = img.getMinX();
+		minY = img.getMinY();
+		width = img.getWidth();
+		height = img.getHeight();
+	}
+
+	public int getNumBands() {
+		return bands;
+	}
+
+	/**
+	 * The sum of the samples of a band in a rectangle.
+	 */
+	public double sum(int band, int x, int y, int w, int h) {
+		return box(band, x, y, w, h);
+	}
+
+	/**
+	 * The sum of the squares of the samples of a band in a rectangle.
+	 */
+	public double sumSquares(int band, int x, int y, int w, int h) {
+		return box(bands + band, x, y, w, h);
+	}
+
+	/**
+	 * Number of pixels of the rectangle inside the image.
+	 */
+	public int count(int x, int y, int w, int h) {
+		Rectangle r = clip(x, y, w, h);
+		return r.isEmpty() ? 0 : r.width * r.height;
+	}
+
+	/**
+	 * The mean of a band in a rectangle, or 0 if it is outside the image.
+	 */
+	public double mean(int band, int x, int y, int w, int h) {
+		int n = count(x, y, w, h);
+		return (n == 0) ? 0 : sum(band, x, y, w, h) / n;
+	}
+
+	/**
+	 * The (population) variance of a band in a rectangle.
+	 */
+	public double variance(int band, int x, int y, int w, int h) {
+		int n = count(x, y, w, h);
+		if (n == 0) return 0;
+		double m = sum(band, x, y, w, h) / n;
+		double v = sumSquares(band, x, y, w, h) / n - m * m;
+		// rounding may make it slightly negative
+		return (v < 0) ? 0 : v;
+	}
+
+	/**
+	 * Mean of every band.
+	 */
+	public double[] mean(int x, int y, int w, int h) {
+		double[] m = new double[bands];
+		for (int b = 0; b < bands; b++) {
+			m[b] = mean(b, x, y, w, h);
+		}
+		return m;
+	}
+
+	/**
+	 * Variance of every band.
+	 */
+	public double[] variance(int x, int y, int w, int h) {
+		double[] v = new double[bands];
+		for (int b = 0; b < bands; b++) {
+			v[b] = variance(b, x, y, w, h);
+		}
+		return v;
+	}
+
+	Rectangle clip(int x, int y, int w, int h) {
+		return new Rectangle(x, y, w, h).intersection(
+				new Rectangle(minX, minY, width, height));
+	}
+
+	/** Sum of a table over a rectangle: 4 lookups */
+	double box(int tb, int x, int y, int w, int h) {
+		Rectangle r = clip(x, y, w, h);
+		if (r.isEmpty()) return 0;
+		int x1 = r.x + r.width, y1 = r.y + r.height;
+		return sat.getSampleDouble(x1, y1, tb) - sat.getSampleDouble(r.x, y1, tb)
+				 - sat.getSampleDouble(x1, r.y, tb) + sat.getSampleDouble(r.x, r.y, tb);
+	}
+}
@@ -0,0 +1,91 @@
+package titech.image.dsp;
+
+import java.awt.*;
+import java.awt.image.*;
+import javax.media.jai.*;
+import java.util.Map;
+
+/**
+  * OpImage implementation for "Integral" operator.
+  * <p>
+  * For a source with n bands, the destination has 2n double bands:
+  * band b holds the summed area table of source band b, and band n+b the
+  * one of its squares. The destination is one pixel wider and taller than
+  * the source, so that
+  * <pre>
+  *   S(x, y) = sum of src(i, j) for minX &lt;= i &lt; x, minY &lt;= j &lt; y
+  * </pre>
+  * is at (x, y), and S is 0 in the first row and column. Then the sum over
+  * any rectangle takes 4 lookups. Both tables are computed in one pass.
+  * @see IntegralImage
+  * @author David Gavilan
+  */
+public class IntegralOpImage extends UntiledOpImage {
+
+  /**
+    * Constructs an OpImage representing the summed area tables.
+    */
+  public IntegralOpImage(RenderedImage source, Map config) {
+     super(source, config, layout(source));
+  }
+
+  /**
+    * The destination layout: (width+1)x(height+1), 2*bands, double.
+    */
+  static ImageLayout layout(RenderedImage source) {
+     int bands = 2 * source.getSampleModel().getNumBands();
+     int w = source.getWidth() + 1;
+     int h = source.getHeight() + 1;
+     ImageLayout layout = new ImageLayout(source.getMinX(), source.getMinY(), w, h);
+     layout.setTileWidth(w);
+     layout.setTileHeight(h);
+     layout.setSampleModel(RasterFactory.createPixelInterleavedSampleModel(
+           DataBuffer.TYPE_DOUBLE, w, h, bands));
+     return layout;
+  }
+
+  /**
+    * Computes both tables.
+    * @param sources the source Raster, which covers all the image.
+    * @param dest the destination Raster
+    * @param destRect the rectangle within dest to be processed
+    */
+  protected void computeImage(Raster[] sources, WritableRaster dest,
+          Rectangle destRect) {
+
+     Raster src = sources[0];
+     int bands = src.getNumBands();
+     int width = src.getWidth();
+     int height = src.getHeight();
+     int x0 = src.getMinX(), y0 = src.getMinY();
+     int dbands = 2 * bands;
+
+     double[] in = new double[width * bands];
+     double[] prev = new double[(width + 1) * dbands];
+     double[] cur = new double[(width + 1) * dbands];
+     double[] rowSum = new double[dbands];
+
+     // first row is 0
+     dest.setPixels(x0, y0, width + 1, 1, prev);
+     for (int y = 0; y < height; y++) {
+        src.getPixels(x0, y0 + y, width, 1, in);
+        for (int b = 0; b < dbands; b++) {
+           rowSum[b] = 0;
+           cur[b] = 0;
+        }
+        for (int x = 0; x < width; x++) {
+           int p = x * bands;
+           int d = (x + 1) * dbands;
+           for (int b = 0; b < bands; b++) {
+              double v = in[p + b];
+              rowSum[b] += v;
+              rowSum[bands + b] += v * v;
+              cur[d + b] = prev[d + b] + rowSum[b];
+              cur[d + bands + b] = prev[d + bands + b] + rowSum[bands + b];
+           }
+        }
+        dest.setPixels(x0, y0 + y + 1, width + 1, 1, cur);
+        double[] t = prev; prev = cur; cur = t;
+     }
+  }
+}
@@ -0,0 +1,22 @@
+package titech.image.dsp;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.awt.image.renderable.*;
+import javax.media.jai.*;
+
+/**
+  * Class implementing the RIF interface for the Integral operator.
+  * An instance of this class should be registered with the OperationRegistry
+  * with operation name "Integral" and product name "titech".
+  */
+public class IntegralRIF implements RenderedImageFactory {
+   public IntegralRIF() {}
+   
+   public RenderedImage create(ParameterBlock paramBlock,
+                               RenderingHints renderHints) {
+      RenderedImage source = paramBlock.getRenderedSource(0);
+		  
+      return new IntegralOpImage(source, renderHints);
+   }
+}
@@ -0,0 +1,127 @@
+package titech.image.dsp;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Vector;
+
+import javax.media.jai.JAI;
+
+/**
+ * A group of direct (off-heap) buffers, allocated one by one as the tiles of
+ * its images are created.
+ * <p>
+ * The memory is outside the Java heap, so big float intermediates don't make
+ * the garbage collector copy or scan them. A buffer is freed by the garbage
+ * collector once nothing references it: not its image, the tile cache, the
+ * display nor a JAI thread still computing from it. The arena never frees a
+ * buffer itself, since a FloatBuffer of it may still be in use, and freeing
+ * it would make the JVM read freed memory. It only counts the buffers alive.
+ * <p>
+ * {@link #close()} ends the arena and flushes the tile cache, so that the
+ * tiles it kept stop holding buffers. The images of the arena still work
+ * (their tiles not written yet are allocated when they are), and their
+ * memory goes back when they are dropped.
+ *
+ * @see OffHeapImage
+ * @author David Gavilan
+ */
+public class OffHeapArena {
+
+	/** Bytes of the buffers alive of all the arenas */
+	static long totalBytes;
+
+	/** A buffer of the arena, until it is collected */
+	static class Buffer extends WeakReference {
+		long bytes;
+
+		Buffer(OffHeapDataBuffer db, long bytes, ReferenceQueue q) {
+			super(db, q);
+			this.bytes = bytes;
+		}
+	}
+
+	String name;
+	Vector buffers = new Vector();
+	ReferenceQueue collected = new ReferenceQueue();
+	long bytes;
+	boolean closed;
+
+	public OffHeapArena(String name) {
+		this.name = name;
+	}
+
+	public OffHeapArena() {
+		this("arena");
+	}
+
+	/**
+	 * A new float DataBuffer of the given number of elements, in native
+	 * byte order, initialized to 0.
+	 */
+	public synchronized OffHeapDataBuffer allocate(int size) {
+		if (size > Integer.MAX_VALUE / 4) {
+			throw new IllegalArgumentException("OffHeapArena: buffer too big, " + size + " floats");
+		}
+		forgetCollected();
+		ByteBuffer bb = ByteBuffer.allocateDirect(size * 4).order(ByteOrder.nativeOrder());
+		OffHeapDataBuffer db = new OffHeapDataBuffer(bb, size);
+		buffers.addElement(new Buffer(db, size * 4L, collected));
+		count(size * 4L);
+		return db;
+	}
+
+	/** Stops counting the buffers the garbage collector took */
+	synchronized void forgetCollected() {
+		Buffer b;
+		while ((b = (Buffer) collected.poll()) != null) {
+			if (buffers.removeElement(b)) count(-b.bytes);
+		}
+	}
+
+	void count(long n) {
+		bytes += n;
+		synchronized (OffHeapArena.class) {
+			totalBytes += n;
+		}
+	}
+
+	/**
+	 * Ends the arena, and flushes the tile cache, which may hold tiles of it.
+	 * The buffers are freed as their images are dropped.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed) return;
+			closed = true;
+		}
+		JAI.getDefaultInstance().getTileCache().flush();
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/** Bytes of the buffers of this arena still alive */
+	public synchronized long getBytes() {
+		forgetCollected();
+		return bytes;
+	}
+
+	/** Number of buffers (tiles) of this arena still alive */
+	public synchronized int getBuffers() {
+		forgetCollected();
+		return buffers.size();
+	}
+
+	/** Bytes of the buffers alive of all the arenas, as last counted */
+	public static synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	public String toString() {
+		return name + ": " + getBuffers() + " buffers, " + (getBytes() >> 20) + " MB"
+				 + (closed ? ", closed" : "");
+	}
+}
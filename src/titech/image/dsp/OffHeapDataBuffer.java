@@ -0,0 +1,87 @@
+package titech.image.dsp;
+
+import java.awt.image.DataBuffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * A float DataBuffer in a direct ByteBuffer of an OffHeapArena.
+ * <p>
+ * It isn't a DataBufferFloat, since its data isn't a Java array, so it must
+ * be used with an OffHeapSampleModel: Rasters and JAI see a generic layout
+ * and access the pixels through the sample model, which copies whole rows
+ * with the bulk methods of FloatBuffer.
+ *
+ * @see OffHeapArena#allocate
+ * @author David Gavilan
+ */
+public class OffHeapDataBuffer extends DataBuffer {
+
+	final ByteBuffer bytes;
+	final FloatBuffer data;
+
+	OffHeapDataBuffer(ByteBuffer bytes, int size) {
+		super(DataBuffer.TYPE_FLOAT, size);
+		this.bytes = bytes;
+		this.data = bytes.asFloatBuffer();
+	}
+
+	/**
+	 * The floats of the buffer. Its position and limit are shared, use the
+	 * absolute get and put methods or a duplicate().
+	 */
+	public FloatBuffer getData() {
+		return data;
+	}
+
+	// DataBuffer implements the float and double accessors of the first
+	// bank with getElem, which truncates
+
+	public int getElem(int i) {
+		return (int) getData().get(i + offset);
+	}
+
+	public void setElem(int i, int val) {
+		getData().put(i + offset, (float) val);
+	}
+
+	public float getElemFloat(int i) {
+		return getData().get(i + offset);
+	}
+
+	public void setElemFloat(int i, float val) {
+		getData().put(i + offset, val);
+	}
+
+	public double getElemDouble(int i) {
+		return getData().get(i + offset);
+	}
+
+	public void setElemDouble(int i, double val) {
+		getData().put(i + offset, (float) val);
+	}
+
+	public int getElem(int bank, int i) {
+		return (int) getData().get(i + offsets[bank]);
+	}
+
+	public void setElem(int bank, int i, int val) {
+		getData().put(i + offsets[bank], (float) val);
+	}
+
+	public float getElemFloat(int bank, int i) {
+		return getData().get(i + offsets[bank]);
+	}
+
+	public void setElemFloat(int bank, int i, float val) {
+		getData().put(i + offsets[bank], val);
+	}
+
+	public double getElemDouble(int bank, int i) {
+		return getData().get(i + offsets[bank]);
+	}
+
+	public void setElemDouble(int bank, int i, double val) {
+		getData().put(i + offsets[bank], (float) val);
+	}
+}
@@ -0,0 +1,117 @@
+package titech.image.dsp;
+
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+
+import javax.media.jai.*;
+
+/**
+ * Float TiledImages whose tiles live in an OffHeapArena.
+ * <p>
+ * They are ordinary TiledImages for the rest of the code: JAI operators,
+ * BlockAccess and getSample/setSample work on them. Tiles are allocated the
+ * first time they are written, and freed by the garbage collector with the
+ * image. The images JAI operators compute from them are in the heap. They have
+ * no ColorModel; convert them with {@link #toHeap} (or a JAI operator to
+ * bytes) to display them.
+ * <p>
+ * When a default arena is set, COps.toFloat and ImageObjects.createFloatImage
+ * create their images in it:
+ * <pre>
+ *   OffHeapArena arena = new OffHeapArena("batch");
+ *   OffHeapImage.setArena(arena);
+ *   ... process ...
+ *   OffHeapImage.setArena(null);
+ *   arena.close();
+ * </pre>
+ *
+ * @author David Gavilan
+ */
+public class OffHeapImage {
+
+	static OffHeapArena arena;
+
+	/**
+	 * Sets the arena of the float intermediates, or null to create them in
+	 * the heap again.
+	 */
+	public static synchronized void setArena(OffHeapArena a) {
+		arena = a;
+	}
+
+	/** The default arena, or null */
+	public static synchronized OffHeapArena getArena() {
+		return arena;
+	}
+
+	/**
+	 * A float image in the arena, with the default tile size.
+	 */
+	public static TiledImage create(int minX, int minY, int width, int height,
+			int bands, OffHeapArena arena) {
+		return create(minX, minY, width, height, minX, minY,
+				ExecutionConfig.getTileWidth(), ExecutionConfig.getTileHeight(), bands, arena);
+	}
+
+	/**
+	 * A float image in the arena, with the given tile grid.
+	 */
+	public static TiledImage create(int minX, int minY, int width, int height,
+			int tileGridXOffset, int tileGridYOffset, int tileWidth, int tileHeight,
+			int bands, OffHeapArena arena) {
+		SampleModel sm = new OffHeapSampleModel(tileWidth, tileHeight, bands, arena);
+		return new TiledImage(minX, minY, width, height, tileGridXOffset, tileGridYOffset,
+				sm, null);
+	}
+
+	/**
+	 * Copies an image into the arena, as floats, with the same tiles.
+	 */
+	public static TiledImage copy(PlanarImage src, OffHeapArena arena) {
+		TiledImage out = create(src.getMinX(), src.getMinY(), src.getWidth(), src.getHeight(),
+				src.getTileGridXOffset(), src.getTileGridYOffset(),
+				src.getTileWidth(), src.getTileHeight(),
+				src.getSampleModel().getNumBands(), arena);
+		copyPixels(src, out);
+		return out;
+	}
+
+	/**
+	 * Copies an off-heap image back to the heap, with a FloatDoubleColorModel
+	 * for 1 and 3 bands.
+	 */
+	public static TiledImage toHeap(PlanarImage src) {
+		int bands = src.getSampleModel().getNumBands();
+		int tw = src.getTileWidth(), th = src.getTileHeight();
+		int[] off = new int[bands];
+		for (int b = 0; b < bands; b++) off[b] = b;
+		ComponentSampleModelJAI csm = new ComponentSampleModelJAI(
+				DataBuffer.TYPE_FLOAT, tw, th, tw * bands, bands, off);
+		ColorModel cm = null;
+		if (bands == 1 || bands == 3) {
+			int cs = (bands == 3) ? ColorSpace.CS_sRGB : ColorSpace.CS_GRAY;
+			cm = new FloatDoubleColorModel(ColorSpace.getInstance(cs), false, false,
+					Transparency.OPAQUE, DataBuffer.TYPE_FLOAT);
+		}
+		TiledImage out = new TiledImage(src.getMinX(), src.getMinY(), src.getWidth(),
+				src.getHeight(), src.getTileGridXOffset(), src.getTileGridYOffset(), csm, cm);
+		copyPixels(src, out);
+		return out;
+	}
+
+	static void copyPixels(PlanarImage src, TiledImage out) {
+		Rectangle[] rects = BlockAccess.tiles(out);
+		float[] buf = null;
+		for (int t = 0; t < rects.length; t++) {
+			buf = BlockAccess.readFloats(src, rects[t], buf);
+			BlockAccess.writeFloats(out, rects[t], buf);
+		}
+	}
+
+	/** Whether the tiles of the image are off-heap */
+	public static boolean isOffHeap(RenderedImage img) {
+		return img.getSampleModel() instanceof OffHeapSampleModel;
+	}
+}
@@ -0,0 +1,222 @@
+package titech.image.dsp;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.SampleModel;
+import java.nio.FloatBuffer;
+
+import javax.media.jai.ComponentSampleModelJAI;
+
+/**
+ * Pixel interleaved float samples in an OffHeapDataBuffer.
+ * <p>
+ * Sample (x, y, b) is element (y * width + x) * pixelStride + bandOffsets[b].
+ * The layout is the one of a PixelInterleavedSampleModel, but this isn't a
+ * ComponentSampleModel on purpose: JAI (RasterAccessor) and BlockAccess
+ * take the data arrays of those directly, and here there are none. They
+ * use getPixels/setPixels instead, which copy a row of pixels at a time.
+ * <p>
+ * New data buffers of the tiles of a TiledImage are allocated in the arena.
+ * The compatible sample model is an ordinary float one in the heap: JAI
+ * operators take it for the tiles they compute from these images, which
+ * then stay in the tile cache and go with it, and don't fill the arena.
+ *
+ * @author David Gavilan
+ */
+public class OffHeapSampleModel extends SampleModel {
+
+	OffHeapArena arena;
+	int pixelStride;
+	int[] bandOffsets;
+
+	/**
+	 * Band interleaved pixels, with the bands in order.
+	 */
+	public OffHeapSampleModel(int width, int height, int bands, OffHeapArena arena) {
+		this(width, height, bands, identity(bands), arena);
+	}
+
+	OffHeapSampleModel(int width, int height, int pixelStride, int[] bandOffsets,
+			OffHeapArena arena) {
+		super(DataBuffer.TYPE_FLOAT, width, height, bandOffsets.length);
+		this.pixelStride = pixelStride;
+		this.bandOffsets = (int[]) bandOffsets.clone();
+		this.arena = arena;
+	}
+
+	static int[] identity(int bands) {
+		int[] off = new int[bands];
+		for (int b = 0; b < bands; b++) off[b] = b;
+		return off;
+	}
+
+	public OffHeapArena getArena() {
+		return arena;
+	}
+
+	/** Whether the pixels are the bands in order with nothing in between */
+	boolean isPacked() {
+		if (pixelStride != numBands) return false;
+		for (int b = 0; b < numBands; b++) {
+			if (bandOffsets[b] != b) return false;
+		}
+		return true;
+	}
+
+	int index(int x, int y, int b) {
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			throw new ArrayIndexOutOfBoundsException("Coordinate out of bounds: " + x + ", " + y);
+		}
+		return (y * width + x) * pixelStride + bandOffsets[b];
+	}
+
+	public int getNumDataElements() {
+		return numBands;
+	}
+
+	public int getSampleSize(int band) {
+		return 32;
+	}
+
+	public int[] getSampleSize() {
+		int[] s = new int[numBands];
+		for (int b = 0; b < numBands; b++) s[b] = 32;
+		return s;
+	}
+
+	public Object getDataElements(int x, int y, Object obj, DataBuffer data) {
+		float[] f = (obj == null) ? new float[numBands] : (float[]) obj;
+		for (int b = 0; b < numBands; b++) {
+			f[b] = data.getElemFloat(index(x, y, b));
+		}
+		return f;
+	}
+
+	public void setDataElements(int x, int y, Object obj, DataBuffer data) {
+		float[] f = (float[]) obj;
+		for (int b = 0; b < numBands; b++) {
+			data.setElemFloat(index(x, y, b), f[b]);
+		}
+	}
+
+	public int getSample(int x, int y, int b, DataBuffer data) {
+		return (int) data.getElemFloat(index(x, y, b));
+	}
+
+	public float getSampleFloat(int x, int y, int b, DataBuffer data) {
+		return data.getElemFloat(index(x, y, b));
+	}
+
+	public double getSampleDouble(int x, int y, int b, DataBuffer data) {
+		return data.getElemFloat(index(x, y, b));
+	}
+
+	public void setSample(int x, int y, int b, int s, DataBuffer data) {
+		data.setElemFloat(index(x, y, b), (float) s);
+	}
+
+	public void setSample(int x, int y, int b, float s, DataBuffer data) {
+		data.setElemFloat(index(x, y, b), s);
+	}
+
+	public void setSample(int x, int y, int b, double s, DataBuffer data) {
+		data.setElemFloat(index(x, y, b), (float) s);
+	}
+
+	/**
+	 * Copies whole rows when the pixels are packed, otherwise sample by
+	 * sample.
+	 */
+	public float[] getPixels(int x, int y, int w, int h, float[] fArray, DataBuffer data) {
+		int n = w * h * numBands;
+		float[] f = (fArray == null) ? new float[n] : fArray;
+		if (!(data instanceof OffHeapDataBuffer) || !isPacked()) {
+			return super.getPixels(x, y, w, h, f, data);
+		}
+		if (w <= 0 || h <= 0) return f;
+		index(x, y, 0);
+		index(x + w - 1, y + h - 1, 0);
+		FloatBuffer d = ((OffHeapDataBuffer) data).getData().duplicate();
+		int row = w * numBands, off = data.getOffset();
+		for (int j = 0; j < h; j++) {
+			d.position(off + ((y + j) * width + x) * numBands);
+			d.get(f, j * row, row);
+		}
+		return f;
+	}
+
+	public void setPixels(int x, int y, int w, int h, float[] fArray, DataBuffer data) {
+		if (!(data instanceof OffHeapDataBuffer) || !isPacked()) {
+			super.setPixels(x, y, w, h, fArray, data);
+			return;
+		}
+		if (w <= 0 || h <= 0) return;
+		index(x, y, 0);
+		index(x + w - 1, y + h - 1, 0);
+		FloatBuffer d = ((OffHeapDataBuffer) data).getData().duplicate();
+		int row = w * numBands, off = data.getOffset();
+		for (int j = 0; j < h; j++) {
+			d.position(off + ((y + j) * width + x) * numBands);
+			d.put(fArray, j * row, row);
+		}
+	}
+
+	public double[] getPixels(int x, int y, int w, int h, double[] dArray, DataBuffer data) {
+		int n = w * h * numBands;
+		double[] d = (dArray == null) ? new double[n] : dArray;
+		float[] f = getPixels(x, y, w, h, (float[]) null, data);
+		for (int i = 0; i < n; i++) d[i] = f[i];
+		return d;
+	}
+
+	public void setPixels(int x, int y, int w, int h, double[] dArray, DataBuffer data) {
+		int n = w * h * numBands;
+		float[] f = new float[n];
+		for (int i = 0; i < n; i++) f[i] = (float) dArray[i];
+		setPixels(x, y, w, h, f, data);
+	}
+
+	public int[] getPixels(int x, int y, int w, int h, int[] iArray, DataBuffer data) {
+		int n = w * h * numBands;
+		int[] v = (iArray == null) ? new int[n] : iArray;
+		float[] f = getPixels(x, y, w, h, (float[]) null, data);
+		for (int i = 0; i < n; i++) v[i] = (int) f[i];
+		return v;
+	}
+
+	public void setPixels(int x, int y, int w, int h, int[] iArray, DataBuffer data) {
+		int n = w * h * numBands;
+		float[] f = new float[n];
+		for (int i = 0; i < n; i++) f[i] = iArray[i];
+		setPixels(x, y, w, h, f, data);
+	}
+
+	public SampleModel createCompatibleSampleModel(int w, int h) {
+		return new ComponentSampleModelJAI(DataBuffer.TYPE_FLOAT, w, h, numBands,
+				w * numBands, identity(numBands));
+	}
+
+	public SampleModel createSubsetSampleModel(int[] bands) {
+		int[] off = new int[bands.length];
+		for (int b = 0; b < bands.length; b++) off[b] = bandOffsets[bands[b]];
+		return new OffHeapSampleModel(width, height, pixelStride, off, arena);
+	}
+
+	public DataBuffer createDataBuffer() {
+		return arena.allocate(width * height * pixelStride);
+	}
+
+	public boolean equals(Object o) {
+		if (!(o instanceof OffHeapSampleModel)) return false;
+		OffHeapSampleModel m = (OffHeapSampleModel) o;
+		if (m.width != width || m.height != height || m.pixelStride != pixelStride
+				 || m.numBands != numBands || m.arena != arena) return false;
+		for (int b = 0; b < numBands; b++) {
+			if (m.bandOffsets[b] != bandOffsets[b]) return false;
+		}
+		return true;
+	}
+
+	public int hashCode() {
+		return ((width * 31 + height) * 31 + pixelStride) * 31 + numBands;
+	}
+}
@@ -0,0 +1,316 @@
+package titech.image.dsp;
+
+import java.awt.RenderingHints;
+import java.awt.image.DataBuffer;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.renderable.ParameterBlock;
+import java.util.*;
+
+import javax.media.jai.*;
+
+/**
+ * Memo of the JAI operations created by COps, so that creating the same
+ * operation twice on the same source gives back the same node, with the
+ * tiles it has already computed in the tile cache.
+ * <p>
+ * A node is identified by the operator name, its parameters, its rendering
+ * hints and the identity of its sources. Since the sources of a reused node
+ * are reused nodes too, a chain of operations repeated after a push/pop or
+ * a reload, or a sweep that only changes the last parameter, finds all the
+ * shared prefix in the memo and only the new part is computed.
+ * <p>
+ * Only operations whose sources can't change are memoized: other
+ * RenderedOps and the images registered with {@link #leaf}, like the loaded
+ * files. A TiledImage can be written at any time, so the operations on
+ * them are always created anew.
+ * <p>
+ * The memo is bounded by the size the images of its nodes would take if all
+ * their tiles were computed. The least recently used nodes are dropped,
+ * and their tiles removed from the tile cache, when that goes over the
+ * budget (by default, the capacity of the tile cache).
+ *
+ * @see COps#create(String, ParameterBlock, RenderingHints)
+ * @author David Gavilan
+ */
+public class OpGraph {
+
+	static boolean enabled = false;
+	/** In bytes, or -1 for the current capacity of the tile cache */
+	static long budget = -1;
+	/** Key -> Node, in access order */
+	static LinkedHashMap nodes = new LinkedHashMap(64, 0.75f, true);
+	/** Leaves kept, the least recently used are forgotten */
+	public static int MAX_LEAVES = 64;
+	/** key -> image of the leaves, in access order */
+	static LinkedHashMap leaves = new LinkedHashMap(16, 0.75f, true);
+	static long bytes;
+	static int hits, misses, bypassed;
+
+	public static synchronized void setEnabled(boolean on) {
+		enabled = on;
+		if (!on) clear();
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Sets the memory budget of the nodes, in bytes, or -1 to follow the
+	 * capacity of the tile cache.
+	 */
+	public static synchronized void setBudget(long b) {
+		budget = (b < 0) ? -1 : b;
+		evict();
+	}
+
+	public static long getBudget() {
+		return (budget < 0) ? ExecutionConfig.getCacheCapacity() : budget;
+	}
+
+	/**
+	 * Creates an operation, or returns the node of an identical one.
+	 *
+	 * @param  hints  The rendering hints, or null.
+	 */
+	public static RenderedOp create(String name, ParameterBlock pb, RenderingHints hints) {
+		if (!enabled) return JAI.create(name, pb, hints);
+		Key key;
+		synchronized (OpGraph.class) {
+			if (!memoizable(pb)) {
+				bypassed++;
+				return JAI.create(name, pb, hints);
+			}
+			key = new Key(name, pb, hints);
+			Node n = (Node) nodes.get(key);
+			if (n != null) {
+				hits++;
+				return n.op;
+			}
+			misses++;
+		}
+		RenderedOp op = JAI.create(name, pb, hints);
+		synchronized (OpGraph.class) {
+			Node n = new Node(op, cost(op));
+			Node old = (Node) nodes.put(key, n);
+			if (old != null) bytes -= old.bytes;
+			bytes += n.bytes;
+			evict();
+		}
+		return op;
+	}
+
+	/**
+	 * Registers an image that won't change, e.g. a file as it was loaded,
+	 * so that the operations on it can be memoized.
+	 *
+	 * @param  key  What identifies the image, e.g. the path and modification
+	 *              time of the file.
+	 * @return      The image registered earlier with the same key, if any,
+	 *              or img.
+	 */
+	public static synchronized PlanarImage leaf(String key, PlanarImage img) {
+		if (!enabled) return img;
+		PlanarImage old = (PlanarImage) leaves.get(key);
+		if (old != null) {
+			hits++;
+			return old;
+		}
+		leaves.put(key, img);
+		if (leaves.size() > MAX_LEAVES) {
+			Iterator it = leaves.values().iterator();
+			it.next();
+			it.remove();
+		}
+		return img;
+	}
+
+	/**
+	 * Whether the image is a node or a leaf of the memo. Other commands may
+	 * get it again, so it must not be disposed.
+	 */
+	public static synchronized boolean contains(RenderedImage img) {
+		for (Iterator it = leaves.values().iterator(); it.hasNext();) {
+			if (it.next() == img) return true;
+		}
+		for (Iterator it = nodes.values().iterator(); it.hasNext();) {
+			if (((Node) it.next()).op == img) return true;
+		}
+		return false;
+	}
+
+	static boolean memoizable(ParameterBlock pb) {
+		for (int i = 0; i < pb.getNumSources(); i++) {
+			Object s = pb.getSource(i);
+			if (s instanceof RenderedOp) continue;
+			if (!leaves.containsValue(s)) return false;
+		}
+		return true;
+	}
+
+	/** Bytes of the whole image */
+	static long cost(RenderedImage img) {
+		SampleModel sm = img.getSampleModel();
+		int bits = DataBuffer.getDataTypeSize(sm.getDataType());
+		return (long) img.getWidth() * img.getHeight() * sm.getNumBands() * bits / 8;
+	}
+
+	/**
+	 * Drops the least recently used nodes until they fit in the budget.
+	 */
+	static synchronized void evict() {
+		Iterator it = nodes.values().iterator();
+		long max = getBudget();
+		while (bytes > max && it.hasNext()) {
+			Node n = (Node) it.next();
+			it.remove();
+			bytes -= n.bytes;
+			removeTiles(n.op);
+		}
+	}
+
+	static void removeTiles(RenderedOp op) {
+		TileCache cache = JAI.getDefaultInstance().getTileCache();
+		PlanarImage r = op.getCurrentRendering();
+		if (cache != null && r != null) cache.removeTiles(r);
+	}
+
+	/**
+	 * Forgets every node and leaf.
+	 */
+	public static synchronized void clear() {
+		Iterator it = nodes.values().iterator();
+		while (it.hasNext()) {
+			removeTiles(((Node) it.next()).op);
+		}
+		nodes.clear();
+		leaves.clear();
+		bytes = 0;
+	}
+
+	public static synchronized String describe() {
+		return (enabled ? "on" : "off") + ", " + nodes.size() + " nodes, " + leaves.size()
+				 + " leaves, " + (bytes >> 20) + " of " + (getBudget() >> 20) + " MB, "
+				 + hits + " reused, " + misses + " new, " + bypassed + " not memoized";
+	}
+
+	static class Node {
+		RenderedOp op;
+		long bytes;
+
+		Node(RenderedOp op, long bytes) {
+			this.op = op;
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * Operator name, sources by identity, and parameters and hints by
+	 * value.
+	 */
+	static class Key {
+		String name;
+		Object[] sources;
+		Object[] params;
+		RenderingHints hints;
+		int hash;
+
+		Key(String name, ParameterBlock pb, RenderingHints hints) {
+			this.name = name.toLowerCase();
+			sources = pb.getSources().toArray();
+			params = pb.getParameters().toArray();
+			for (int i = 0; i < params.length; i++) {
+				params[i] = copy(params[i]);
+			}
+			this.hints = hints;
+			hash = this.name.hashCode();
+			for (int i = 0; i < sources.length; i++) {
+				hash = hash * 31 + System.identityHashCode(sources[i]);
+			}
+			hash = hash * 31 + params.length;
+		}
+
+		/** Arrays are copied, the caller may change them */
+		static Object copy(Object p) {
+			if (p instanceof double[][]) {
+				double[][] a = ((double[][]) p).clone();
+				for (int i = 0; i < a.length; i++) {
+					if (a[i] != null) a[i] = a[i].clone();
+				}
+				return a;
+			}
+			if (p instanceof double[]) return ((double[]) p).clone();
+			if (p instanceof float[]) return ((float[]) p).clone();
+			if (p instanceof int[]) return ((int[]) p).clone();
+			if (p instanceof byte[]) return ((byte[]) p).clone();
+			return p;
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) return false;
+			Key k = (Key) o;
+			if (hash != k.hash || !name.equals(k.name) || sources.length != k.sources.length
+					 || params.length != k.params.length) return false;
+			for (int i = 0; i < sources.length; i++) {
+				if (sources[i] != k.sources[i]) return false;
+			}
+			for (int i = 0; i < params.length; i++) {
+				if (!same(params[i], k.params[i])) return false;
+			}
+			if (hints == null || k.hints == null) return hints == k.hints;
+			if (hints.size() != k.hints.size()) return false;
+			Iterator it = hints.keySet().iterator();
+			while (it.hasNext()) {
+				Object h = it.next();
+				if (!same(hints.get(h), k.hints.get(h))) return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Equality of parameters: arrays and kernels by content, the
+		 * interpolations by class, the rest with equals.
+		 */
+		static boolean same(Object a, Object b) {
+			if (a == b) return true;
+			if (a == null || b == null) return false;
+			if (a instanceof double[] && b instanceof double[]) {
+				return Arrays.equals((double[]) a, (double[]) b);
+			}
+			if (a instanceof float[] && b instanceof float[]) {
+				return Arrays.equals((float[]) a, (float[]) b);
+			}
+			if (a instanceof int[] && b instanceof int[]) {
+				return Arrays.equals((int[]) a, (int[]) b);
+			}
+			if (a instanceof byte[] && b instanceof byte[]) {
+				return Arrays.equals((byte[]) a, (byte[]) b);
+			}
+			if (a instanceof double[][] && b instanceof double[][]) {
+				double[][] x = (double[][]) a, y = (double[][]) b;
+				if (x.length != y.length) return false;
+				for (int i = 0; i < x.length; i++) {
+					if (!Arrays.equals(x[i], y[i])) return false;
+				}
+				return true;
+			}
+			if (a instanceof KernelJAI && b instanceof KernelJAI) {
+				KernelJAI x = (KernelJAI) a, y = (KernelJAI) b;
+				return x.getWidth() == y.getWidth() && x.getHeight() == y.getHeight()
+						 && x.getXOrigin() == y.getXOrigin() && x.getYOrigin() == y.getYOrigin()
+						 && Arrays.equals(x.getKernelData(), y.getKernelData());
+			}
+			if (a instanceof Interpolation && b instanceof Interpolation) {
+				return a.getClass() == b.getClass()
+						 && ((Interpolation) a).getSubsampleBitsH() == ((Interpolation) b).getSubsampleBitsH()
+						 && ((Interpolation) a).getSubsampleBitsV() == ((Interpolation) b).getSubsampleBitsV();
+			}
+			return a.equals(b);
+		}
+	}
+}
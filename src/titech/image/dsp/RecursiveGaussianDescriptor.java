@@ -0,0 +1,58 @@
+package titech.image.dsp;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.awt.image.renderable.*;
+import javax.media.jai.*;
+import javax.media.jai.registry.RenderedRegistryMode;
+import javax.media.jai.registry.RenderableRegistryMode;
+import javax.media.jai.util.Range;
+
+/**
+  * An <code>OperationDescriptor</code> describing the "RecursiveGaussian" operation.
+  *
+  * <p><table border=1>
+  * <caption>Resource List</caption>
+  * <tr><th>Name</th><th>Value</th></tr>
+  * <tr><th>GlobalName</th><td>RecursiveGaussian</td></tr>
+  * <tr><th>LocalName</th><td>RecursiveGaussian</td></tr>
+  * <tr><th>Description</th><td>Recursive Gaussian Blur</td></tr>
+  * <tr><th>DocURL</th><td>RecursiveGaussianDescriptor.html</td></tr>
+  * <tr><th>Version</th><td>0.1</td></tr>
+  * <tr><th>arg0Desc</th><td>Sigma.</td></tr>
+  * </table></p>
+  * <p><table border=1>
+  * <caption>Parameter List</caption>
+  * <tr><th>Name</th><th>Class Type</th><th>Default Value</th></tr>
+  * <tr><td>sigma</td><td>java.lang.Double</td><td>4.0</td></tr>
+  * </table></p>  
+  * @author David Gavilan
+  */
+public class RecursiveGaussianDescriptor extends OperationDescriptorImpl {
+
+  private static final String[][] resources = {
+     {"GlobalName", "RecursiveGaussian"},
+     {"LocalName",  "RecursiveGaussian"},
+     {"Description", "Gaussian blur with a recursive filter."},
+     {"DocURL",      "RecursiveGaussianDescriptor.html"},
+     {"Version",     "0.1"},
+     {"arg0Desc",    "Sigma."}
+  };
+  
+  private static final Class[] paramClasses = {
+      java.lang.Double.class };
+  private static final String[] paramNames = {
+      "sigma" };
+  private static final Object[] paramDefaults = {
+      Double.valueOf(4.0) };
+  private static final Object[] validParamValues  = {      
+      new Range(Double.class, Double.valueOf(0.5), Double.valueOf(Double.MAX_VALUE)) 
+      };
+  
+  public RecursiveGaussianDescriptor() {
+    super(resources, new String[] {RenderedRegistryMode.MODE_NAME,
+          RenderableRegistryMode.MODE_NAME}, 1,
+	  paramNames, paramClasses, paramDefaults, validParamValues);
+  }
+    
+}
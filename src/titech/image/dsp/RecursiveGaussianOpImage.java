@@ -0,0 +1,177 @@
+package titech.image.dsp;
+
+import java.awt.*;
+import java.awt.image.*;
+import javax.media.jai.*;
+import java.util.Map;
+
+/**
+  * OpImage implementation for "RecursiveGaussian" operator.
+  * It approximates a gaussian blur with the third order recursive filter of
+  * Young and van Vliet, applied forwards and backwards on each row and then
+  * on each column. The cost per pixel is constant, whatever the sigma.
+  * <p>
+  * Rows and columns need all their pixels, so the whole image is computed
+  * at once, but only STRIP rows or columns are filtered at a time: the
+  * working memory is that of STRIP lines, besides the image itself.
+  * The rows are kept in the image between the two passes, so images of
+  * integral types are rounded there too, which may add one level.
+  * Borders are reflected like with BorderExtender.BORDER_REFLECT, so the
+  * result is close to COps.gaussianBlur with a convolution.
+  * <p>
+  * Ref. I.T. Young, L.J. van Vliet, "Recursive implementation of the Gaussian
+  * filter", Signal Processing 44 (1995) 139-151.
+  *
+  * @author David Gavilan
+  */
+public class RecursiveGaussianOpImage extends UntiledOpImage {
+
+  /** Lines of the working buffer */
+  public static final int STRIP = 64;
+
+  protected double sigma;
+  /** Filter coefficients. b0 is the normalization. */
+  protected double b0, b1, b2, b3, B;
+  /** Reflected pixels on each side of a line */
+  protected int pad;
+
+  /**
+    * Constructs an OpImage representing a recursive gaussian blur.
+    * @param sigma Standard deviation of the gaussian, at least 0.5.
+    */
+  public RecursiveGaussianOpImage(RenderedImage source, ImageLayout layout,
+         Map config, double sigma) {
+     super(source, config, layout);
+
+     this.sigma = sigma;
+     double q;
+     if (sigma >= 2.5) {
+        q = 0.98711 * sigma - 0.96330;
+     } else {
+        q = 3.97156 - 4.14554 * Math.sqrt(1. - 0.26891 * sigma);
+     }
+     double q2 = q * q, q3 = q2 * q;
+     b0 = 1.57825 + 2.44413 * q + 1.4281 * q2 + 0.422205 * q3;
+     b1 = 2.44413 * q + 2.85619 * q2 + 1.26661 * q3;
+     b2 = -(1.4281 * q2 + 1.26661 * q3);
+     b3 = 0.422205 * q3;
+     B = 1. - (b1 + b2 + b3) / b0;
+     pad = (int) Math.ceil(3 * sigma);
+  }
+
+  /**
+    * Blurs the whole image, a strip of STRIP lines at a time: the rows go
+    * to dest, and the columns are filtered from there.
+    * @param sources an array with the source Raster, which covers all the image.
+    * @param dest a WritableRaster containing the area to be computed
+    * @param destRect the rectangle within dest to be processed
+    */
+  protected void computeImage(Raster[] sources, WritableRaster dest,
+          Rectangle destRect) {
+
+     Raster src = sources[0];
+     int width = destRect.width;
+     int height = destRect.height;
+     int x0 = destRect.x, y0 = destRect.y;
+     int bands = dest.getNumBands();
+     int type = dest.getSampleModel().getDataType();
+
+     int n = Math.max(width, height);
+     double[] line = new double[n + 2 * pad];
+     double[] work = new double[n + 2 * pad];
+     double[] data = new double[STRIP * n];
+
+     for (int b = 0; b < bands; b++) {
+        // rows
+        for (int y = 0; y < height; y += STRIP) {
+           int rows = Math.min(STRIP, height - y);
+           src.getSamples(x0, y0 + y, width, rows, b, data);
+           for (int r = 0; r < rows; r++) {
+              filterLine(data, r * width, 1, width, line, work);
+           }
+           clamp(data, rows * width, type);
+           dest.setSamples(x0, y0 + y, width, rows, b, data);
+        }
+        // columns
+        for (int x = 0; x < width; x += STRIP) {
+           int cols = Math.min(STRIP, width - x);
+           dest.getSamples(x0 + x, y0, cols, height, b, data);
+           for (int c = 0; c < cols; c++) {
+              filterLine(data, c, cols, height, line, work);
+           }
+           clamp(data, cols * height, type);
+           dest.setSamples(x0 + x, y0, cols, height, b, data);
+        }
+     }
+  }
+
+  /**
+    * Filters a row or a column of data in place.
+    * @param off index of the first sample
+    * @param stride distance between samples
+    * @param len number of samples
+    */
+  protected void filterLine(double[] data, int off, int stride, int len,
+          double[] line, double[] work) {
+     int total = len + 2 * pad;
+     for (int k = 0; k < total; k++) {
+        line[k] = data[off + reflect(k - pad, len) * stride];
+     }
+     // causal pass, starting as if the line continued with the same value
+     double w1 = line[0], w2 = line[0], w3 = line[0];
+     for (int k = 0; k < total; k++) {
+        double w = B * line[k] + (b1 * w1 + b2 * w2 + b3 * w3) / b0;
+        work[k] = w;
+        w3 = w2; w2 = w1; w1 = w;
+     }
+     // anticausal pass
+     w1 = work[total - 1]; w2 = w1; w3 = w1;
+     for (int k = total - 1; k >= 0; k--) {
+        double w = B * work[k] + (b1 * w1 + b2 * w2 + b3 * w3) / b0;
+        line[k] = w;
+        w3 = w2; w2 = w1; w1 = w;
+     }
+     for (int k = 0; k < len; k++) {
+        data[off + k * stride] = line[k + pad];
+     }
+  }
+
+  /**
+    * Index of a pixel outside [0, len) with reflected borders, i.e.
+    * ... c b a | a b c ... c b a | a b c ...
+    */
+  protected static int reflect(int i, int len) {
+     int period = 2 * len;
+     int m = i % period;
+     if (m < 0) m += period;
+     return (m < len) ? m : period - 1 - m;
+  }
+
+  /**
+    * Rounds and clamps the first n values to the range of integral data
+    * types.
+    */
+  protected static void clamp(double[] data, int n, int type) {
+     double min, max;
+     switch (type) {
+        case DataBuffer.TYPE_BYTE:
+           min = 0; max = 255;
+           break;
+        case DataBuffer.TYPE_USHORT:
+           min = 0; max = 65535;
+           break;
+        case DataBuffer.TYPE_SHORT:
+           min = Short.MIN_VALUE; max = Short.MAX_VALUE;
+           break;
+        case DataBuffer.TYPE_INT:
+           min = Integer.MIN_VALUE; max = Integer.MAX_VALUE;
+           break;
+        default:
+           return;
+     }
+     for (int i = 0; i < n; i++) {
+        double v = Math.floor(data[i] + 0.5);
+        data[i] = (v < min) ? min : ((v > max) ? max : v);
+     }
+  }
+}
@@ -0,0 +1,28 @@
+package titech.image.dsp;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.awt.image.renderable.*;
+import javax.media.jai.*;
+
+/**
+  * Class implementing the RIF interface for the RecursiveGaussian operator.
+  * An instance of this class should be registered with the OperationRegistry
+  * with operation name "RecursiveGaussian" and product name "titech".
+  */
+public class RecursiveGaussianRIF implements RenderedImageFactory {
+   public RecursiveGaussianRIF() {}
+   
+   public RenderedImage create(ParameterBlock paramBlock,
+                               RenderingHints renderHints) {
+      RenderedImage source = paramBlock.getRenderedSource(0);
+      
+      ImageLayout layout = renderHints == null ? null : 
+                  (ImageLayout)renderHints.get(JAI.KEY_IMAGE_LAYOUT);
+           
+      double sigma = paramBlock.getDoubleParameter(0);
+		  
+      return new RecursiveGaussianOpImage(source, layout, renderHints,
+             sigma);
+   }
+}
@@ -224,6 +224,21 @@ public class WaveletOpImage extends PointOpImage {
      }
      
      // apply 1D Haar vertically
+     if (dstPixelStride == 1) {
+        // a whole row at a time, from a copy of the block
+        FloatKernels kernels = FloatKernels.get();
+        float[] block = cropBuffer(dstData, dstScanlineOffset,
+            dstPixelStride, dstScanlineStride,
+            dstScanlineOffset, sizex, sizey);
+        for (int j = 0; j<halfy; j++) {
+           int even = (j<<1) * sizex, odd = even + sizex;
+           kernels.average(block, even, block, odd,
+               dstData, dstScanlineOffset + j*dstScanlineStride, sizex);
+           kernels.subtract(block, even, block, odd,
+               dstData, dstScanlineOffset + (j+halfy)*dstScanlineStride, sizex);
+        }
+        return;
+     }
      migSalt = halfy * dstScanlineStride;
      dslo = dstScanlineOffset;     
      for (int i = 0; i<sizex;i++) {
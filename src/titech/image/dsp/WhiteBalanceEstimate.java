@@ -0,0 +1,176 @@
+package titech.image.dsp;
+
+import java.awt.image.renderable.ParameterBlock;
+
+import javax.media.jai.*;
+
+/**
+ * Gray world mean and modified White World gains measured on a regular
+ * subsample of the image, from coarse to fine.
+ * <p>
+ * The first pass counts about MIN_SAMPLES pixels, or the minSamples given
+ * to the constructor. The white point is the 1 - WW_THRESHOLD quantile of
+ * each band, so with n samples its fraction has a standard error of
+ * sqrt(p (1-p) / n). The gains at p &plusmn; 1.96 times that error give a
+ * 95% interval of the gains. If its relative half width is above the
+ * tolerance, the gains moved more than the tolerance since the previous
+ * pass, or the mean is too close to GW_THRESHOLD to decide, the period is
+ * halved and the image sampled again. Period 1 is the full scan,
+ * with no error.
+ * <p>
+ * On big photographs one or two passes with periods of 8 to 32 are usually
+ * enough, i.e. 1/64 to 1/1000 of the pixels.
+ *
+ * @see ColorManipulation#modWhiteInGray(PlanarImage, double)
+ * @author David Gavilan
+ */
+public class WhiteBalanceEstimate {
+
+	/** Default samples of the first pass */
+	public static final int MIN_SAMPLES = 1 << 16;
+	/** Default relative tolerance of the gains */
+	public static final double DEFAULT_TOLERANCE = 0.01;
+	/** Normal quantile of the 95% interval */
+	static final double Z = 1.96;
+
+	double tolerance;
+	double[] gains;
+	double mean;
+	double error, meanError;
+	int period, passes;
+	long samples;
+
+	/**
+	 * Samples the image until the gains are within the tolerance.
+	 *
+	 * @param  tolerance  Relative error of the gains, e.g. 0.01 for 1%.
+	 */
+	public WhiteBalanceEstimate(PlanarImage img, double tolerance) {
+		this(img, tolerance, MIN_SAMPLES);
+	}
+
+	/**
+	 * @param  tolerance   Relative error of the gains, e.g. 0.01 for 1%.
+	 * @param  minSamples  Pixels counted in the first pass.
+	 */
+	public WhiteBalanceEstimate(PlanarImage img, double tolerance, int minSamples) {
+		this.tolerance = tolerance;
+		int bands = img.getSampleModel().getNumBands();
+		double npix = (double) img.getWidth() * img.getHeight();
+		period = Math.max(1, (int) Math.sqrt(npix / Math.max(1, minSamples)));
+		int[] numBins = new int[bands];
+		double[] low = new double[bands], high = new double[bands];
+		for (int b = 0; b < bands; b++) {
+			numBins[b] = 256;
+			high[b] = 256;
+		}
+
+		double[] previous = null;
+		while (true) {
+			ImageStatistics st = new ImageStatistics(img, numBins, low, high, period, period);
+			passes++;
+			samples = st.getCount();
+			mean = st.getMeanOfBands();
+			int[][] bins = st.getBins();
+			gains = ColorManipulation.whiteGains(bins, samples, bands);
+			if (period == 1) {
+				error = meanError = 0;
+				break;
+			}
+
+			// 95% interval of the white point quantile
+			double p = ColorManipulation.WW_THRESHOLD;
+			double se = Math.sqrt(p * (1 - p) / samples);
+			double[] g0 = ColorManipulation.whiteGains(bins, samples, bands, Math.max(0, p - Z * se));
+			double[] g1 = ColorManipulation.whiteGains(bins, samples, bands, p + Z * se);
+			error = Math.max(relativeDiff(g0, gains), relativeDiff(g1, gains));
+			// and of the mean of the bands
+			double[] sd = st.getStdDev();
+			double s = 0;
+			for (int b = 0; b < bands; b++) {
+				s += sd[b];
+			}
+			meanError = Z * s / bands / Math.sqrt(samples);
+
+			boolean stable = previous != null && relativeDiff(previous, gains) <= tolerance;
+			boolean decided = Math.abs(mean - ColorManipulation.GW_THRESHOLD) > meanError;
+			if (error <= tolerance && stable && decided) break;
+			previous = gains;
+			period = Math.max(1, period / 2);
+		}
+	}
+
+	public WhiteBalanceEstimate(PlanarImage img) {
+		this(img, DEFAULT_TOLERANCE);
+	}
+
+	/** Largest relative difference between two sets of gains */
+	static double relativeDiff(double[] a, double[] b) {
+		double d = 0;
+		for (int i = 0; i < a.length; i++) {
+			if (b[i] != 0) d = Math.max(d, Math.abs(a[i] - b[i]) / Math.abs(b[i]));
+		}
+		return d;
+	}
+
+	/** The estimated modified White World gains */
+	public double[] getGains() {
+		return gains;
+	}
+
+	/** The estimated mean of the bands */
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * Whether the image falls onto the gray world assumption, so it has
+	 * to be corrected.
+	 */
+	public boolean isCorrected() {
+		return mean > ColorManipulation.GW_THRESHOLD;
+	}
+
+	/** Relative half width of the 95% interval of the gains */
+	public double getError() {
+		return error;
+	}
+
+	/** Half width of the 95% interval of the mean */
+	public double getMeanError() {
+		return meanError;
+	}
+
+	/** Sampling period of the last pass, 1 if the image was fully scanned */
+	public int getPeriod() {
+		return period;
+	}
+
+	public int getPasses() {
+		return passes;
+	}
+
+	/** Pixels counted in the last pass */
+	public long getSamples() {
+		return samples;
+	}
+
+	/**
+	 * Multiplies the image by the gains, or returns it as it is if it is
+	 * too dark for the gray world assumption.
+	 */
+	public PlanarImage apply(PlanarImage img) {
+		if (!isCorrected()) return img;
+		ParameterBlock pb = new ParameterBlock();
+		pb.addSource(img);
+		pb.add(gains);
+		return JAI.create("MultiplyConst", pb);
+	}
+
+	public String toString() {
+		return "period " + period + ", " + samples + " samples, " + passes + " passes"
+				 + ", gains within " + Math.round(error * 10000) / 100. + "%"
+				 + ", mean " + Math.round(mean * 10) / 10. + " +- " + Math.round(meanError * 10) / 10.
+				 + " (95%)" + (isCorrected() ? "" : ", not corrected");
+	}
+}
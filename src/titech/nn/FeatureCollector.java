@@ -0,0 +1,219 @@
+package titech.nn;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Vector;
+
+/**
+ * A growing matrix of samples, e.g. the features of the blobs of many
+ * images, to train a SOM with.
+ * <p>
+ * The rows are appended to chunks of CHUNK_ROWS rows of floats, so adding
+ * a row never copies the ones before, and a sample takes the size of its
+ * features and no more. With a file, the full chunks are written to it
+ * and only the last one stays in memory; the file is the rows one after
+ * the other, each one of dimension big endian floats, and it is kept.
+ *
+ * @see SOM#learn(FeatureCollector, double, double)
+ * @author David Gavilan
+ */
+public class FeatureCollector {
+
+	public static final int CHUNK_ROWS = 4096;
+
+	int dimension;
+	/** Full chunks in memory, when there is no file */
+	Vector chunks = new Vector();
+	/** The chunk being filled */
+	float[] current;
+	int currentRows = 0;
+	/** Rows in the file */
+	long fileRows = 0;
+	RandomAccessFile file = null;
+	FileChannel channel = null;
+
+	/**
+	 * Keeps every row in memory.
+	 */
+	public FeatureCollector(int dimension) {
+		this.dimension = dimension;
+		current = new float[CHUNK_ROWS * dimension];
+	}
+
+	/**
+	 * Writes the rows to a file, which is truncated.
+	 *
+	 * @param  file  The file, or null to keep them in memory.
+	 */
+	public FeatureCollector(int dimension, File file) throws IOException {
+		this(dimension);
+		if (file != null) {
+			this.file = new RandomAccessFile(file, "rw");
+			this.file.setLength(0);
+			channel = this.file.getChannel();
+		}
+	}
+
+	public int getDimension() {
+		return dimension;
+	}
+
+	public synchronized long size() {
+		return chunkRows() + currentRows;
+	}
+
+	/** Rows in the full chunks, in memory or in the file */
+	long chunkRows() {
+		return fileRows + (long) chunks.size() * CHUNK_ROWS;
+	}
+
+	/**
+	 * Appends a row. Only the first dimension values are taken.
+	 */
+	public synchronized void add(double[] row) throws IOException {
+		int o = currentRows * dimension;
+		for (int i = 0; i < dimension; i++) current[o + i] = (float) row[i];
+		if (++currentRows == CHUNK_ROWS) {
+			if (channel != null) {
+				write(current);
+			} else {
+				chunks.addElement(current);
+				current = new float[CHUNK_ROWS * dimension];
+			}
+			currentRows = 0;
+		}
+	}
+
+	/** Appends some rows */
+	public synchronized void add(double[][] rows) throws IOException {
+		for (int p = 0; p < rows.length; p++) add(rows[p]);
+	}
+
+	void write(float[] chunk) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(chunk.length * 4);
+		b.asFloatBuffer().put(chunk);
+		long pos = fileRows * dimension * 4;
+		while (b.hasRemaining()) pos += channel.write(b, pos);
+		fileRows += CHUNK_ROWS;
+	}
+
+	/**
+	 * Reads the full chunk k, of the file or in memory.
+	 */
+	synchronized float[] chunk(int k, float[] buffer) throws IOException {
+		if (channel == null) return (float[]) chunks.elementAt(k);
+		if (buffer == null) buffer = new float[CHUNK_ROWS * dimension];
+		ByteBuffer b = ByteBuffer.allocate(buffer.length * 4);
+		long pos = (long) k * b.capacity();
+		while (b.hasRemaining()) {
+			int r = channel.read(b, pos);
+			if (r < 0) throw new IOException("Feature file truncated");
+			pos += r;
+		}
+		b.flip();
+		b.asFloatBuffer().get(buffer);
+		return buffer;
+	}
+
+	/**
+	 * Copies the row i.
+	 *
+	 * @param  row  Where to copy it, or null.
+	 * @return      The row.
+	 */
+	public synchronized double[] get(long i, double[] row) throws IOException {
+		if (i < 0 || i >= size()) throw new IndexOutOfBoundsException("row " + i);
+		if (row == null) row = new double[dimension];
+		long full = chunkRows();
+		if (i >= full) {
+			int o = (int) (i - full) * dimension;
+			for (int j = 0; j < dimension; j++) row[j] = current[o + j];
+		} else if (channel != null) {
+			ByteBuffer b = ByteBuffer.allocate(dimension * 4);
+			long pos = i * dimension * 4;
+			while (b.hasRemaining()) pos += channel.read(b, pos);
+			b.flip();
+			FloatBuffer f = b.asFloatBuffer();
+			for (int j = 0; j < dimension; j++) row[j] = f.get(j);
+		} else {
+			float[] c = (float[]) chunks.elementAt((int) (i / CHUNK_ROWS));
+			int o = (int) (i % CHUNK_ROWS) * dimension;
+			for (int j = 0; j < dimension; j++) row[j] = c[o + j];
+		}
+		return row;
+	}
+
+	/**
+	 * A cursor over the rows, in order. Rows added after it is created may
+	 * not be seen.
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * Closes the file, if any; the rows in memory are written to it.
+	 * The rows can't be read any more.
+	 */
+	public synchronized void close() throws IOException {
+		if (channel == null) return;
+		if (currentRows > 0) {
+			ByteBuffer b = ByteBuffer.allocate(currentRows * dimension * 4);
+			b.asFloatBuffer().put(current, 0, currentRows * dimension);
+			long pos = fileRows * dimension * 4;
+			while (b.hasRemaining()) pos += channel.write(b, pos);
+		}
+		file.close();
+		channel = null;
+		file = null;
+	}
+
+	public String toString() {
+		return "FeatureCollector: " + size() + " rows of " + dimension
+			 + ((channel != null) ? ", " + fileRows + " in a file" : "");
+	}
+
+	/**
+	 * Reads the rows a chunk at a time.
+	 */
+	public class Cursor {
+		long row = 0;
+		int k = -1;
+		float[] chunk = null;
+		/** The chunk read from the file, reused */
+		float[] buffer = null;
+
+		/**
+		 * Copies the next row.
+		 *
+		 * @return    false if there are no more rows.
+		 */
+		public boolean next(double[] xp) throws IOException {
+			int o;
+			synchronized (FeatureCollector.this) {
+				long full = chunkRows();
+				if (row >= full + currentRows) return false;
+				if (row >= full) {
+					o = (int) (row - full) * dimension;
+					for (int j = 0; j < dimension; j++) xp[j] = current[o + j];
+					row++;
+					return true;
+				}
+				int c = (int) (row / CHUNK_ROWS);
+				if (c != k) {
+					chunk = chunk(c, buffer);
+					if (channel != null) buffer = chunk;
+					k = c;
+				}
+			}
+			o = (int) (row % CHUNK_ROWS) * dimension;
+			for (int j = 0; j < dimension; j++) xp[j] = chunk[o + j];
+			row++;
+			return true;
+		}
+	}
+}
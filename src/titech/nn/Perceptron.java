@@ -69,6 +69,8 @@ public class Perceptron {
       *        Si es nomes un vector, new double[1][s]. <br> Be sure that the input is also
       *        bipolar (-1..1) when working with Bipolar Sigmoidal.
       * @return una matriu de sortides, on cada fila es la sortida de una de les mostres de entrada
+      * <br> Several threads can call it at the same time, e.g. a shared network in
+      *        ploopdir; the net inputs it keeps for backPropagation are then garbage.
       */
     public double[][] forward(double[][] x) {
 
@@ -131,6 +133,16 @@ public class Perceptron {
      *        is the response of each neuron to input signal.
      */
     public int[] selectWinnerNeuron(double[][] y) {
+        return selectWinnerNeuron(y, threshold);
+    }
+
+    /**
+     * Select the strongest response neuron, upto the given threshold instead of
+     * the one of the network, which is not changed: several threads can share
+     * the network.
+     * @param threshold -1 for no threshold at all.
+     */
+    public int[] selectWinnerNeuron(double[][] y, double threshold) {
 
         int[] winners = new int[y.length];
 
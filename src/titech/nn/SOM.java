@@ -79,6 +79,18 @@ public class SOM {
 		}
 	}
 	
+	/** Pick up random samples of a collector to initialize the net */
+	public void iniRandomSamples(FeatureCollector x) throws IOException {
+		double[] xp = new double[x.getDimension()];
+		for (int j=0;j<nout;j++) {
+			long sample = (long)Math.floor(x.size()*Math.random());
+			x.get(sample, xp);
+			for (int i=0;i<nin;i++) {
+				w[j][i]=xp[i];
+			}
+		}
+	}
+	
 	public int selectWinnerNeuron(double[] xp) {
 		int winner=0;
 		double min=AMath.VERY_BIG;
@@ -111,6 +123,23 @@ public class SOM {
 		 }
 	 }
 	 
+	 /**
+	  * Like learn(double[][], double, double), reading the samples from a
+	  * collector a chunk at a time.
+	  */
+	 public void learn(FeatureCollector x, double a, double e) throws IOException {
+		 double[] xp = new double[x.getDimension()];
+		 while (a>0.0001) {
+			 FeatureCollector.Cursor c = x.cursor();
+			 while (c.next(xp)) {
+				 int j=selectWinnerNeuron(xp);
+				 for (int i=0;i<nin;i++)
+					 w[j][i]=w[j][i]+a*(xp[i]-w[j][i]);
+			 }
+			 a*=e;
+		 }
+	 }
+	 
 	 /** Reads a network from a file */
 	 public void load(Reader reader) {
 		 StreamTokenizer st = new StreamTokenizer(reader);
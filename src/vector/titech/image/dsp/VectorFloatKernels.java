@@ -0,0 +1,114 @@
+package titech.image.dsp;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * FloatKernels with the Vector API (jdk.incubator.vector), using the
+ * preferred vector size of the CPU. The tail of each run, shorter than a
+ * vector, goes through the scalar loop. Operations are the same as the
+ * scalar ones, in the same order (no fused multiply-add), so the results
+ * are identical.
+ * <p>
+ * Built only by the ant target "vector", and loaded by FloatKernels.get()
+ * through reflection.
+ *
+ * @author David Gavilan
+ */
+public class VectorFloatKernels extends FloatKernels {
+
+	static final VectorSpecies<Float> S = FloatVector.SPECIES_PREFERRED;
+
+	public void add(float[] a, int ao, float[] b, int bo, float[] d, int dOff, int n) {
+		int i = 0;
+		for (int up = S.loopBound(n); i < up; i += S.length()) {
+			FloatVector va = FloatVector.fromArray(S, a, ao + i);
+			FloatVector vb = FloatVector.fromArray(S, b, bo + i);
+			va.add(vb).intoArray(d, dOff + i);
+		}
+		super.add(a, ao + i, b, bo + i, d, dOff + i, n - i);
+	}
+
+	public void subtract(float[] a, int ao, float[] b, int bo, float[] d, int dOff, int n) {
+		int i = 0;
+		for (int up = S.loopBound(n); i < up; i += S.length()) {
+			FloatVector va = FloatVector.fromArray(S, a, ao + i);
+			FloatVector vb = FloatVector.fromArray(S, b, bo + i);
+			va.sub(vb).intoArray(d, dOff + i);
+		}
+		super.subtract(a, ao + i, b, bo + i, d, dOff + i, n - i);
+	}
+
+	public void multiply(float[] a, int ao, float[] b, int bo, float[] d, int dOff, int n) {
+		int i = 0;
+		for (int up = S.loopBound(n); i < up; i += S.length()) {
+			FloatVector va = FloatVector.fromArray(S, a, ao + i);
+			FloatVector vb = FloatVector.fromArray(S, b, bo + i);
+			va.mul(vb).intoArray(d, dOff + i);
+		}
+		super.multiply(a, ao + i, b, bo + i, d, dOff + i, n - i);
+	}
+
+	public void average(float[] a, int ao, float[] b, int bo, float[] d, int dOff, int n) {
+		int i = 0;
+		for (int up = S.loopBound(n); i < up; i += S.length()) {
+			FloatVector va = FloatVector.fromArray(S, a, ao + i);
+			FloatVector vb = FloatVector.fromArray(S, b, bo + i);
+			va.add(vb).div(2f).intoArray(d, dOff + i);
+		}
+		super.average(a, ao + i, b, bo + i, d, dOff + i, n - i);
+	}
+
+	public void halfDiff(float[] a, int ao, float[] b, int bo, float[] d, int dOff, int n) {
+		int i = 0;
+		for (int up = S.loopBound(n); i < up; i += S.length()) {
+			FloatVector va = FloatVector.fromArray(S, a, ao + i);
+			FloatVector vb = FloatVector.fromArray(S, b, bo + i);
+			vb.sub(va).div(2f).intoArray(d, dOff + i);
+		}
+		super.halfDiff(a, ao + i, b, bo + i, d, dOff + i, n - i);
+	}
+
+	public void addHalf(float[] a, int ao, float[] b, int bo, float[] d, int dOff, int n) {
+		int i = 0;
+		for (int up = S.loopBound(n); i < up; i += S.length()) {
+			FloatVector va = FloatVector.fromArray(S, a, ao + i);
+			FloatVector vb = FloatVector.fromArray(S, b, bo + i);
+			va.add(vb.div(2f)).intoArray(d, dOff + i);
+		}
+		super.addHalf(a, ao + i, b, bo + i, d, dOff + i, n - i);
+	}
+
+	public void subtractHalf(float[] a, int ao, float[] b, int bo, float[] d, int dOff, int n) {
+		int i = 0;
+		for (int up = S.loopBound(n); i < up; i += S.length()) {
+			FloatVector va = FloatVector.fromArray(S, a, ao + i);
+			FloatVector vb = FloatVector.fromArray(S, b, bo + i);
+			va.sub(vb.div(2f)).intoArray(d, dOff + i);
+		}
+		super.subtractHalf(a, ao + i, b, bo + i, d, dOff + i, n - i);
+	}
+
+	public void scale(float[] a, int ao, float s, float o, float[] d, int dOff, int n) {
+		int i = 0;
+		for (int up = S.loopBound(n); i < up; i += S.length()) {
+			FloatVector va = FloatVector.fromArray(S, a, ao + i);
+			va.mul(s).add(o).intoArray(d, dOff + i);
+		}
+		super.scale(a, ao + i, s, o, d, dOff + i, n - i);
+	}
+
+	public void absolute(float[] a, int ao, float[] d, int dOff, int n) {
+		int i = 0;
+		for (int up = S.loopBound(n); i < up; i += S.length()) {
+			FloatVector.fromArray(S, a, ao + i).lanewise(VectorOperators.ABS)
+					.intoArray(d, dOff + i);
+		}
+		super.absolute(a, ao + i, d, dOff + i, n - i);
+	}
+
+	public String toString() {
+		return "vector (" + S.length() + " floats)";
+	}
+}
@@ -0,0 +1,113 @@
+import java.io.*;
+import java.net.Socket;
+
+/**
+ * Checks of AlbumCoordinator with workers that die while processing an
+ * image: one that didn't replace it, and one that did. With workers of
+ * other nodes, which may still be running, the first image is reported and
+ * left alone, and the second is not color corrected again. The thumbnail
+ * pack of a previous build is not used.
+ * <p>
+ * Usage: java AlbumCoordinatorCheck (exit status 1 on failure)
+ *
+ * @author David Gavilan
+ */
+public class AlbumCoordinatorCheck {
+
+	static int failures = 0;
+
+	static void check(boolean ok, String what) {
+		System.out.println((ok ? "ok    " : "FAIL  ") + what);
+		if (!ok) failures++;
+	}
+
+	public static void main(String[] args) throws Exception {
+		File dir = File.createTempFile("album", ".check");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			final File untouched = write(new File(dir, "a.jpg"), "original a");
+			final File replaced = write(new File(dir, "b.jpg"), "original b");
+			final AlbumCoordinator c = new AlbumCoordinator(new File[]{untouched, replaced}, 2);
+			c.setColorCorrect(true);
+			c.setHost("127.0.0.1", false);
+			// as left by a previous build
+			AlbumCoordinator.packDir = dir;
+
+			// the coordinator prints its port, here it is found in its socket
+			PrintStream stdout = System.out;
+			final PipedInputStream pin = new PipedInputStream();
+			System.setOut(new PrintStream(new PipedOutputStream(pin), true));
+			Thread workers = new Thread() {
+				public void run() {
+					try {
+						BufferedReader br = new BufferedReader(new InputStreamReader(pin));
+						String line = br.readLine();
+						int port = Integer.parseInt(line.substring(line.lastIndexOf(':') + 1));
+						for (int w = 0; w < 2; w++) dyingWorker(port);
+						while (br.readLine() != null) ;
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			workers.setDaemon(true);
+			workers.start();
+			try {
+				c.process();
+			} finally {
+				System.setOut(stdout);
+			}
+
+			check("original a".equals(read(untouched)), "an image not replaced is left alone");
+			check(c.status[0] == -1 && c.errors.contains("a.jpg: its worker stopped answering"
+					 + " and may still change it, not redone"), "and reported");
+			check("corrected b".equals(read(replaced)), "an image replaced is not corrected again");
+			check(c.status[1] == 1, "and is done");
+			check(AlbumCoordinator.pack == null && AlbumCoordinator.packDir == null,
+				"the pack of the previous build is not kept");
+			File[] left = dir.listFiles();
+			check(left.length == 2, "no temporary files left");
+		} finally {
+			File[] files = dir.listFiles();
+			for (int i = 0; i < files.length; i++) files[i].delete();
+			dir.delete();
+		}
+		System.out.println(failures == 0 ? "AlbumCoordinatorCheck: all passed" : "AlbumCoordinatorCheck: " + failures + " failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	/**
+	 * A worker that takes a task and dies, after replacing b.jpg if that is
+	 * its image.
+	 */
+	static void dyingWorker(int port) throws IOException {
+		Socket s = new Socket("127.0.0.1", port);
+		BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+		in.readLine(); // OPTIONS
+		String task = in.readLine();
+		File f = new File(task.substring(task.indexOf(' ', 5) + 1));
+		if (f.getName().equals("b.jpg")) {
+			File tmp = AlbumFormat.tempFile(f);
+			write(tmp, "corrected b");
+			AlbumFormat.replace(tmp, f);
+		}
+		s.close();
+	}
+
+	static File write(File f, String text) throws IOException {
+		Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+		w.write(text);
+		w.close();
+		return f;
+	}
+
+	static String read(File f) throws IOException {
+		BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+		try {
+			return r.readLine();
+		} finally {
+			r.close();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package titech.file;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+
+import javax.media.jai.PlanarImage;
+
+/**
+ * Checks of ResultCache: an image put under a key comes back with the same
+ * pixels, and contentHash is the MD5 of the content of the file, whatever
+ * its name, and changes with it; only the last MAX_HASHES hashes are kept.
+ * <p>
+ * Usage: java titech.file.ResultCacheCheck (exit status 1 on failure)
+ *
+ * @author David Gavilan
+ */
+public class ResultCacheCheck {
+
+	static int failures = 0;
+
+	static void check(boolean ok, String what) {
+		System.out.println((ok ? "ok    " : "FAIL  ") + what);
+		if (!ok) failures++;
+	}
+
+	public static void main(String[] args) throws Exception {
+		File dir = File.createTempFile("memo", ".check");
+		dir.delete();
+		try {
+			roundTrip(new File(dir, "cache"), new File(dir, "source.raw"));
+			contentHash(new File(dir, "a.jpg"), new File(dir, "b.jpg"));
+			hashesBounded(dir);
+		} finally {
+			delete(dir);
+		}
+		System.out.println(failures == 0 ? "ResultCacheCheck: all passed" : "ResultCacheCheck: " + failures + " failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	static void roundTrip(File cacheDir, File source) throws IOException {
+		BufferedImage bi = new BufferedImage(37, 23, BufferedImage.TYPE_3BYTE_BGR);
+		for (int y = 0; y < bi.getHeight(); y++) {
+			for (int x = 0; x < bi.getWidth(); x++) {
+				bi.setRGB(x, y, x * 0x070301 + y * 0x000b05);
+			}
+		}
+		source.getParentFile().mkdirs();
+		RasterFile.write(bi, null, source);
+		PlanarImage img = new RasterFile(source);
+
+		ResultCache cache = new ResultCache(cacheDir, 1 << 20);
+		String key = "file 0123 | blur 2";
+		check(!cache.contains(key) && cache.get(key) == null, "missing key");
+		check(cache.put(key, img), "put");
+		check(cache.contains(key), "contains after put");
+		PlanarImage back = cache.get(key);
+		check(back != null, "get after put");
+		if (back != null) {
+			check(back.getWidth() == 37 && back.getHeight() == 23
+					 && back.getSampleModel().getNumBands() == 3, "same size and bands");
+			check(samePixels(img.getData(), back.getData()), "same pixels");
+		}
+		check(cache.get("file 0123 | blur 3") == null, "other key");
+		check(cache.getHits() == 1 && cache.getMisses() == 2, "hits and misses");
+	}
+
+	static boolean samePixels(Raster a, Raster b) {
+		int[] pa = a.getPixels(a.getMinX(), a.getMinY(), a.getWidth(), a.getHeight(), (int[]) null);
+		int[] pb = b.getPixels(b.getMinX(), b.getMinY(), b.getWidth(), b.getHeight(), (int[]) null);
+		return java.util.Arrays.equals(pa, pb);
+	}
+
+	static void contentHash(File a, File b) throws Exception {
+		byte[] data = "not really a JPEG".getBytes("US-ASCII");
+		write(a, data);
+		write(b, data);
+		String h = ResultCache.contentHash(a);
+		check(h.equals(DecodedCache.hex(MessageDigest.getInstance("MD5").digest(data))), "MD5 of the content");
+		check(h.equals(ResultCache.contentHash(b)), "same content, other name");
+
+		// another length, so it is not taken from the table
+		byte[] changed = "not really a JPEG either".getBytes("US-ASCII");
+		write(a, changed);
+		String h2 = ResultCache.contentHash(a);
+		check(!h2.equals(h), "changed content");
+		check(h2.equals(DecodedCache.hex(MessageDigest.getInstance("MD5").digest(changed))), "MD5 of the new content");
+	}
+
+	static void hashesBounded(File dir) throws Exception {
+		int max = ResultCache.MAX_HASHES;
+		ResultCache.MAX_HASHES = 2;
+		try {
+			File[] f = new File[3];
+			for (int i = 0; i < f.length; i++) {
+				f[i] = new File(dir, "h" + i + ".jpg");
+				write(f[i], ("content " + i).getBytes("US-ASCII"));
+				ResultCache.contentHash(f[i]);
+			}
+			check(ResultCache.hashes.size() == 2, "hashes bounded: " + ResultCache.hashes.size());
+			String first = f[0].getAbsolutePath() + "|" + f[0].lastModified() + "|" + f[0].length();
+			check(!ResultCache.hashes.containsKey(first), "the oldest hash forgotten");
+		} finally {
+			ResultCache.MAX_HASHES = max;
+		}
+	}
+
+	static void write(File f, byte[] data) throws IOException {
+		f.getParentFile().mkdirs();
+		FileOutputStream fos = new FileOutputStream(f);
+		try {
+			fos.write(data);
+		} finally {
+			fos.close();
+		}
+	}
+
+	static void delete(File f) {
+		File[] files = f.listFiles();
+		if (files != null) {
+			for (int i = 0; i < files.length; i++) delete(files[i]);
+		}
+		f.delete();
+	}
+}
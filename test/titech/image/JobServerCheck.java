@@ -0,0 +1,133 @@
+package titech.image;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+
+/**
+ * Checks of JobServer through HTTP on the loopback: the token, Host and
+ * Origin checks, the commands refused in jobs, the input directories, the
+ * wait, and the bounded output of a job.
+ * <p>
+ * Usage: java titech.image.JobServerCheck (exit status 1 on failure)
+ *
+ * @author David Gavilan
+ */
+public class JobServerCheck {
+
+	static int failures = 0;
+	static String base, token;
+
+	static void check(boolean ok, String what) {
+		System.out.println((ok ? "ok    " : "FAIL  ") + what);
+		if (!ok) failures++;
+	}
+
+	/** {code, body} of a request, with the token if it is not null */
+	static Object[] request(String method, String path, String body, String token,
+			String host, String origin) throws IOException {
+		HttpURLConnection c = (HttpURLConnection) new URL(base + path).openConnection();
+		c.setRequestMethod(method);
+		if (token != null) c.setRequestProperty(JobServer.TOKEN_HEADER, token);
+		if (host != null) c.setRequestProperty("Host", host);
+		if (origin != null) c.setRequestProperty("Origin", origin);
+		if (body != null) {
+			c.setDoOutput(true);
+			Writer w = new OutputStreamWriter(c.getOutputStream(), "UTF-8");
+			w.write(body);
+			w.close();
+		}
+		int code = c.getResponseCode();
+		InputStream in = (code < 400) ? c.getInputStream() : c.getErrorStream();
+		StringBuffer sb = new StringBuffer();
+		if (in != null) {
+			Reader r = new InputStreamReader(in, "UTF-8");
+			char[] b = new char[4096];
+			int n;
+			while ((n = r.read(b)) > 0) sb.append(b, 0, n);
+			r.close();
+		}
+		return new Object[]{Integer.valueOf(code), sb.toString()};
+	}
+
+	static Object[] request(String method, String path, String body) throws IOException {
+		return request(method, path, body, token, null, null);
+	}
+
+	static int code(Object[] r) {
+		return ((Integer) r[0]).intValue();
+	}
+
+	public static void main(String[] args) throws Exception {
+		// to send a Host of another name
+		System.setProperty("sun.net.http.allowRestrictedHeaders", "true");
+		System.setProperty("java.awt.headless", "true");
+		File dir = File.createTempFile("jobs", ".check");
+		dir.delete();
+		dir.mkdirs();
+		JobServer server = new JobServer(new Interpreter(new OutputSink.Buffer()), 2, 4);
+		server.setRoots(new File[]{dir});
+		server.start(0);
+		base = "http://127.0.0.1:" + server.getPort();
+		token = server.getToken();
+		try {
+			check(code(request("GET", "/status", null, null, null, null)) == 401, "no token");
+			check(code(request("GET", "/status", null, "0123", null, null)) == 401, "wrong token");
+			check(code(request("GET", "/status", null)) == 200, "token");
+			check(code(request("GET", "/status", null, token, "evil.example:" + server.getPort(), null)) == 403,
+					"Host of another name");
+			check(code(request("GET", "/status", null, token, null, "http://evil.example")) == 403,
+					"Origin of another host");
+			check(code(request("GET", "/status", null, token, "localhost:" + server.getPort(),
+					"http://127.0.0.1:" + server.getPort())) == 200, "local Host and Origin");
+
+			String[] refused = {"exec other.txt", "save /tmp/out.png", "savesamples /tmp/s.txt",
+					"load /etc/passwd", "log file /tmp/log.txt", "stack 1"};
+			for (int i = 0; i < refused.length; i++) {
+				Object[] r = request("POST", "/jobs", refused[i] + "\n");
+				check(code(r) == 400, refused[i] + " refused");
+			}
+			File outside = File.createTempFile("outside", ".jpg");
+			try {
+				Object[] r = request("POST", "/jobs?input=" + URLEncoder.encode(outside.getPath(), "UTF-8"), "help\n");
+				check(code(r) == 400, "input out of the directories refused");
+			} finally {
+				outside.delete();
+			}
+			Object[] in = request("POST", "/jobs?input=" + URLEncoder.encode(dir.getPath(), "UTF-8"), "help\n");
+			check(code(in) == 202, "input in the directories accepted");
+
+			// more output than a job keeps
+			StringBuffer script = new StringBuffer();
+			int lines = 2 * JobServer.OUTPUT_CHARS / Interpreter.commandList.length() + 1;
+			for (int i = 0; i < lines; i++) script.append("help\n");
+			Object[] r = request("POST", "/jobs", script.toString());
+			check(code(r) == 202, "job accepted");
+			String id = ((String) r[1]).substring(4, ((String) r[1]).indexOf('\n'));
+			check(code(request("GET", "/jobs/" + id + "?wait=abc", null)) == 400, "wait not a number");
+			r = request("GET", "/jobs/" + id + "?wait=30", null);
+			String body = (String) r[1];
+			check(code(r) == 200 && body.indexOf("state: done") >= 0, "job done");
+			String out = body.substring(body.indexOf("\n\n") + 2);
+			check(out.length() == JobServer.OUTPUT_CHARS, "output bounded: " + out.length() + " chars");
+			check(body.indexOf("output: the last " + JobServer.OUTPUT_CHARS + " of ") >= 0, "output says it was cut");
+			check(out.endsWith(Interpreter.commandList), "the end of the output is kept");
+			check(code(request("GET", "/jobs/" + id + "?wait=0", null)) == 200, "job kept");
+
+			// the done jobs keep less output once RECENT newer are done
+			for (int i = 0; i < JobServer.RECENT; i++) {
+				String nid = (String) request("POST", "/jobs", "help\n")[1];
+				nid = nid.substring(4, nid.indexOf('\n'));
+				request("GET", "/jobs/" + nid + "?wait=30", null);
+			}
+			check(server.getJob(Integer.parseInt(id)).getOutput().length() == JobServer.HISTORY_CHARS,
+					"old job trimmed to " + JobServer.HISTORY_CHARS + " chars");
+		} finally {
+			server.stop();
+			dir.delete();
+		}
+		System.out.println(failures == 0 ? "JobServerCheck: all passed" : "JobServerCheck: " + failures + " failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+}
@@ -0,0 +1,71 @@
+package titech.image;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.media.jai.PlanarImage;
+
+import titech.file.RasterFile;
+import titech.file.ResultCache;
+
+/**
+ * Checks that a memoizable command that fails, or leaves the image as it
+ * was, doesn't give the image its key nor puts anything in the memo, and
+ * that the memo leaves alone the commands that change more than the image.
+ * <p>
+ * Usage: java titech.image.MemoCheck (exit status 1 on failure)
+ *
+ * @author David Gavilan
+ */
+public class MemoCheck {
+
+	static int failures = 0;
+
+	static void check(boolean ok, String what) {
+		System.out.println((ok ? "ok    " : "FAIL  ") + what);
+		if (!ok) failures++;
+	}
+
+	public static void main(String[] args) throws Exception {
+		File dir = File.createTempFile("memo", ".check");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			File source = new File(dir, "source.raw");
+			RasterFile.write(new BufferedImage(16, 16, BufferedImage.TYPE_3BYTE_BGR), null, source);
+			PlanarImage img = new RasterFile(source);
+
+			OutputSink.Buffer out = new OutputSink.Buffer();
+			Interpreter in = new Interpreter(out);
+			in.memo = new ResultCache(new File(dir, "cache"), 1 << 20);
+			in.currentImage = img;
+			in.imageKey = "file 0123";
+
+			Pipeline.Step bad = Pipeline.Step.parse("mult abc");
+			in.interpret(bad);
+			check(in.getErrors() == 1, "mult abc fails");
+			check(in.currentImage == img, "the image is the same");
+			check("file 0123".equals(in.imageKey), "the image keeps its key");
+			check(!in.memo.contains(in.memoKey("file 0123", bad)), "nothing in the memo");
+
+			in.interpret(Pipeline.Step.parse("mult"));
+			check("file 0123".equals(in.imageKey), "a usage message keeps the key");
+
+			// a hit would skip what quantize map sets
+			check(Interpreter.memoizable(Pipeline.Step.parse("quantize")), "quantize is memoized");
+			check(!Interpreter.memoizable(Pipeline.Step.parse("quantize map")), "quantize map is not");
+		} finally {
+			delete(dir);
+		}
+		System.out.println(failures == 0 ? "MemoCheck: all passed" : "MemoCheck: " + failures + " failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	static void delete(File f) {
+		File[] files = f.listFiles();
+		if (files != null) {
+			for (int i = 0; i < files.length; i++) delete(files[i]);
+		}
+		f.delete();
+	}
+}
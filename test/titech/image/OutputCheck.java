@@ -0,0 +1,109 @@
+package titech.image;
+
+import java.io.*;
+
+/**
+ * Checks of the output: OutputSink.Ring once it wraps around, take() after
+ * some text was lost, clear(); and the log file of the Interpreter, which is
+ * flushed without more prints, and closed when a write fails.
+ * <p>
+ * Usage: java titech.image.OutputCheck (exit status 1 on failure)
+ *
+ * @author David Gavilan
+ */
+public class OutputCheck {
+
+	static int failures = 0;
+
+	static void check(boolean ok, String what) {
+		System.out.println((ok ? "ok    " : "FAIL  ") + what);
+		if (!ok) failures++;
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		ring();
+		log();
+		System.out.println(failures == 0 ? "OutputCheck: all passed" : "OutputCheck: " + failures + " failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	static void ring() {
+		OutputSink.Ring r = new OutputSink.Ring(8);
+		StringBuffer sb = new StringBuffer();
+		r.print("abc");
+		check(!r.take(sb) && sb.toString().equals("abc"), "take appends what was printed");
+		sb.setLength(0);
+		check(!r.take(sb) && sb.length() == 0, "nothing new");
+
+		r.print("defgh");
+		r.print("ij");
+		check(r.toString().equals("cdefghij"), "wrap-around keeps the last 8: " + r);
+		check(!r.take(sb) && sb.toString().equals("defghij"), "take of the new text across the end");
+
+		r.print("0123456789xyz");
+		check(r.toString().equals("56789xyz"), "text longer than the ring keeps its end: " + r);
+		sb.setLength(0);
+		check(r.take(sb) && sb.toString().equals("56789xyz"), "take after overflow replaces with all kept");
+		sb.setLength(0);
+		r.print("!");
+		check(!r.take(sb) && sb.toString().equals("!"), "appends again after the replace");
+
+		r.clear();
+		sb.setLength(0);
+		check(r.take(sb) && sb.length() == 0, "clear replaces with nothing");
+		check(r.toString().equals(""), "clear keeps nothing");
+		r.print("new");
+		sb.setLength(0);
+		check(!r.take(sb) && sb.toString().equals("new"), "prints after clear");
+	}
+
+	static void log() throws Exception {
+		File f = File.createTempFile("log", ".check");
+		try {
+			OutputSink.Buffer out = new OutputSink.Buffer();
+			Interpreter in = new Interpreter(out);
+			in.interpret("log file " + f.getPath());
+			check(in.logFile != null, "log file opened");
+			in.print("first line\n");
+			Thread.sleep(3 * Interpreter.LOG_FLUSH);
+			check(read(f).indexOf("first line\n") >= 0, "flushed without more prints");
+			in.closeLog();
+			check(in.logFile == null && in.logFlusher == null && in.logCloser == null, "closed");
+			in.print("after close\n");
+			check(read(f).indexOf("after close") < 0, "no copy after close");
+
+			final boolean[] closed = {false};
+			in.logFile = new Writer() {
+				public void write(char[] b, int off, int len) throws IOException {
+					throw new IOException("disk full");
+				}
+
+				public void flush() {
+				}
+
+				public void close() {
+					closed[0] = true;
+				}
+			};
+			in.print("lost\n");
+			check(closed[0] && in.logFile == null, "closed when a write fails");
+			check(out.take().indexOf("log: java.io.IOException: disk full") >= 0, "the error is printed");
+		} finally {
+			f.delete();
+		}
+	}
+
+	static String read(File f) throws IOException {
+		StringBuffer sb = new StringBuffer();
+		Reader r = new InputStreamReader(new FileInputStream(f));
+		try {
+			char[] b = new char[4096];
+			int n;
+			while ((n = r.read(b)) > 0) sb.append(b, 0, n);
+		} finally {
+			r.close();
+		}
+		return sb.toString();
+	}
+}
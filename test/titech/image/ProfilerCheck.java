@@ -0,0 +1,95 @@
+package titech.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.media.jai.TileCache;
+
+/**
+ * Checks of ProfilingTileCache: a tile is charged to the command that built
+ * its operator when it is computed, without the time of the tiles of its
+ * sources, which go to their own commands; tiles of operators of no command
+ * stay in the tile that needed them.
+ * <p>
+ * Usage: java titech.image.ProfilerCheck (exit status 1 on failure)
+ *
+ * @author David Gavilan
+ */
+public class ProfilerCheck {
+
+	static int failures = 0;
+
+	static void check(boolean ok, String what) {
+		System.out.println((ok ? "ok    " : "FAIL  ") + what);
+		if (!ok) failures++;
+	}
+
+	public static void main(String[] args) throws Exception {
+		// a cache that keeps nothing
+		TileCache empty = (TileCache) Proxy.newProxyInstance(TileCache.class.getClassLoader(),
+			new Class[]{TileCache.class}, new InvocationHandler() {
+				public Object invoke(Object proxy, Method m, Object[] a) {
+					Class r = m.getReturnType();
+					if (r == int.class) return Integer.valueOf(0);
+					if (r == long.class) return Long.valueOf(0);
+					if (r == float.class) return Float.valueOf(0);
+					return null;
+				}
+			});
+		Profiler p = new Profiler();
+		ProfilingTileCache cache = new ProfilingTileCache(empty, p);
+		BufferedImage crop = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);
+		BufferedImage blur = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);
+		BufferedImage unknown = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);
+		p.built.put(crop, "crop");
+		p.built.put(blur, "blur");
+		Raster r = crop.getData();
+
+		long charged = p.chargedHere();
+		// crop computes its tile, which needs a tile of blur, which needs
+		// one of an operator of no command
+		cache.getTile(crop, 0, 0);
+		Thread.sleep(20);
+		cache.getTile(blur, 3, 4);
+		Thread.sleep(50);
+		cache.getTile(unknown, 0, 0);
+		Thread.sleep(30);
+		cache.add(unknown, 0, 0, r);
+		cache.add(blur, 3, 4, r, null);
+		Thread.sleep(20);
+		cache.add(crop, 0, 0, r);
+		long total = p.chargedHere() - charged;
+
+		Profiler.Stats c = (Profiler.Stats) p.stats.get("crop");
+		Profiler.Stats b = (Profiler.Stats) p.stats.get("blur");
+		check(c != null && b != null, "both commands charged");
+		if (c != null && b != null) {
+			check(b.tiles >= 80000000L,
+				"blur has its tile and the unknown one: " + b.tiles / 1000000 + " ms");
+			// with the time of blur it would be 120 ms or more
+			check(c.tiles >= 40000000L && c.tiles < 110000000L,
+				"crop only has its own: " + c.tiles / 1000000 + " ms");
+			check(c.count == 0 && b.count == 0 && c.total == c.tiles, "tiles are not runs");
+			check(total == b.tiles + c.tiles, "charged to the thread once: " + total / 1000000 + " ms");
+		}
+
+		// a tile found in the cache, or of no command, is not timed
+		cache.getTile(unknown, 1, 1);
+		cache.add(unknown, 1, 1, r);
+		check(p.stats.size() == 2 && p.chargedHere() - charged == total, "unknown operator not timed");
+
+		// as after uninstall
+		long before = (b == null) ? 0 : b.tiles;
+		cache.profiler = null;
+		cache.getTile(blur, 0, 0);
+		Thread.sleep(10);
+		cache.add(blur, 0, 0, r);
+		check(b == null || b.tiles == before, "nothing timed once off");
+
+		System.out.println(failures == 0 ? "ProfilerCheck: all passed" : "ProfilerCheck: " + failures + " failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+}
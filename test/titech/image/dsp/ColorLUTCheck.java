@@ -0,0 +1,100 @@
+package titech.image.dsp;
+
+import java.awt.image.*;
+import java.util.Random;
+
+import javax.media.jai.*;
+
+/**
+ * Checks of the color conversion tables against the operators they replace:
+ * the IHS table is exact at the nodes of its lattice and close to
+ * ColorConvert elsewhere, and the gray tables give the output of
+ * bandcombine. Both conversions are ColorLUT operators, computed when their
+ * tiles are needed.
+ * <p>
+ * The hue and the saturation change fast near the gray axis and near
+ * black, where a few colors may be far from ColorConvert, so only their
+ * mean error is bounded.
+ * <p>
+ * Usage: java titech.image.dsp.ColorLUTCheck (exit status 1 on failure)
+ *
+ * @author David Gavilan
+ */
+public class ColorLUTCheck {
+
+	static int failures = 0;
+
+	static void check(boolean ok, String what) {
+		System.out.println((ok ? "ok    " : "FAIL  ") + what);
+		if (!ok) failures++;
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		IHSColorSpace ihs = IHSColorSpace.getInstance();
+
+		// every node of the lattice, one per pixel
+		int g = ColorLUT.GRID;
+		int[] nodes = new int[g * g * g * 3];
+		int k = 0;
+		for (int r = 0; r < g; r++) {
+			for (int gr = 0; gr < g; gr++) {
+				for (int b = 0; b < g; b++) {
+					nodes[k++] = ColorLUT.node(r);
+					nodes[k++] = ColorLUT.node(gr);
+					nodes[k++] = ColorLUT.node(b);
+				}
+			}
+		}
+		PlanarImage lattice = image(g * g, g, nodes);
+		RenderedOp a = COps.colorConvert(lattice, ihs);
+		check("ColorLUT".equals(a.getOperationName()), "colorConvert is a ColorLUT operator");
+		double[][] d = ColorLUT.compare(a, COps.colorConvertOp(lattice, ihs), true);
+		check(d[0][0] == 0 && d[0][1] == 0 && d[0][2] == 0,
+			"exact at the nodes, max error " + show(d[0]));
+
+		// random colors, on several tiles, the last ones cut
+		Random rnd = new Random(35);
+		int w = 200, h = 150;
+		int[] pixels = new int[w * h * 3];
+		for (int i = 0; i < pixels.length; i++) pixels[i] = rnd.nextInt(256);
+		PlanarImage src = image(w, h, pixels);
+		a = COps.colorConvert(src, ihs);
+		d = ColorLUT.compare(a, COps.colorConvertOp(src, ihs), true);
+		check(d[0][0] <= 1, "intensity within 1, max error " + d[0][0]);
+		check(d[1][0] < 1 && d[1][1] < 1 && d[1][2] < 1, "IHS mean error under 1: " + show(d[1]));
+
+		RenderedOp gray = COps.toBW(src);
+		check("ColorLUT".equals(gray.getOperationName()), "toBW is a ColorLUT operator");
+		check(gray.getSampleModel().getNumBands() == 1
+			 && gray.getSampleModel().getDataType() == DataBuffer.TYPE_BYTE, "one band of bytes");
+		d = ColorLUT.compare(gray, COps.toBWOp(src), false);
+		check(d[0][0] <= 1 && d[1][0] < 0.01,
+			"gray as bandcombine, max error " + d[0][0] + ", mean " + d[1][0]);
+
+		COps.colorLUT = false;
+		check(!"ColorLUT".equals(COps.colorConvert(src, ihs).getOperationName())
+			 && !"ColorLUT".equals(COps.toBW(src).getOperationName()), "the operators once off");
+		COps.colorLUT = true;
+
+		System.out.println(failures == 0 ? "ColorLUTCheck: all passed" : "ColorLUTCheck: " + failures + " failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	/** A 3 band byte sRGB image, in 64x64 tiles */
+	static PlanarImage image(int w, int h, int[] pixels) {
+		BufferedImage bi = new BufferedImage(w, h, BufferedImage.TYPE_3BYTE_BGR);
+		WritableRaster r = bi.getRaster();
+		r.setPixels(0, 0, w, h, pixels);
+		SampleModel sm = bi.getColorModel().createCompatibleSampleModel(64, 64);
+		TiledImage t = new TiledImage(0, 0, w, h, 0, 0, sm, bi.getColorModel());
+		t.setData(r);
+		return t;
+	}
+
+	static String show(double[] v) {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < v.length; i++) sb.append(i == 0 ? "" : " ").append(v[i]);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,123 @@
+package titech.image.dsp;
+
+import java.awt.Rectangle;
+import java.awt.image.*;
+import java.awt.image.renderable.ParameterBlock;
+import java.util.Random;
+
+import javax.media.jai.*;
+
+/**
+ * Checks of the FloatPoint operator against the JAI operators it replaced
+ * for float images (rescale, AddConst, MultiplyConst and absolute), with
+ * the kernels in use, SIMD or not. The loops use float constants and JAI
+ * double ones, so the results may differ in the last bits.
+ * <p>
+ * The kernels are compared with the formulas of the JAI operators first,
+ * which doesn't need JAI, and with the scalar loops bit by bit. Then the
+ * operators, on pixel interleaved and banded images of several tiles.
+ * <p>
+ * Usage: java titech.image.dsp.FloatPointCheck (exit status 1 on failure)
+ *
+ * @author David Gavilan
+ */
+public class FloatPointCheck {
+
+	static int failures = 0;
+
+	static void check(boolean ok, String what) {
+		System.out.println((ok ? "ok    " : "FAIL  ") + what);
+		if (!ok) failures++;
+	}
+
+	/** Relative error allowed */
+	static final double TOLERANCE = 1e-6;
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		kernels();
+		operators();
+		System.out.println(failures == 0 ? "FloatPointCheck: all passed" : "FloatPointCheck: " + failures + " failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	static void kernels() {
+		FloatKernels k = FloatKernels.get();
+		String name = k.getClass().getName();
+		check(k.agrees(FloatKernels.getScalar()), name + " agrees with the scalar loops");
+
+		int n = 1037;
+		Random rnd = new Random(37);
+		float[] a = new float[n + 5], d = new float[n + 5];
+		for (int i = 0; i < a.length; i++) a[i] = (float) (rnd.nextGaussian() * 1000);
+		double[][] cases = {{1.7, -3.1}, {1, 2.5}, {-0.3, 0}};
+		for (int c = 0; c < cases.length; c++) {
+			double scale = cases[c][0], offset = cases[c][1];
+			k.scale(a, 2, (float) scale, (float) offset, d, 3, n);
+			double worst = 0;
+			for (int i = 0; i < n; i++) {
+				worst = Math.max(worst, error(d[3 + i], a[2 + i] * scale + offset));
+			}
+			check(worst <= TOLERANCE, "scale " + scale + " offset " + offset
+				 + " as rescale, relative error " + (float) worst);
+		}
+		k.absolute(a, 2, d, 3, n);
+		boolean same = true;
+		for (int i = 0; i < n; i++) same &= d[3 + i] == Math.abs(a[2 + i]);
+		check(same, "absolute as absolute");
+	}
+
+	static void operators() {
+		Random rnd = new Random(7);
+		PlanarImage[] images = {
+			image(RasterFactory.createPixelInterleavedSampleModel(DataBuffer.TYPE_FLOAT, 32, 32, 3), rnd),
+			image(RasterFactory.createBandedSampleModel(DataBuffer.TYPE_FLOAT, 32, 32, 2), rnd)};
+		String[] layouts = {"interleaved", "banded"};
+		for (int i = 0; i < images.length; i++) {
+			PlanarImage img = images[i];
+			int bands = img.getSampleModel().getNumBands();
+			RenderedOp r = COps.rescale(img, 1.7, -3.1);
+			check("FloatPoint".equals(r.getOperationName()), layouts[i] + ": rescale is FloatPoint");
+			compare(r, old("rescale", img, new Object[]{fill(bands, 1.7), fill(bands, -3.1)}), layouts[i] + " rescale");
+			compare(COps.add(img, 2.5), old("AddConst", img, new Object[]{fill(bands, 2.5)}), layouts[i] + " add");
+			compare(COps.multiply(img, -0.3), old("MultiplyConst", img, new Object[]{fill(bands, -0.3)}), layouts[i] + " multiply");
+			compare(COps.absolute(img), old("absolute", img, new Object[0]), layouts[i] + " absolute");
+		}
+	}
+
+	/** The operator of the old path */
+	static RenderedOp old(String name, PlanarImage img, Object[] params) {
+		ParameterBlock pb = new ParameterBlock();
+		pb.addSource(img);
+		for (int i = 0; i < params.length; i++) pb.add(params[i]);
+		return JAI.create(name, pb);
+	}
+
+	static void compare(PlanarImage a, PlanarImage b, String what) {
+		Rectangle r = BlockAccess.bounds(a);
+		float[] fa = BlockAccess.readFloats(a, r, null);
+		float[] fb = BlockAccess.readFloats(b, r, null);
+		double worst = 0;
+		for (int i = 0; i < fa.length; i++) worst = Math.max(worst, error(fa[i], fb[i]));
+		check(worst <= TOLERANCE, what + " as before, relative error " + (float) worst);
+	}
+
+	static double error(double v, double ref) {
+		return Math.abs(v - ref) / Math.max(1, Math.abs(ref));
+	}
+
+	static double[] fill(int n, double v) {
+		double[] a = new double[n];
+		for (int i = 0; i < n; i++) a[i] = v;
+		return a;
+	}
+
+	/** 100x70 random floats, in tiles of the sample model, the last ones cut */
+	static PlanarImage image(SampleModel sm, Random rnd) {
+		TiledImage t = new TiledImage(0, 0, 100, 70, 0, 0, sm, PlanarImage.createColorModel(sm));
+		float[] data = new float[100 * 70 * sm.getNumBands()];
+		for (int i = 0; i < data.length; i++) data[i] = (float) (rnd.nextGaussian() * 1000);
+		BlockAccess.writeFloats(t, BlockAccess.bounds(t), data);
+		return t;
+	}
+}
@@ -0,0 +1,119 @@
+package titech.image.dsp;
+
+import java.awt.Rectangle;
+import java.awt.image.*;
+import java.awt.image.renderable.ParameterBlock;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.media.jai.*;
+import javax.media.jai.operator.MedianFilterDescriptor;
+
+/**
+ * Checks of HistogramMedian against the square median of JAI MedianFilter
+ * on random images: first the tile loop against the median by sorting each
+ * mask, which doesn't need JAI, then the operator against MedianFilter.
+ * Both give the same values, without differences allowed.
+ * <p>
+ * Usage: java titech.image.dsp.HistogramMedianCheck (exit status 1 on failure)
+ *
+ * @author David Gavilan
+ */
+public class HistogramMedianCheck {
+
+	static int failures = 0;
+
+	static void check(boolean ok, String what) {
+		System.out.println((ok ? "ok    " : "FAIL  ") + what);
+		if (!ok) failures++;
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		Random rnd = new Random(36);
+		int[] radii = {1, 3, 7};
+		for (int i = 0; i < radii.length; i++) {
+			rect(random(57, 41, 2, rnd, i == 2), radii[i]);
+		}
+		for (int i = 0; i < radii.length; i++) {
+			operator(random(150, 110, 3, rnd, false), radii[i]);
+		}
+		System.out.println(failures == 0 ? "HistogramMedianCheck: all passed" : "HistogramMedianCheck: " + failures + " failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	/** The tile loop on the inner rectangle of an image */
+	static void rect(BufferedImage src, int r) {
+		Raster in = src.getRaster();
+		HistogramMedianOpImage op = new HistogramMedianOpImage(src, null, null, null, r);
+		Rectangle rect = new Rectangle(r, r, in.getWidth() - 2 * r, in.getHeight() - 2 * r);
+		WritableRaster dest = in.createCompatibleWritableRaster();
+		op.computeRect(new Raster[]{in}, dest, rect);
+		int wrong = 0;
+		for (int b = 0; b < in.getNumBands(); b++) {
+			for (int y = rect.y; y < rect.y + rect.height; y++) {
+				for (int x = rect.x; x < rect.x + rect.width; x++) {
+					if (dest.getSample(x, y, b) != median(in, x, y, b, r)) wrong++;
+				}
+			}
+		}
+		check(wrong == 0, "radius " + r + ": " + wrong + " pixels differ from the sorted masks");
+	}
+
+	/** The median of the mask of radius r around x, y, by sorting it */
+	static int median(Raster in, int x, int y, int b, int r) {
+		int size = 2 * r + 1;
+		int[] mask = in.getSamples(x - r, y - r, size, size, b, (int[]) null);
+		Arrays.sort(mask);
+		return mask[mask.length / 2];
+	}
+
+	/** The operator against MedianFilter, on an image of several tiles */
+	static void operator(BufferedImage bi, int r) {
+		SampleModel sm = bi.getSampleModel().createCompatibleSampleModel(64, 64);
+		TiledImage src = new TiledImage(0, 0, bi.getWidth(), bi.getHeight(), 0, 0, sm, bi.getColorModel());
+		src.setData(bi.getRaster());
+		RenderedOp hm = COps.histogramMedian(src, r);
+		ParameterBlock pb = new ParameterBlock();
+		pb.addSource(src);
+		pb.add(MedianFilterDescriptor.MEDIAN_MASK_SQUARE);
+		pb.add(2 * r + 1);
+		RenderedOp mf = JAI.create("MedianFilter", pb);
+		Rectangle bounds = BlockAccess.bounds(hm);
+		check(bounds.equals(BlockAccess.bounds(mf)), "radius " + r + ": the same bounds as MedianFilter");
+		int[] a = BlockAccess.readInts(hm, bounds, null);
+		int[] m = BlockAccess.readInts(mf, bounds, null);
+		int wrong = 0;
+		for (int i = 0; i < a.length; i++) {
+			if (a[i] != m[i]) wrong++;
+		}
+		check(wrong == 0, "radius " + r + ": " + wrong + " samples differ from MedianFilter");
+	}
+
+	/**
+	 * Random bytes; or, if few, values of a narrow range, with many ties
+	 * and in a single coarse bin of the histograms.
+	 */
+	static BufferedImage random(int w, int h, int bands, Random rnd, boolean few) {
+		int type = (bands == 3) ? BufferedImage.TYPE_3BYTE_BGR : BufferedImage.TYPE_BYTE_GRAY;
+		BufferedImage bi;
+		if (bands == 2) {
+			SampleModel sm = new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, w, h, 2, 2 * w, new int[]{0, 1});
+			ColorModel cm = new ComponentColorModel(java.awt.color.ColorSpace.getInstance(
+					java.awt.color.ColorSpace.CS_GRAY), true, false, java.awt.Transparency.TRANSLUCENT,
+					DataBuffer.TYPE_BYTE);
+			bi = new BufferedImage(cm, Raster.createWritableRaster(sm, null), false, null);
+		} else {
+			bi = new BufferedImage(w, h, type);
+		}
+		WritableRaster r = bi.getRaster();
+		for (int b = 0; b < bands; b++) {
+			for (int y = 0; y < h; y++) {
+				for (int x = 0; x < w; x++) {
+					r.setSample(x, y, b, few ? 100 + rnd.nextInt(5) : rnd.nextInt(256));
+				}
+			}
+		}
+		return bi;
+	}
+}
@@ -0,0 +1,118 @@
+package titech.image.dsp;
+
+import java.awt.Rectangle;
+import java.awt.image.*;
+import java.util.Random;
+
+/**
+ * Checks of the recursive gaussian against the gaussian kernel of the
+ * convolution in COps.gaussianBlur, with the borders reflected as there:
+ * byte and float images, bigger than a strip of the working buffer, and
+ * smaller than the reach of the filter.
+ * <p>
+ * Usage: java titech.image.dsp.RecursiveGaussianCheck (exit status 1 on failure)
+ *
+ * @author David Gavilan
+ */
+public class RecursiveGaussianCheck {
+
+	static int failures = 0;
+
+	static void check(boolean ok, String what) {
+		System.out.println((ok ? "ok    " : "FAIL  ") + what);
+		if (!ok) failures++;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Random rnd = new Random(28);
+		double[] sigmas = {COps.RECURSIVE_SIGMA, 6, 10};
+		for (int i = 0; i < sigmas.length; i++) {
+			compare(image(DataBuffer.TYPE_BYTE, 150, 100, 3, rnd), sigmas[i]);
+			compare(image(DataBuffer.TYPE_FLOAT, 130, 70, 1, rnd), sigmas[i]);
+		}
+		compare(image(DataBuffer.TYPE_BYTE, 20, 9, 1, rnd), 8);
+		System.out.println(failures == 0 ? "RecursiveGaussianCheck: all passed" : "RecursiveGaussianCheck: " + failures + " failed");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	static void compare(BufferedImage src, double sigma) {
+		Raster r = src.getRaster();
+		int w = r.getWidth(), h = r.getHeight(), bands = r.getNumBands();
+		int type = r.getSampleModel().getDataType();
+		RecursiveGaussianOpImage op = new RecursiveGaussianOpImage(src, null, null, sigma);
+		WritableRaster dest = r.createCompatibleWritableRaster();
+		op.computeImage(new Raster[]{r}, dest, new Rectangle(0, 0, w, h));
+
+		double max = 0, mean = 0;
+		for (int b = 0; b < bands; b++) {
+			double[] ref = convolve(r.getSamples(0, 0, w, h, b, (double[]) null), w, h, sigma);
+			if (type != DataBuffer.TYPE_FLOAT) RecursiveGaussianOpImage.clamp(ref, ref.length, type);
+			double[] got = dest.getSamples(0, 0, w, h, b, (double[]) null);
+			for (int i = 0; i < ref.length; i++) {
+				double e = Math.abs(got[i] - ref[i]);
+				if (e > max) max = e;
+				mean += e;
+			}
+		}
+		mean /= w * h * bands;
+		String what = (type == DataBuffer.TYPE_BYTE ? "byte " : "float ") + w + "x" + h
+				 + " sigma " + sigma + ": max error " + max + ", mean " + (float) mean;
+		check(max <= MAX_ERROR && mean <= MEAN_ERROR, what);
+	}
+
+	/**
+	 * Error allowed, in levels of 0..255. The filter approximates the
+	 * gaussian: at RECURSIVE_SIGMA it is off by 3% of a step edge, and less
+	 * with bigger sigmas.
+	 */
+	static final double MAX_ERROR = 10, MEAN_ERROR = 1;
+
+	/** The separable convolution of gaussianBlur, borders reflected */
+	static double[] convolve(double[] data, int w, int h, double sigma) {
+		int size = (int) (Math.ceil(sigma * 3) * 2 + 1), half = size / 2;
+		double[] k = Difference.gaussian1Dkernel(size, sigma);
+		double[] rows = new double[w * h], out = new double[w * h];
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				double s = 0;
+				for (int i = -half; i <= half; i++) {
+					s += k[i + half] * data[y * w + RecursiveGaussianOpImage.reflect(x + i, w)];
+				}
+				rows[y * w + x] = s;
+			}
+		}
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				double s = 0;
+				for (int i = -half; i <= half; i++) {
+					s += k[i + half] * rows[RecursiveGaussianOpImage.reflect(y + i, h) * w + x];
+				}
+				out[y * w + x] = s;
+			}
+		}
+		return out;
+	}
+
+	/** Random blobs, so that the blur keeps some detail, 0..255 */
+	static BufferedImage image(int type, int w, int h, int bands, Random rnd) {
+		SampleModel sm = new PixelInterleavedSampleModel(type, w, h, bands, w * bands, offsets(bands));
+		WritableRaster r = Raster.createWritableRaster(sm, null);
+		for (int b = 0; b < bands; b++) {
+			for (int y = 0; y < h; y++) {
+				for (int x = 0; x < w; x++) {
+					r.setSample(x, y, b, ((x / 7 + y / 5 + b) % 3 == 0) ? 255 : rnd.nextInt(64));
+				}
+			}
+		}
+		ColorModel cm = new ComponentColorModel(java.awt.color.ColorSpace.getInstance(
+				bands == 3 ? java.awt.color.ColorSpace.CS_sRGB : java.awt.color.ColorSpace.CS_GRAY),
+				false, false, java.awt.Transparency.OPAQUE, type);
+		return new BufferedImage(cm, r, false, null);
+	}
+
+	static int[] offsets(int bands) {
+		int[] o = new int[bands];
+		for (int b = 0; b < bands; b++) o[b] = b;
+		return o;
+	}
+}